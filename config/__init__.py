@@ -28,6 +28,9 @@ from .legacy import ConfigManager, get_config
 from .models import (
     # Core models
     ModelConfig,
+    HedgingConfig,
+    ModelRoutingConfig,
+    ContextBudgetConfig,
     DatabaseConfig, 
     ToolConfig,
     ToolsConfig,
@@ -47,7 +50,20 @@ from .models import (
     CorsConfig,
     RateLimitConfig,
     SSLConfig,
-    WebSocketLoggingConfig
+    WebSocketLoggingConfig,
+    AgentExecutionConfig,
+    FanoutConfig,
+    OutboundQueueConfig,
+    ClusterConfig,
+    AgentPoolConfig,
+    ResponseCacheConfig,
+    SchedulerConfig,
+    PipelineConfig,
+    SecurityStateConfig,
+    EnvelopeFilterConfig,
+    CodecConfig,
+    BatchingConfig,
+    ReplayConfig
 )
 
 # Legacy compatibility - check if available
@@ -112,6 +128,9 @@ __all__ = [
     
     # Core configuration models
     "ModelConfig",
+    "HedgingConfig",
+    "ModelRoutingConfig",
+    "ContextBudgetConfig",
     "DatabaseConfig",
     "ToolConfig", 
     "ToolsConfig",
@@ -132,6 +151,19 @@ __all__ = [
     "RateLimitConfig",
     "SSLConfig",
     "WebSocketLoggingConfig",
+    "AgentExecutionConfig",
+    "FanoutConfig",
+    "OutboundQueueConfig",
+    "ClusterConfig",
+    "AgentPoolConfig",
+    "ResponseCacheConfig",
+    "SchedulerConfig",
+    "PipelineConfig",
+    "SecurityStateConfig",
+    "EnvelopeFilterConfig",
+    "CodecConfig",
+    "BatchingConfig",
+    "ReplayConfig",
     
     # Legacy compatibility
     "ModelManager",
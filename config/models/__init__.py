@@ -6,6 +6,9 @@ Exports all configuration models from their respective modules
 # Core models
 from .core import (
     ModelConfig,
+    HedgingConfig,
+    ModelRoutingConfig,
+    ContextBudgetConfig,
     DatabaseConfig,
     ToolConfig,
     ToolsConfig
@@ -29,12 +32,28 @@ from .websocket import (
     RateLimitConfig,
     SecurityConfig,
     SSLConfig,
-    WebSocketLoggingConfig
+    WebSocketLoggingConfig,
+    AgentExecutionConfig,
+    FanoutConfig,
+    OutboundQueueConfig,
+    ClusterConfig,
+    AgentPoolConfig,
+    ResponseCacheConfig,
+    SchedulerConfig,
+    PipelineConfig,
+    SecurityStateConfig,
+    EnvelopeFilterConfig,
+    CodecConfig,
+    BatchingConfig,
+    ReplayConfig
 )
 
 __all__ = [
     # Core
     'ModelConfig',
+    'HedgingConfig',
+    'ModelRoutingConfig',
+    'ContextBudgetConfig',
     'DatabaseConfig', 
     'ToolConfig',
     'ToolsConfig',
@@ -54,5 +73,18 @@ __all__ = [
     'RateLimitConfig',
     'SecurityConfig',
     'SSLConfig',
-    'WebSocketLoggingConfig'
+    'WebSocketLoggingConfig',
+    'AgentExecutionConfig',
+    'FanoutConfig',
+    'OutboundQueueConfig',
+    'ClusterConfig',
+    'AgentPoolConfig',
+    'ResponseCacheConfig',
+    'SchedulerConfig',
+    'PipelineConfig',
+    'SecurityStateConfig',
+    'EnvelopeFilterConfig',
+    'CodecConfig',
+    'BatchingConfig',
+    'ReplayConfig'
 ]
@@ -140,6 +140,86 @@ class ModelConfig(BaseModel):
     model_config = ConfigDict(extra='allow')
 
 
+class HedgingConfig(BaseModel):
+    """Hedged model requests: resend a slow request and keep whichever response starts first"""
+    
+    enabled: bool = Field(default=False, description="Hedge slow chat completion requests to each provider")
+    percentile: float = Field(
+        default=95.0, ge=50, le=99.9,
+        description="Hedge once a request is slower than this percentile of recent time-to-first-byte"
+    )
+    min_delay: float = Field(default=0.5, ge=0, description="Never hedge earlier than this many seconds")
+    min_samples: int = Field(default=20, ge=1, description="Latency samples needed before hedging starts")
+    window: int = Field(default=1000, ge=10, description="Recent requests kept for the percentile and the budget")
+    budget_percent: float = Field(
+        default=5.0, gt=0, le=100,
+        description="Maximum hedged requests as a percentage of requests"
+    )
+
+
+class ModelRoutingConfig(BaseModel):
+    """Routing and failover between the primary model and alternative_models"""
+    
+    enabled: bool = Field(
+        default=True,
+        description="Route agent calls across the primary and alternative providers with failover"
+    )
+    strategy: str = Field(
+        default="latency",
+        description="'latency': lowest-latency healthy provider first; 'priority': configured order, failover only"
+    )
+    providers: List[str] = Field(
+        default_factory=list,
+        description="Alternative providers to use, in priority order (empty = all configured alternative_models)"
+    )
+    failure_threshold: int = Field(default=3, ge=1, description="Consecutive failures that open a provider's circuit")
+    reset_timeout: float = Field(default=30.0, gt=0, description="Seconds before an open circuit allows a probe request")
+    latency_alpha: float = Field(
+        default=0.2, gt=0, le=1,
+        description="Weight of the newest sample in the moving latency and error-rate averages"
+    )
+    error_penalty: float = Field(
+        default=4.0, ge=0,
+        description="How strongly a provider's recent error rate inflates its latency score"
+    )
+    max_connections: int = Field(default=20, ge=1, description="Pooled HTTP connections per provider")
+    max_keepalive_connections: int = Field(default=10, ge=0, description="Idle keep-alive connections kept per provider")
+    keepalive_expiry: float = Field(default=60.0, gt=0, description="Seconds an idle keep-alive connection is kept")
+    hedging: HedgingConfig = Field(default_factory=HedgingConfig, description="Per-provider request hedging")
+
+    @field_validator('strategy')
+    @classmethod
+    def validate_strategy(cls, v):
+        if v not in ('latency', 'priority'):
+            raise ValueError("strategy must be 'latency' or 'priority'")
+        return v
+
+
+class ContextBudgetConfig(BaseModel):
+    """Per-request prompt token budget for long sessions (history and memories)"""
+    
+    enabled: bool = Field(default=True, description="Trim history and memories to fit the prompt token budget")
+    max_prompt_tokens: int = Field(default=8000, ge=500, description="Prompt tokens allowed per model request")
+    keep_recent_turns: int = Field(
+        default=3, ge=0,
+        description="Most recent history turns that are always kept verbatim"
+    )
+    summarize: bool = Field(
+        default=True,
+        description="Replace dropped history turns with a short summary instead of discarding them"
+    )
+    summary_max_tokens: int = Field(default=400, ge=0, description="Token limit of the history summary")
+    max_memories: int = Field(
+        default=5, ge=0,
+        description="User memories kept in the prompt, the most relevant to the message first (0 = all)"
+    )
+    summary_cache_size: int = Field(default=2048, ge=0, description="Summarized turns kept in memory")
+    chars_per_token: float = Field(
+        default=4.0, gt=0,
+        description="Token estimate used when tiktoken is not installed"
+    )
+
+
 class DatabaseConfig(BaseModel):
     """Configuration for database connections with environment variable support"""
     
@@ -7,7 +7,7 @@ from __future__ import annotations
 
 import os
 from pathlib import Path
-from typing import List, Optional, Dict, Any
+from typing import List, Optional, Dict, Any, Literal
 from pydantic import BaseModel, Field, field_validator, ConfigDict
 
 
@@ -21,6 +21,21 @@ class ServerConfig(BaseModel):
     ping_interval: Optional[int] = Field(default=20, ge=1, description="Ping interval in seconds")
     ping_timeout: Optional[int] = Field(default=20, ge=1, description="Ping timeout in seconds")
     close_timeout: Optional[int] = Field(default=10, ge=1, description="Connection close timeout")
+    reuse_port: bool = Field(default=False, description="Bind with SO_REUSEPORT so several processes can share the port")
+    compression_enabled: bool = Field(default=False, description="Negotiate permessage-deflate with clients that offer it")
+    compression_min_size: int = Field(
+        default=512, ge=0,
+        description="Messages smaller than this many bytes are sent uncompressed"
+    )
+    compression_window_bits: int = Field(
+        default=12, ge=9, le=15,
+        description="LZ77 window size (log2); larger compresses long reports better but uses more memory per connection"
+    )
+    compression_memory_level: int = Field(
+        default=5, ge=1, le=9,
+        description="zlib memLevel for the compressor; higher is faster and compresses better but uses more memory"
+    )
+    compression_level: int = Field(default=6, ge=1, le=9, description="zlib compression level (CPU versus ratio)")
 
     model_config = ConfigDict(case_sensitive=False)
 
@@ -33,6 +48,9 @@ class AuthenticationConfig(BaseModel):
     algorithm: str = Field(default="HS256", description="JWT algorithm")
     issuer: str = Field(default="qa-intelligence", description="Token issuer")
     audience: str = Field(default="websocket-client", description="Token audience")
+    cache_size: int = Field(default=10000, ge=0, description="Maximum cached verified tokens (0 disables)")
+    cache_ttl: int = Field(default=300, ge=1, description="Seconds a verified token is cached (capped at its exp)")
+    negative_cache_ttl: int = Field(default=30, ge=0, description="Seconds an invalid token is remembered (0 disables)")
 
     @field_validator('secret_key')
     @classmethod
@@ -74,6 +92,29 @@ class RateLimitConfig(BaseModel):
     burst_limit: int = Field(default=10, ge=1, description="Burst limit")
     window_size: int = Field(default=60, ge=1, description="Window size in seconds")
     cleanup_interval: int = Field(default=300, ge=60, description="Cleanup interval in seconds")
+    algorithm: Literal["gcra", "sliding_window"] = Field(
+        default="gcra",
+        description="Constant-memory GCRA (burst_limit sized bursts) or exact sliding window"
+    )
+    stripes: int = Field(default=64, ge=1, description="Number of state stripes; cleanup sweeps one stripe per tick")
+    ip_requests_per_minute: Optional[int] = Field(
+        default=None, ge=1,
+        description="Limit per IP address (defaults to max_requests_per_minute)"
+    )
+    message_type_limits: Dict[str, int] = Field(
+        default_factory=lambda: {"chat_message": 20},
+        description="Per-user limit for individual envelope types, e.g. {'chat_message': 20}"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class SecurityStateConfig(BaseModel):
+    """Shared/persistent blocklist and rate-limit state"""
+    enabled: bool = Field(default=True, description="Persist and share security state through a local SQLite store")
+    path: str = Field(default="./data/websocket_security.db", description="SQLite database path (WAL mode)")
+    sync_interval: float = Field(default=5.0, gt=0, description="Seconds between background syncs with the store")
+    share_rate_limits: bool = Field(default=True, description="Share GCRA rate-limit state, not only the blocklist")
 
     model_config = ConfigDict(case_sensitive=False)
 
@@ -83,6 +124,7 @@ class SecurityConfig(BaseModel):
     authentication: AuthenticationConfig = Field(default_factory=AuthenticationConfig)
     cors: CorsConfig = Field(default_factory=CorsConfig)
     rate_limiting: RateLimitConfig = Field(default_factory=RateLimitConfig)
+    state: SecurityStateConfig = Field(default_factory=SecurityStateConfig)
 
     model_config = ConfigDict(case_sensitive=False)
 
@@ -129,6 +171,206 @@ class WebSocketLoggingConfig(BaseModel):
     model_config = ConfigDict(case_sensitive=False)
 
 
+class AgentExecutionConfig(BaseModel):
+    """Execution pool configuration for blocking agent calls"""
+    mode: Literal["inline", "thread"] = Field(
+        default="thread",
+        description="Run agent calls inline on the event loop or on a worker thread pool"
+    )
+    max_workers: int = Field(default=8, ge=1, description="Worker threads available for agent calls")
+    max_queue_depth: int = Field(default=64, ge=0, description="Maximum agent calls waiting for a free worker")
+    max_per_user: int = Field(default=2, ge=1, description="Maximum running or queued agent calls per user")
+    cancellable_runs: bool = Field(
+        default=True,
+        description="Run non-streaming agent calls over the model stream so cancellation stops generation"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class SchedulerConfig(BaseModel):
+    """Admission control and fair queuing for chat requests"""
+    enabled: bool = Field(default=True, description="Enable chat admission control")
+    max_in_flight: int = Field(default=16, ge=1, description="Maximum chat requests processed at once")
+    max_per_user: int = Field(default=2, ge=1, description="Maximum chat requests processed at once per user")
+    max_queued_per_user: int = Field(default=8, ge=0, description="Maximum queued chat requests per user")
+    max_queue_depth: int = Field(default=256, ge=0, description="Maximum queued chat requests overall")
+    queue_timeout: float = Field(default=30.0, gt=0, description="Seconds a request may wait before it is dropped")
+    role_weights: Dict[str, float] = Field(
+        default_factory=lambda: {"admin": 8.0, "analyst": 4.0, "operator": 2.0, "viewer": 1.0},
+        description="Fair-share weight per user role (higher is served sooner)"
+    )
+    default_role: str = Field(default="viewer", description="Role assumed when the token has no role claim")
+    role_claim: str = Field(default="role", description="JWT claim holding the user role")
+
+    @field_validator('role_weights')
+    @classmethod
+    def validate_role_weights(cls, v):
+        if any(weight <= 0 for weight in v.values()):
+            raise ValueError("Role weights must be positive")
+        return {role.lower(): weight for role, weight in v.items()}
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class PipelineConfig(BaseModel):
+    """Per-connection message pipelining configuration"""
+    enabled: bool = Field(default=True, description="Keep reading while earlier messages are processed")
+    max_outstanding: int = Field(default=8, ge=1, description="Maximum queued or running messages per connection")
+    ordering: Dict[str, Literal["ordered", "concurrent"]] = Field(
+        default_factory=lambda: {"chat_message": "concurrent"},
+        description="Ordering per envelope type; ordered types run one at a time in arrival order"
+    )
+    default_ordering: Literal["ordered", "concurrent"] = Field(
+        default="ordered",
+        description="Ordering for envelope types not listed in ordering"
+    )
+    fast_path_events: List[str] = Field(
+        default_factory=lambda: ["ping", "status", "cancel", "cancel_stream"],
+        description="System events answered immediately by the connection reader"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class EnvelopeFilterConfig(BaseModel):
+    """Cheap pre-validation checks applied to every inbound frame"""
+    enabled: bool = Field(default=True, description="Screen frames before full envelope validation")
+    max_frame_bytes: int = Field(
+        default=65536, ge=1024,
+        description="Largest accepted inbound frame in bytes (chat content is capped at 10000 characters)"
+    )
+    replay_filter: bool = Field(default=True, description="Reject envelopes whose id was already seen")
+    replay_window: int = Field(default=1000, ge=1, description="Envelope ids remembered per connection by the replay filter")
+    replay_ttl: int = Field(default=300, ge=1, description="Seconds an envelope id is remembered")
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class CodecConfig(BaseModel):
+    """Envelope encoding on the wire"""
+    json_library: Literal["auto", "orjson", "json"] = Field(
+        default="auto",
+        description="JSON decoder for text frames; auto uses orjson when installed"
+    )
+    enable_msgpack: bool = Field(
+        default=True,
+        description="Offer the MessagePack binary subprotocol (requires the msgpack package)"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class AgentPoolConfig(BaseModel):
+    """Per-session agent pool configuration"""
+    enabled: bool = Field(default=True, description="Give each (user_id, session_id) its own agent")
+    max_sessions: int = Field(default=256, ge=1, description="Maximum pooled session agents")
+    idle_ttl: int = Field(default=1800, ge=1, description="Seconds before an idle session agent is evicted")
+    sweep_interval: int = Field(default=60, ge=1, description="Seconds between idle eviction sweeps")
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class ResponseCacheConfig(BaseModel):
+    """Cache of agent responses for repeated questions"""
+    enabled: bool = Field(
+        default=False,
+        description="Serve repeated questions from the response cache (only for agents without history or user memories)"
+    )
+    normalize: bool = Field(
+        default=True,
+        description="Match prompts after folding case, whitespace and trailing punctuation"
+    )
+    ttl: int = Field(default=3600, ge=1, description="Seconds a cached response stays valid")
+    max_entries: int = Field(default=1024, ge=1, description="Responses kept in memory (LRU)")
+    per_user: bool = Field(default=False, description="Keep separate entries per user instead of sharing answers")
+    persistent: bool = Field(default=True, description="Back the memory tier with a SQLite database")
+    path: str = Field(default="./data/response_cache.db", description="SQLite database path (WAL mode)")
+    max_persistent_entries: int = Field(default=10000, ge=1, description="Responses kept in the SQLite tier")
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class FanoutConfig(BaseModel):
+    """Fan-out configuration for broadcasts and multi-connection sends"""
+    send_timeout: float = Field(default=1.0, gt=0, description="Per-recipient send timeout in seconds")
+    high_water_mark: int = Field(
+        default=1048576, ge=0,
+        description="Outbound buffer size in bytes above which a client is treated as slow (0 disables)"
+    )
+    slow_client_policy: Literal["drop", "disconnect"] = Field(
+        default="drop",
+        description="Skip the message for slow clients or close their connection"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class ReplayConfig(BaseModel):
+    """Session resumption after a reconnect"""
+    enabled: bool = Field(
+        default=True,
+        description="Buffer data envelopes for sessions of clients with the 'resume' capability so they can resume"
+    )
+    ttl: int = Field(default=120, ge=1, description="Seconds a disconnected session stays resumable")
+    max_envelopes: int = Field(default=256, ge=1, description="Envelopes buffered per session")
+    max_bytes: int = Field(default=262144, ge=1024, description="Bytes buffered per session")
+    max_sessions: int = Field(
+        default=10000, ge=1,
+        description="Sessions with a replay buffer; only detached sessions are evicted to make room"
+    )
+    sweep_interval: float = Field(default=5.0, gt=0, description="Seconds between expired session sweeps")
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class BatchingConfig(BaseModel):
+    """Batch frames for clients that advertise the "batch" capability"""
+    enabled: bool = Field(default=True, description="Offer batching to clients that ask for it in the handshake")
+    max_delay: float = Field(
+        default=0.05, ge=0,
+        description="Seconds a batch waits for more envelopes before it is sent"
+    )
+    max_envelopes: int = Field(default=32, ge=2, description="Envelopes per batch frame")
+    max_bytes: int = Field(default=16384, ge=256, description="Encoded size of a batch frame before it is sent")
+    kinds: List[Literal["status", "system", "data"]] = Field(
+        default_factory=lambda: ["status", "system"],
+        description="Outbound message kinds that may be batched (status/heartbeat and system/progress events)"
+    )
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class OutboundQueueConfig(BaseModel):
+    """Per-connection outbound queue configuration"""
+    max_queue_size: int = Field(default=256, ge=1, description="Maximum queued outbound messages per connection")
+    overflow_policy: Literal["drop_oldest_system", "coalesce_status", "disconnect"] = Field(
+        default="coalesce_status",
+        description="What to do when a connection's outbound queue is full"
+    )
+    drain_timeout: float = Field(default=2.0, ge=0, description="Seconds to flush queued messages on disconnect")
+    batching: BatchingConfig = Field(default_factory=BatchingConfig)
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
+class ClusterConfig(BaseModel):
+    """Multi-process (SO_REUSEPORT) server configuration"""
+    enabled: bool = Field(default=False, description="Run the server as a supervisor with worker processes")
+    workers: int = Field(default=0, ge=0, description="Number of worker processes (0 = one per CPU)")
+    ipc_path: Optional[str] = Field(default=None, description="Unix socket path for the worker IPC bus")
+    request_timeout: float = Field(default=2.0, gt=0, description="Timeout for cross-worker requests in seconds")
+    restart_workers: bool = Field(default=True, description="Restart workers that exit unexpectedly")
+    restart_backoff: float = Field(default=1.0, ge=0, description="Delay before restarting a failed worker")
+    shutdown_timeout: float = Field(default=10.0, gt=0, description="Seconds to wait for workers on shutdown")
+
+    def resolve_workers(self) -> int:
+        """Get the effective number of workers"""
+        return self.workers or os.cpu_count() or 1
+
+    model_config = ConfigDict(case_sensitive=False)
+
+
 class WebSocketConfig(BaseModel):
     """Main WebSocket system configuration"""
     enabled: bool = Field(default=False, description="Enable WebSocket system")
@@ -137,11 +379,33 @@ class WebSocketConfig(BaseModel):
     security: SecurityConfig = Field(default_factory=SecurityConfig)
     ssl: SSLConfig = Field(default_factory=SSLConfig)
     logging: WebSocketLoggingConfig = Field(default_factory=WebSocketLoggingConfig)
+    agent_execution: AgentExecutionConfig = Field(default_factory=AgentExecutionConfig)
+    agent_pool: AgentPoolConfig = Field(default_factory=AgentPoolConfig)
+    response_cache: ResponseCacheConfig = Field(default_factory=ResponseCacheConfig)
+    scheduler: SchedulerConfig = Field(default_factory=SchedulerConfig)
+    pipeline: PipelineConfig = Field(default_factory=PipelineConfig)
+    envelope_filter: EnvelopeFilterConfig = Field(default_factory=EnvelopeFilterConfig)
+    codec: CodecConfig = Field(default_factory=CodecConfig)
+    replay: ReplayConfig = Field(default_factory=ReplayConfig)
+    fanout: FanoutConfig = Field(default_factory=FanoutConfig)
+    outbound: OutboundQueueConfig = Field(default_factory=OutboundQueueConfig)
+    cluster: ClusterConfig = Field(default_factory=ClusterConfig)
     
     # Advanced settings
-    enable_compression: bool = Field(default=False, description="Enable message compression")
+    enable_compression: bool = Field(
+        default=False,
+        description="Enable message compression (legacy switch; see server.compression_enabled)"
+    )
     enable_metrics: bool = Field(default=True, description="Enable performance metrics")
     metrics_interval: int = Field(default=60, ge=10, description="Metrics collection interval")
+    enable_streaming: bool = Field(
+        default=False,
+        description="Stream agent responses by default (clients can override with metadata.stream)"
+    )
+    enable_request_coalescing: bool = Field(
+        default=True,
+        description="Share one agent call between identical concurrent chat requests"
+    )
     
     def get_server_address(self) -> str:
         """Get complete server address"""
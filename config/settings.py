@@ -18,6 +18,8 @@ load_dotenv()
 
 from .models import (
     ModelConfig,
+    ModelRoutingConfig,
+    ContextBudgetConfig,
     DatabaseConfig,
     ToolsConfig,
     InterfaceConfig,
@@ -48,12 +50,17 @@ class Settings(BaseSettings):
     
     # Core configuration sections
     model: ModelConfig = ModelConfig()
+    model_routing: ModelRoutingConfig = ModelRoutingConfig()
+    context_budget: ContextBudgetConfig = ContextBudgetConfig()
     database: DatabaseConfig = DatabaseConfig()
     tools: ToolsConfig = ToolsConfig()
     interface: InterfaceConfig = InterfaceConfig()
     app_environment: AppEnvironmentConfig = AppEnvironmentConfig()
     logging: LoggingConfig = LoggingConfig()
     
+    # Alternative providers from the YAML 'alternative_models' section (provider -> settings)
+    alternative_models: Dict[str, Dict[str, Any]] = {}
+    
     # Global settings
     config_file: Optional[str] = "agent_config.yaml"
     version: str = "1.0.0"
@@ -65,6 +72,12 @@ class Settings(BaseSettings):
         yaml_config = self._load_yaml_config()
         if yaml_config:
             self._update_from_yaml(yaml_config)
+            alternative_models = yaml_config.get('alternative_models')
+            if isinstance(alternative_models, dict):
+                self.alternative_models = {
+                    provider: settings for provider, settings in alternative_models.items()
+                    if isinstance(settings, dict)
+                }
         
         # Ensure required directories exist
         self._ensure_directories()
@@ -73,6 +86,8 @@ class Settings(BaseSettings):
         """Update configuration from YAML data - Environment variables have priority"""
         section_mappings = {
             'model': 'model',
+            'model_routing': 'model_routing',
+            'context_budget': 'context_budget',
             'database': 'database', 
             'tools': 'tools',
             'interface': 'interface',
@@ -248,6 +263,18 @@ class Settings(BaseSettings):
         """Get model configuration as dictionary for backwards compatibility"""
         return self.model.model_dump()
     
+    def get_model_routing_config(self) -> Dict[str, Any]:
+        """Get model routing and failover configuration as dictionary"""
+        return self.model_routing.model_dump()
+    
+    def get_context_budget_config(self) -> Dict[str, Any]:
+        """Get prompt token budget configuration as dictionary"""
+        return self.context_budget.model_dump()
+    
+    def get_alternative_models_config(self) -> Dict[str, Dict[str, Any]]:
+        """Get alternative model providers as configured in YAML (provider -> settings)"""
+        return {provider: dict(settings) for provider, settings in self.alternative_models.items()}
+    
     def get_database_config(self) -> Dict[str, Any]:
         """Get database configuration as dictionary for backwards compatibility"""
         return self.database.model_dump()
@@ -0,0 +1,120 @@
+#!/usr/bin/env python3
+"""
+Benchmark for WebSocket envelope codecs
+
+Measures parse (frame -> validated WebSocketEnvelope) and serialize
+(envelope -> frame) throughput for each payload type and each available
+codec, plus the frame size on the wire. The "json (validate_json)" row is
+the previous path, pydantic-core parsing the JSON text itself; the codec rows
+decode to a dict first, which is what the server does so frame stages can
+inspect the envelope before validation. The "header only" row is the
+server's routing parse (parse_envelope_header), which leaves the payload
+unvalidated until a handler needs it.
+
+orjson and msgpack rows only appear when those packages are installed
+(pip install "qa-intelligence[performance]").
+
+Usage:
+    python scripts/benchmark_codecs.py --iterations 20000
+"""
+
+import argparse
+import os
+import sys
+import time
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from src.websocket.events import (
+    JsonCodec,
+    MsgpackCodec,
+    WebSocketEnvelope,
+    WebSocketEnvelopeFactory,
+    parse_envelope_header,
+    orjson,
+    msgpack
+)
+
+
+def sample_envelopes():
+    """One representative envelope per payload type"""
+    common = {'session_id': "session-123", 'user_id': "user-456", 'correlation_id': "req-789"}
+    long_text = "Generate regression tests for the checkout flow. " * 20
+    return {
+        'chat_message': WebSocketEnvelopeFactory.create_chat_message(
+            content=long_text, metadata={'client': "web", 'stream': True}, **common
+        ),
+        'agent_response': WebSocketEnvelopeFactory.create_agent_response(
+            content=long_text * 4, tools_used=["web_search", "test_generator"],
+            execution_time=2.4, confidence=0.92, **common
+        ),
+        'system_event': WebSocketEnvelopeFactory.create_system_event(
+            event_name="status", data={'active_connections': 42, 'queue_depth': 3}, **common
+        ),
+        'error_event': WebSocketEnvelopeFactory.create_error_event(
+            error_code="rate_limit", error_message="Rate limit exceeded", **common
+        ),
+        'health_check': WebSocketEnvelopeFactory.create_health_check(status="pong", **common),
+        'stream_chunk': WebSocketEnvelopeFactory.create_stream_chunk(
+            stream_id="stream-1", sequence=17, delta="partial token output ", **common
+        )
+    }
+
+
+def codecs():
+    """(label, encode, parse) for every available codec"""
+    rows = [
+        ("json (validate_json)", lambda env: env.model_dump_json(), WebSocketEnvelope.model_validate_json)
+    ]
+
+    stdlib = JsonCodec("json")
+    rows.append(("json (stdlib)", stdlib.encode, lambda frame: WebSocketEnvelope.model_validate(stdlib.decode(frame))))
+
+    if orjson is not None:
+        fast = JsonCodec("orjson")
+        rows.append(("json (orjson)", fast.encode, lambda frame: WebSocketEnvelope.model_validate(fast.decode(frame))))
+
+    if msgpack is not None:
+        binary = MsgpackCodec()
+        rows.append(("msgpack", binary.encode, binary.parse))
+
+    return rows
+
+
+def rate(func, arg, iterations: int) -> float:
+    """Calls per second"""
+    started = time.perf_counter()
+    for _ in range(iterations):
+        func(arg)
+    return iterations / (time.perf_counter() - started)
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Envelope codec benchmark")
+    parser.add_argument("--iterations", type=int, default=20000, help="Iterations per measurement")
+    args = parser.parse_args()
+
+    available = codecs()
+    print(f"Iterations: {args.iterations:,}; orjson: {orjson is not None}, msgpack: {msgpack is not None}\n")
+    print(f"{'payload':<16}{'codec':<22}{'bytes':>8}{'parse/s':>14}{'serialize/s':>14}")
+
+    for payload_type, envelope in sample_envelopes().items():
+        for label, encode, parse in available:
+            frame = encode(envelope)
+
+            # Same semantics on every codec
+            assert parse(frame) == envelope, f"{label} does not round-trip {payload_type}"
+
+            parse_rate = rate(parse, frame, args.iterations)
+            encode_rate = rate(encode, envelope, args.iterations)
+            print(f"{payload_type:<16}{label:<22}{len(frame):>8}{parse_rate:>14,.0f}{encode_rate:>14,.0f}")
+
+        header_codec = JsonCodec()
+        frame = header_codec.encode(envelope)
+        header_rate = rate(lambda raw: parse_envelope_header(header_codec.decode(raw)), frame, args.iterations)
+        print(f"{payload_type:<16}{'header only':<22}{len(frame):>8}{header_rate:>14,.0f}{'-':>14}")
+        print()
+
+
+if __name__ == "__main__":
+    main()
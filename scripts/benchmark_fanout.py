@@ -0,0 +1,108 @@
+#!/usr/bin/env python3
+"""
+Benchmark for WebSocket system-event fan-out
+
+Broadcasts a maintenance notice to N mock clients registered with the
+manager, a fraction of which are slow (send sleeps), and measures the real
+write path: every registered connection gets the payload through its
+outbound queue, so the broadcast call only enqueues. The benchmark then
+waits for the queues to drain and prints the time until every fast client
+had the frame written, plus the enqueue-to-written latency percentiles
+measured by the queue writers.
+
+Usage:
+    python scripts/benchmark_fanout.py --clients 10000 --slow-ratio 0.01
+"""
+
+import argparse
+import asyncio
+import os
+import random
+import sys
+import time
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from src.logging_config import setup_qa_logging
+from src.websocket.manager import WebSocketManager
+
+
+class MockQAAgent:
+    """Agent stub; the benchmark never sends chat messages"""
+
+    async def chat(self, message: str) -> str:
+        return message
+
+
+class MockWebSocket:
+    """Websocket stub with configurable send delay"""
+
+    def __init__(self, delay: float = 0.0):
+        self.delay = delay
+        self.bytes_sent = 0
+
+    async def send(self, payload: str) -> None:
+        if self.delay:
+            await asyncio.sleep(self.delay)
+        else:
+            await asyncio.sleep(0)
+        self.bytes_sent += len(payload)
+
+    async def close(self, code: int = 1000, reason: str = "") -> None:
+        return None
+
+
+async def run(clients: int, slow_ratio: float, slow_delay: float) -> None:
+    manager = WebSocketManager(MockQAAgent())
+
+    rng = random.Random(42)
+    fast, slow = [], []
+    for i in range(clients):
+        websocket = MockWebSocket(delay=slow_delay) if rng.random() < slow_ratio else MockWebSocket()
+        (slow if websocket.delay else fast).append(websocket)
+        await manager.add_connection(websocket, user_id=f"user-{i}")
+
+    queues = {info.websocket: info.outbound for info in manager.connections.values()}
+
+    started = time.perf_counter()
+    result = await manager.broadcast_system_event(
+        "maintenance",
+        data={'reason': 'Scheduled maintenance', 'starts_in_seconds': 300},
+        severity="warning"
+    )
+    enqueued = time.perf_counter() - started
+
+    await asyncio.gather(*(queues[websocket].flush(timeout=30.0) for websocket in fast))
+    fast_written = time.perf_counter() - started
+    await asyncio.gather(*(queues[websocket].flush(timeout=30.0) for websocket in slow))
+    all_written = time.perf_counter() - started
+
+    written = sum(1 for websocket in fast + slow if websocket.bytes_sent)
+    delivery = manager.get_outbound_stats()['delivery_latency']
+
+    print(f"Clients:            {clients:,} ({len(slow):,} slow, {slow_delay * 1000:.0f} ms per send)")
+    print(f"Broadcast call:     {enqueued * 1000:.1f} ms (enqueue only)")
+    print(f"Fast clients done:  {fast_written * 1000:.1f} ms")
+    print(f"All clients done:   {all_written * 1000:.1f} ms")
+    print(f"Frames written:     {written:,}")
+    for key, value in result.to_dict().items():
+        print(f"{key + ':':<20}{value:,.2f}" if isinstance(value, float) else f"{key + ':':<20}{value:,}")
+    for key in ('p50_ms', 'p95_ms', 'p99_ms', 'max_ms'):
+        if key in delivery:
+            print(f"{'delivery_' + key + ':':<20}{delivery[key]:,.2f}")
+
+
+def main():
+    parser = argparse.ArgumentParser(description="WebSocket fan-out benchmark")
+    parser.add_argument("--clients", type=int, default=10000, help="Number of mock clients")
+    parser.add_argument("--slow-ratio", type=float, default=0.01, help="Fraction of slow clients")
+    parser.add_argument("--slow-delay", type=float, default=0.5, help="Seconds each send takes for a slow client")
+    args = parser.parse_args()
+
+    setup_qa_logging(level="ERROR", enable_file_logging=False)
+
+    asyncio.run(run(args.clients, args.slow_ratio, args.slow_delay))
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,117 @@
+#!/usr/bin/env python3
+"""
+Benchmark for WebSocket rate limiters
+
+Drives the GCRA limiter and the previous sliding-window limiter with the same
+request stream over N identifiers and prints throughput, retained memory and
+cleanup cost. For GCRA the cleanup cost is reported per stripe, which is what
+the background sweeper pays on each tick.
+
+Usage:
+    python scripts/benchmark_rate_limiter.py --identifiers 100000 --requests-per-id 30
+"""
+
+import argparse
+import os
+import random
+import sys
+import time
+import tracemalloc
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from src.websocket.rate_limiter import GCRALimiter, SlidingWindowLimiter
+
+
+def drive(limiter, order, step: float) -> int:
+    """Feed the request stream; returns how many were allowed"""
+    now = 0.0
+    allowed = 0
+    for key in order:
+        now += step
+        if limiter.allow(key, now):
+            allowed += 1
+    return allowed
+
+
+def run(name: str, factory, identifiers: int, requests_per_id: int, period: float, full_sweep) -> None:
+    keys = [f"user-{i}" for i in range(identifiers)]
+    order = [key for key in keys for _ in range(requests_per_id)]
+    random.Random(42).shuffle(order)
+
+    # Spread the requests over half a window so nothing expires mid-run
+    step = (period / 2) / len(order)
+    now = step * len(order)
+
+    # Timed pass without allocation tracing
+    started = time.perf_counter()
+    allowed = drive(factory(), order, step)
+    elapsed = time.perf_counter() - started
+
+    # Memory pass on a fresh limiter, which is then used for cleanup
+    limiter = factory()
+    tracemalloc.start()
+    drive(limiter, order, step)
+    retained, _ = tracemalloc.get_traced_memory()
+    tracemalloc.stop()
+
+    # Everything is idle one full window later
+    cleanup_at = now + period + 1
+    sweep_started = time.perf_counter()
+    slowest_sweep = full_sweep(limiter, cleanup_at)
+    sweep_elapsed = time.perf_counter() - sweep_started
+
+    print(f"{name}")
+    print(f"  requests:           {len(order):,} ({allowed:,} allowed)")
+    print(f"  throughput:         {len(order) / elapsed:,.0f} checks/s")
+    print(f"  per check:          {elapsed / len(order) * 1e6:.2f} us")
+    print(f"  retained memory:    {retained / 1024 / 1024:.1f} MiB ({retained / identifiers:.0f} B/identifier)")
+    print(f"  cleanup total:      {sweep_elapsed * 1000:.1f} ms")
+    print(f"  longest pause:      {slowest_sweep * 1000:.2f} ms")
+    print(f"  keys after cleanup: {limiter.size:,}")
+
+
+def sweep_stripes(limiter: GCRALimiter, now: float) -> float:
+    """Sweep stripe by stripe like the background task; returns the slowest stripe"""
+    slowest = 0.0
+    for _ in range(limiter.stripe_count):
+        started = time.perf_counter()
+        limiter.sweep(now)
+        slowest = max(slowest, time.perf_counter() - started)
+    return slowest
+
+
+def sweep_all(limiter: SlidingWindowLimiter, now: float) -> float:
+    """Sweep everything at once; returns the pause"""
+    started = time.perf_counter()
+    limiter.sweep(now)
+    return time.perf_counter() - started
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Rate limiter benchmark")
+    parser.add_argument("--identifiers", type=int, default=100000, help="Number of distinct identifiers")
+    parser.add_argument("--requests-per-id", type=int, default=30, help="Requests per identifier")
+    parser.add_argument("--rate", type=int, default=60, help="Allowed requests per window")
+    parser.add_argument("--burst", type=int, default=10, help="GCRA burst size")
+    parser.add_argument("--window", type=float, default=60.0, help="Window in seconds")
+    parser.add_argument("--stripes", type=int, default=64, help="GCRA state stripes")
+    args = parser.parse_args()
+
+    print(f"Identifiers: {args.identifiers:,}, requests/identifier: {args.requests_per_id}\n")
+
+    run(
+        "sliding_window",
+        lambda: SlidingWindowLimiter(args.rate, period=args.window),
+        args.identifiers, args.requests_per_id, args.window, sweep_all
+    )
+    print()
+    run(
+        "gcra",
+        lambda: GCRALimiter(args.rate, period=args.window, burst=args.burst, stripes=args.stripes),
+        args.identifiers, args.requests_per_id, args.window, sweep_stripes
+    )
+
+
+if __name__ == "__main__":
+    main()
@@ -0,0 +1,111 @@
+#!/usr/bin/env python3
+"""
+Micro-benchmark for WebSocketManager connection bookkeeping
+
+Measures per-message (process_chat_message) and per-disconnect
+(remove_connection) cost at increasing connection counts. With indexed
+lookups both should stay flat from a handful of sockets up to 50k.
+
+Usage:
+    python scripts/benchmark_websocket_manager.py
+    python scripts/benchmark_websocket_manager.py --sizes 10 1000 50000 --messages 5000
+"""
+
+import argparse
+import asyncio
+import os
+import sys
+import time
+from typing import Any, Dict, List, Optional
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+from src.logging_config import setup_qa_logging
+from src.websocket.manager import WebSocketManager
+
+
+DEFAULT_SIZES = [10, 100, 1000, 10000, 50000]
+
+
+class MockQAAgent:
+    """Agent stub that answers instantly so only manager overhead is measured"""
+
+    async def chat(self, message: str) -> str:
+        return message
+
+    async def process_message(
+        self,
+        message: str,
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        metadata: Optional[Dict[str, Any]] = None
+    ) -> str:
+        return message
+
+
+class MockWebSocket:
+    """Hashable placeholder for a websocket connection"""
+    __slots__ = ("index",)
+
+    def __init__(self, index: int):
+        self.index = index
+
+
+async def benchmark_size(size: int, messages: int, removals: int) -> Dict[str, float]:
+    """Populate a manager with `size` connections and time the hot paths"""
+    manager = WebSocketManager(MockQAAgent())
+
+    sockets = [MockWebSocket(i) for i in range(size)]
+    sessions: List[str] = []
+    for i, websocket in enumerate(sockets):
+        sessions.append(await manager.add_connection(websocket, user_id=f"user-{i % 1000}"))
+
+    # Messages target the most recently added sessions, the worst case for a scan
+    start = time.perf_counter()
+    for i in range(messages):
+        index = size - 1 - (i % size)
+        await manager.process_chat_message("ping", sessions[index], f"user-{index % 1000}")
+    per_message = (time.perf_counter() - start) / messages
+
+    removed = min(removals, size)
+    start = time.perf_counter()
+    for websocket in reversed(sockets[size - removed:]):
+        await manager.remove_connection(websocket)
+    per_removal = (time.perf_counter() - start) / removed
+
+    return {
+        'connections': size,
+        'per_message_us': per_message * 1_000_000,
+        'per_removal_us': per_removal * 1_000_000
+    }
+
+
+async def run(sizes: List[int], messages: int, removals: int) -> None:
+    print(f"{'connections':>12} {'per message (us)':>18} {'per removal (us)':>18}")
+    for size in sizes:
+        result = await benchmark_size(size, messages, removals)
+        print(
+            f"{result['connections']:>12,} "
+            f"{result['per_message_us']:>18.2f} "
+            f"{result['per_removal_us']:>18.2f}"
+        )
+
+
+def main():
+    parser = argparse.ArgumentParser(description="WebSocketManager lookup benchmark")
+    parser.add_argument("--sizes", type=int, nargs="+", default=DEFAULT_SIZES,
+                        help="Connection counts to benchmark")
+    parser.add_argument("--messages", type=int, default=2000,
+                        help="Chat messages processed per size")
+    parser.add_argument("--removals", type=int, default=1000,
+                        help="Connections removed per size")
+    args = parser.parse_args()
+
+    # Keep log formatting out of the measurement
+    setup_qa_logging(level="ERROR", enable_file_logging=False)
+
+    asyncio.run(run(args.sizes, args.messages, args.removals))
+
+
+if __name__ == "__main__":
+    main()
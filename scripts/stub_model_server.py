@@ -0,0 +1,259 @@
+#!/usr/bin/env python3
+"""
+Stub OpenAI-compatible model provider for routing and failover tests
+
+Serves POST .../chat/completions (plain JSON and SSE streaming) with a
+configurable latency and failure rate, so ModelRouter can be exercised
+without real providers. Point a provider's base_url (or azure_endpoint) at
+it. Keep-alive HTTP/1.1 is used, and /_stub/stats reports requests and TCP
+connections, which shows whether clients reuse pooled connections.
+
+Runtime control:
+    POST /_stub/config  {"latency": 0.2, "failure_rate": 1.0, "failure_status": 503}
+    GET  /_stub/stats
+
+Usage:
+    python scripts/stub_model_server.py --port 9001 --name primary --latency 0.05
+    python scripts/stub_model_server.py --demo
+"""
+
+import argparse
+import json
+import os
+import random
+import sys
+import threading
+import time
+import uuid
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+from typing import Any, Dict
+
+sys.path.insert(0, os.path.join(os.path.dirname(__file__), ".."))
+
+
+class StubState:
+    """Behaviour and counters of one stub provider"""
+
+    def __init__(self, name: str, latency: float, jitter: float, failure_rate: float, failure_status: int):
+        self.name = name
+        self.latency = latency
+        self.jitter = jitter
+        self.failure_rate = failure_rate
+        self.failure_status = failure_status
+        self.lock = threading.Lock()
+        self.stats = {'requests': 0, 'failures': 0, 'streams': 0, 'connections': 0}
+
+    def count(self, key: str) -> None:
+        with self.lock:
+            self.stats[key] += 1
+
+
+def make_handler(state: StubState):
+    class StubHandler(BaseHTTPRequestHandler):
+        protocol_version = "HTTP/1.1"
+
+        def setup(self):
+            super().setup()
+            state.count('connections')
+
+        def log_message(self, format, *args):
+            pass
+
+        def _send_json(self, status: int, body: Dict[str, Any]) -> None:
+            data = json.dumps(body).encode("utf-8")
+            self.send_response(status)
+            self.send_header("Content-Type", "application/json")
+            self.send_header("Content-Length", str(len(data)))
+            self.end_headers()
+            self.wfile.write(data)
+
+        def _read_json(self) -> Dict[str, Any]:
+            length = int(self.headers.get("Content-Length") or 0)
+            raw = self.rfile.read(length) if length else b"{}"
+            try:
+                return json.loads(raw or b"{}")
+            except ValueError:
+                return {}
+
+        def do_GET(self):
+            if self.path.endswith("/_stub/stats"):
+                with state.lock:
+                    self._send_json(200, {'name': state.name, **state.stats})
+            elif self.path.endswith("/health"):
+                self._send_json(200, {'status': "ok"})
+            else:
+                self._send_json(404, {'error': {'message': "not found"}})
+
+        def do_POST(self):
+            body = self._read_json()
+
+            if self.path.endswith("/_stub/config"):
+                with state.lock:
+                    for key in ("latency", "jitter", "failure_rate", "failure_status"):
+                        if key in body:
+                            setattr(state, key, type(getattr(state, key))(body[key]))
+                self._send_json(200, {'ok': True})
+                return
+
+            if not self.path.endswith("/chat/completions"):
+                self._send_json(404, {'error': {'message': "not found"}})
+                return
+
+            state.count('requests')
+            time.sleep(max(0.0, state.latency + random.uniform(-state.jitter, state.jitter)))
+
+            if random.random() < state.failure_rate:
+                state.count('failures')
+                self._send_json(state.failure_status, {
+                    'error': {'message': f"stub {state.name} failure", 'type': "server_error"}
+                })
+                return
+
+            messages = body.get('messages') or [{}]
+            prompt = str(messages[-1].get('content', ""))
+            reply = f"[{state.name}] echo: {prompt}"
+            model = body.get('model', "stub-model")
+
+            if body.get('stream'):
+                state.count('streams')
+                self._stream(model, reply)
+            else:
+                self._send_json(200, {
+                    'id': f"chatcmpl-{uuid.uuid4().hex[:12]}",
+                    'object': "chat.completion",
+                    'created': int(time.time()),
+                    'model': model,
+                    'choices': [{
+                        'index': 0,
+                        'message': {'role': "assistant", 'content': reply},
+                        'finish_reason': "stop"
+                    }],
+                    'usage': {'prompt_tokens': len(prompt.split()), 'completion_tokens': len(reply.split()),
+                              'total_tokens': len(prompt.split()) + len(reply.split())}
+                })
+
+        def _stream(self, model: str, reply: str) -> None:
+            """Server-sent events, one word per chunk, chunked transfer encoding"""
+            self.send_response(200)
+            self.send_header("Content-Type", "text/event-stream")
+            self.send_header("Transfer-Encoding", "chunked")
+            self.end_headers()
+
+            completion_id = f"chatcmpl-{uuid.uuid4().hex[:12]}"
+            words = reply.split(" ")
+            for index, word in enumerate(words):
+                delta = {'content': word if index == 0 else f" {word}"}
+                if index == 0:
+                    delta['role'] = "assistant"
+                self._write_chunk({
+                    'id': completion_id, 'object': "chat.completion.chunk", 'created': int(time.time()),
+                    'model': model, 'choices': [{'index': 0, 'delta': delta, 'finish_reason': None}]
+                })
+            self._write_chunk({
+                'id': completion_id, 'object': "chat.completion.chunk", 'created': int(time.time()),
+                'model': model, 'choices': [{'index': 0, 'delta': {}, 'finish_reason': "stop"}]
+            })
+            self._write_raw(b"data: [DONE]\n\n")
+            self.wfile.write(b"0\r\n\r\n")
+
+        def _write_chunk(self, payload: Dict[str, Any]) -> None:
+            self._write_raw(f"data: {json.dumps(payload)}\n\n".encode("utf-8"))
+
+        def _write_raw(self, data: bytes) -> None:
+            self.wfile.write(f"{len(data):X}\r\n".encode("ascii") + data + b"\r\n")
+            self.wfile.flush()
+
+    return StubHandler
+
+
+def start_stub(name: str, port: int = 0, latency: float = 0.05, jitter: float = 0.0,
+               failure_rate: float = 0.0, failure_status: int = 500, host: str = "127.0.0.1"):
+    """Start a stub provider on a background thread; returns (server, state, base_url)"""
+    state = StubState(name, latency, jitter, failure_rate, failure_status)
+    server = ThreadingHTTPServer((host, port), make_handler(state))
+    server.daemon_threads = True
+    threading.Thread(target=server.serve_forever, name=f"stub-{name}", daemon=True).start()
+    return server, state, f"http://{host}:{server.server_address[1]}/v1"
+
+
+def run_demo(requests: int) -> None:
+    """Route requests across three stubs, take the fastest one down, then bring it back"""
+    from config.models import ModelRoutingConfig
+    from src.agent.model_router import ModelRoute, ModelRouter, build_http_client
+
+    config = ModelRoutingConfig(failure_threshold=2, reset_timeout=1.0)
+    stubs = {
+        'openai': start_stub("openai", latency=0.03),
+        'azure': start_stub("azure", latency=0.06),
+        'deepseek': start_stub("deepseek", latency=0.12),
+    }
+    routes = [ModelRoute(name, base_url, build_http_client(config, timeout=5.0)) for name, (_, _, base_url) in stubs.items()]
+    router = ModelRouter(routes, config)
+
+    # Route models are base URLs here; each has its own pooled client
+    client_for = {route.model: route.client for route in routes}
+
+    def complete(base_url: str) -> str:
+        response = client_for[base_url].post(
+            f"{base_url}/chat/completions",
+            json={'model': "stub", 'messages': [{'role': "user", 'content': "what is p95"}]}
+        )
+        response.raise_for_status()
+        return response.json()['choices'][0]['message']['content']
+
+    served: Dict[str, int] = {}
+
+    def phase(label: str) -> None:
+        served.clear()
+        for _ in range(requests):
+            reply = router.run(complete)
+            provider = reply.split("]")[0].lstrip("[")
+            served[provider] = served.get(provider, 0) + 1
+        print(f"{label:<28} served: {served}")
+
+    phase("all healthy")
+
+    stubs['openai'][1].failure_rate = 1.0
+    phase("openai failing")
+
+    stubs['openai'][1].failure_rate = 0.0
+    time.sleep(config.reset_timeout + 0.1)
+    phase("openai recovered")
+
+    print()
+    print(json.dumps(router.stats, indent=2))
+    for name, (server, state, _) in stubs.items():
+        print(f"{name}: {state.stats['requests']} requests over {state.stats['connections']} connections")
+        server.shutdown()
+    router.close()
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Stub OpenAI-compatible provider")
+    parser.add_argument("--host", default="127.0.0.1")
+    parser.add_argument("--port", type=int, default=9001)
+    parser.add_argument("--name", default="stub")
+    parser.add_argument("--latency", type=float, default=0.05, help="Seconds before each response")
+    parser.add_argument("--jitter", type=float, default=0.0, help="Random +/- seconds added to the latency")
+    parser.add_argument("--failure-rate", type=float, default=0.0, help="Fraction of requests that fail")
+    parser.add_argument("--failure-status", type=int, default=500, help="HTTP status of failed requests")
+    parser.add_argument("--demo", action="store_true", help="Run a ModelRouter failover demo against three stubs")
+    parser.add_argument("--requests", type=int, default=20, help="Requests per demo phase")
+    args = parser.parse_args()
+
+    if args.demo:
+        run_demo(args.requests)
+        return
+
+    server, _, base_url = start_stub(
+        args.name, args.port, args.latency, args.jitter, args.failure_rate, args.failure_status, args.host
+    )
+    print(f"Stub provider '{args.name}' at {base_url} (Ctrl+C to stop)")
+    try:
+        threading.Event().wait()
+    except KeyboardInterrupt:
+        server.shutdown()
+
+
+if __name__ == "__main__":
+    main()
@@ -10,6 +10,7 @@ from agno.agent import Agent
 from agno.memory.v2.memory import Memory
 from agno.models.base import Model
 
+from .context_manager import ContextManager, load_context_budget_config
 from .model_manager import ModelManager
 from .storage_manager import StorageManager
 from .tools_manager import ToolsManager
@@ -39,8 +40,11 @@ class AgentFactory:
                 - validate_config() -> None (lanza si inválida)
                 - get_interface_config() -> dict
                 - get_agent_instructions() -> str | list[str]
+                - get_context_budget_config() -> dict (opcional)
         """
         self.config = config
+        # Shared by every agent this factory creates
+        self.context_manager: ContextManager | None = None
 
     def _normalize_instructions(
         self, instructions: Union[str, list[str]]
@@ -136,4 +140,17 @@ class AgentFactory:
         except Exception as e:
             raise AgentFactoryBuildError(f"Failed to create Agent: {e}") from e
 
+        # 6) Prompt token budget (recorta historial y memorias en sesiones largas)
+        try:
+            if self.context_manager is None:
+                self.context_manager = ContextManager(load_context_budget_config(self.config))
+            hooked = self.context_manager.apply(agent)
+        except Exception as e:
+            raise AgentFactoryConfigError(f"Invalid context budget: {e}") from e
+        if self.context_manager.enabled and not hooked:
+            raise AgentFactoryConfigError(
+                "Context budget enabled but this Agent has no message builder to hook "
+                "(get_run_messages); disable context_budget or upgrade agno"
+            )
+
         return agent
@@ -0,0 +1,356 @@
+"""
+Context Manager - Keep long sessions within a prompt token budget
+
+With add_history_to_messages and Memory v2, every turn resends the session
+history and all of the user's memories, so prompt tokens (and latency) grow
+with the length of the session. The context manager hooks into an Agno
+agent's message building and, for every model request:
+- Keeps only the user memories most relevant to the current message
+- Drops the oldest history turns once the prompt exceeds the token budget,
+  always keeping the most recent ones; dropped turns are folded into a short
+  summary added to the system message
+- Records the prompt token count of the request
+
+Turns are summarized one at a time and cached by content, so as a session
+grows each turn is summarized once no matter how many later requests drop it.
+Whole turns are dropped, so a tool result never loses its tool call.
+"""
+
+from __future__ import annotations
+
+import hashlib
+import json
+import re
+import threading
+from collections import OrderedDict, deque
+from typing import Any, Callable, Deque, Dict, List, Optional
+
+from config.models import ContextBudgetConfig
+
+# Section Agno adds to the system message when memory references are enabled
+MEMORIES_PATTERN = re.compile(
+    r"(<memories_from_previous_interactions>)(.*?)(</memories_from_previous_interactions>)",
+    re.DOTALL,
+)
+SUMMARY_OPEN = "<summary_of_earlier_conversation>"
+SUMMARY_CLOSE = "</summary_of_earlier_conversation>"
+
+# Per-message overhead of the chat format (role, separators)
+MESSAGE_OVERHEAD_TOKENS = 4
+WORD_PATTERN = re.compile(r"\w{3,}")
+
+# A turn is the list of messages from one user message up to the next
+Turn = List[Any]
+
+
+class TokenCounter:
+    """Counts tokens with tiktoken when installed, otherwise estimates from characters"""
+
+    def __init__(self, chars_per_token: float = 4.0):
+        self.chars_per_token = chars_per_token
+        self._encoders: Dict[str, Any] = {}
+        try:
+            import tiktoken
+        except ImportError:
+            tiktoken = None
+        self._tiktoken = tiktoken
+
+    def _encoder(self, model_id: Optional[str]) -> Any:
+        key = model_id or ""
+        if key not in self._encoders:
+            try:
+                self._encoders[key] = self._tiktoken.encoding_for_model(key)
+            except Exception:
+                self._encoders[key] = self._tiktoken.get_encoding("o200k_base")
+        return self._encoders[key]
+
+    def count(self, text: str, model_id: Optional[str] = None) -> int:
+        if not text:
+            return 0
+        if self._tiktoken is not None:
+            try:
+                return len(self._encoder(model_id).encode(text, disallowed_special=()))
+            except Exception:
+                pass
+        return int(len(text) / self.chars_per_token) + 1
+
+    def count_message(self, message: Any, model_id: Optional[str] = None) -> int:
+        tokens = MESSAGE_OVERHEAD_TOKENS + self.count(message_text(message), model_id)
+        tool_calls = getattr(message, "tool_calls", None)
+        if tool_calls:
+            tokens += self.count(json.dumps(tool_calls, default=str), model_id)
+        return tokens
+
+
+def message_text(message: Any) -> str:
+    """Text content of a message (multi-part content joined)"""
+    content = getattr(message, "content", None)
+    if content is None:
+        return ""
+    if isinstance(content, str):
+        return content
+    if isinstance(content, list):
+        return " ".join(
+            part.get("text", "") if isinstance(part, dict) else str(part) for part in content
+        )
+    return str(content)
+
+
+def split_turns(messages: List[Any]) -> List[Turn]:
+    """Group history messages into turns, each starting at a user message"""
+    turns: List[Turn] = []
+    for message in messages:
+        if getattr(message, "role", None) == "user" or not turns:
+            turns.append([])
+        turns[-1].append(message)
+    return turns
+
+
+def _shorten(text: str, limit: int) -> str:
+    text = " ".join(text.split())
+    return text if len(text) <= limit else text[:limit - 3].rstrip() + "..."
+
+
+def summarize_turn(turn: Turn) -> str:
+    """Extractive one-line summary: the question and the start of the final answer"""
+    question = next((message_text(m) for m in turn if getattr(m, "role", None) == "user"), "")
+    answers = [message_text(m) for m in turn if getattr(m, "role", None) == "assistant" and message_text(m)]
+    answer = answers[-1] if answers else ""
+    first_sentence = re.split(r"(?<=[.!?])\s", " ".join(answer.split()), maxsplit=1)[0]
+    line = f"- User: {_shorten(question, 200)}"
+    if first_sentence:
+        line += f" | Assistant: {_shorten(first_sentence, 240)}"
+    return line
+
+
+def load_context_budget_config(config: Any) -> ContextBudgetConfig:
+    """Budget from a configuration object's get_context_budget_config(), or the defaults"""
+    get_budget = getattr(config, "get_context_budget_config", None)
+    raw_config = get_budget() if get_budget is not None else {}
+    return ContextBudgetConfig(**(raw_config or {}))
+
+
+class ContextManager:
+    """
+    Enforces the prompt token budget on Agno agents.
+
+    One instance can serve many agents (e.g. one per session); it is thread
+    safe because agent runs execute on worker threads.
+
+    Usage:
+        context_manager = ContextManager(config)
+        context_manager.apply(agent)
+    """
+
+    PROMPT_SAMPLES = 512
+
+    def __init__(
+        self,
+        config: Optional[ContextBudgetConfig] = None,
+        summarizer: Optional[Callable[[Turn], str]] = None,
+    ):
+        self.config = config or ContextBudgetConfig()
+        self.summarizer = summarizer or summarize_turn
+        self.counter = TokenCounter(self.config.chars_per_token)
+        self._summaries: "OrderedDict[str, str]" = OrderedDict()
+        self._prompt_tokens: Deque[int] = deque(maxlen=self.PROMPT_SAMPLES)
+        self._lock = threading.Lock()
+        self.last_request: Optional[Dict[str, Any]] = None
+        self.metrics = {
+            'requests': 0,
+            'trimmed_requests': 0,
+            'turns_dropped': 0,
+            'memories_dropped': 0,
+            'tokens_saved': 0,
+            'summary_hits': 0,
+            'summary_misses': 0,
+            'errors': 0,
+        }
+
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled
+
+    # Agno's message builder: get_run_messages (agno >= 1.x), get_messages_for_run (phidata-era agents)
+    MESSAGE_BUILDERS = ("get_run_messages", "get_messages_for_run")
+
+    def apply(self, agent: Any) -> bool:
+        """
+        Hook the budget into the agent's message building.
+
+        Returns:
+            True if the agent was hooked; False when the budget is disabled or
+            the agent has no known message builder (callers should warn: the
+            budget is then not enforced for that agent)
+        """
+        if not self.enabled:
+            return False
+        for name in self.MESSAGE_BUILDERS:
+            build_messages = getattr(agent, name, None)
+            if build_messages is not None:
+                break
+        else:
+            return False
+        if getattr(build_messages, "_context_manager", None) is self:
+            return True
+
+        def run_messages_within_budget(*args, **kwargs):
+            run_messages = build_messages(*args, **kwargs)
+            try:
+                self.fit(run_messages, model_id=getattr(getattr(agent, "model", None), "id", None))
+            except Exception as e:
+                # Never fail a run because of trimming; the prompt is sent as built
+                with self._lock:
+                    self.metrics['errors'] += 1
+                    self.last_request = {'error': f"{type(e).__name__}: {e}"}
+            return run_messages
+
+        run_messages_within_budget._context_manager = self
+        setattr(agent, name, run_messages_within_budget)
+        return True
+
+    def fit(self, run_messages: Any, model_id: Optional[str] = None) -> int:
+        """
+        Trim run_messages in place to the token budget.
+
+        Returns:
+            Prompt tokens of the request after trimming
+        """
+        messages: List[Any] = run_messages.messages
+        system_message = getattr(run_messages, "system_message", None)
+        user_message = getattr(run_messages, "user_message", None)
+        tokens_before = sum(self.counter.count_message(m, model_id) for m in messages)
+        memories_dropped = 0
+        turns_dropped = 0
+
+        if system_message is not None and self.config.max_memories:
+            memories_dropped = self._select_memories(system_message, message_text(user_message))
+
+        history = [m for m in messages if getattr(m, "from_history", False)]
+        tokens = sum(self.counter.count_message(m, model_id) for m in messages)
+        if history and tokens > self.config.max_prompt_tokens:
+            turns = split_turns(history)
+            droppable = max(0, len(turns) - self.config.keep_recent_turns)
+            target = self.config.max_prompt_tokens - (self.config.summary_max_tokens if self.config.summarize else 0)
+
+            dropped: List[Turn] = []
+            while turns_dropped < droppable and tokens > target:
+                turn = turns[turns_dropped]
+                tokens -= sum(self.counter.count_message(m, model_id) for m in turn)
+                dropped.append(turn)
+                turns_dropped += 1
+
+            if dropped:
+                removed = {id(m) for turn in dropped for m in turn}
+                messages[:] = [m for m in messages if id(m) not in removed]
+                if self.config.summarize and self.config.summary_max_tokens:
+                    self._add_summary(messages, system_message, dropped, model_id)
+
+        tokens_after = sum(self.counter.count_message(m, model_id) for m in messages)
+        self._record(tokens_before, tokens_after, turns_dropped, memories_dropped)
+        return tokens_after
+
+    def _select_memories(self, system_message: Any, query: str) -> int:
+        """Keep the max_memories memories sharing the most words with the query; returns how many were dropped"""
+        content = system_message.content
+        if not isinstance(content, str):
+            return 0
+        match = MEMORIES_PATTERN.search(content)
+        if match is None:
+            return 0
+
+        memories = [line for line in match.group(2).splitlines() if line.strip()]
+        if len(memories) <= self.config.max_memories:
+            return 0
+
+        query_words = set(WORD_PATTERN.findall(query.lower()))
+        ranked = sorted(
+            range(len(memories)),
+            key=lambda i: (-len(query_words & set(WORD_PATTERN.findall(memories[i].lower()))), -i)
+        )
+        # Stored order is kept; ties favour the newest memories
+        keep = sorted(ranked[:self.config.max_memories])
+        section = "\n" + "\n".join(memories[i] for i in keep) + "\n"
+        system_message.content = content[:match.start(2)] + section + content[match.end(2):]
+        return len(memories) - len(keep)
+
+    def _summary_of(self, turn: Turn) -> str:
+        key = hashlib.sha256(
+            json.dumps([[getattr(m, "role", None), message_text(m)] for m in turn]).encode("utf-8")
+        ).hexdigest()[:16]
+        with self._lock:
+            summary = self._summaries.get(key)
+            if summary is not None:
+                self._summaries.move_to_end(key)
+                self.metrics['summary_hits'] += 1
+                return summary
+            self.metrics['summary_misses'] += 1
+
+        summary = self.summarizer(turn)
+        if self.config.summary_cache_size:
+            with self._lock:
+                self._summaries[key] = summary
+                while len(self._summaries) > self.config.summary_cache_size:
+                    self._summaries.popitem(last=False)
+        return summary
+
+    def _add_summary(self, messages: List[Any], system_message: Any, dropped: List[Turn], model_id: Optional[str]) -> None:
+        """Fold the dropped turns into a summary, newest turns first when it has to be cut"""
+        lines: List[str] = []
+        # Room for the section tags and the "turns omitted" line
+        budget = self.config.summary_max_tokens - self.counter.count(f"{SUMMARY_OPEN}\n{SUMMARY_CLOSE}", model_id) - 8
+        for turn in reversed(dropped):
+            line = self._summary_of(turn)
+            cost = self.counter.count(line, model_id) + 1
+            if cost > budget:
+                break
+            lines.insert(0, line)
+            budget -= cost
+        if not lines:
+            return
+        omitted = len(dropped) - len(lines)
+        if omitted:
+            lines.insert(0, f"({omitted} earlier turns omitted)")
+
+        section = f"{SUMMARY_OPEN}\n" + "\n".join(lines) + f"\n{SUMMARY_CLOSE}"
+        if system_message is not None and isinstance(system_message.content, str):
+            system_message.content = f"{system_message.content}\n\n{section}"
+        else:
+            # No system message to extend: carry the summary as the first history message
+            first = dropped[0][0]
+            summary_message = first.model_copy(update={'role': "user", 'content': section, 'tool_calls': None})
+            index = next((i for i, m in enumerate(messages) if getattr(m, "from_history", False)), len(messages) - 1)
+            messages.insert(max(0, index), summary_message)
+
+    def _record(self, tokens_before: int, tokens_after: int, turns_dropped: int, memories_dropped: int) -> None:
+        with self._lock:
+            self.metrics['requests'] += 1
+            if turns_dropped or memories_dropped:
+                self.metrics['trimmed_requests'] += 1
+            self.metrics['turns_dropped'] += turns_dropped
+            self.metrics['memories_dropped'] += memories_dropped
+            self.metrics['tokens_saved'] += max(0, tokens_before - tokens_after)
+            self._prompt_tokens.append(tokens_after)
+            self.last_request = {
+                'prompt_tokens': tokens_after,
+                'prompt_tokens_before_trim': tokens_before,
+                'turns_dropped': turns_dropped,
+                'memories_dropped': memories_dropped,
+            }
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Prompt token counts per request and what trimming removed"""
+        with self._lock:
+            samples = sorted(self._prompt_tokens)
+            return {
+                **self.metrics,
+                'enabled': self.enabled,
+                'max_prompt_tokens': self.config.max_prompt_tokens,
+                'token_counter': "tiktoken" if self.counter._tiktoken is not None else "estimate",
+                'prompt_tokens_avg': round(sum(samples) / len(samples), 1) if samples else None,
+                'prompt_tokens_p95': samples[min(len(samples) - 1, int(len(samples) * 0.95))] if samples else None,
+                'prompt_tokens_max': samples[-1] if samples else None,
+                'last_request': dict(self.last_request) if self.last_request else None,
+                'cached_summaries': len(self._summaries),
+            }
@@ -0,0 +1,219 @@
+"""
+Hedging - Duplicate slow model requests to cut tail latency
+
+Occasional very slow provider responses dominate p99 chat latency. A
+HedgingTransport sits under a provider's pooled httpx client:
+- Each chat completion request is sent as usual; if its response has not
+  started (status and headers received, which for streamed completions is
+  when the first token is ready) within a percentile of recent latencies,
+  an identical request is sent on the same pool
+- Whichever response starts first is returned; the other one is closed as
+  soon as it arrives, which drops its connection and stops generation
+- A budget caps hedges at a percentage of recent requests, so a provider
+  that is slow across the board is not sent double traffic
+
+Only the model HTTP request is duplicated, never a whole agent run, so tool
+calls and memory writes happen once.
+"""
+
+from __future__ import annotations
+
+import threading
+import time
+from collections import deque
+from concurrent.futures import FIRST_COMPLETED, Future, ThreadPoolExecutor, wait
+from typing import Any, Deque, Dict, Optional
+
+import httpx
+
+from config.models import HedgingConfig
+
+# Requests eligible for hedging (idempotent model calls)
+HEDGE_PATH_SUFFIXES = ("/chat/completions", "/completions", "/responses")
+
+
+class LatencyTracker:
+    """Recent time-to-first-byte samples"""
+
+    def __init__(self, size: int):
+        self._samples: Deque[float] = deque(maxlen=size)
+        self._lock = threading.Lock()
+
+    def record(self, seconds: float) -> None:
+        with self._lock:
+            self._samples.append(seconds)
+
+    def __len__(self) -> int:
+        return len(self._samples)
+
+    def percentile(self, percentile: float) -> Optional[float]:
+        with self._lock:
+            if not self._samples:
+                return None
+            samples = sorted(self._samples)
+        index = min(len(samples) - 1, int(len(samples) * percentile / 100))
+        return samples[index]
+
+
+class HedgeBudget:
+    """
+    Token bucket keeping hedges at or below ``percent`` of requests.
+
+    Every request earns percent/100 of a token and a hedge spends one, so
+    over any period hedges cannot exceed the percentage (plus the bucket
+    capacity, which is the same percentage of ``window`` requests).
+    """
+
+    def __init__(self, percent: float, window: int):
+        self.earn = percent / 100
+        self.capacity = max(1.0, self.earn * window)
+        self._tokens = 0.0
+        self._lock = threading.Lock()
+
+    def record_request(self) -> None:
+        with self._lock:
+            self._tokens = min(self.capacity, self._tokens + self.earn)
+
+    def try_hedge(self) -> bool:
+        with self._lock:
+            if self._tokens < 1.0:
+                return False
+            self._tokens -= 1.0
+            return True
+
+
+class HedgingTransport(httpx.BaseTransport):
+    """
+    httpx transport that hedges slow model requests on its inner transport.
+
+    Requests run on a small thread pool so the caller can stop waiting for
+    the first attempt without aborting it.
+    """
+
+    def __init__(self, transport: httpx.BaseTransport, config: Optional[HedgingConfig] = None, max_workers: int = 32):
+        self.transport = transport
+        self.config = config or HedgingConfig()
+        self.latency = LatencyTracker(self.config.window)
+        self.budget = HedgeBudget(self.config.budget_percent, self.config.window)
+        self._executor = ThreadPoolExecutor(max_workers=max_workers, thread_name_prefix="model-hedge")
+        self._lock = threading.Lock()
+        self.metrics = {
+            'requests': 0,
+            'hedged': 0,
+            'hedge_wins': 0,
+            'budget_denied': 0,
+            'latency_saved_seconds': 0.0,
+            'losers_closed': 0
+        }
+
+    def hedge_delay(self) -> Optional[float]:
+        """Seconds to wait before hedging, or None while there are too few samples"""
+        if len(self.latency) < self.config.min_samples:
+            return None
+        delay = self.latency.percentile(self.config.percentile)
+        return max(self.config.min_delay, delay) if delay is not None else None
+
+    def handle_request(self, request: httpx.Request) -> httpx.Response:
+        if request.method != "POST" or not request.url.path.endswith(HEDGE_PATH_SUFFIXES):
+            return self.transport.handle_request(request)
+
+        self._count('requests')
+        self.budget.record_request()
+        request.read()  # Make the body replayable for the hedge
+
+        started = time.perf_counter()
+        primary = self._submit(request, started)
+
+        delay = self.hedge_delay()
+        if delay is None or wait([primary], timeout=delay).done:
+            return primary.result()[0]
+
+        if not self.budget.try_hedge():
+            self._count('budget_denied')
+            return primary.result()[0]
+
+        self._count('hedged')
+        hedge = self._submit(self._clone(request), time.perf_counter())
+        pending = {primary, hedge}
+
+        while True:
+            done, pending = wait(pending, return_when=FIRST_COMPLETED)
+            succeeded = [attempt for attempt in done if attempt.exception() is None]
+            if succeeded or not pending:
+                break
+            # One attempt failed; the other may still succeed
+
+        # With both failed, the primary's error is raised
+        winner = succeeded[0] if succeeded else primary
+        loser = hedge if winner is primary else primary
+        loser.add_done_callback(lambda future: self._close_loser(future, winner))
+        if winner is hedge:
+            self._count('hedge_wins')
+        return winner.result()[0]
+
+    def _submit(self, request: httpx.Request, started: float) -> Future:
+        """Send one attempt; its future yields (response, seconds to first byte)"""
+        def send():
+            response = self.transport.handle_request(request)
+            elapsed = time.perf_counter() - started
+            self.latency.record(elapsed)
+            return response, elapsed
+        return self._executor.submit(send)
+
+    @staticmethod
+    def _clone(request: httpx.Request) -> httpx.Request:
+        return httpx.Request(
+            request.method,
+            request.url,
+            headers=request.headers,
+            content=request.content,
+            extensions=request.extensions
+        )
+
+    def _close_loser(self, loser: Future, winner: Future) -> None:
+        """Close the slower response; its extra time is latency the hedge saved (or cost)"""
+        if loser.cancelled() or loser.exception() is not None:
+            return
+        response, loser_elapsed = loser.result()
+        response.close()
+        with self._lock:
+            self.metrics['losers_closed'] += 1
+            if winner.exception() is None:
+                saved = loser_elapsed - winner.result()[1]
+                if saved > 0:
+                    self.metrics['latency_saved_seconds'] += saved
+
+    def _count(self, key: str) -> None:
+        with self._lock:
+            self.metrics[key] += 1
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Hedge rate, wins and latency saved"""
+        with self._lock:
+            metrics = dict(self.metrics)
+        delay = self.hedge_delay()
+        return {
+            **metrics,
+            'hedge_rate': metrics['hedged'] / metrics['requests'] if metrics['requests'] else 0.0,
+            'hedge_delay_ms': round(delay * 1000, 1) if delay is not None else None,
+            'ttfb_p50_ms': self._percentile_ms(50),
+            'ttfb_p99_ms': self._percentile_ms(99)
+        }
+
+    def _percentile_ms(self, percentile: float) -> Optional[float]:
+        value = self.latency.percentile(percentile)
+        return round(value * 1000, 1) if value is not None else None
+
+    def close(self) -> None:
+        self._executor.shutdown(wait=False)
+        self.transport.close()
+
+
+def build_hedging_transport(
+    config: HedgingConfig,
+    limits: httpx.Limits,
+    max_workers: int
+) -> HedgingTransport:
+    """Pooled HTTP transport wrapped with hedging"""
+    return HedgingTransport(httpx.HTTPTransport(limits=limits), config, max_workers=max_workers)
@@ -1,19 +1,30 @@
 """
 Model Manager - Handles AI model configuration and creation
 Updated to use Pydantic configuration models for type safety and validation
+
+Models for the openai, azure and deepseek providers are built with a pooled
+keep-alive HTTP client each; create_router() combines the primary model with
+the alternative_models section into a ModelRouter with failover.
 """
 
 from __future__ import annotations
 
-from typing import Any, Dict, Optional, Protocol
+import os
+from typing import Any, Dict, List, Optional, Protocol
 
 from agno.models.openai import OpenAIChat
 from pydantic import ValidationError
 
 # Import our Pydantic configuration models
-from config.models import ModelConfig
+from config.models import ModelConfig, ModelRoutingConfig
 from config.model_config import ModelConfigFactory, validate_model_compatibility
 
+try:
+    from .model_router import ModelRoute, ModelRouter, build_http_client, hedging_stats
+except ImportError:
+    # Imported as a top-level module with src/agent on sys.path
+    from model_router import ModelRoute, ModelRouter, build_http_client, hedging_stats
+
 
 class ModelManagerError(Exception):
     """Raised when model configuration or creation fails."""
@@ -45,6 +56,12 @@ class ModelManager:
         self.config = config
         self._model: Optional[Any] = None
         self._model_config: Optional[ModelConfig] = None
+        self._routing_config: Optional[ModelRoutingConfig] = None
+        self._http_clients: Dict[str, Any] = {}
+        self._router: Optional[ModelRouter] = None
+
+        # Alternative providers that could not be built (provider -> reason)
+        self.route_errors: Dict[str, str] = {}
 
     def _get_validated_config(self) -> ModelConfig:
         """
@@ -87,12 +104,55 @@ class ModelManager:
         except Exception as e:
             raise ModelManagerError(f"Configuration error: {e}") from e
 
-    def _build_openai_chat(self, config: ModelConfig) -> Any:
+    def _get_routing_config(self) -> ModelRoutingConfig:
+        """Routing configuration, or the defaults for configs without one"""
+        if self._routing_config is None:
+            get_routing = getattr(self.config, "get_model_routing_config", None)
+            raw_config = get_routing() if get_routing is not None else {}
+            try:
+                self._routing_config = ModelRoutingConfig(**(raw_config or {}))
+            except ValidationError as e:
+                raise ModelManagerError(f"Invalid model routing configuration: {e}")
+        return self._routing_config
+
+    def _http_client(self, name: str, config: ModelConfig) -> Any:
+        """Pooled keep-alive HTTP client for one provider, created once"""
+        if name not in self._http_clients:
+            self._http_clients[name] = build_http_client(self._get_routing_config(), timeout=config.timeout)
+        return self._http_clients[name]
+
+    def _build_model(self, config: ModelConfig, http_client: Any = None) -> Any:
+        """Build the model for any supported provider"""
+        provider = config.provider
+
+        if provider in ("openai", "openai-chat", "oai"):
+            return self._build_openai_chat(config, http_client)
+        if provider in ("azure-openai", "azure"):
+            return self._build_azure_openai_chat(config, http_client)
+        if provider == "deepseek":
+            return self._build_deepseek_chat(config, http_client)
+        raise ModelManagerError(f"Unsupported provider: {provider}")
+
+    @staticmethod
+    def _model_kwargs(config: ModelConfig, allowed_fields: set, http_client: Any) -> Dict[str, Any]:
+        """Fields of the configuration accepted by a model class, plus the pooled client"""
+        config_dict = config.model_dump()
+        kwargs = {
+            k: v
+            for k, v in config_dict.items()
+            if k in allowed_fields and v is not None
+        }
+        if http_client is not None:
+            kwargs["http_client"] = http_client
+        return kwargs
+
+    def _build_openai_chat(self, config: ModelConfig, http_client: Any = None) -> Any:
         """
         Build OpenAIChat instance from Pydantic configuration
 
         Args:
             config: Validated ModelConfig instance
+            http_client: Optional pooled httpx client
 
         Returns:
             Configured OpenAIChat instance
@@ -112,12 +172,7 @@ class ModelManager:
         }
 
         # Convert to dict and filter allowed fields
-        config_dict = config.model_dump()
-        kwargs = {
-            k: v
-            for k, v in config_dict.items()
-            if k in allowed_fields and v is not None
-        }
+        kwargs = self._model_kwargs(config, allowed_fields, http_client)
 
         try:
             return OpenAIChat(**kwargs)
@@ -126,6 +181,105 @@ class ModelManager:
         except Exception as e:
             raise ModelManagerError(f"Failed to instantiate OpenAIChat: {e}") from e
 
+    def _build_azure_openai_chat(self, config: ModelConfig, http_client: Any = None) -> Any:
+        """
+        Build Agno AzureOpenAI instance from AzureModelConfig
+
+        Args:
+            config: Validated AzureModelConfig instance
+            http_client: Optional pooled httpx client
+
+        Returns:
+            Configured AzureOpenAI instance
+        """
+        try:
+            from agno.models.azure import AzureOpenAI
+        except ImportError as e:
+            raise ModelManagerError(f"Azure OpenAI support is not available: {e}") from e
+
+        kwargs = self._model_kwargs(
+            config,
+            {"id", "api_key", "api_version", "azure_endpoint", "temperature", "max_tokens", "timeout", "seed"},
+            http_client,
+        )
+        kwargs["azure_deployment"] = getattr(config, "deployment_name", None) or config.id
+
+        try:
+            return AzureOpenAI(**kwargs)
+        except TypeError as e:
+            raise ModelManagerError(f"Invalid parameter for AzureOpenAI: {e}") from e
+        except Exception as e:
+            raise ModelManagerError(f"Failed to instantiate AzureOpenAI: {e}") from e
+
+    def _build_deepseek_chat(self, config: ModelConfig, http_client: Any = None) -> Any:
+        """
+        Build Agno DeepSeek instance from DeepSeekModelConfig
+
+        Args:
+            config: Validated DeepSeekModelConfig instance
+            http_client: Optional pooled httpx client
+
+        Returns:
+            Configured DeepSeek instance
+        """
+        try:
+            from agno.models.deepseek import DeepSeek
+        except ImportError as e:
+            raise ModelManagerError(f"DeepSeek support is not available: {e}") from e
+
+        kwargs = self._model_kwargs(
+            config,
+            {"id", "api_key", "base_url", "temperature", "max_tokens", "timeout", "seed"},
+            http_client,
+        )
+
+        try:
+            return DeepSeek(**kwargs)
+        except TypeError as e:
+            raise ModelManagerError(f"Invalid parameter for DeepSeek: {e}") from e
+        except Exception as e:
+            raise ModelManagerError(f"Failed to instantiate DeepSeek: {e}") from e
+
+    def _alternative_model_configs(self) -> Dict[str, ModelConfig]:
+        """
+        Validated configurations of the YAML alternative_models section
+
+        Keys follow agent_config.yaml (endpoint, deployment, api_version);
+        providers without their own API key or that fail validation are
+        skipped and recorded in route_errors.
+        """
+        get_alternatives = getattr(self.config, "get_alternative_models_config", None)
+        alternatives = get_alternatives() if get_alternatives is not None else {}
+        routing = self._get_routing_config()
+        primary = self._get_validated_config().provider
+
+        names = routing.providers or list(alternatives)
+        configs: Dict[str, ModelConfig] = {}
+        for name in names:
+            raw_config = dict(alternatives.get(name) or {})
+            if name == primary or not raw_config:
+                continue
+
+            if "endpoint" in raw_config:
+                endpoint = raw_config.pop("endpoint")
+                raw_config.setdefault("azure_endpoint" if name == "azure" else "base_url", endpoint)
+            if "deployment" in raw_config:
+                raw_config.setdefault("deployment_name", raw_config.pop("deployment"))
+            if not raw_config.get("api_key"):
+                # Only the provider's own key: ModelConfig would otherwise fall back to
+                # OPENAI_API_KEY and build a route that fails every call with 401
+                env_key = f"{name.upper()}_API_KEY"
+                raw_config["api_key"] = os.getenv(env_key)
+                if not raw_config["api_key"]:
+                    self.route_errors[name] = f"Missing {env_key}"
+                    continue
+
+            try:
+                configs[name] = ModelConfigFactory.create_config(name, **raw_config)
+            except Exception as e:
+                self.route_errors[name] = f"Invalid configuration: {e}"
+        return configs
+
     def create_model(self) -> Any:
         """
         Create (or return cached) model instance according to configuration
@@ -140,17 +294,53 @@ class ModelManager:
             return self._model
 
         config = self._get_validated_config()
-        provider = config.provider
-
-        if provider in ("openai", "openai-chat", "oai"):
-            self._model = self._build_openai_chat(config)
-        # elif provider in ("azure-openai", "azure"):
-        #     self._model = self._build_azure_openai_chat(config)
-        else:
-            raise ModelManagerError(f"Unsupported provider: {provider}")
+        self._model = self._build_model(config, self._http_client(config.provider, config))
 
         return self._model
 
+    def create_router(self) -> Optional[ModelRouter]:
+        """
+        Create (or return cached) router over the primary and alternative models
+
+        Returns:
+            ModelRouter whose first route is the primary model, or None when
+            routing is disabled
+
+        Raises:
+            ModelManagerError: If the primary model cannot be created
+        """
+        if self._router is not None:
+            return self._router
+
+        routing = self._get_routing_config()
+        if not routing.enabled:
+            return None
+
+        primary = self._get_validated_config()
+        routes: List[ModelRoute] = [
+            ModelRoute(primary.provider, self.create_model(), self._http_clients.get(primary.provider))
+        ]
+
+        for name, config in self._alternative_model_configs().items():
+            try:
+                client = self._http_client(name, config)
+                routes.append(ModelRoute(name, self._build_model(config, client), client))
+            except ModelManagerError as e:
+                self.route_errors[name] = str(e)
+
+        self._router = ModelRouter(routes, routing)
+        return self._router
+
+    def close(self) -> None:
+        """Close the pooled HTTP clients"""
+        for client in self._http_clients.values():
+            if client is not None:
+                try:
+                    client.close()
+                except Exception:
+                    pass
+        self._http_clients.clear()
+
     def get_model_info(self) -> Dict[str, Any]:
         """
         Get non-sensitive model information
@@ -170,5 +360,13 @@ class ModelManager:
                 "provider_type": type(config).__name__,
             }
         )
+        if self._router is not None:
+            info["routing"] = self._router.stats
+        hedging = {name: hedging_stats(client) for name, client in self._http_clients.items()}
+        hedging = {name: stats for name, stats in hedging.items() if stats is not None}
+        if hedging:
+            info["hedging"] = hedging
+        if self.route_errors:
+            info["route_errors"] = dict(self.route_errors)
 
         return info
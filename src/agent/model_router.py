@@ -0,0 +1,387 @@
+"""
+Model Router - Health-scored routing and failover across model providers
+
+ModelManager used to build a single OpenAIChat, so an outage or a latency
+spike at one provider stalled every agent run. The router holds one warm
+model per configured provider (primary plus alternative_models), each with
+its own pooled keep-alive HTTP client, and for every call:
+- Orders providers by health: pending circuit probes first, then by a latency score
+  (moving average latency inflated by the recent error rate), or by the
+  configured priority; providers without latency samples keep their priority
+  order behind the measured ones
+- Fails over to the next provider when a call fails with a provider error
+  (connection, timeout, rate limit, 5xx); other errors are raised unchanged,
+  except that an alternative rejecting its credentials (401/403) is a route
+  failure: its circuit opens and the call moves on
+- Opens a provider's circuit after consecutive failures and lets a single
+  probe request through once the reset timeout has passed; the probe goes
+  first so a recovered provider gets traffic back, and failover covers it
+  if it fails again
+
+Models are opaque to the router; the caller receives the selected model and
+performs the call, so the same router works for Agno models and plain HTTP
+clients (see scripts/stub_model_server.py).
+"""
+
+from __future__ import annotations
+
+import threading
+import time
+from dataclasses import dataclass, field
+from typing import Any, Callable, Dict, Iterable, Iterator, List, Optional, TypeVar
+
+from config.models import ModelRoutingConfig
+
+T = TypeVar("T")
+
+CLOSED = "closed"
+OPEN = "open"
+HALF_OPEN = "half_open"
+
+# Exception class names (anywhere in the MRO) that mean the provider failed,
+# as raised by the openai SDK, httpx and Agno
+PROVIDER_ERROR_NAMES = {
+    "ModelProviderError",
+    "APIConnectionError",
+    "APITimeoutError",
+    "RateLimitError",
+    "InternalServerError",
+    "TransportError",
+    "TimeoutException",
+    "HTTPStatusError",
+}
+
+# Credential rejections; raised to the caller for the primary, a route failure for alternatives
+AUTH_ERROR_NAMES = {"AuthenticationError", "PermissionDeniedError"}
+
+
+class ModelRouterError(Exception):
+    """Raised when no provider could serve a call"""
+
+    def __init__(self, message: str, errors: Optional[Dict[str, str]] = None):
+        super().__init__(message)
+        self.errors = errors or {}
+
+
+def is_provider_error(error: BaseException) -> bool:
+    """True for failures attributable to the provider rather than the request"""
+    if isinstance(error, (ConnectionError, TimeoutError)):
+        return True
+    # HTTP errors: rate limits and server errors fail over, client errors (bad request, auth) do not
+    status = getattr(error, "status_code", None) or getattr(getattr(error, "response", None), "status_code", None)
+    if isinstance(status, int):
+        return status == 429 or status >= 500
+    return any(cls.__name__ in PROVIDER_ERROR_NAMES for cls in type(error).__mro__)
+
+
+def is_auth_error(error: BaseException) -> bool:
+    """True when the provider rejected the credentials (401/403)"""
+    status = getattr(error, "status_code", None) or getattr(getattr(error, "response", None), "status_code", None)
+    if isinstance(status, int):
+        return status in (401, 403)
+    return any(cls.__name__ in AUTH_ERROR_NAMES for cls in type(error).__mro__)
+
+
+def build_http_client(config: ModelRoutingConfig, timeout: Optional[float] = None) -> Any:
+    """Pooled keep-alive httpx client for one provider (None if httpx is unavailable)"""
+    try:
+        import httpx
+    except ImportError:
+        return None
+
+    limits = httpx.Limits(
+        max_connections=config.max_connections,
+        max_keepalive_connections=config.max_keepalive_connections,
+        keepalive_expiry=config.keepalive_expiry,
+    )
+    if not config.hedging.enabled:
+        return httpx.Client(limits=limits, timeout=timeout)
+
+    try:
+        from .hedging import build_hedging_transport
+    except ImportError:
+        from hedging import build_hedging_transport
+
+    # A hedge holds a second connection, so the pool needs room for both attempts
+    transport = build_hedging_transport(config.hedging, limits, max_workers=config.max_connections * 2)
+    return httpx.Client(transport=transport, timeout=timeout)
+
+
+def hedging_stats(client: Any) -> Optional[Dict[str, Any]]:
+    """Hedging metrics of a pooled client, if its transport hedges"""
+    transport = getattr(client, "_transport", None)
+    stats = getattr(transport, "stats", None)
+    return stats if isinstance(stats, dict) else None
+
+
+@dataclass
+class ProviderHealth:
+    """Latency, error rate and circuit state of one provider"""
+
+    latency: Optional[float] = None  # Moving average, seconds
+    error_rate: float = 0.0  # Moving average of failures (0..1)
+    last_failure_at: float = 0.0
+    requests: int = 0
+    failures: int = 0
+    consecutive_failures: int = 0
+    state: str = CLOSED
+    opened_at: float = 0.0
+    probe_in_flight: bool = False
+    last_error: Optional[str] = None
+    latencies: List[float] = field(default_factory=list)  # Recent samples for percentiles
+
+
+@dataclass
+class ModelRoute:
+    """One provider: its warm model, pooled HTTP client and health"""
+
+    name: str
+    model: Any
+    client: Any = None
+    health: ProviderHealth = field(default_factory=ProviderHealth)
+
+
+class ModelRouter:
+    """
+    Routes calls across providers with health scoring and circuit breakers.
+
+    Thread safe: agent runs execute on worker threads, so health updates and
+    selection happen under a lock. The calls themselves run unlocked.
+    """
+
+    LATENCY_SAMPLES = 256
+
+    def __init__(self, routes: Iterable[ModelRoute], config: Optional[ModelRoutingConfig] = None):
+        self.routes: List[ModelRoute] = list(routes)
+        if not self.routes:
+            raise ValueError("ModelRouter needs at least one route")
+
+        self.config = config or ModelRoutingConfig()
+        self._lock = threading.Lock()
+        self.metrics = {
+            'calls': 0,
+            'failovers': 0,
+            'exhausted': 0,
+            'circuit_opened': 0,
+            'auth_failures': 0,
+        }
+
+    @property
+    def primary(self) -> ModelRoute:
+        return self.routes[0]
+
+    def candidates(self, now: Optional[float] = None) -> List[ModelRoute]:
+        """Routes allowed to take a call, best first"""
+        now = time.monotonic() if now is None else now
+        with self._lock:
+            available = []
+            for priority, route in enumerate(self.routes):
+                health = route.health
+                if health.state == OPEN:
+                    if now - health.opened_at < self.config.reset_timeout:
+                        continue
+                    health.state = HALF_OPEN
+                if health.state == HALF_OPEN and health.probe_in_flight:
+                    continue
+                available.append((self._score(route, priority, now), route))
+
+            available.sort(key=lambda item: item[0])
+            return [route for _, route in available]
+
+    def _score(self, route: ModelRoute, priority: int, now: float) -> tuple:
+        health = route.health
+        # Probes of half-open circuits go first
+        rank = 1 if health.state == CLOSED else 0
+        if self.config.strategy == "priority":
+            return rank, priority
+
+        # The error rate only moves on requests, so it also halves every
+        # reset_timeout; otherwise a provider that lost its traffic could never win it back
+        error_rate = health.error_rate * 0.5 ** ((now - health.last_failure_at) / self.config.reset_timeout)
+        # Unmeasured providers keep their priority order behind the measured ones;
+        # scoring them as instant would put an untested route ahead of a working primary
+        if health.latency is None:
+            return rank, 1, 0.0, priority
+        return rank, 0, health.latency * (1.0 + self.config.error_penalty * error_rate), priority
+
+    def run(self, call: Callable[[Any], T]) -> T:
+        """
+        Call ``call(model)`` on the best provider, failing over on provider errors.
+
+        Raises:
+            ModelRouterError: If every available provider failed (or all circuits are open)
+            Exception: Non-provider errors from ``call``, unchanged
+        """
+        errors: Dict[str, str] = {}
+        self.metrics['calls'] += 1
+
+        for attempt, route in enumerate(self.candidates()):
+            if not self._begin(route):
+                continue
+            if attempt:
+                self.metrics['failovers'] += 1
+
+            started = time.perf_counter()
+            try:
+                result = call(route.model)
+            except Exception as e:
+                if not self._is_route_failure(route, e):
+                    self._release(route)
+                    raise
+                self.record_failure(route, e, open_circuit=not is_provider_error(e))
+                errors[route.name] = str(e)
+                continue
+
+            self.record_success(route, time.perf_counter() - started)
+            return result
+
+        self.metrics['exhausted'] += 1
+        raise ModelRouterError(f"No model provider available ({len(errors)} failed)", errors)
+
+    def run_stream(self, call: Callable[[Any], Iterable[T]]) -> Iterator[T]:
+        """
+        Iterate ``call(model)`` on the best provider.
+
+        Failover only happens before the first item: once output has been
+        yielded, a failure is raised to the consumer. Latency is the time to
+        the end of the stream.
+        """
+        errors: Dict[str, str] = {}
+        self.metrics['calls'] += 1
+
+        for attempt, route in enumerate(self.candidates()):
+            if not self._begin(route):
+                continue
+            if attempt:
+                self.metrics['failovers'] += 1
+
+            started = time.perf_counter()
+            yielded = False
+            finished = False
+            try:
+                for item in call(route.model):
+                    yielded = True
+                    yield item
+                finished = True
+            except GeneratorExit:
+                # Consumer stopped early; not the provider's fault
+                self._release(route)
+                raise
+            except Exception as e:
+                if not self._is_route_failure(route, e):
+                    self._release(route)
+                    raise
+                self.record_failure(route, e, open_circuit=not is_provider_error(e))
+                if yielded:
+                    raise
+                errors[route.name] = str(e)
+                continue
+            finally:
+                if finished:
+                    self.record_success(route, time.perf_counter() - started)
+            return
+
+        self.metrics['exhausted'] += 1
+        raise ModelRouterError(f"No model provider available ({len(errors)} failed)", errors)
+
+    def _is_route_failure(self, route: ModelRoute, error: BaseException) -> bool:
+        """Errors that fail over: provider errors, and rejected credentials of an alternative"""
+        if is_provider_error(error):
+            return True
+        if route is not self.primary and is_auth_error(error):
+            self.metrics['auth_failures'] += 1
+            return True
+        return False
+
+    def _begin(self, route: ModelRoute) -> bool:
+        """Claim the single probe slot of a half-open route"""
+        with self._lock:
+            health = route.health
+            if health.state == OPEN:
+                return False
+            if health.state == HALF_OPEN:
+                if health.probe_in_flight:
+                    return False
+                health.probe_in_flight = True
+            return True
+
+    def _release(self, route: ModelRoute) -> None:
+        with self._lock:
+            route.health.probe_in_flight = False
+
+    def record_success(self, route: ModelRoute, latency: float) -> None:
+        alpha = self.config.latency_alpha
+        with self._lock:
+            health = route.health
+            health.requests += 1
+            health.consecutive_failures = 0
+            health.error_rate *= 1.0 - alpha
+            health.latency = latency if health.latency is None else health.latency + alpha * (latency - health.latency)
+            health.latencies.append(latency)
+            if len(health.latencies) > self.LATENCY_SAMPLES:
+                del health.latencies[0]
+            if health.state == HALF_OPEN:
+                # Recovered: the failures that opened the circuit no longer count
+                health.error_rate = 0.0
+            health.state = CLOSED
+            health.probe_in_flight = False
+
+    def record_failure(
+        self, route: ModelRoute, error: BaseException, now: Optional[float] = None, open_circuit: bool = False
+    ) -> None:
+        """Count a failed call; ``open_circuit`` opens the circuit without waiting for the threshold"""
+        alpha = self.config.latency_alpha
+        with self._lock:
+            health = route.health
+            health.requests += 1
+            health.failures += 1
+            health.consecutive_failures += 1
+            health.error_rate += alpha * (1.0 - health.error_rate)
+            health.last_error = f"{type(error).__name__}: {error}"
+            health.probe_in_flight = False
+            now = time.monotonic() if now is None else now
+            health.last_failure_at = now
+
+            if (open_circuit or health.state == HALF_OPEN
+                    or health.consecutive_failures >= self.config.failure_threshold):
+                if health.state != OPEN:
+                    self.metrics['circuit_opened'] += 1
+                health.state = OPEN
+                health.opened_at = now
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Per-provider latency, error rate and circuit state"""
+        with self._lock:
+            providers = {}
+            for route in self.routes:
+                health = route.health
+                samples = sorted(health.latencies)
+                providers[route.name] = {
+                    'state': health.state,
+                    'requests': health.requests,
+                    'failures': health.failures,
+                    'error_rate': round(health.error_rate, 4),
+                    'latency_avg_ms': round(health.latency * 1000, 1) if health.latency is not None else None,
+                    'latency_p95_ms': (
+                        round(samples[min(len(samples) - 1, int(len(samples) * 0.95))] * 1000, 1)
+                        if samples else None
+                    ),
+                    'last_error': health.last_error,
+                    'pooled_client': route.client is not None,
+                    'hedging': hedging_stats(route.client)
+                }
+            return {
+                **self.metrics,
+                'strategy': self.config.strategy,
+                'providers': providers
+            }
+
+    def close(self) -> None:
+        """Close the pooled HTTP clients"""
+        for route in self.routes:
+            if route.client is not None:
+                try:
+                    route.client.close()
+                except Exception:
+                    pass
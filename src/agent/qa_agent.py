@@ -23,6 +23,7 @@ except ImportError:
     from config import get_config
 
 from .chat_interface import ChatInterface
+from .context_manager import ContextManager, load_context_budget_config
 from .model_manager import ModelManager
 from .storage_manager import StorageManager
 from .tools_manager import ToolsManager
@@ -154,6 +155,7 @@ class QAAgent:
                 self.model_manager = model_manager or ModelManager(self.config)
                 self.tools_manager = tools_manager or ToolsManager(self.config)
                 self.storage_manager = storage_manager or StorageManager(self.config)
+                self.context_manager = ContextManager(load_context_budget_config(self.config))
 
             logger.info(
                 "QA Agent initialized with modular components",
@@ -419,6 +421,19 @@ class QAAgent:
                 add_history_to_messages=storage is not None,
             )
 
+            # Keep long sessions within the prompt token budget
+            if self.context_manager.apply(agent):
+                logger.debug(
+                    "Context budget applied",
+                    component="QAAgent",
+                    max_prompt_tokens=self.context_manager.config.max_prompt_tokens,
+                )
+            elif self.context_manager.enabled:
+                logger.warning(
+                    "Context budget enabled but the agent has no message builder to hook; prompts are not trimmed",
+                    component="QAAgent",
+                )
+
             logger.info("Agent instance created successfully")
             logger.debug(
                 f"Agent configuration: show_tool_calls={agent.show_tool_calls}, "
@@ -558,6 +573,7 @@ class QAAgent:
             "model": self.model_manager.get_model_info(),
             "tools": self.tools_manager.get_tools_info(),
             "storage": self.storage_manager.get_storage_info(),
+            "context": self.context_manager.stats,
         }
 
         if self.agent:
@@ -24,7 +24,14 @@ from .events import (
     ErrorEventPayload,
     ConnectionEventPayload,
     HealthCheckPayload,
+    StreamStartPayload,
+    StreamChunkPayload,
+    StreamEndPayload,
+    BatchPayload,
     parse_websocket_envelope,
+    unpack_batch,
+    LazyEnvelope,
+    parse_envelope_header,
     # Compatibility aliases
     WebSocketEvent,
     create_chat_message,
@@ -48,7 +55,14 @@ __all__ = [
     "ErrorEventPayload",
     "ConnectionEventPayload",
     "HealthCheckPayload",
+    "StreamStartPayload",
+    "StreamChunkPayload",
+    "StreamEndPayload",
+    "BatchPayload",
     "parse_websocket_envelope",
+    "unpack_batch",
+    "LazyEnvelope",
+    "parse_envelope_header",
     
     # Compatibility aliases
     "WebSocketEvent",
@@ -0,0 +1,252 @@
+"""
+Agent Executor - Bounded worker pool for blocking agent calls
+
+Agno's Agent.run() is synchronous. Calling it directly from an async handler
+blocks the event loop that every WebSocket connection shares, so a single slow
+LLM call stalls all other sessions (pings included).
+
+This module moves those calls onto a bounded thread pool:
+- Global concurrency bounded by the number of workers
+- Queue-depth limit for calls waiting on a free worker
+- Per-user in-flight cap so one user cannot occupy the whole pool
+- Typed rejection (AgentSaturatedError) instead of unbounded queuing
+
+Agent instances hold open SQLite handles and HTTP clients and cannot be
+pickled, so calls run on threads of this process rather than a process pool.
+"""
+
+import asyncio
+import functools
+import time
+from concurrent.futures import Future, ThreadPoolExecutor
+from typing import Any, Callable, Dict, Optional
+
+try:
+    from src.logging_config import get_logger
+    from config.models import AgentExecutionConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from config.models import AgentExecutionConfig
+
+
+class AgentExecutorError(Exception):
+    """Base exception for agent executor errors"""
+    pass
+
+
+class AgentSaturatedError(AgentExecutorError):
+    """Raised when an agent call is rejected because the pool is saturated"""
+
+    def __init__(self, message: str, reason: str, user_id: Optional[str] = None):
+        super().__init__(message)
+        self.reason = reason  # "queue_full" or "user_limit"
+        self.user_id = user_id
+
+
+class AgentExecutor:
+    """
+    Runs blocking agent calls on a bounded worker pool.
+
+    Worker slots are released when the underlying thread finishes, not when
+    the awaiting coroutine gives up, so a cancelled caller never lets more
+    calls run than there are workers.
+    """
+
+    ANONYMOUS_KEY = "anonymous"
+
+    def __init__(self, config: Optional[AgentExecutionConfig] = None):
+        self.config = config or AgentExecutionConfig()
+        self.logger = get_logger("AgentExecutor")
+
+        # Created lazily so the executor can be built outside a running loop
+        self._pool: Optional[ThreadPoolExecutor] = None
+        self._slots: Optional[asyncio.Semaphore] = None
+
+        # Admission state
+        self._running = 0
+        self._waiting = 0
+        self._per_user: Dict[str, int] = {}
+
+        self.metrics = {
+            'calls_submitted': 0,
+            'calls_completed': 0,
+            'calls_failed': 0,
+            'calls_rejected': 0,
+            'calls_cancelled_queued': 0,
+            'calls_cancelled_running': 0,
+            'total_queue_wait': 0.0,
+            'total_run_time': 0.0,
+            'wasted_run_time': 0.0
+        }
+
+        self.logger.info(
+            f"Agent executor initialized (mode={self.config.mode}, "
+            f"workers={self.config.max_workers}, queue={self.config.max_queue_depth})"
+        )
+
+    async def run(
+        self,
+        func: Callable[..., Any],
+        *args: Any,
+        user_id: Optional[str] = None,
+        **kwargs: Any
+    ) -> Any:
+        """
+        Run a blocking callable without blocking the event loop.
+
+        Args:
+            func: Blocking callable (typically agent.run)
+            *args: Positional arguments for func
+            user_id: User on whose behalf the call runs (for fairness limits)
+            **kwargs: Keyword arguments for func
+
+        Returns:
+            Whatever func returns
+
+        Raises:
+            AgentSaturatedError: If the queue or the user's in-flight cap is full
+        """
+        if self.config.mode == "inline":
+            return func(*args, **kwargs)
+
+        user_key = user_id or self.ANONYMOUS_KEY
+        self._admit(user_key)
+
+        self._per_user[user_key] = self._per_user.get(user_key, 0) + 1
+        self.metrics['calls_submitted'] += 1
+
+        loop = asyncio.get_running_loop()
+        slots = self._get_slots()
+        queued_at = time.perf_counter()
+
+        self._waiting += 1
+        try:
+            await slots.acquire()
+        except asyncio.CancelledError:
+            # Cancelled before a worker picked it up: nothing ran
+            self.metrics['calls_cancelled_queued'] += 1
+            self._release_user(user_key)
+            raise
+        except BaseException:
+            self._release_user(user_key)
+            raise
+        finally:
+            self._waiting -= 1
+
+        started_at = time.perf_counter()
+        self.metrics['total_queue_wait'] += started_at - queued_at
+        self._running += 1
+
+        # Set when the caller gives up while the call is still running
+        abandoned = [False]
+
+        try:
+            future: Future = self._get_pool().submit(functools.partial(func, *args, **kwargs))
+        except BaseException:
+            self._finish(user_key, started_at, slots, abandoned)
+            raise
+
+        future.add_done_callback(
+            lambda _: loop.call_soon_threadsafe(self._finish, user_key, started_at, slots, abandoned)
+        )
+
+        try:
+            result = await asyncio.wrap_future(future)
+        except asyncio.CancelledError:
+            if future.cancelled():
+                self.metrics['calls_cancelled_queued'] += 1
+            else:
+                # The thread cannot be interrupted; its remaining time is wasted
+                abandoned[0] = True
+                self.metrics['calls_cancelled_running'] += 1
+            raise
+        except Exception:
+            self.metrics['calls_failed'] += 1
+            raise
+
+        self.metrics['calls_completed'] += 1
+        return result
+
+    def _admit(self, user_key: str) -> None:
+        """Reject the call if the pool or the user is saturated"""
+        if self._per_user.get(user_key, 0) >= self.config.max_per_user:
+            self.metrics['calls_rejected'] += 1
+            self.logger.warning(f"Agent call rejected for {user_key}: per-user limit reached")
+            raise AgentSaturatedError(
+                f"Too many concurrent requests for user {user_key}",
+                reason="user_limit",
+                user_id=user_key
+            )
+
+        workers_busy = self._running >= self.config.max_workers
+        if workers_busy and self._waiting >= self.config.max_queue_depth:
+            self.metrics['calls_rejected'] += 1
+            self.logger.warning(f"Agent call rejected for {user_key}: queue full ({self._waiting} waiting)")
+            raise AgentSaturatedError(
+                "Agent is at capacity, please retry shortly",
+                reason="queue_full",
+                user_id=user_key
+            )
+
+    def _finish(
+        self,
+        user_key: str,
+        started_at: float,
+        slots: asyncio.Semaphore,
+        abandoned: Optional[list] = None
+    ) -> None:
+        """Release a worker slot once the underlying call has really finished"""
+        self._running -= 1
+        elapsed = time.perf_counter() - started_at
+        self.metrics['total_run_time'] += elapsed
+        if abandoned and abandoned[0]:
+            self.metrics['wasted_run_time'] += elapsed
+        slots.release()
+        self._release_user(user_key)
+
+    def _release_user(self, user_key: str) -> None:
+        """Decrement a user's in-flight count"""
+        remaining = self._per_user.get(user_key, 0) - 1
+        if remaining > 0:
+            self._per_user[user_key] = remaining
+        else:
+            self._per_user.pop(user_key, None)
+
+    def _get_pool(self) -> ThreadPoolExecutor:
+        if self._pool is None:
+            self._pool = ThreadPoolExecutor(
+                max_workers=self.config.max_workers,
+                thread_name_prefix="qa-agent"
+            )
+        return self._pool
+
+    def _get_slots(self) -> asyncio.Semaphore:
+        if self._slots is None:
+            self._slots = asyncio.Semaphore(self.config.max_workers)
+        return self._slots
+
+    def shutdown(self, wait: bool = False) -> None:
+        """Shut down the worker pool, dropping calls that have not started"""
+        if self._pool is not None:
+            self._pool.shutdown(wait=wait, cancel_futures=True)
+            self._pool = None
+            self.logger.info("Agent executor shut down")
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Get executor statistics"""
+        completed = self.metrics['calls_completed'] + self.metrics['calls_failed']
+        started = self.metrics['calls_submitted'] - self._waiting
+        return {
+            **self.metrics,
+            'mode': self.config.mode,
+            'max_workers': self.config.max_workers,
+            'running': self._running,
+            'waiting': self._waiting,
+            'active_users': len(self._per_user),
+            'average_queue_wait': self.metrics['total_queue_wait'] / started if started > 0 else 0.0,
+            'average_run_time': self.metrics['total_run_time'] / completed if completed > 0 else 0.0
+        }
@@ -0,0 +1,195 @@
+"""
+Session Agent Pool - One Agno Agent per (user_id, session_id)
+
+A single shared Agent mixes every user's history into one context and
+serializes all sessions on one object. The pool keeps a lightweight Agent per
+session instead:
+- Built from a warm template of agent arguments, so the model client, tools
+  and memory/DB handles are shared and creating a session is cheap
+- Bounded by a maximum size with LRU eviction of idle sessions
+- Idle sessions are evicted after a TTL by a background sweeper
+- Each entry has its own lock so a session runs one call at a time while
+  different sessions run in parallel
+"""
+
+import asyncio
+import time
+from collections import OrderedDict
+from contextlib import asynccontextmanager
+from typing import Any, AsyncIterator, Callable, Dict, Optional, Tuple
+
+try:
+    from src.logging_config import get_logger
+    from config.models import AgentPoolConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from config.models import AgentPoolConfig
+
+
+PoolKey = Tuple[str, str]
+AgentFactory = Callable[[str, str], Any]
+
+
+class PooledAgent:
+    """A session's agent plus its bookkeeping"""
+
+    def __init__(self, agent: Any, user_id: str, session_id: str):
+        self.agent = agent
+        self.user_id = user_id
+        self.session_id = session_id
+        self.lock = asyncio.Lock()
+        self.created_at = time.monotonic()
+        self.last_used = self.created_at
+        self.runs = 0
+
+    @property
+    def in_use(self) -> bool:
+        return self.lock.locked()
+
+    def idle_for(self, now: Optional[float] = None) -> float:
+        return (now or time.monotonic()) - self.last_used
+
+
+class SessionAgentPool:
+    """
+    LRU pool of per-session agents.
+
+    Entries that are in use are never evicted; if every entry is busy the
+    pool temporarily grows past max_sessions and shrinks again as sessions
+    finish.
+    """
+
+    def __init__(self, factory: AgentFactory, config: Optional[AgentPoolConfig] = None):
+        self.factory = factory
+        self.config = config or AgentPoolConfig()
+        self.logger = get_logger("SessionAgentPool")
+
+        self._entries: "OrderedDict[PoolKey, PooledAgent]" = OrderedDict()
+        self._sweeper: Optional[asyncio.Task] = None
+
+        self.metrics = {
+            'hits': 0,
+            'misses': 0,
+            'evicted_lru': 0,
+            'evicted_idle': 0,
+            'total_create_time': 0.0
+        }
+
+    @property
+    def size(self) -> int:
+        return len(self._entries)
+
+    def get_or_create(self, user_id: str, session_id: str) -> PooledAgent:
+        """Get the session's entry, building its agent from the template if needed"""
+        key = (user_id, session_id)
+        entry = self._entries.get(key)
+
+        if entry is not None:
+            self._entries.move_to_end(key)
+            self.metrics['hits'] += 1
+            return entry
+
+        started = time.perf_counter()
+        entry = PooledAgent(self.factory(user_id, session_id), user_id, session_id)
+        self.metrics['total_create_time'] += time.perf_counter() - started
+        self.metrics['misses'] += 1
+
+        self._entries[key] = entry
+        self._evict_over_capacity()
+        return entry
+
+    @asynccontextmanager
+    async def lease(self, user_id: str, session_id: str) -> AsyncIterator[Any]:
+        """
+        Hold a session's agent for the duration of one call.
+
+        Usage:
+            async with pool.lease(user_id, session_id) as agent:
+                ...
+        """
+        self._ensure_sweeper()
+        entry = self.get_or_create(user_id, session_id)
+
+        async with entry.lock:
+            entry.runs += 1
+            try:
+                yield entry.agent
+            finally:
+                entry.last_used = time.monotonic()
+
+    def remove(self, user_id: str, session_id: str) -> bool:
+        """Drop a session's agent (it is rebuilt on next use)"""
+        return self._entries.pop((user_id, session_id), None) is not None
+
+    def _evict_over_capacity(self) -> None:
+        """Evict least recently used idle entries beyond max_sessions"""
+        excess = len(self._entries) - self.config.max_sessions
+        if excess <= 0:
+            return
+
+        for key in list(self._entries):
+            if excess <= 0:
+                break
+            if self._entries[key].in_use:
+                continue
+            del self._entries[key]
+            self.metrics['evicted_lru'] += 1
+            excess -= 1
+
+    def evict_idle(self) -> int:
+        """Evict entries idle longer than the TTL; returns how many were removed"""
+        now = time.monotonic()
+        expired = [
+            key for key, entry in self._entries.items()
+            if not entry.in_use and entry.idle_for(now) > self.config.idle_ttl
+        ]
+        for key in expired:
+            del self._entries[key]
+
+        if expired:
+            self.metrics['evicted_idle'] += len(expired)
+            self.logger.debug(f"Evicted {len(expired)} idle session agents")
+        return len(expired)
+
+    def _ensure_sweeper(self) -> None:
+        if self._sweeper is None or self._sweeper.done():
+            self._sweeper = asyncio.create_task(self._sweep_loop())
+
+    async def _sweep_loop(self) -> None:
+        while True:
+            try:
+                await asyncio.sleep(self.config.sweep_interval)
+                self.evict_idle()
+            except asyncio.CancelledError:
+                break
+            except Exception as e:
+                self.logger.error(f"Error evicting idle session agents: {e}")
+
+    async def close(self) -> None:
+        """Stop the sweeper and drop all agents"""
+        if self._sweeper is not None:
+            self._sweeper.cancel()
+            try:
+                await self._sweeper
+            except asyncio.CancelledError:
+                pass
+            self._sweeper = None
+        self._entries.clear()
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Get pool statistics"""
+        lookups = self.metrics['hits'] + self.metrics['misses']
+        return {
+            **self.metrics,
+            'size': self.size,
+            'max_sessions': self.config.max_sessions,
+            'in_use': sum(1 for entry in self._entries.values() if entry.in_use),
+            'hit_ratio': self.metrics['hits'] / lookups if lookups else 0.0,
+            'average_create_time': (
+                self.metrics['total_create_time'] / self.metrics['misses'] if self.metrics['misses'] else 0.0
+            )
+        }
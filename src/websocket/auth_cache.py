@@ -0,0 +1,186 @@
+"""
+Token Cache - Bounded cache of JWT verification results
+
+Verifying a JWT costs an HMAC (or signature check) plus claim validation.
+After a deploy every client reconnects with the token it already had, so the
+same few thousand tokens are verified again at once. The cache:
+- Is keyed by the SHA-256 digest of the token, never the token itself
+- Is bounded, evicting least recently used entries
+- Keeps a verified token no longer than the cache TTL or the token's own exp
+- Remembers invalid tokens for a short negative TTL so replayed garbage is
+  rejected without decoding it again
+"""
+
+import hashlib
+import time
+from collections import OrderedDict
+from dataclasses import dataclass
+from typing import Any, Dict, Optional
+
+
+@dataclass
+class CachedToken:
+    """A verified token"""
+    user_id: str
+    payload: Dict[str, Any]
+    expires_at: float
+
+
+@dataclass
+class RejectedToken:
+    """A token that failed verification"""
+    reason: str
+    expires_at: float
+
+
+def token_key(token: str) -> bytes:
+    """Cache key for a token"""
+    return hashlib.sha256(token.encode("utf-8")).digest()
+
+
+class TokenCache:
+    """
+    LRU + TTL cache of positive and negative verification results.
+
+    Times are wall-clock (time.time()) because they are compared with the
+    token's exp claim.
+    """
+
+    def __init__(
+        self,
+        max_entries: int = 10000,
+        ttl: float = 300.0,
+        negative_ttl: float = 30.0,
+        max_negative_entries: int = 10000
+    ):
+        self.max_entries = max_entries
+        self.ttl = ttl
+        self.negative_ttl = negative_ttl
+        self.max_negative_entries = max_negative_entries
+
+        self._valid: "OrderedDict[bytes, CachedToken]" = OrderedDict()
+        self._invalid: "OrderedDict[bytes, RejectedToken]" = OrderedDict()
+
+        self.metrics = {
+            'hits': 0,
+            'misses': 0,
+            'negative_hits': 0,
+            'evictions': 0,
+            'expirations': 0
+        }
+
+    def get(self, token: str, now: Optional[float] = None) -> Optional[CachedToken]:
+        """Get a cached verification; None on miss or expiry"""
+        now = time.time() if now is None else now
+        key = token_key(token)
+
+        entry = self._valid.get(key)
+        if entry is None:
+            self.metrics['misses'] += 1
+            return None
+
+        if entry.expires_at <= now:
+            del self._valid[key]
+            self.metrics['expirations'] += 1
+            self.metrics['misses'] += 1
+            return None
+
+        self._valid.move_to_end(key)
+        self.metrics['hits'] += 1
+        return entry
+
+    def get_rejection(self, token: str, now: Optional[float] = None) -> Optional[RejectedToken]:
+        """Get a cached rejection; None if the token has not recently failed"""
+        if self.negative_ttl <= 0:
+            return None
+
+        now = time.time() if now is None else now
+        key = token_key(token)
+
+        entry = self._invalid.get(key)
+        if entry is None:
+            return None
+
+        if entry.expires_at <= now:
+            del self._invalid[key]
+            return None
+
+        self.metrics['negative_hits'] += 1
+        return entry
+
+    def put(self, token: str, user_id: str, payload: Dict[str, Any], now: Optional[float] = None) -> None:
+        """Cache a verified token until min(now + ttl, exp)"""
+        if self.max_entries <= 0:
+            return
+
+        now = time.time() if now is None else now
+        expires_at = now + self.ttl
+
+        exp = payload.get('exp')
+        if isinstance(exp, (int, float)):
+            expires_at = min(expires_at, float(exp))
+        if expires_at <= now:
+            return
+
+        key = token_key(token)
+        self._valid[key] = CachedToken(user_id, payload, expires_at)
+        self._valid.move_to_end(key)
+
+        while len(self._valid) > self.max_entries:
+            self._valid.popitem(last=False)
+            self.metrics['evictions'] += 1
+
+    def put_rejection(self, token: str, reason: str, now: Optional[float] = None) -> None:
+        """Remember that a token failed verification"""
+        if self.negative_ttl <= 0 or self.max_negative_entries <= 0:
+            return
+
+        now = time.time() if now is None else now
+        key = token_key(token)
+        self._invalid[key] = RejectedToken(reason, now + self.negative_ttl)
+        self._invalid.move_to_end(key)
+
+        while len(self._invalid) > self.max_negative_entries:
+            self._invalid.popitem(last=False)
+            self.metrics['evictions'] += 1
+
+    def remove_user(self, user_id: str) -> int:
+        """Drop every cached token of a user; returns how many were removed"""
+        keys = [key for key, entry in self._valid.items() if entry.user_id == user_id]
+        for key in keys:
+            del self._valid[key]
+        return len(keys)
+
+    def sweep(self, now: Optional[float] = None) -> int:
+        """Remove expired entries; returns how many were removed"""
+        now = time.time() if now is None else now
+
+        expired = [key for key, entry in self._valid.items() if entry.expires_at <= now]
+        for key in expired:
+            del self._valid[key]
+
+        rejected = [key for key, entry in self._invalid.items() if entry.expires_at <= now]
+        for key in rejected:
+            del self._invalid[key]
+
+        self.metrics['expirations'] += len(expired)
+        return len(expired) + len(rejected)
+
+    def clear(self) -> None:
+        self._valid.clear()
+        self._invalid.clear()
+
+    def __len__(self) -> int:
+        return len(self._valid)
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Get cache statistics"""
+        lookups = self.metrics['hits'] + self.metrics['misses']
+        return {
+            **self.metrics,
+            'size': len(self._valid),
+            'negative_size': len(self._invalid),
+            'max_entries': self.max_entries,
+            'hit_ratio': self.metrics['hits'] / lookups if lookups else 0.0
+        }
@@ -0,0 +1,652 @@
+"""
+WebSocket Cluster - Multi-process server with SO_REUSEPORT sharding
+
+A single WebSocketServer is bound to one core: envelope validation, JSON,
+JWT decoding and logging all run on one event loop. Cluster mode runs a
+supervisor that forks N worker processes, each with its own server bound to
+the same port via SO_REUSEPORT so the kernel spreads connections.
+
+Workers talk through a local IPC bus hosted by the supervisor on a Unix
+socket (no external broker). The bus is a star: a worker sends a "scatter"
+request, the hub forwards it as a "call" to the other workers, gathers their
+replies and returns them to the origin. This backs:
+- WebSocketManager.send_to_user / broadcast_system_event across workers
+- WebSocketManager.get_user_sessions across workers
+- Aggregated statistics (get_cluster_stats / supervisor metrics log)
+
+Frames are length-prefixed JSON (4-byte big-endian length + UTF-8 body).
+
+Usage:
+    python -m src.websocket.cluster --workers 4 --port 8765
+    python -m src.websocket.cluster --workers 4 --mock-agent   # no LLM needed
+"""
+
+import asyncio
+import json
+import multiprocessing
+import os
+import signal
+import struct
+import tempfile
+import uuid
+from typing import Any, Awaitable, Callable, Dict, List, Optional
+
+try:
+    from src.logging_config import get_logger
+    from config.models import WebSocketConfig
+except ImportError:
+    import sys
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from config.models import WebSocketConfig
+
+
+_FRAME_HEADER = struct.Struct(">I")
+MAX_FRAME_SIZE = 64 * 1024 * 1024
+
+CallHandler = Callable[[Dict[str, Any]], Awaitable[Any]]
+AgentFactory = Callable[[WebSocketConfig], Any]
+
+
+class ClusterError(Exception):
+    """Base exception for cluster errors"""
+    pass
+
+
+class _FramedConnection:
+    """Length-prefixed JSON frames over an asyncio stream pair"""
+
+    def __init__(self, reader: asyncio.StreamReader, writer: asyncio.StreamWriter):
+        self.reader = reader
+        self.writer = writer
+        self._write_lock = asyncio.Lock()
+
+    async def send(self, message: Dict[str, Any]) -> None:
+        data = json.dumps(message, default=str).encode("utf-8")
+        async with self._write_lock:
+            self.writer.write(_FRAME_HEADER.pack(len(data)) + data)
+            await self.writer.drain()
+
+    async def recv(self) -> Dict[str, Any]:
+        header = await self.reader.readexactly(_FRAME_HEADER.size)
+        (length,) = _FRAME_HEADER.unpack(header)
+        if length > MAX_FRAME_SIZE:
+            raise ClusterError(f"IPC frame too large: {length} bytes")
+        return json.loads(await self.reader.readexactly(length))
+
+    def close(self) -> None:
+        try:
+            self.writer.close()
+        except Exception:
+            pass
+
+
+# ==================== HUB (supervisor side) ====================
+
+class ClusterHub:
+    """
+    IPC hub hosted by the supervisor.
+
+    Routes scatter requests from one worker to the others and gathers the
+    replies. Workers that do not answer within the timeout are left out of
+    the result rather than failing the whole request.
+    """
+
+    def __init__(self, path: str, request_timeout: float = 2.0):
+        self.path = path
+        self.request_timeout = request_timeout
+        self.logger = get_logger("ClusterHub")
+
+        self._server: Optional[asyncio.AbstractServer] = None
+        self._workers: Dict[str, _FramedConnection] = {}
+        self._pending: Dict[str, asyncio.Future] = {}
+        self._tasks: set = set()
+
+    @property
+    def worker_ids(self) -> List[str]:
+        return list(self._workers)
+
+    async def start(self) -> None:
+        """Listen on the Unix socket"""
+        if os.path.exists(self.path):
+            os.unlink(self.path)
+        self._server = await asyncio.start_unix_server(self._handle_worker, path=self.path)
+        self.logger.info(f"Cluster IPC hub listening on {self.path}")
+
+    async def stop(self) -> None:
+        """Stop listening and drop worker links"""
+        if self._server is not None:
+            self._server.close()
+            await self._server.wait_closed()
+            self._server = None
+
+        for connection in self._workers.values():
+            connection.close()
+        self._workers.clear()
+
+        for future in self._pending.values():
+            if not future.done():
+                future.cancel()
+        self._pending.clear()
+
+        if os.path.exists(self.path):
+            os.unlink(self.path)
+
+    async def _handle_worker(self, reader: asyncio.StreamReader, writer: asyncio.StreamWriter) -> None:
+        connection = _FramedConnection(reader, writer)
+        worker_id = None
+        try:
+            hello = await asyncio.wait_for(connection.recv(), timeout=self.request_timeout)
+            if hello.get("op") != "hello" or not hello.get("worker_id"):
+                raise ClusterError(f"Unexpected first frame: {hello.get('op')}")
+
+            worker_id = hello["worker_id"]
+            self._workers[worker_id] = connection
+            self.logger.info(f"Worker {worker_id} joined the IPC bus (pid {hello.get('pid')})")
+
+            while True:
+                message = await connection.recv()
+                op = message.get("op")
+
+                if op == "reply":
+                    future = self._pending.pop(message.get("id"), None)
+                    if future is not None and not future.done():
+                        future.set_result(message.get("result"))
+
+                elif op == "scatter":
+                    task = asyncio.create_task(self._serve_scatter(worker_id, connection, message))
+                    self._tasks.add(task)
+                    task.add_done_callback(self._tasks.discard)
+
+                else:
+                    self.logger.warning(f"Unknown IPC op from worker {worker_id}: {op}")
+
+        except (asyncio.IncompleteReadError, ConnectionError):
+            pass
+        except Exception as e:
+            self.logger.error(f"IPC link error for worker {worker_id}: {e}")
+        finally:
+            if worker_id is not None and self._workers.get(worker_id) is connection:
+                del self._workers[worker_id]
+                self.logger.info(f"Worker {worker_id} left the IPC bus")
+            connection.close()
+
+    async def _serve_scatter(self, origin: str, connection: _FramedConnection, message: Dict[str, Any]) -> None:
+        exclude = None if message.get("include_self") else origin
+        results = await self.scatter(message.get("call"), message.get("args") or {}, exclude=exclude)
+        try:
+            await connection.send({"op": "reply", "id": message.get("id"), "result": results})
+        except Exception as e:
+            self.logger.debug(f"Could not return scatter result to worker {origin}: {e}")
+
+    async def scatter(
+        self,
+        call: str,
+        args: Dict[str, Any],
+        exclude: Optional[str] = None
+    ) -> List[Dict[str, Any]]:
+        """
+        Invoke a call on every worker (except `exclude`) and gather replies.
+
+        Returns:
+            List of {"worker_id": ..., "result": ...} for workers that replied
+        """
+        targets = [(worker_id, conn) for worker_id, conn in self._workers.items() if worker_id != exclude]
+        if not targets:
+            return []
+
+        replies = await asyncio.gather(
+            *(self._call_worker(worker_id, conn, call, args) for worker_id, conn in targets)
+        )
+        return [reply for reply in replies if reply is not None]
+
+    async def _call_worker(
+        self,
+        worker_id: str,
+        connection: _FramedConnection,
+        call: str,
+        args: Dict[str, Any]
+    ) -> Optional[Dict[str, Any]]:
+        request_id = uuid.uuid4().hex
+        future = asyncio.get_running_loop().create_future()
+        self._pending[request_id] = future
+        try:
+            await connection.send({"op": "call", "id": request_id, "call": call, "args": args})
+            result = await asyncio.wait_for(future, timeout=self.request_timeout)
+            return {"worker_id": worker_id, "result": result}
+        except asyncio.TimeoutError:
+            self.logger.warning(f"Worker {worker_id} did not answer '{call}' in time")
+            return None
+        except Exception as e:
+            self.logger.warning(f"Call '{call}' to worker {worker_id} failed: {e}")
+            return None
+        finally:
+            self._pending.pop(request_id, None)
+
+
+# ==================== NODE (worker side) ====================
+
+class ClusterNode:
+    """
+    A worker's link to the IPC hub.
+
+    Serves calls from peers through registered handlers and lets local code
+    invoke a call on all peers with call_peers().
+    """
+
+    def __init__(self, worker_id: str, path: str, request_timeout: float = 2.0):
+        self.worker_id = worker_id
+        self.path = path
+        self.request_timeout = request_timeout
+        self.logger = get_logger("ClusterNode")
+
+        self._connection: Optional[_FramedConnection] = None
+        self._handlers: Dict[str, CallHandler] = {}
+        self._pending: Dict[str, asyncio.Future] = {}
+        self._reader_task: Optional[asyncio.Task] = None
+        self._tasks: set = set()
+
+    @property
+    def is_connected(self) -> bool:
+        return self._connection is not None
+
+    def register(self, call: str, handler: CallHandler) -> None:
+        """Register the coroutine that answers `call` from peers"""
+        self._handlers[call] = handler
+
+    async def connect(self, attempts: int = 50, delay: float = 0.1) -> None:
+        """Connect to the hub, retrying while the supervisor comes up"""
+        last_error: Optional[Exception] = None
+        for _ in range(attempts):
+            try:
+                reader, writer = await asyncio.open_unix_connection(self.path)
+                break
+            except (FileNotFoundError, ConnectionRefusedError) as e:
+                last_error = e
+                await asyncio.sleep(delay)
+        else:
+            raise ClusterError(f"Could not reach cluster IPC hub at {self.path}: {last_error}")
+
+        self._connection = _FramedConnection(reader, writer)
+        await self._connection.send({"op": "hello", "worker_id": self.worker_id, "pid": os.getpid()})
+        self._reader_task = asyncio.create_task(self._read_loop())
+        self.logger.info(f"Worker {self.worker_id} connected to IPC hub")
+
+    async def close(self) -> None:
+        """Disconnect from the hub"""
+        if self._reader_task is not None:
+            self._reader_task.cancel()
+            try:
+                await self._reader_task
+            except asyncio.CancelledError:
+                pass
+            self._reader_task = None
+
+        if self._connection is not None:
+            self._connection.close()
+            self._connection = None
+
+        for future in self._pending.values():
+            if not future.done():
+                future.cancel()
+        self._pending.clear()
+
+    async def call_peers(
+        self,
+        call: str,
+        args: Optional[Dict[str, Any]] = None,
+        include_self: bool = False
+    ) -> List[Dict[str, Any]]:
+        """
+        Invoke a call on the other workers.
+
+        Returns:
+            List of {"worker_id": ..., "result": ...}; empty if the bus is down
+        """
+        if self._connection is None:
+            return []
+
+        request_id = uuid.uuid4().hex
+        future = asyncio.get_running_loop().create_future()
+        self._pending[request_id] = future
+        try:
+            await self._connection.send({
+                "op": "scatter",
+                "id": request_id,
+                "call": call,
+                "args": args or {},
+                "include_self": include_self
+            })
+            # The hub waits up to request_timeout for each peer
+            return await asyncio.wait_for(future, timeout=self.request_timeout * 2) or []
+        except asyncio.TimeoutError:
+            self.logger.warning(f"Cluster call '{call}' timed out")
+            return []
+        except Exception as e:
+            self.logger.warning(f"Cluster call '{call}' failed: {e}")
+            return []
+        finally:
+            self._pending.pop(request_id, None)
+
+    async def _read_loop(self) -> None:
+        try:
+            while True:
+                message = await self._connection.recv()
+                op = message.get("op")
+
+                if op == "reply":
+                    future = self._pending.pop(message.get("id"), None)
+                    if future is not None and not future.done():
+                        future.set_result(message.get("result"))
+
+                elif op == "call":
+                    task = asyncio.create_task(self._serve_call(message))
+                    self._tasks.add(task)
+                    task.add_done_callback(self._tasks.discard)
+
+        except asyncio.CancelledError:
+            raise
+        except (asyncio.IncompleteReadError, ConnectionError):
+            self.logger.warning(f"Worker {self.worker_id} lost its IPC hub connection")
+        except Exception as e:
+            self.logger.error(f"IPC read error in worker {self.worker_id}: {e}")
+        finally:
+            if self._connection is not None:
+                self._connection.close()
+                self._connection = None
+
+    async def _serve_call(self, message: Dict[str, Any]) -> None:
+        call = message.get("call")
+        handler = self._handlers.get(call)
+        try:
+            result = await handler(message.get("args") or {}) if handler else None
+        except Exception as e:
+            self.logger.error(f"Cluster call '{call}' failed locally: {e}")
+            result = None
+
+        if self._connection is not None:
+            try:
+                await self._connection.send({"op": "reply", "id": message.get("id"), "result": result})
+            except Exception as e:
+                self.logger.debug(f"Could not reply to cluster call '{call}': {e}")
+
+
+# ==================== STATS AGGREGATION ====================
+
+def aggregate_stats(per_worker: Dict[str, Dict[str, Any]]) -> Dict[str, Any]:
+    """
+    Merge per-worker stats into a single view.
+
+    Counters are summed; values whose key mentions "max" or "uptime" take the
+    maximum; averages and percentiles cannot be merged from summaries and are
+    left to the per-worker breakdown.
+    """
+    def merge(values: List[Dict[str, Any]]) -> Dict[str, Any]:
+        merged: Dict[str, Any] = {}
+        keys = {key for value in values for key in value}
+        for key in keys:
+            items = [value[key] for value in values if key in value]
+            if all(isinstance(item, dict) for item in items):
+                merged[key] = merge(items)
+                continue
+
+            numbers = [
+                item for item in items
+                if isinstance(item, (int, float)) and not isinstance(item, bool)
+            ]
+            if not numbers or len(numbers) != len(items):
+                continue
+
+            lowered = key.lower()
+            if "max" in lowered or "uptime" in lowered:
+                merged[key] = max(numbers)
+            elif any(marker in lowered for marker in ("average", "avg", "mean", "p50", "p95", "p99", "ratio")):
+                continue
+            else:
+                merged[key] = sum(numbers)
+        return merged
+
+    return {
+        **merge(list(per_worker.values())),
+        'workers': len(per_worker),
+        'per_worker': per_worker
+    }
+
+
+# ==================== WORKER PROCESS ====================
+
+class EchoQAAgent:
+    """Minimal agent for exercising cluster mode without an LLM"""
+
+    async def chat(self, message: str) -> str:
+        return f"Echo: {message}"
+
+    async def process_message(
+        self,
+        message: str,
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        metadata: Optional[Dict[str, Any]] = None
+    ) -> str:
+        return f"[pid {os.getpid()}] Echo: {message}"
+
+
+def create_default_agent(config: WebSocketConfig):
+    """Build the QA agent inside a worker process"""
+    from src.websocket.qa_agent_adapter import QAAgentAdapter
+
+    return QAAgentAdapter(
+        user_id="websocket_qa_agent@qai.com",
+        enable_reasoning=True,
+        enable_memory=True,
+        execution_config=config.agent_execution,
+        pool_config=config.agent_pool,
+        cache_config=config.response_cache
+    )
+
+
+def create_echo_agent(config: WebSocketConfig):
+    return EchoQAAgent()
+
+
+def _reset_inherited_signals() -> None:
+    """Drop signal state forked from the supervisor's event loop"""
+    try:
+        signal.set_wakeup_fd(-1)
+    except (ValueError, OSError):
+        pass
+    # The supervisor owns Ctrl+C and stops workers with SIGTERM
+    signal.signal(signal.SIGINT, signal.SIG_IGN)
+    signal.signal(signal.SIGTERM, signal.SIG_DFL)
+
+
+def _worker_main(worker_id: str, config: WebSocketConfig, agent_factory: AgentFactory, ipc_path: str) -> None:
+    """Process entry point for a worker"""
+    _reset_inherited_signals()
+    asyncio.run(_run_worker(worker_id, config, agent_factory, ipc_path))
+
+
+async def _run_worker(worker_id: str, config: WebSocketConfig, agent_factory: AgentFactory, ipc_path: str) -> None:
+    # Imported here so the supervisor does not pay for the server stack
+    from src.websocket.server import WebSocketServer
+
+    logger = get_logger("ClusterWorker")
+
+    stop_event = asyncio.Event()
+    loop = asyncio.get_running_loop()
+    loop.add_signal_handler(signal.SIGTERM, stop_event.set)
+
+    # Agents hold threads, SQLite handles and HTTP clients; build them post-fork
+    qa_agent = agent_factory(config)
+
+    node = ClusterNode(worker_id, ipc_path, request_timeout=config.cluster.request_timeout)
+    server = WebSocketServer(config, qa_agent)
+
+    await node.connect()
+    server.manager.attach_cluster(node)
+
+    await server.start()
+    logger.info(f"Worker {worker_id} (pid {os.getpid()}) serving on {config.get_server_address()}")
+
+    try:
+        await stop_event.wait()
+    finally:
+        await server.stop()
+        await node.close()
+        logger.info(f"Worker {worker_id} stopped")
+
+
+# ==================== SUPERVISOR ====================
+
+class ClusterSupervisor:
+    """
+    Forks and supervises worker processes and hosts the IPC hub.
+
+    Workers are forked (not spawned) so agent factories and configs do not
+    need to be importable by name; each worker builds its own agent after
+    the fork.
+    """
+
+    def __init__(self, config: WebSocketConfig, agent_factory: AgentFactory = create_default_agent):
+        # Workers share the port through SO_REUSEPORT
+        self.config = config.model_copy(deep=True)
+        self.config.server.reuse_port = True
+        self.agent_factory = agent_factory
+
+        self.num_workers = self.config.cluster.resolve_workers()
+        self.ipc_path = self.config.cluster.ipc_path or os.path.join(
+            tempfile.gettempdir(), f"qa-websocket-{os.getpid()}.sock"
+        )
+
+        self.hub = ClusterHub(self.ipc_path, request_timeout=self.config.cluster.request_timeout)
+        self.workers: Dict[str, multiprocessing.Process] = {}
+        self.restarts = 0
+
+        self._context = multiprocessing.get_context("fork")
+        self._stopping = False
+        self.logger = get_logger("ClusterSupervisor")
+
+    def _spawn(self, worker_id: str) -> None:
+        process = self._context.Process(
+            target=_worker_main,
+            args=(worker_id, self.config, self.agent_factory, self.ipc_path),
+            name=f"qa-websocket-{worker_id}",
+            daemon=False
+        )
+        process.start()
+        self.workers[worker_id] = process
+        self.logger.info(f"Started worker {worker_id} (pid {process.pid})")
+
+    async def get_stats(self) -> Dict[str, Any]:
+        """Aggregated statistics from all workers"""
+        replies = await self.hub.scatter("stats", {})
+        stats = aggregate_stats({reply["worker_id"]: reply["result"] or {} for reply in replies})
+        stats['workers_configured'] = self.num_workers
+        stats['worker_restarts'] = self.restarts
+        return stats
+
+    async def run(self) -> None:
+        """Run until SIGINT/SIGTERM"""
+        stop_event = asyncio.Event()
+        loop = asyncio.get_running_loop()
+        for sig in (signal.SIGINT, signal.SIGTERM):
+            loop.add_signal_handler(sig, stop_event.set)
+
+        await self.hub.start()
+        for index in range(self.num_workers):
+            self._spawn(f"w{index}")
+
+        self.logger.info(
+            f"Cluster running {self.num_workers} workers on {self.config.get_server_address()}"
+        )
+
+        monitor = asyncio.create_task(self._monitor_workers())
+        metrics = asyncio.create_task(self._log_metrics()) if self.config.enable_metrics else None
+
+        try:
+            await stop_event.wait()
+        finally:
+            self._stopping = True
+            monitor.cancel()
+            if metrics is not None:
+                metrics.cancel()
+            await self._stop_workers()
+            await self.hub.stop()
+            self.logger.info("Cluster stopped")
+
+    async def _monitor_workers(self) -> None:
+        """Restart workers that exit unexpectedly"""
+        while not self._stopping:
+            await asyncio.sleep(1.0)
+            for worker_id, process in list(self.workers.items()):
+                if process.is_alive() or self._stopping:
+                    continue
+
+                self.logger.warning(f"Worker {worker_id} exited with code {process.exitcode}")
+                process.close()
+                del self.workers[worker_id]
+
+                if self.config.cluster.restart_workers:
+                    await asyncio.sleep(self.config.cluster.restart_backoff)
+                    if not self._stopping:
+                        self.restarts += 1
+                        self._spawn(worker_id)
+
+    async def _log_metrics(self) -> None:
+        while not self._stopping:
+            await asyncio.sleep(self.config.metrics_interval)
+            try:
+                stats = await self.get_stats()
+                stats.pop('per_worker', None)
+                self.logger.info(f"Cluster metrics: {stats}")
+            except Exception as e:
+                self.logger.error(f"Error collecting cluster metrics: {e}")
+
+    async def _stop_workers(self) -> None:
+        for process in self.workers.values():
+            if process.is_alive():
+                process.terminate()
+
+        timeout = self.config.cluster.shutdown_timeout
+        await asyncio.gather(
+            *(asyncio.to_thread(process.join, timeout) for process in self.workers.values()),
+            return_exceptions=True
+        )
+
+        for worker_id, process in self.workers.items():
+            if process.is_alive():
+                self.logger.warning(f"Worker {worker_id} did not stop in {timeout}s, killing it")
+                process.kill()
+                process.join()
+        self.workers.clear()
+
+
+def run_cluster(config: WebSocketConfig, agent_factory: AgentFactory = create_default_agent) -> None:
+    """Run the WebSocket server in cluster mode (blocks until stopped)"""
+    asyncio.run(ClusterSupervisor(config, agent_factory).run())
+
+
+if __name__ == "__main__":
+    import argparse
+
+    try:
+        from config.models import ServerConfig, SecurityConfig, AuthenticationConfig, ClusterConfig
+    except ImportError:
+        import sys
+        sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+        from config.models import ServerConfig, SecurityConfig, AuthenticationConfig, ClusterConfig
+
+    parser = argparse.ArgumentParser(description="Run the QA Intelligence WebSocket server in cluster mode")
+    parser.add_argument("--host", default="127.0.0.1", help="Bind host")
+    parser.add_argument("--port", type=int, default=8765, help="Bind port")
+    parser.add_argument("--workers", type=int, default=0, help="Worker processes (0 = one per CPU)")
+    parser.add_argument("--mock-agent", action="store_true", help="Use an echo agent instead of the QA agent")
+    args = parser.parse_args()
+
+    ws_config = WebSocketConfig(
+        server=ServerConfig(host=args.host, port=args.port),
+        security=SecurityConfig(authentication=AuthenticationConfig(enabled=False)),
+        cluster=ClusterConfig(enabled=True, workers=args.workers)
+    )
+
+    run_cluster(ws_config, create_echo_agent if args.mock_agent else create_default_agent)
@@ -0,0 +1,155 @@
+"""
+WebSocket Compression - Tuned, metered permessage-deflate
+
+Agent responses are long markdown reports that compress very well, while
+stream chunks, pings and acks are too small to be worth the CPU. This module
+wraps the websockets permessage-deflate extension so that:
+- Messages below a minimum size are sent uncompressed (RFC 7692 allows any
+  message to skip compression; skipped messages do not touch the shared
+  compression context)
+- The LZ77 window (window bits) and zlib memory level are configurable,
+  trading ratio for per-connection memory
+- Each connection records bytes before/after compression and the CPU time
+  spent compressing and decompressing
+"""
+
+import time
+from typing import Any, Dict, Iterable, List, Optional
+
+from websockets.extensions.permessage_deflate import PerMessageDeflate, ServerPerMessageDeflateFactory
+from websockets.frames import CTRL_OPCODES, OP_BINARY, OP_TEXT, Frame
+
+try:
+    from config.models import ServerConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from config.models import ServerConfig
+
+
+def new_compression_stats() -> Dict[str, float]:
+    """Counters kept per connection (and summed per server)"""
+    return {
+        'messages_compressed': 0,
+        'messages_skipped': 0,
+        'bytes_in': 0,
+        'bytes_out': 0,
+        'compress_cpu_seconds': 0.0,
+        'messages_decompressed': 0,
+        'inbound_bytes_wire': 0,
+        'inbound_bytes': 0,
+        'decompress_cpu_seconds': 0.0
+    }
+
+
+def summarize_compression(stats: Dict[str, float]) -> Dict[str, Any]:
+    """Counters plus derived ratios (original / wire size, higher is better)"""
+    return {
+        **stats,
+        'ratio': stats['bytes_in'] / stats['bytes_out'] if stats['bytes_out'] else 1.0,
+        'inbound_ratio': stats['inbound_bytes'] / stats['inbound_bytes_wire'] if stats['inbound_bytes_wire'] else 1.0,
+        'cpu_ms': (stats['compress_cpu_seconds'] + stats['decompress_cpu_seconds']) * 1000
+    }
+
+
+class MeteredPerMessageDeflate(PerMessageDeflate):
+    """
+    permessage-deflate for one connection with a size threshold and metrics.
+
+    CPU time is measured with time.thread_time(): frames are encoded and
+    decoded on the event loop thread, so agent worker threads do not skew it.
+    """
+
+    def __init__(self, *args, min_size: int = 0, **kwargs):
+        super().__init__(*args, **kwargs)
+        self.min_size = min_size
+        self.stats = new_compression_stats()
+
+    def encode(self, frame: Frame) -> Frame:
+        if frame.opcode in CTRL_OPCODES:
+            return super().encode(frame)
+
+        size = len(frame.data)
+        self.stats['bytes_in'] += size
+
+        # Whole small messages go out as they are
+        if frame.fin and frame.opcode in (OP_TEXT, OP_BINARY) and size < self.min_size:
+            self.stats['messages_skipped'] += 1
+            self.stats['bytes_out'] += size
+            return frame
+
+        started = time.thread_time()
+        encoded = super().encode(frame)
+        self.stats['compress_cpu_seconds'] += time.thread_time() - started
+
+        if frame.fin:
+            self.stats['messages_compressed'] += 1
+        self.stats['bytes_out'] += len(encoded.data)
+        return encoded
+
+    def decode(self, frame: Frame, *, max_size: Optional[int] = None) -> Frame:
+        if frame.opcode in CTRL_OPCODES:
+            return super().decode(frame, max_size=max_size)
+
+        started = time.thread_time()
+        decoded = super().decode(frame, max_size=max_size)
+        self.stats['decompress_cpu_seconds'] += time.thread_time() - started
+
+        if frame.rsv1:
+            self.stats['messages_decompressed'] += 1
+        self.stats['inbound_bytes_wire'] += len(frame.data)
+        self.stats['inbound_bytes'] += len(decoded.data)
+        return decoded
+
+
+class MeteredDeflateFactory(ServerPerMessageDeflateFactory):
+    """Negotiates permessage-deflate and hands each connection a MeteredPerMessageDeflate"""
+
+    def __init__(self, min_size: int = 0, **kwargs):
+        super().__init__(**kwargs)
+        self.min_size = min_size
+
+    def process_request_params(self, params, accepted_extensions):
+        response_params, extension = super().process_request_params(params, accepted_extensions)
+        return response_params, MeteredPerMessageDeflate(
+            extension.remote_no_context_takeover,
+            extension.local_no_context_takeover,
+            extension.remote_max_window_bits,
+            extension.local_max_window_bits,
+            self.compress_settings,
+            min_size=self.min_size
+        )
+
+
+def build_compression_extensions(config: ServerConfig) -> List[MeteredDeflateFactory]:
+    """Server extension factories for websockets.serve(extensions=...)"""
+    return [
+        MeteredDeflateFactory(
+            min_size=config.compression_min_size,
+            server_max_window_bits=config.compression_window_bits,
+            client_max_window_bits=config.compression_window_bits,
+            compress_settings={
+                'memLevel': config.compression_memory_level,
+                'level': config.compression_level
+            }
+        )
+    ]
+
+
+def connection_compression(websocket) -> Optional[MeteredPerMessageDeflate]:
+    """The negotiated compression extension of a connection, if any"""
+    protocol = getattr(websocket, "protocol", websocket)
+    for extension in getattr(protocol, "extensions", None) or ():
+        if isinstance(extension, MeteredPerMessageDeflate):
+            return extension
+    return None
+
+
+def merge_compression_stats(total: Dict[str, float], stats: Iterable[Dict[str, float]]) -> Dict[str, float]:
+    """Sum connection counters into a copy of total"""
+    merged = dict(total)
+    for connection_stats in stats:
+        for key, value in connection_stats.items():
+            merged[key] = merged.get(key, 0) + value
+    return merged
@@ -9,16 +9,31 @@ Arquitectura:
 - Payloads tipados usando uniones discriminadas de Pydantic
 - Validación automática y serialización JSON
 - Compatibilidad con múltiples versiones de protocolo
+- Parseo en dos fases: cabecera primero (routing, middleware) y payload
+  validado sólo cuando un handler lo necesita
+- Codecs intercambiables: JSON (orjson si está instalado) y MessagePack
+  binario negociado como subprotocolo
 """
 
 from datetime import datetime
-from typing import Optional, Any, Dict, List, Union, Literal
+from typing import Optional, Any, Dict, List, Sequence, Union, Literal
 from pydantic import BaseModel, Field, field_validator
 from enum import Enum
 import json
 import uuid
 import time
 
+# Aceleradores opcionales (extra "performance")
+try:
+    import orjson
+except ImportError:
+    orjson = None
+
+try:
+    import msgpack
+except ImportError:
+    msgpack = None
+
 
 class ProtocolVersion(str, Enum):
     """Versiones soportadas del protocolo WebSocket"""
@@ -35,6 +50,10 @@ class MessageType(str, Enum):
     ERROR_EVENT = "error_event"
     CONNECTION_EVENT = "connection_event"
     HEALTH_CHECK = "health_check"
+    STREAM_START = "stream_start"
+    STREAM_CHUNK = "stream_chunk"
+    STREAM_END = "stream_end"
+    BATCH = "batch"
 
 
 # ==================== PAYLOAD MODELS ====================
@@ -106,6 +125,42 @@ class HealthCheckPayload(BasePayload):
     metrics: Optional[Dict[str, Any]] = None
 
 
+class StreamStartPayload(BasePayload):
+    """Payload para el inicio de una respuesta del agente en streaming"""
+    message_type: Literal["stream_start"] = "stream_start"
+    stream_id: str = Field(..., description="ID del stream (id del mensaje de chat original)")
+    response_type: str = Field(default="markdown")
+
+
+class StreamChunkPayload(BasePayload):
+    """Payload para un fragmento de una respuesta en streaming"""
+    message_type: Literal["stream_chunk"] = "stream_chunk"
+    stream_id: str
+    sequence: int = Field(..., ge=0, description="Número de secuencia del fragmento (desde 0)")
+    delta: str = Field(..., min_length=1)
+
+
+class StreamEndPayload(BasePayload):
+    """Payload para el cierre de una respuesta en streaming"""
+    message_type: Literal["stream_end"] = "stream_end"
+    stream_id: str
+    total_chunks: int = Field(default=0, ge=0)
+    finish_reason: Literal["completed", "cancelled", "error"] = "completed"
+    execution_time: Optional[float] = None
+    error_message: Optional[str] = None
+
+
+class BatchPayload(BasePayload):
+    """
+    Payload de un frame batch: varios envelopes pequeños en un solo frame.
+    
+    Sólo se envía a clientes que anunciaron la capacidad "batch" en el
+    handshake; cada elemento es un envelope completo (ver unpack_batch).
+    """
+    message_type: Literal["batch"] = "batch"
+    envelopes: List[Dict[str, Any]] = Field(..., min_length=1)
+
+
 # ==================== DISCRIMINATED UNION ====================
 
 WebSocketPayload = Union[
@@ -114,7 +169,11 @@ WebSocketPayload = Union[
     SystemEventPayload,
     ErrorEventPayload,
     ConnectionEventPayload,
-    HealthCheckPayload
+    HealthCheckPayload,
+    StreamStartPayload,
+    StreamChunkPayload,
+    StreamEndPayload,
+    BatchPayload
 ]
 
 
@@ -220,6 +279,138 @@ class WebSocketEnvelope(BaseModel):
     def is_health_check(self) -> bool:
         """Verificar si es un health check"""
         return isinstance(self.payload, HealthCheckPayload)
+    
+    def is_stream_event(self) -> bool:
+        """Verificar si es un evento de streaming (start/chunk/end)"""
+        return isinstance(self.payload, (StreamStartPayload, StreamChunkPayload, StreamEndPayload))
+    
+    @property
+    def has_payload(self) -> bool:
+        """Verificar si el envelope trae payload"""
+        return bool(self.payload)
+
+
+# ==================== LAZY ENVELOPE ====================
+
+class EnvelopeHeader(BaseModel):
+    """
+    Campos de cabecera del envelope, validados sin tocar el payload.
+    
+    Son los mismos campos (y defaults) que WebSocketEnvelope; el payload se
+    ignora aquí y se valida después, sólo si un handler lo necesita.
+    """
+    
+    type: MessageType = Field(..., description="Tipo de mensaje")
+    version: ProtocolVersion = Field(default=ProtocolVersion.V2_0, description="Versión del protocolo")
+    id: str = Field(default_factory=lambda: str(uuid.uuid4()), description="ID único del mensaje")
+    ts: int = Field(default_factory=lambda: int(time.time() * 1000), description="Timestamp en ms")
+    session_id: Optional[str] = Field(None, description="ID de sesión")
+    user_id: Optional[str] = Field(None, description="ID del usuario")
+    correlation_id: Optional[str] = Field(None, description="ID de correlación para trazabilidad")
+    
+    class Config:
+        """Configuración de la cabecera"""
+        use_enum_values = True
+        extra = "ignore"
+    
+    @field_validator('ts')
+    @classmethod
+    def validate_timestamp(cls, v):
+        """Validar que el timestamp sea válido"""
+        if v <= 0:
+            raise ValueError("Timestamp debe ser positivo")
+        return v
+
+
+class LazyEnvelope:
+    """
+    Envelope entrante con la cabecera validada y el payload sin validar.
+    
+    Routing y middleware trabajan con la cabecera y con lecturas directas del
+    payload crudo (message_type, event_name). validate() construye el
+    WebSocketEnvelope completo la primera vez que se llama; los mensajes
+    rechazados o que sólo se enrutan nunca pagan la unión discriminada.
+    """
+    
+    __slots__ = ('header', '_data', '_envelope')
+    
+    def __init__(self, header: EnvelopeHeader, data: Dict[str, Any]):
+        self.header = header
+        self._data = data
+        self._envelope: Optional[WebSocketEnvelope] = None
+    
+    @property
+    def type(self) -> str:
+        return self.header.type
+    
+    @property
+    def version(self) -> str:
+        return self.header.version
+    
+    @property
+    def id(self) -> str:
+        return self.header.id
+    
+    @property
+    def ts(self) -> int:
+        return self.header.ts
+    
+    @property
+    def session_id(self) -> Optional[str]:
+        return self.header.session_id
+    
+    @property
+    def user_id(self) -> Optional[str]:
+        return self.header.user_id
+    
+    @property
+    def correlation_id(self) -> Optional[str]:
+        return self.header.correlation_id
+    
+    @property
+    def raw_payload(self) -> Dict[str, Any]:
+        """Payload tal como llegó (sin validar); vacío si no es un objeto"""
+        payload = self._data.get('payload')
+        return payload if isinstance(payload, dict) else {}
+    
+    @property
+    def has_payload(self) -> bool:
+        return bool(self.raw_payload)
+    
+    @property
+    def is_validated(self) -> bool:
+        return self._envelope is not None
+    
+    def get_payload_type(self) -> Optional[str]:
+        """Discriminador del payload sin validar"""
+        return self.raw_payload.get('message_type')
+    
+    @property
+    def event_name(self) -> Optional[str]:
+        """Nombre de evento de un system_event sin validar el payload"""
+        if self.type != MessageType.SYSTEM_EVENT.value or self.get_payload_type() != "system_event":
+            return None
+        event_name = self.raw_payload.get('event_name')
+        return event_name if isinstance(event_name, str) else None
+    
+    def validate(self) -> WebSocketEnvelope:
+        """
+        Validar el envelope completo (una sola vez).
+        
+        Raises:
+            ValidationError: Si el payload no es válido
+        """
+        if self._envelope is None:
+            # id y ts de la cabecera, por si el cliente no los envió
+            self._envelope = WebSocketEnvelope.model_validate(
+                {**self._data, 'id': self.header.id, 'ts': self.header.ts}
+            )
+        return self._envelope
+    
+    @property
+    def payload(self) -> WebSocketPayload:
+        """Payload tipado (valida el envelope si hace falta)"""
+        return self.validate().payload
 
 
 # ==================== FACTORY METHODS ====================
@@ -375,6 +566,77 @@ class WebSocketEnvelopeFactory:
             user_id=user_id,
             correlation_id=correlation_id
         )
+    
+    @staticmethod
+    def create_stream_start(
+        stream_id: str,
+        response_type: str = "markdown",
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        correlation_id: Optional[str] = None
+    ) -> WebSocketEnvelope:
+        """Crear envelope de inicio de stream"""
+        payload = StreamStartPayload(
+            stream_id=stream_id,
+            response_type=response_type
+        )
+        return WebSocketEnvelope(
+            type=MessageType.STREAM_START,
+            payload=payload,
+            session_id=session_id,
+            user_id=user_id,
+            correlation_id=correlation_id
+        )
+    
+    @staticmethod
+    def create_stream_chunk(
+        stream_id: str,
+        sequence: int,
+        delta: str,
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        correlation_id: Optional[str] = None
+    ) -> WebSocketEnvelope:
+        """Crear envelope con un fragmento de stream"""
+        payload = StreamChunkPayload(
+            stream_id=stream_id,
+            sequence=sequence,
+            delta=delta
+        )
+        return WebSocketEnvelope(
+            type=MessageType.STREAM_CHUNK,
+            payload=payload,
+            session_id=session_id,
+            user_id=user_id,
+            correlation_id=correlation_id
+        )
+    
+    @staticmethod
+    def create_stream_end(
+        stream_id: str,
+        total_chunks: int,
+        finish_reason: Literal["completed", "cancelled", "error"] = "completed",
+        execution_time: Optional[float] = None,
+        error_message: Optional[str] = None,
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        correlation_id: Optional[str] = None
+    ) -> WebSocketEnvelope:
+        """Crear envelope de cierre de stream"""
+        payload = StreamEndPayload(
+            stream_id=stream_id,
+            total_chunks=total_chunks,
+            finish_reason=finish_reason,
+            execution_time=execution_time,
+            error_message=error_message
+        )
+        return WebSocketEnvelope(
+            type=MessageType.STREAM_END,
+            payload=payload,
+            session_id=session_id,
+            user_id=user_id,
+            correlation_id=correlation_id
+        )
 
 
 # ==================== UTILITY FUNCTIONS ====================
@@ -401,6 +663,37 @@ def parse_websocket_envelope(data: Union[str, Dict[str, Any]]) -> WebSocketEnvel
         raise ValueError(f"Invalid data type for envelope: {type(data)}")
 
 
+def parse_envelope_header(data: Dict[str, Any]) -> LazyEnvelope:
+    """
+    Parse only the envelope header; the payload is validated on demand.
+    
+    Args:
+        data: Decoded envelope object
+        
+    Returns:
+        LazyEnvelope: Envelope with validated header fields
+        
+    Raises:
+        ValidationError: If a header field is missing or invalid
+    """
+    return LazyEnvelope(EnvelopeHeader.model_validate(data), data)
+
+
+def unpack_batch(envelope: WebSocketEnvelope) -> List[WebSocketEnvelope]:
+    """
+    Expand a batch envelope into the envelopes it carries.
+    
+    Args:
+        envelope: Any envelope; non-batch envelopes are returned as a one-item list
+        
+    Returns:
+        List[WebSocketEnvelope]: Contained envelopes in send order
+    """
+    if not isinstance(envelope.payload, BatchPayload):
+        return [envelope]
+    return [WebSocketEnvelope.model_validate(item) for item in envelope.payload.envelopes]
+
+
 def create_envelope_from_legacy_event(event_type: str, event_data: Dict[str, Any]) -> WebSocketEnvelope:
     """
     Crear envelope desde formato legacy para compatibilidad.
@@ -466,6 +759,191 @@ def create_envelope_from_legacy_event(event_type: str, event_data: Dict[str, Any
     )
 
 
+# ==================== CODECS ====================
+
+class EnvelopeDecodeError(ValueError):
+    """Frame que no se puede decodificar con el codec de la conexión"""
+    
+    def __init__(self, codec: str, message: str):
+        super().__init__(f"{codec}: {message}")
+        self.codec = codec
+
+
+class EnvelopeCodec:
+    """
+    Codificación de envelopes en el cable.
+    
+    decode() convierte un frame en el dict del envelope (los frame stages del
+    middleware lo inspeccionan antes de validar); encode() serializa un
+    envelope validado. Todos los codecs producen exactamente el mismo
+    WebSocketEnvelope: el modelo Pydantic sigue siendo la única validación.
+    """
+    
+    name: str = "json"
+    subprotocol: Optional[str] = None
+    binary: bool = False
+    
+    def decode(self, frame: Union[str, bytes]) -> Dict[str, Any]:
+        raise NotImplementedError
+    
+    def encode(self, envelope: WebSocketEnvelope) -> Union[str, bytes]:
+        raise NotImplementedError
+    
+    def transcode(self, payload: str) -> Union[str, bytes]:
+        """Re-codificar un envelope ya serializado como JSON (fan-out, cluster)"""
+        raise NotImplementedError
+    
+    def encode_batch(self, frames: List[Union[str, bytes]]) -> Union[str, bytes]:
+        """Empaquetar envelopes ya codificados en un envelope batch sin re-serializarlos"""
+        raise NotImplementedError
+    
+    def parse(self, frame: Union[str, bytes]) -> WebSocketEnvelope:
+        """Decodificar y validar un frame"""
+        return WebSocketEnvelope.model_validate(self.decode(frame))
+
+
+class JsonCodec(EnvelopeCodec):
+    """
+    Frames de texto JSON.
+    
+    La decodificación usa orjson cuando está disponible. La codificación sigue
+    usando model_dump_json: pydantic-core ya serializa en Rust, y pasar por
+    model_dump() + orjson.dumps sería más lento.
+    """
+    
+    name = "json"
+    subprotocol = "qai.json.v1"
+    binary = False
+    
+    def __init__(self, library: str = "auto"):
+        if library == "orjson" and orjson is None:
+            raise ImportError("orjson is not installed")
+        self.library = "orjson" if library != "json" and orjson is not None else "json"
+        self._loads = orjson.loads if self.library == "orjson" else json.loads
+    
+    def decode(self, frame: Union[str, bytes]) -> Dict[str, Any]:
+        try:
+            data = self._loads(frame)
+        except ValueError as e:
+            raise EnvelopeDecodeError(self.name, f"invalid JSON: {e}")
+        if not isinstance(data, dict):
+            raise EnvelopeDecodeError(self.name, "envelope must be a JSON object")
+        return data
+    
+    def encode(self, envelope: WebSocketEnvelope) -> str:
+        return envelope.model_dump_json()
+    
+    def transcode(self, payload: str) -> str:
+        return payload
+    
+    def encode_batch(self, frames: List[str]) -> str:
+        # Los envelopes ya son JSON: basta con unirlos dentro de la lista
+        return (
+            '{"type":"batch","version":"2.0","id":"%s","ts":%d,'
+            '"payload":{"message_type":"batch","envelopes":[%s]}}'
+            % (uuid.uuid4(), int(time.time() * 1000), ",".join(frames))
+        )
+    
+    def parse(self, frame: Union[str, bytes]) -> WebSocketEnvelope:
+        # Sin dict intermedio: pydantic-core valida el JSON en un solo paso
+        return WebSocketEnvelope.model_validate_json(frame)
+
+
+class MsgpackCodec(EnvelopeCodec):
+    """
+    Frames binarios MessagePack, negociados con el subprotocolo qai.msgpack.v1.
+    
+    El envelope se empaqueta en su forma JSON (model_dump(mode="json")), así
+    que ambos codecs transportan los mismos valores. Los frames de texto que
+    lleguen por una conexión MessagePack se decodifican como JSON.
+    """
+    
+    name = "msgpack"
+    subprotocol = "qai.msgpack.v1"
+    binary = True
+    
+    def __init__(self, json_codec: Optional[JsonCodec] = None):
+        if msgpack is None:
+            raise ImportError("msgpack is not installed")
+        self._json = json_codec or JsonCodec()
+    
+    def decode(self, frame: Union[str, bytes]) -> Dict[str, Any]:
+        if isinstance(frame, str):
+            return self._json.decode(frame)
+        try:
+            data = msgpack.unpackb(frame, raw=False, strict_map_key=True)
+        except (ValueError, msgpack.UnpackException) as e:
+            raise EnvelopeDecodeError(self.name, f"invalid MessagePack: {e}")
+        if not isinstance(data, dict):
+            raise EnvelopeDecodeError(self.name, "envelope must be a map")
+        return data
+    
+    def encode(self, envelope: WebSocketEnvelope) -> bytes:
+        return msgpack.packb(envelope.model_dump(mode="json"))
+    
+    def transcode(self, payload: str) -> bytes:
+        return msgpack.packb(self._json.decode(payload))
+    
+    def encode_batch(self, frames: List[bytes]) -> bytes:
+        # El mapa exterior termina en un array vacío (0x90); se sustituye por
+        # la cabecera del array real seguida de los envelopes ya empaquetados
+        header = msgpack.packb({
+            'type': MessageType.BATCH.value,
+            'version': ProtocolVersion.V2_0.value,
+            'id': str(uuid.uuid4()),
+            'ts': int(time.time() * 1000),
+            'payload': {'message_type': MessageType.BATCH.value, 'envelopes': []}
+        })
+        count = len(frames)
+        if count < 16:
+            array_header = bytes([0x90 | count])
+        elif count < 0x10000:
+            array_header = b"\xdc" + count.to_bytes(2, "big")
+        else:
+            array_header = b"\xdd" + count.to_bytes(4, "big")
+        return header[:-1] + array_header + b"".join(frames)
+
+
+class CodecRegistry:
+    """Codecs disponibles para una instancia del servidor y su negociación"""
+    
+    def __init__(self, json_library: str = "auto", enable_msgpack: bool = True):
+        self.default = JsonCodec(json_library)
+        self.codecs: Dict[str, EnvelopeCodec] = {self.default.subprotocol: self.default}
+        if enable_msgpack and msgpack is not None:
+            binary = MsgpackCodec(self.default)
+            self.codecs[binary.subprotocol] = binary
+    
+    @property
+    def subprotocols(self) -> List[str]:
+        """Subprotocolos ofrecidos en el handshake, en orden de preferencia"""
+        return sorted(self.codecs, key=lambda name: not self.codecs[name].binary)
+    
+    def select_subprotocol(self, connection: Any, offered: Sequence[str]) -> Optional[str]:
+        """
+        Negociación del handshake (select_subprotocol de websockets.serve).
+        
+        Devuelve el primer subprotocolo propio que el cliente ofrece. Si no
+        ofrece ninguno, o ninguno conocido, devuelve None y la conexión se
+        acepta con frames JSON: el comportamiento por defecto de websockets
+        rechazaría con HTTP 400 a los clientes JSON existentes.
+        """
+        for subprotocol in self.subprotocols:
+            if subprotocol in offered:
+                return subprotocol
+        return None
+    
+    def for_subprotocol(self, subprotocol: Optional[str]) -> EnvelopeCodec:
+        """Codec de una conexión; sin subprotocolo negociado se usa JSON"""
+        if subprotocol is None:
+            return self.default
+        return self.codecs.get(subprotocol, self.default)
+
+
+# Codec por defecto (JSON, orjson si está disponible)
+DEFAULT_CODEC = JsonCodec()
+
+
 # ==================== BACKWARDS COMPATIBILITY ====================
 
 # Alias para compatibilidad con código existente
@@ -0,0 +1,251 @@
+"""
+WebSocket Fan-out - Concurrent delivery of one payload to many connections
+
+Broadcasts used to await each websocket.send in turn, so one slow client
+delayed every recipient after it. The fan-out engine:
+- Takes a payload that is already serialized (serialize once, send many);
+  recipients on a binary codec get it re-encoded once per codec, not per client
+- Writes to all recipients concurrently with a per-send timeout
+- Skips or disconnects clients whose outbound buffer is above a high-water mark
+- Reports delivery counts and latency percentiles per fan-out
+
+Recipients with an outbound queue (every registered connection) are handed
+the payload through their queue, which applies its own overflow policy, and
+are counted as queued, not delivered: the write happens later in the queue's
+writer, which measures the delivery latency (see OutboundQueue.latency and
+the manager's outbound stats). The send timeout, the high-water check and
+the send latency percentiles apply only to recipients written to directly.
+"""
+
+import asyncio
+import time
+from dataclasses import dataclass, field
+from typing import Any, Dict, Iterable, Optional, Union
+
+try:
+    from src.logging_config import get_logger
+    from src.websocket.metrics import LatencyHistogram
+    from src.websocket.outbound import KIND_SYSTEM, QUEUED, COALESCED, DROPPED, SLOW_CONSUMER_CLOSE_CODE
+    from config.models import FanoutConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from src.websocket.metrics import LatencyHistogram
+    from src.websocket.outbound import KIND_SYSTEM, QUEUED, COALESCED, DROPPED, SLOW_CONSUMER_CLOSE_CODE
+    from config.models import FanoutConfig
+
+
+# Per-recipient outcomes
+DELIVERED = "delivered"
+FAILED = "failed"
+TIMED_OUT = "timed_out"
+DROPPED_SLOW = "dropped_slow"
+DISCONNECTED_SLOW = "disconnected_slow"
+
+
+@dataclass
+class BroadcastResult:
+    """Outcome of a single fan-out"""
+    recipients: int = 0
+    delivered: int = 0  # Written directly to the socket
+    queued: int = 0  # Handed to an outbound queue; written later by its writer
+    failed: int = 0
+    timed_out: int = 0
+    dropped_slow: int = 0
+    disconnected_slow: int = 0
+    elapsed: float = 0.0
+    latency: LatencyHistogram = field(default_factory=LatencyHistogram, repr=False)
+
+    def add_counts(self, other: Dict[str, Any]) -> None:
+        """Add delivery counts reported by another process (see to_dict)"""
+        for name in ('recipients', 'delivered', 'queued', 'failed', 'timed_out', 'dropped_slow', 'disconnected_slow'):
+            setattr(self, name, getattr(self, name) + int(other.get(name, 0)))
+
+    @property
+    def accepted(self) -> int:
+        """Recipients the payload was written or queued for"""
+        return self.delivered + self.queued
+
+    def to_dict(self) -> Dict[str, Any]:
+        """Summary suitable for logging; send timings only when there were direct sends"""
+        summary = {
+            'recipients': self.recipients,
+            'delivered': self.delivered,
+            'queued': self.queued,
+            'failed': self.failed,
+            'dropped_slow': self.dropped_slow,
+            'disconnected_slow': self.disconnected_slow,
+            'elapsed_ms': self.elapsed * 1000
+        }
+        if self.latency.count or self.timed_out:
+            latency = self.latency.snapshot()
+            summary.update({
+                'timed_out': self.timed_out,
+                'p50_ms': latency['p50_ms'],
+                'p95_ms': latency['p95_ms'],
+                'p99_ms': latency['p99_ms']
+            })
+        return summary
+
+
+class FanoutEngine:
+    """
+    Delivers a pre-serialized payload to many connections at once.
+
+    Recipients are any objects with a ``websocket`` attribute (ConnectionInfo).
+    Failures are counted, never raised, so one bad client cannot abort a
+    broadcast.
+    """
+
+    def __init__(self, config: Optional[FanoutConfig] = None):
+        self.config = config or FanoutConfig()
+        self.logger = get_logger("FanoutEngine")
+
+        # Cumulative statistics across all fan-outs
+        self.latency = LatencyHistogram()
+        self.metrics = {
+            'fanouts': 0,
+            'sends_delivered': 0,
+            'sends_queued': 0,
+            'sends_failed': 0,
+            'sends_timed_out': 0,
+            'sends_dropped_slow': 0,
+            'clients_disconnected_slow': 0
+        }
+
+    async def deliver(
+        self,
+        recipients: Iterable[Any],
+        payload: str,
+        kind: str = KIND_SYSTEM,
+        coalesce_key: Optional[str] = None
+    ) -> BroadcastResult:
+        """
+        Send a payload to every recipient concurrently.
+
+        Args:
+            recipients: Connection infos to deliver to
+            payload: Already serialized message
+            kind: Message kind used by outbound queue overflow policies
+            coalesce_key: Key for coalescing status events in outbound queues
+
+        Returns:
+            BroadcastResult with per-outcome counts, and send latency
+            percentiles of the direct sends
+        """
+        result = BroadcastResult()
+        targets = list(recipients)
+        result.recipients = len(targets)
+        if not targets:
+            return result
+
+        started = time.perf_counter()
+        outcomes = []
+        direct = []
+        encoded: Dict[str, Any] = {}
+        for target in targets:
+            frame = self._encode_for(target, payload, encoded)
+            outbound = getattr(target, "outbound", None)
+            if outbound is None:
+                direct.append((target, frame))
+                continue
+            outcome = outbound.enqueue(frame, kind, coalesce_key)
+            if outcome in (QUEUED, COALESCED):
+                result.queued += 1
+            elif outcome == DROPPED:
+                outcomes.append(DROPPED_SLOW)
+            else:
+                outcomes.append(DISCONNECTED_SLOW)
+
+        if direct:
+            outcomes.extend(await asyncio.gather(
+                *(self._send_one(target.websocket, frame, result.latency) for target, frame in direct)
+            ))
+        result.elapsed = time.perf_counter() - started
+
+        for outcome in outcomes:
+            if outcome == DELIVERED:
+                result.delivered += 1
+            elif outcome == TIMED_OUT:
+                result.timed_out += 1
+            elif outcome == DROPPED_SLOW:
+                result.dropped_slow += 1
+            elif outcome == DISCONNECTED_SLOW:
+                result.disconnected_slow += 1
+            else:
+                result.failed += 1
+
+        self._record(result)
+        return result
+
+    @staticmethod
+    def _encode_for(target: Any, payload: str, encoded: Dict[str, Any]) -> Any:
+        """The JSON payload in the recipient's codec, encoded once per codec"""
+        codec = getattr(target, "codec", None)
+        if codec is None or not codec.binary:
+            return payload
+        frame = encoded.get(codec.name)
+        if frame is None:
+            frame = encoded[codec.name] = codec.transcode(payload)
+        return frame
+
+    async def _send_one(self, websocket, payload: Union[str, bytes], latency: LatencyHistogram) -> str:
+        """Deliver to one connection and classify the outcome"""
+        if self._is_slow(websocket):
+            if self.config.slow_client_policy == "disconnect":
+                try:
+                    await asyncio.wait_for(
+                        websocket.close(code=SLOW_CONSUMER_CLOSE_CODE, reason="Slow consumer"),
+                        timeout=self.config.send_timeout
+                    )
+                except Exception:
+                    pass  # Connection is being dropped anyway
+                return DISCONNECTED_SLOW
+            return DROPPED_SLOW
+
+        started = time.perf_counter()
+        try:
+            await asyncio.wait_for(websocket.send(payload), timeout=self.config.send_timeout)
+        except asyncio.TimeoutError:
+            return TIMED_OUT
+        except Exception as e:
+            self.logger.debug(f"Fan-out send failed: {e}")
+            return FAILED
+
+        latency.record(time.perf_counter() - started)
+        return DELIVERED
+
+    def _is_slow(self, websocket) -> bool:
+        """Check the connection's outbound buffer against the high-water mark"""
+        if self.config.high_water_mark <= 0:
+            return False
+
+        transport = getattr(websocket, "transport", None)
+        if transport is None:
+            return False
+
+        try:
+            return transport.get_write_buffer_size() > self.config.high_water_mark
+        except Exception:
+            return False
+
+    def _record(self, result: BroadcastResult) -> None:
+        """Fold one fan-out into the cumulative statistics"""
+        self.metrics['fanouts'] += 1
+        self.metrics['sends_delivered'] += result.delivered
+        self.metrics['sends_queued'] += result.queued
+        self.metrics['sends_failed'] += result.failed
+        self.metrics['sends_timed_out'] += result.timed_out
+        self.metrics['sends_dropped_slow'] += result.dropped_slow
+        self.metrics['clients_disconnected_slow'] += result.disconnected_slow
+        self.latency.merge(result.latency)
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Get cumulative fan-out statistics"""
+        return {
+            **self.metrics,
+            'send_latency': self.latency.snapshot()
+        }
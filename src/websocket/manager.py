@@ -6,19 +6,33 @@ Mantiene separación total del framework Agno siguiendo principios SOLID.
 """
 
 import asyncio
+import inspect
+import threading
 from datetime import datetime
-from typing import Optional, Dict, Set, Any, Protocol, List, Literal
+from typing import Optional, Dict, Set, Any, Protocol, List, Literal, AsyncIterator
 import uuid
 
 try:
     from src.logging_config import get_logger, LogExecutionTime, LogStep
-    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, SystemEventPayload
+    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, SystemEventPayload, EnvelopeCodec, DEFAULT_CODEC
+    from src.websocket.fanout import FanoutEngine, BroadcastResult
+    from src.websocket.metrics import LatencyHistogram
+    from src.websocket.outbound import OutboundQueue, classify_envelope, new_outbound_metrics, DROPPED, DISCONNECTED, KIND_DATA
+    from src.websocket.cluster import aggregate_stats
+    from src.websocket.singleflight import SingleFlight
+    from config.models import FanoutConfig, OutboundQueueConfig
 except ImportError:
     import sys
     import os
     sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
     from src.logging_config import get_logger, LogExecutionTime, LogStep
-    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, SystemEventPayload
+    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, SystemEventPayload, EnvelopeCodec, DEFAULT_CODEC
+    from src.websocket.fanout import FanoutEngine, BroadcastResult
+    from src.websocket.metrics import LatencyHistogram
+    from src.websocket.outbound import OutboundQueue, classify_envelope, new_outbound_metrics, DROPPED, DISCONNECTED, KIND_DATA
+    from src.websocket.cluster import aggregate_stats
+    from src.websocket.singleflight import SingleFlight
+    from config.models import FanoutConfig, OutboundQueueConfig
 
 
 class QAAgentProtocol(Protocol):
@@ -69,7 +83,8 @@ class ConnectionInfo:
         connection_id: str,
         websocket,
         user_id: str,
-        session_id: str
+        session_id: str,
+        codec: Optional[EnvelopeCodec] = None
     ):
         self.connection_id = connection_id
         self.websocket = websocket
@@ -78,6 +93,8 @@ class ConnectionInfo:
         self.connected_at = datetime.now()
         self.last_activity = datetime.now()
         self.message_count = 0
+        self.codec = codec or DEFAULT_CODEC  # Negotiated envelope encoding
+        self.outbound: Optional[OutboundQueue] = None  # Set while registered with a manager
     
     def update_activity(self) -> None:
         """Update last activity timestamp"""
@@ -103,20 +120,56 @@ class WebSocketManager:
     - Comprehensive logging and metrics
     """
     
-    def __init__(self, qa_agent: QAAgentProtocol):
+    def __init__(
+        self,
+        qa_agent: QAAgentProtocol,
+        fanout_config: Optional[FanoutConfig] = None,
+        outbound_config: Optional[OutboundQueueConfig] = None,
+        coalesce_requests: bool = True
+    ):
         """
         Initialize WebSocket manager with QA Agent.
         
         Args:
             qa_agent: QA Agent instance implementing the protocol
+            fanout_config: Optional fan-out configuration for broadcasts
+            outbound_config: Optional per-connection outbound queue configuration
+            coalesce_requests: Share one agent call between identical concurrent
+                requests (needs an agent exposing request_key)
         """
         # External service integration
         self.qa_agent = qa_agent
         
+        # Concurrent delivery to multiple connections
+        self.fanout = FanoutEngine(fanout_config)
+        
+        # Per-connection outbound queues (counters shared by all queues)
+        self.outbound_config = outbound_config or OutboundQueueConfig()
+        self.outbound_metrics = new_outbound_metrics()
+        self.outbound_latency = LatencyHistogram()  # Enqueue-to-written, measured by the writers
+        
+        # IPC link to peer worker processes (cluster mode only)
+        self.cluster = None
+        
+        # Whether the agent can stop a run early when asked to
+        process_message = getattr(qa_agent, 'process_message', None)
+        self.supports_cancellation = (
+            process_message is not None
+            and 'cancel_event' in inspect.signature(process_message).parameters
+        )
+        
+        # Identical concurrent requests share one agent call
+        self.request_key = getattr(qa_agent, 'request_key', None) if coalesce_requests else None
+        self.singleflight = SingleFlight()
+        
         # Connection management
+        # All indexes are updated together without awaiting in between, so
+        # they are always consistent for any other task on the event loop.
         self.connections: Dict[str, ConnectionInfo] = {}
         self.sessions: Dict[str, str] = {}  # session_id -> user_id mapping
         self.user_connections: Dict[str, Set[str]] = {}  # user_id -> set of connection_ids
+        self.session_connections: Dict[str, Set[str]] = {}  # session_id -> set of connection_ids
+        self.websocket_index: Dict[Any, str] = {}  # websocket object -> connection_id
         
         # Server state
         self.is_running = False
@@ -178,7 +231,9 @@ class WebSocketManager:
         self, 
         websocket, 
         user_id: str,
-        session_id: Optional[str] = None
+        session_id: Optional[str] = None,
+        codec: Optional[EnvelopeCodec] = None,
+        batching: bool = False
     ) -> str:
         """
         Add new WebSocket connection.
@@ -187,6 +242,8 @@ class WebSocketManager:
             websocket: WebSocket connection object
             user_id: User identifier
             session_id: Optional session identifier
+            codec: Envelope codec negotiated for the connection (JSON if omitted)
+            batching: Whether the client accepts batch envelopes
             
         Returns:
             str: Generated session ID
@@ -201,17 +258,23 @@ class WebSocketManager:
             connection_id=connection_id,
             websocket=websocket,
             user_id=user_id,
-            session_id=session_id
+            session_id=session_id,
+            codec=codec
         )
         
-        # Store connection
-        self.connections[connection_id] = connection_info
-        self.sessions[session_id] = user_id
-        
-        # Track user connections
-        if user_id not in self.user_connections:
-            self.user_connections[user_id] = set()
-        self.user_connections[user_id].add(connection_id)
+        # Store connection and index it
+        self._index_connection(connection_info)
+        
+        # Start the connection's writer
+        connection_info.outbound = OutboundQueue(
+            websocket,
+            config=self.outbound_config,
+            metrics=self.outbound_metrics,
+            name=connection_id,
+            batch_codec=connection_info.codec if batching else None,
+            latency=self.outbound_latency
+        )
+        connection_info.outbound.start()
         
         # Update stats
         self.connection_counter += 1
@@ -235,28 +298,22 @@ class WebSocketManager:
             websocket: WebSocket connection to remove
         """
         # Find connection by websocket object
-        connection_to_remove = None
-        for conn_id, conn_info in self.connections.items():
-            if conn_info.websocket == websocket:
-                connection_to_remove = (conn_id, conn_info)
-                break
+        connection_info = self.get_connection_by_websocket(websocket)
         
-        if not connection_to_remove:
+        if connection_info is None:
             self.logger.warning("Attempted to remove non-existent connection")
             return
         
-        connection_id, connection_info = connection_to_remove
+        connection_id = connection_info.connection_id
         user_id = connection_info.user_id
         session_id = connection_info.session_id
         
         # Clean up references
-        del self.connections[connection_id]
-        self.sessions.pop(session_id, None)
+        self._unindex_connection(connection_info)
         
-        if user_id in self.user_connections:
-            self.user_connections[user_id].discard(connection_id)
-            if not self.user_connections[user_id]:
-                del self.user_connections[user_id]
+        # Stop the writer; the socket is already gone so nothing is flushed
+        if connection_info.outbound is not None:
+            await connection_info.outbound.close()
         
         # Update stats
         self.stats['active_connections'] = len(self.connections)
@@ -268,21 +325,130 @@ class WebSocketManager:
             'remaining_connections': self.stats['active_connections']
         })
     
+    def _index_connection(self, connection_info: ConnectionInfo) -> None:
+        """Register a connection in every lookup index"""
+        connection_id = connection_info.connection_id
+        
+        self.connections[connection_id] = connection_info
+        self.websocket_index[connection_info.websocket] = connection_id
+        self.sessions[connection_info.session_id] = connection_info.user_id
+        self.session_connections.setdefault(connection_info.session_id, set()).add(connection_id)
+        self.user_connections.setdefault(connection_info.user_id, set()).add(connection_id)
+    
+    def _unindex_connection(self, connection_info: ConnectionInfo) -> None:
+        """Remove a connection from every lookup index"""
+        connection_id = connection_info.connection_id
+        session_id = connection_info.session_id
+        user_id = connection_info.user_id
+        
+        self.connections.pop(connection_id, None)
+        if self.websocket_index.get(connection_info.websocket) == connection_id:
+            del self.websocket_index[connection_info.websocket]
+        
+        session_conns = self.session_connections.get(session_id)
+        if session_conns is not None:
+            session_conns.discard(connection_id)
+            if not session_conns:
+                del self.session_connections[session_id]
+                self.sessions.pop(session_id, None)
+        
+        user_conns = self.user_connections.get(user_id)
+        if user_conns is not None:
+            user_conns.discard(connection_id)
+            if not user_conns:
+                del self.user_connections[user_id]
+    
+    def get_connection_by_websocket(self, websocket) -> Optional[ConnectionInfo]:
+        """Get connection info for a websocket object in O(1)"""
+        connection_id = self.websocket_index.get(websocket)
+        if connection_id is None:
+            return None
+        return self.connections.get(connection_id)
+    
+    def get_session_connections(self, session_id: str) -> List[ConnectionInfo]:
+        """Get all active connections bound to a session"""
+        return [
+            self.connections[connection_id]
+            for connection_id in self.session_connections.get(session_id, ())
+            if connection_id in self.connections
+        ]
+    
+    def enqueue_event(self, websocket, event: WebSocketEnvelope, serialized: Optional[str] = None) -> Optional[bool]:
+        """
+        Queue an envelope on a registered connection's outbound queue.
+        
+        Args:
+            websocket: Target websocket
+            event: Envelope to send
+            serialized: The envelope already serialized as JSON, if the caller has it
+            
+        Returns:
+            None if the websocket is not registered (caller should send directly),
+            otherwise whether the message was accepted
+        """
+        connection_info = self.get_connection_by_websocket(websocket)
+        if connection_info is None or connection_info.outbound is None:
+            return None
+        
+        kind, coalesce_key = classify_envelope(event)
+        codec = connection_info.codec
+        frame = codec.transcode(serialized) if serialized is not None else codec.encode(event)
+        outcome = connection_info.outbound.enqueue(frame, kind, coalesce_key)
+        return outcome not in (DROPPED, DISCONNECTED)
+    
+    def replay_to_connection(self, websocket, payloads: List[str]) -> int:
+        """
+        Queue previously sent envelopes (JSON) on a resumed connection.
+        
+        Returns:
+            Number of envelopes queued
+        """
+        connection_info = self.get_connection_by_websocket(websocket)
+        if connection_info is None or connection_info.outbound is None:
+            return 0
+        
+        queued = 0
+        for payload in payloads:
+            outcome = connection_info.outbound.enqueue(connection_info.codec.transcode(payload), KIND_DATA)
+            if outcome in (DROPPED, DISCONNECTED):
+                break
+            queued += 1
+        return queued
+    
+    def _touch_session(self, session_id: str) -> None:
+        """Update activity for the connections of a session"""
+        for connection_id in self.session_connections.get(session_id, ()):
+            connection_info = self.connections.get(connection_id)
+            if connection_info is not None:
+                connection_info.update_activity()
+    
     async def process_chat_message(
         self,
         message: str,
         session_id: str,
         user_id: str,
-        metadata: Optional[Dict[str, Any]] = None
+        metadata: Optional[Dict[str, Any]] = None,
+        cancel_event: Optional[threading.Event] = None
     ) -> str:
         """
         Process chat message through QA Agent.
         
+        Concurrent requests that the agent considers identical (same request
+        key) share one agent call. With a stateless agent (no history or
+        memories, see QAAgentAdapter.stateless_agent) the answer does not
+        depend on who asks, so requests of any user and session share it;
+        otherwise only requests of the same user and session do, so the turn
+        is recorded in that session and charged to that user. Cancelling
+        this coroutine only stops waiting; the shared call is cancelled once
+        no request is waiting for it, and asked to stop once every waiting
+        request has set its cancel_event.
+        
         Args:
             message: User message content
             session_id: Session identifier
             user_id: User identifier
             metadata: Optional message metadata
+            cancel_event: Optional event that asks the agent to stop early
             
         Returns:
             str: Agent response
@@ -293,26 +459,21 @@ class WebSocketManager:
         try:
             with LogExecutionTime("Chat message processing", "WebSocketManager"):
                 
-                # Check if QA Agent supports enhanced processing
-                if hasattr(self.qa_agent, 'process_message'):
-                    response = await self.qa_agent.process_message(
-                        message=message,
-                        session_id=session_id,
-                        user_id=user_id,
-                        metadata=metadata
-                    )
+                key = self.request_key(message, user_id, metadata) if self.request_key else None
+                if key is None:
+                    response = await self._call_agent(message, session_id, user_id, metadata, cancel_event)
                 else:
-                    # Fallback to basic chat method
-                    response = await self.qa_agent.chat(message)
+                    response = await self.singleflight.do(
+                        self._flight_key(key, session_id, user_id),
+                        lambda shared_cancel: self._call_agent(message, session_id, user_id, metadata, shared_cancel),
+                        cancel_event=cancel_event
+                    )
                 
                 # Update stats
                 self.stats['messages_processed'] += 1
                 
                 # Update connection activity
-                for conn_info in self.connections.values():
-                    if conn_info.session_id == session_id:
-                        conn_info.update_activity()
-                        break
+                self._touch_session(session_id)
                 
                 self.logger.info("Chat message processed successfully", extra={
                     'session_id': session_id,
@@ -336,12 +497,113 @@ class WebSocketManager:
             # Re-raise to be handled by caller
             raise
     
+    def _flight_key(self, key: str, session_id: str, user_id: str) -> str:
+        """Single-flight key of a request: shared by everyone only when the agent is stateless"""
+        if getattr(self.qa_agent, 'stateless_agent', False) is True:
+            # Same condition as the response cache; the request key already holds the user when per_user
+            return key
+        # The shared call runs with this session and user, so only their requests may join it
+        return "\x1f".join((user_id or "", session_id or "", key))
+    
+    async def _call_agent(
+        self,
+        message: str,
+        session_id: str,
+        user_id: str,
+        metadata: Optional[Dict[str, Any]],
+        cancel_event: Optional[threading.Event]
+    ) -> str:
+        """One QA Agent call"""
+        # Check if QA Agent supports enhanced processing
+        if hasattr(self.qa_agent, 'process_message'):
+            extra = {'cancel_event': cancel_event} if self.supports_cancellation and cancel_event else {}
+            return await self.qa_agent.process_message(
+                message=message,
+                session_id=session_id,
+                user_id=user_id,
+                metadata=metadata,
+                **extra
+            )
+        
+        # Fallback to basic chat method
+        return await self.qa_agent.chat(message)
+    
+    @property
+    def supports_streaming(self) -> bool:
+        """Check if the QA Agent can stream responses"""
+        return hasattr(self.qa_agent, 'stream_message')
+    
+    async def stream_chat_message(
+        self,
+        message: str,
+        session_id: str,
+        user_id: str,
+        metadata: Optional[Dict[str, Any]] = None,
+        cancel_event: Optional[threading.Event] = None
+    ) -> AsyncIterator[str]:
+        """
+        Stream chat response through QA Agent as text deltas.
+        
+        Args:
+            message: User message content
+            session_id: Session identifier
+            user_id: User identifier
+            metadata: Optional message metadata
+            cancel_event: Event that stops the agent stream when set
+            
+        Yields:
+            str: Response text deltas
+            
+        Raises:
+            Exception: If processing fails
+        """
+        if not self.supports_streaming:
+            # Agents without streaming support produce a single chunk
+            yield await self.process_chat_message(message, session_id, user_id, metadata)
+            return
+        
+        response_length = 0
+        try:
+            async for delta in self.qa_agent.stream_message(
+                message=message,
+                session_id=session_id,
+                user_id=user_id,
+                metadata=metadata,
+                cancel_event=cancel_event
+            ):
+                response_length += len(delta)
+                yield delta
+            
+            self.stats['messages_processed'] += 1
+            
+            # Update connection activity
+            self._touch_session(session_id)
+            
+            self.logger.info("Chat message streamed successfully", extra={
+                'session_id': session_id,
+                'user_id': user_id,
+                'message_length': len(message),
+                'response_length': response_length
+            })
+            
+        except Exception as e:
+            self.stats['messages_failed'] += 1
+            
+            self.logger.error("Error streaming chat message", extra={
+                'session_id': session_id,
+                'user_id': user_id,
+                'error': str(e),
+                'message_preview': message[:100]
+            })
+            
+            raise
+    
     async def broadcast_system_event(
         self,
         event_name: str,
         data: Optional[Dict[str, Any]] = None,
         severity: Literal["info", "warning", "error", "critical"] = "info"
-    ) -> None:
+    ) -> BroadcastResult:
         """
         Broadcast system event to all active connections.
         
@@ -349,10 +611,13 @@ class WebSocketManager:
             event_name: Name of the system event
             data: Optional event data
             severity: Event severity level
+            
+        Returns:
+            BroadcastResult: Delivery counts and latency percentiles
         """
-        if not self.connections:
+        if not self.connections and self.cluster is None:
             self.logger.debug("No active connections for system event broadcast")
-            return
+            return BroadcastResult()
         
         # Create system event
         system_event = WebSocketEnvelopeFactory.create_system_event(
@@ -361,20 +626,22 @@ class WebSocketManager:
             severity=severity
         )
         
-        # Send to all connections
-        sent_count = 0
-        for connection_info in self.connections.values():
-            try:
-                await connection_info.websocket.send(system_event.to_json())
-                sent_count += 1
-            except Exception as e:
-                self.logger.warning(f"Failed to send system event to {connection_info.user_id}: {e}")
+        # Serialize once, send to all connections concurrently
+        payload = system_event.to_json()
+        result = await self.fanout.deliver(list(self.connections.values()), payload)
+        
+        # Connections held by other worker processes
+        if self.cluster is not None:
+            for reply in await self.cluster.call_peers("broadcast", {'payload': payload}):
+                result.add_counts(reply.get('result') or {})
         
         self.logger.info("System event broadcasted", extra={
             'event_name': event_name,
-            'recipients': sent_count,
-            'severity': severity
+            'severity': severity,
+            **result.to_dict()
         })
+        
+        return result
     
     async def send_to_user(
         self,
@@ -391,28 +658,51 @@ class WebSocketManager:
         Returns:
             bool: True if sent successfully to at least one connection
         """
+        kind, coalesce_key = classify_envelope(event)
+        payload = event.to_json()
+        
+        # Connections held by other worker processes
+        if self.cluster is not None:
+            replies = await self.cluster.call_peers("send_to_user", {
+                'user_id': user_id,
+                'payload': payload,
+                'kind': kind,
+                'coalesce_key': coalesce_key
+            })
+            remote_delivered = sum(reply.get('result') or 0 for reply in replies)
+            local_delivered = await self._deliver_to_user(user_id, payload, kind, coalesce_key)
+            return local_delivered + remote_delivered > 0
+        
+        return await self._deliver_to_user(user_id, payload, kind, coalesce_key) > 0
+    
+    async def _deliver_to_user(
+        self,
+        user_id: str,
+        payload: str,
+        kind: str,
+        coalesce_key: Optional[str]
+    ) -> int:
+        """Deliver a serialized event to this process's connections of a user"""
         if user_id not in self.user_connections:
-            return False
-        
-        connection_ids = self.user_connections[user_id].copy()
-        sent_count = 0
-        
-        for connection_id in connection_ids:
-            if connection_id in self.connections:
-                try:
-                    connection_info = self.connections[connection_id]
-                    await connection_info.websocket.send(event.to_json())
-                    sent_count += 1
-                    
-                    self.logger.debug("Event sent to user", extra={
-                        'user_id': user_id,
-                        'connection_id': connection_id,
-                        'event_type': event.type
-                    })
-                except Exception as e:
-                    self.logger.error(f"Failed to send event to user {user_id}: {e}")
-        
-        return sent_count > 0
+            return 0
+        
+        targets = [
+            self.connections[connection_id]
+            for connection_id in self.user_connections[user_id]
+            if connection_id in self.connections
+        ]
+        
+        result = await self.fanout.deliver(targets, payload, kind, coalesce_key)
+        
+        if result.accepted < result.recipients:
+            self.logger.warning(f"Event accepted by {result.accepted}/{result.recipients} connections of user {user_id}")
+        else:
+            self.logger.debug("Event sent to user", extra={
+                'user_id': user_id,
+                'connections': result.accepted
+            })
+        
+        return result.accepted
     
     async def get_user_sessions(self, user_id: str) -> List[str]:
         """
@@ -424,14 +714,22 @@ class WebSocketManager:
         Returns:
             List[str]: List of active session IDs
         """
+        sessions = self._local_user_sessions(user_id)
+        
+        if self.cluster is not None:
+            for reply in await self.cluster.call_peers("user_sessions", {'user_id': user_id}):
+                sessions.extend(reply.get('result') or [])
+        
+        return sessions
+    
+    def _local_user_sessions(self, user_id: str) -> List[str]:
+        """Session IDs of a user's connections in this process"""
         sessions = []
         
-        if user_id in self.user_connections:
-            for connection_id in self.user_connections[user_id]:
-                if connection_id in self.connections:
-                    session_id = self.connections[connection_id].session_id
-                    if session_id:
-                        sessions.append(session_id)
+        for connection_id in self.user_connections.get(user_id, ()):
+            connection_info = self.connections.get(connection_id)
+            if connection_info is not None and connection_info.session_id:
+                sessions.append(connection_info.session_id)
         
         return sessions
     
@@ -489,11 +787,75 @@ class WebSocketManager:
             **self.stats,
             'uptime_seconds': uptime,
             'unique_users': len(self.user_connections),
-            'total_sessions': len(self.sessions)
+            'total_sessions': len(self.sessions),
+            'fanout': self.fanout.stats,
+            'outbound': self.get_outbound_stats(),
+            'coalescing': self.singleflight.stats
         }
         
         return stats
     
+    async def get_cluster_stats(self) -> Dict[str, Any]:
+        """Get statistics aggregated across all worker processes"""
+        stats = await self.get_stats()
+        if self.cluster is None:
+            return stats
+        
+        per_worker = {self.cluster.worker_id: stats}
+        for reply in await self.cluster.call_peers("stats"):
+            per_worker[reply['worker_id']] = reply.get('result') or {}
+        
+        return aggregate_stats(per_worker)
+    
+    def attach_cluster(self, node) -> None:
+        """
+        Join a worker IPC bus so user sends, broadcasts, session lookups
+        and stats cover connections held by other worker processes.
+        
+        Args:
+            node: ClusterNode connected to the supervisor's hub
+        """
+        self.cluster = node
+        node.register("send_to_user", self._handle_cluster_send_to_user)
+        node.register("broadcast", self._handle_cluster_broadcast)
+        node.register("user_sessions", self._handle_cluster_user_sessions)
+        node.register("stats", self._handle_cluster_stats)
+    
+    async def _handle_cluster_send_to_user(self, args: Dict[str, Any]) -> int:
+        return await self._deliver_to_user(
+            args['user_id'], args['payload'], args.get('kind', 'data'), args.get('coalesce_key')
+        )
+    
+    async def _handle_cluster_broadcast(self, args: Dict[str, Any]) -> Dict[str, Any]:
+        result = await self.fanout.deliver(list(self.connections.values()), args['payload'])
+        return result.to_dict()
+    
+    async def _handle_cluster_user_sessions(self, args: Dict[str, Any]) -> List[str]:
+        return self._local_user_sessions(args['user_id'])
+    
+    async def _handle_cluster_stats(self, args: Dict[str, Any]) -> Dict[str, Any]:
+        return await self.get_stats()
+    
+    def get_outbound_stats(self) -> Dict[str, Any]:
+        """Aggregate outbound queue depth across connections"""
+        depths = [
+            connection_info.outbound.depth
+            for connection_info in self.connections.values()
+            if connection_info.outbound is not None
+        ]
+        return {
+            **self.outbound_metrics,
+            'queue_depth_total': sum(depths),
+            'queue_depth_max': max(depths, default=0),
+            'queue_capacity': self.outbound_config.max_queue_size,
+            'delivery_latency': self.outbound_latency.snapshot(),
+            'batching_connections': sum(
+                1 for connection_info in self.connections.values()
+                if connection_info.outbound is not None and connection_info.outbound.batch_codec is not None
+            ),
+            'overflow_policy': self.outbound_config.overflow_policy
+        }
+    
     @property
     def is_active(self) -> bool:
         """Check if manager is running"""
@@ -513,18 +875,31 @@ class WebSocketManager:
             severity="warning"
         )
         
-        # Close all connections
-        for connection_info in list(self.connections.values()):
-            try:
-                await connection_info.websocket.send(shutdown_event.to_json())
-                await connection_info.websocket.close()
-            except Exception:
-                pass  # Connection might already be closed
+        # Notify everyone, give writers a moment to flush, then close all connections
+        connections = list(self.connections.values())
+        await self.fanout.deliver(connections, shutdown_event.to_json())
+        
+        await asyncio.gather(
+            *(connection_info.outbound.flush() for connection_info in connections
+              if connection_info.outbound is not None),
+            return_exceptions=True
+        )
+        await asyncio.gather(
+            *(connection_info.websocket.close() for connection_info in connections),
+            return_exceptions=True  # Connection might already be closed
+        )
+        await asyncio.gather(
+            *(connection_info.outbound.close() for connection_info in connections
+              if connection_info.outbound is not None),
+            return_exceptions=True
+        )
         
         # Clear all data
         self.connections.clear()
         self.sessions.clear()
         self.user_connections.clear()
+        self.session_connections.clear()
+        self.websocket_index.clear()
         self.is_running = False
         
         await self.stop()
@@ -0,0 +1,87 @@
+"""
+WebSocket Metrics - Lightweight latency histograms
+
+Fixed-bucket histograms that record in O(log buckets) and report
+percentiles without keeping individual samples, so they can sit on hot
+paths (fan-out, middleware stages) without growing memory.
+"""
+
+import bisect
+from typing import Dict, List, Optional, Sequence
+
+
+# Upper bounds in seconds, roughly logarithmic from 50us to 30s
+DEFAULT_LATENCY_BUCKETS: Sequence[float] = (
+    0.00005, 0.0001, 0.00025, 0.0005,
+    0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+    0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0
+)
+
+
+class LatencyHistogram:
+    """
+    Fixed-bucket latency histogram.
+
+    Percentiles are reported as the upper bound of the bucket that contains
+    the requested rank (capped at the largest observed value), which is
+    accurate to bucket resolution.
+    """
+
+    def __init__(self, buckets: Optional[Sequence[float]] = None):
+        self.bounds: List[float] = sorted(buckets or DEFAULT_LATENCY_BUCKETS)
+        # One extra bucket for values above the last bound
+        self.counts: List[int] = [0] * (len(self.bounds) + 1)
+        self.count = 0
+        self.total = 0.0
+        self.max = 0.0
+
+    def record(self, seconds: float) -> None:
+        """Record one observation in seconds"""
+        self.counts[bisect.bisect_left(self.bounds, seconds)] += 1
+        self.count += 1
+        self.total += seconds
+        if seconds > self.max:
+            self.max = seconds
+
+    def merge(self, other: "LatencyHistogram") -> None:
+        """Fold another histogram with the same buckets into this one"""
+        if other.bounds != self.bounds:
+            raise ValueError("Cannot merge histograms with different buckets")
+        for i, value in enumerate(other.counts):
+            self.counts[i] += value
+        self.count += other.count
+        self.total += other.total
+        self.max = max(self.max, other.max)
+
+    def percentile(self, pct: float) -> float:
+        """Get the latency at the given percentile (0-100) in seconds"""
+        if self.count == 0:
+            return 0.0
+
+        rank = max(1, int(round(pct / 100.0 * self.count)))
+        seen = 0
+        for i, value in enumerate(self.counts):
+            seen += value
+            if seen >= rank:
+                if i < len(self.bounds):
+                    return min(self.bounds[i], self.max)
+                return self.max
+        return self.max
+
+    def reset(self) -> None:
+        """Clear all observations"""
+        self.counts = [0] * (len(self.bounds) + 1)
+        self.count = 0
+        self.total = 0.0
+        self.max = 0.0
+
+    def snapshot(self) -> Dict[str, float]:
+        """Get summary statistics (milliseconds)"""
+        return {
+            'count': self.count,
+            'mean_ms': (self.total / self.count * 1000) if self.count else 0.0,
+            'p50_ms': self.percentile(50) * 1000,
+            'p95_ms': self.percentile(95) * 1000,
+            'p99_ms': self.percentile(99) * 1000,
+            'max_ms': self.max * 1000
+        }
@@ -9,7 +9,12 @@ Implements middleware pipeline for WebSocket connections following SOLID princip
 - Error handling and recovery mechanisms
 
 Architecture:
-- Chain of Responsibility pattern for middleware pipeline
+- Connection and envelope middleware compiled into flat stage tuples at startup
+  (stages disabled in config are left out entirely)
+- Frame stages screen raw frames (size, per-type rate, replays) before the
+  envelope is validated, so abusive messages are rejected cheaply
+- Per-stage latency histograms and rejection counters exposed through
+  middleware_metrics
 - Single Responsibility for each middleware component
 - Dependency Injection for configuration
 - Protocol-based design for extensibility
@@ -17,9 +22,9 @@ Architecture:
 
 import asyncio
 import time
-import json
 import traceback
-from typing import Dict, List, Optional, Any, Callable, Awaitable
+from collections import OrderedDict
+from typing import Dict, List, Optional, Any, Callable, Awaitable, Tuple, Union
 from abc import ABC, abstractmethod
 from dataclasses import dataclass
 
@@ -30,7 +35,8 @@ try:
     from src.logging_config import get_logger, LogExecutionTime, LogStep
     from config.models import WebSocketConfig
     from src.websocket.security import CORSManager
-    from src.websocket.events import WebSocketEnvelope, parse_websocket_envelope
+    from src.websocket.events import WebSocketEnvelope, LazyEnvelope, EnvelopeCodec, DEFAULT_CODEC, parse_websocket_envelope
+    from src.websocket.metrics import LatencyHistogram
 except ImportError:
     import sys
     import os
@@ -38,7 +44,12 @@ except ImportError:
     from src.logging_config import get_logger, LogExecutionTime, LogStep
     from config.models import WebSocketConfig
     from src.websocket.security import CORSManager
-    from src.websocket.events import WebSocketEnvelope, parse_websocket_envelope
+    from src.websocket.events import WebSocketEnvelope, LazyEnvelope, EnvelopeCodec, DEFAULT_CODEC, parse_websocket_envelope
+    from src.websocket.metrics import LatencyHistogram
+
+
+# Supported envelope protocol versions
+SUPPORTED_VERSIONS = frozenset({"1.0", "1.1", "2.0"})
 
 
 @dataclass
@@ -54,23 +65,46 @@ class MiddlewareContext:
     start_time: float
 
 
+@dataclass
+class FrameInfo:
+    """An inbound frame before envelope validation"""
+    raw: Union[str, bytes]
+    data: Optional[Dict[str, Any]] = None
+    
+    @property
+    def message_type(self) -> Optional[str]:
+        return self.data.get('type') if self.data else None
+    
+    @property
+    def message_id(self) -> Optional[str]:
+        return self.data.get('id') if self.data else None
+
+
+@dataclass
+class EnvelopeContext:
+    """Context object passed through the envelope pipeline"""
+    websocket: ServerConnection
+    session_id: str
+    user_id: str
+    metadata: Dict[str, Any]
+
+
 class BaseMiddleware(ABC):
     """
-    Abstract base class for WebSocket middleware.
+    Abstract base class for WebSocket connection middleware.
     
-    Implements Chain of Responsibility pattern for processing
-    WebSocket connections through configurable pipeline.
+    Middleware is a single stage; WebSocketMiddleware compiles the enabled
+    stages into a flat tuple and runs them in order.
     """
     
     def __init__(self, name: str):
         self.name = name
         self.logger = get_logger(f"Middleware.{name}")
-        self.next_middleware: Optional['BaseMiddleware'] = None
     
-    def set_next(self, middleware: 'BaseMiddleware') -> 'BaseMiddleware':
-        """Set next middleware in chain"""
-        self.next_middleware = middleware
-        return middleware
+    @property
+    def enabled(self) -> bool:
+        """Whether the stage does anything with the current configuration"""
+        return True
     
     @abstractmethod
     async def process(self, context: MiddlewareContext) -> bool:
@@ -84,32 +118,180 @@ class BaseMiddleware(ABC):
             bool: True to continue processing, False to reject connection
         """
         pass
+
+
+# Envelope stages see either a fully validated envelope or, on the server's
+# hot path, a LazyEnvelope whose payload has not been validated yet
+AnyEnvelope = Union[WebSocketEnvelope, LazyEnvelope]
+
+
+class BaseEnvelopeMiddleware(ABC):
+    """
+    Abstract base class for envelope middleware.
+    
+    Runs for every parsed envelope, so stages should be cheap. Use the header
+    fields, has_payload and get_payload_type(); reading ``payload`` on a
+    LazyEnvelope forces full validation.
+    """
     
-    async def handle(self, context: MiddlewareContext) -> bool:
+    def __init__(self, name: str):
+        self.name = name
+        self.logger = get_logger(f"Middleware.{name}")
+    
+    @property
+    def enabled(self) -> bool:
+        """Whether the stage does anything with the current configuration"""
+        return True
+    
+    @abstractmethod
+    async def process(self, envelope: AnyEnvelope, context: EnvelopeContext) -> bool:
         """
-        Handle middleware processing and chain to next middleware.
+        Process an incoming envelope.
         
         Args:
-            context: Middleware context
+            envelope: Parsed envelope
+            context: Envelope context with connection info
             
         Returns:
-            bool: True if all middleware approve connection
+            bool: True to continue processing, False to drop the envelope
         """
-        try:
-            # Process current middleware
-            if not await self.process(context):
-                self.logger.warning(f"Connection rejected by {self.name} middleware")
+        pass
+
+
+class BaseFrameMiddleware(ABC):
+    """
+    Abstract base class for frame middleware.
+    
+    Frame stages see the raw frame and its decoded JSON object, but run
+    before Pydantic validation. ``error_code`` is sent to the client when the
+    stage rejects a frame.
+    """
+    
+    error_code = "frame_rejected"
+    
+    # Stages that only need the raw bytes run before the frame is decoded
+    needs_data = True
+    
+    def __init__(self, name: str):
+        self.name = name
+        self.logger = get_logger(f"Middleware.{name}")
+    
+    @property
+    def enabled(self) -> bool:
+        """Whether the stage does anything with the current configuration"""
+        return True
+    
+    @abstractmethod
+    async def process(self, frame: FrameInfo, context: EnvelopeContext) -> bool:
+        """
+        Screen an inbound frame.
+        
+        Returns:
+            bool: True to continue processing, False to reject the frame
+        """
+        pass
+
+
+class FrameSizeMiddleware(BaseFrameMiddleware):
+    """Rejects frames above max_frame_bytes without decoding them"""
+    
+    error_code = "message_too_large"
+    needs_data = False
+    
+    def __init__(self, filter_config):
+        super().__init__("FrameSize")
+        self.config = filter_config
+    
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled
+    
+    async def process(self, frame: FrameInfo, context: EnvelopeContext) -> bool:
+        raw = frame.raw
+        limit = self.config.max_frame_bytes
+        
+        if isinstance(raw, str):
+            # A character is 1-4 UTF-8 bytes; only encode when the bounds disagree
+            if len(raw) > limit:
                 return False
-            
-            # Continue to next middleware
-            if self.next_middleware:
-                return await self.next_middleware.handle(context)
-            
+            if len(raw) * 4 <= limit:
+                return True
+            return len(raw.encode('utf-8')) <= limit
+        
+        return len(raw) <= limit
+
+
+class MessageTypeRateLimitMiddleware(BaseFrameMiddleware):
+    """Per-user token bucket for each envelope type in rate_limiting.message_type_limits"""
+    
+    error_code = "rate_limit"
+    
+    def __init__(self, rate_limit_config, security_manager):
+        super().__init__("MessageTypeRateLimit")
+        self.config = rate_limit_config
+        self.security_manager = security_manager
+    
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled and bool(self.config.message_type_limits)
+    
+    async def process(self, frame: FrameInfo, context: EnvelopeContext) -> bool:
+        message_type = frame.message_type
+        if message_type not in self.config.message_type_limits:
             return True
-            
-        except Exception as e:
-            self.logger.error(f"Error in {self.name} middleware: {e}")
-            return False
+        return await self.security_manager.check_message_rate_limit(context.user_id, message_type)
+
+
+class ReplayFilterMiddleware(BaseFrameMiddleware):
+    """
+    Rejects envelopes whose id was already accepted on the same connection.
+    
+    Each connection remembers at most replay_window ids, each for replay_ttl
+    seconds, so one busy connection cannot push another's ids out. Ids are
+    recorded by record() once the envelope has been accepted; a frame that a
+    later stage or validation rejects can be sent again.
+    """
+    
+    error_code = "duplicate_message"
+    
+    def __init__(self, filter_config):
+        super().__init__("ReplayFilter")
+        self.config = filter_config
+        self._seen: Dict[Any, "OrderedDict[str, float]"] = {}
+    
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled and self.config.replay_filter
+    
+    async def process(self, frame: FrameInfo, context: EnvelopeContext) -> bool:
+        message_id = frame.message_id
+        if not isinstance(message_id, str):
+            return True  # Validation rejects it later
+        
+        seen = self._seen.get(context.websocket)
+        if seen is None:
+            return True
+        
+        seen_at = seen.get(message_id)
+        return seen_at is None or time.monotonic() - seen_at >= self.config.replay_ttl
+    
+    def record(self, websocket: ServerConnection, message_id: str) -> None:
+        """Remember an accepted envelope id for the connection"""
+        now = time.monotonic()
+        seen = self._seen.setdefault(websocket, OrderedDict())
+        seen[message_id] = now
+        seen.move_to_end(message_id)
+        
+        # Oldest first, so expired ids and overflow are both at the front
+        while seen:
+            oldest_id, oldest_at = next(iter(seen.items()))
+            if len(seen) <= self.config.replay_window and now - oldest_at < self.config.replay_ttl:
+                break
+            del seen[oldest_id]
+    
+    def forget(self, websocket: ServerConnection) -> None:
+        """Drop a closed connection's window"""
+        self._seen.pop(websocket, None)
 
 
 class CORSMiddleware(BaseMiddleware):
@@ -124,6 +306,10 @@ class CORSMiddleware(BaseMiddleware):
         super().__init__("CORS")
         self.cors_manager = CORSManager(cors_config)
     
+    @property
+    def enabled(self) -> bool:
+        return self.cors_manager.config.enabled
+    
     async def process(self, context: MiddlewareContext) -> bool:
         """Validate CORS origin"""
         if not self.cors_manager.config.enabled:
@@ -156,6 +342,10 @@ class RateLimitMiddleware(BaseMiddleware):
         self.config = rate_limit_config
         self.security_manager = security_manager
     
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled
+    
     async def process(self, context: MiddlewareContext) -> bool:
         """Check rate limits for IP address"""
         if not self.config.enabled:
@@ -165,7 +355,7 @@ class RateLimitMiddleware(BaseMiddleware):
         # Check rate limit for IP address
         ip_address = context.ip_address
         
-        if not await self.security_manager.check_rate_limit(ip_address):
+        if not await self.security_manager.check_rate_limit(ip_address, scope="ip"):
             self.logger.warning(f"Rate limit exceeded for IP: {ip_address}")
             return False
         
@@ -186,6 +376,10 @@ class LoggingMiddleware(BaseMiddleware):
         self.config = logging_config
         self.connection_logger = get_logger("WebSocketConnections")
     
+    @property
+    def enabled(self) -> bool:
+        return self.config.log_connections
+    
     async def process(self, context: MiddlewareContext) -> bool:
         """Log connection attempt"""
         if self.config.log_connections:
@@ -235,49 +429,54 @@ class SecurityMiddleware(BaseMiddleware):
         return True
 
 
-class PerformanceMiddleware(BaseMiddleware):
-    """
-    Performance monitoring middleware.
+class EnvelopeLoggingMiddleware(BaseEnvelopeMiddleware):
+    """Debug logging of every incoming envelope (logging.log_envelopes)"""
     
-    Tracks connection performance metrics and
-    identifies slow connections or potential issues.
-    """
+    def __init__(self, logging_config):
+        super().__init__("EnvelopeLogging")
+        self.config = logging_config
     
-    def __init__(self, enable_metrics: bool = True):
-        super().__init__("Performance")
-        self.enable_metrics = enable_metrics
-        self.metrics = {
-            'connections_processed': 0,
-            'total_processing_time': 0.0,
-            'average_processing_time': 0.0
-        }
+    @property
+    def enabled(self) -> bool:
+        return bool(getattr(self.config, 'log_envelopes', False))
     
-    async def process(self, context: MiddlewareContext) -> bool:
-        """Track performance metrics"""
-        if not self.enable_metrics:
-            return True
-        
-        processing_time = time.time() - context.start_time
-        
-        # Update metrics
-        self.metrics['connections_processed'] += 1
-        self.metrics['total_processing_time'] += processing_time
-        self.metrics['average_processing_time'] = (
-            self.metrics['total_processing_time'] / self.metrics['connections_processed']
+    async def process(self, envelope: AnyEnvelope, context: EnvelopeContext) -> bool:
+        self.logger.debug(
+            f"Processing envelope type: {envelope.type} from {context.user_id}",
+            extra={
+                'envelope_id': envelope.id,
+                'envelope_type': envelope.type,
+                'payload_type': envelope.get_payload_type(),
+                'session_id': context.session_id,
+                'user_id': context.user_id,
+                'correlation_id': envelope.correlation_id
+            }
         )
+        return True
+
+
+class EnvelopeValidationMiddleware(BaseEnvelopeMiddleware):
+    """Structural checks: payload present and protocol version supported"""
+    
+    def __init__(self):
+        super().__init__("EnvelopeValidation")
+    
+    async def process(self, envelope: AnyEnvelope, context: EnvelopeContext) -> bool:
+        if not envelope.has_payload:
+            self.logger.warning(f"Empty payload in envelope {envelope.id}")
+            return False
         
-        # Log slow connections
-        if processing_time > 1.0:  # More than 1 second
-            self.logger.warning(
-                f"Slow connection processing: {processing_time:.2f}s for {context.ip_address}"
-            )
-        
-        # Add performance data to context
-        context.metadata['processing_time'] = processing_time
+        if envelope.version not in SUPPORTED_VERSIONS:
+            self.logger.warning(f"Unsupported protocol version: {envelope.version}")
+            return False
         
         return True
 
 
+# A compiled stage: (name, bound process method, latency histogram or None)
+Stage = Tuple[str, Callable[..., Awaitable[bool]], Optional[LatencyHistogram]]
+
+
 class WebSocketMiddleware:
     """
     Main WebSocket middleware coordinator.
@@ -286,78 +485,144 @@ class WebSocketMiddleware:
     for processing WebSocket connections.
     
     Features:
-    - Configurable middleware pipeline
+    - Connection and envelope pipelines compiled into flat tuples
+    - Stages disabled in configuration are not compiled in
+    - Per-stage latency histograms (when enable_metrics is set)
     - Error handling and recovery
-    - Performance monitoring
-    - Extensible architecture
     """
     
     def __init__(self, config: WebSocketConfig, security_manager=None):
         self.config = config
         self.logger = get_logger("WebSocketMiddleware")
         
-        # Build middleware pipeline
-        self.middleware_chain = self._build_middleware_pipeline(security_manager)
+        # Stage instances in processing order; compiled into tuples below
+        self.connection_middlewares: List[BaseMiddleware] = self._build_middleware_pipeline(security_manager)
+        self.frame_middlewares: List[BaseFrameMiddleware] = self._build_frame_pipeline(security_manager)
+        self.envelope_middlewares: List[BaseEnvelopeMiddleware] = self._build_envelope_pipeline()
+        
+        # Latency and rejections per stage name, kept across recompiles
+        self.stage_latency: Dict[str, LatencyHistogram] = {}
+        self.stage_rejections: Dict[str, int] = {}
+        self.connection_latency = LatencyHistogram()
+        self.envelope_latency = LatencyHistogram()
+        
+        self._connection_stages: Tuple[Stage, ...] = ()
+        self._raw_frame_stages: Tuple[Stage, ...] = ()
+        self._frame_stages: Tuple[Stage, ...] = ()
+        self._envelope_stages: Tuple[Stage, ...] = ()
+        self._frame_error_codes: Dict[str, str] = {}
+        self._compile()
         
         # Performance metrics
         self.metrics = {
             'connections_processed': 0,
             'connections_accepted': 0,
             'connections_rejected': 0,
+            'frames_rejected': 0,
+            'envelopes_processed': 0,
+            'envelopes_rejected': 0,
             'processing_errors': 0
         }
         
         self.logger.info("WebSocket middleware pipeline initialized")
     
-    def _build_middleware_pipeline(self, security_manager) -> Optional[BaseMiddleware]:
+    def _build_middleware_pipeline(self, security_manager) -> List[BaseMiddleware]:
         """
-        Build middleware pipeline based on configuration.
-        
-        Creates chain of middleware in processing order:
-        1. Logging (always first)
-        2. Performance monitoring
-        3. Security checks
-        4. Rate limiting  
-        5. CORS validation
-        """
-        middlewares = []
-        
-        # Always include logging
-        logging_middleware = LoggingMiddleware(self.config.logging)
-        middlewares.append(logging_middleware)
+        Build connection middleware based on configuration.
         
-        # Performance monitoring
-        if self.config.enable_metrics:
-            performance_middleware = PerformanceMiddleware(True)
-            middlewares.append(performance_middleware)
+        Processing order:
+        1. Logging
+        2. Security checks
+        3. Rate limiting
+        4. CORS validation
+        """
+        middlewares: List[BaseMiddleware] = [LoggingMiddleware(self.config.logging)]
         
-        # Security middleware
         if security_manager:
-            security_middleware = SecurityMiddleware(security_manager)
-            middlewares.append(security_middleware)
-            
-            # Rate limiting
-            if self.config.security.rate_limiting.enabled:
-                rate_limit_middleware = RateLimitMiddleware(
-                    self.config.security.rate_limiting,
-                    security_manager
-                )
-                middlewares.append(rate_limit_middleware)
+            middlewares.append(SecurityMiddleware(security_manager))
+            middlewares.append(RateLimitMiddleware(self.config.security.rate_limiting, security_manager))
         
-        # CORS middleware
-        if self.config.security.cors.enabled:
-            cors_middleware = CORSMiddleware(self.config.security.cors)
-            middlewares.append(cors_middleware)
+        middlewares.append(CORSMiddleware(self.config.security.cors))
+        return middlewares
+    
+    def _build_frame_pipeline(self, security_manager) -> List[BaseFrameMiddleware]:
+        """
+        Build frame middleware based on configuration.
         
-        # Chain middlewares together
-        if not middlewares:
-            return None
+        Processing order (cheapest first):
+        1. Frame size (raw frame, before decoding)
+        2. Per-type rate limits
+        3. Replay filter
+        """
+        filter_config = self.config.envelope_filter
+        middlewares: List[BaseFrameMiddleware] = [FrameSizeMiddleware(filter_config)]
+        
+        if security_manager:
+            middlewares.append(MessageTypeRateLimitMiddleware(self.config.security.rate_limiting, security_manager))
         
-        for i in range(len(middlewares) - 1):
-            middlewares[i].set_next(middlewares[i + 1])
+        self.replay_filter = ReplayFilterMiddleware(filter_config)
+        middlewares.append(self.replay_filter)
+        return middlewares
+    
+    def _build_envelope_pipeline(self) -> List[BaseEnvelopeMiddleware]:
+        """Build envelope middleware based on configuration"""
+        return [
+            EnvelopeLoggingMiddleware(self.config.logging),
+            EnvelopeValidationMiddleware()
+        ]
+    
+    def _compile_stages(self, middlewares) -> Tuple[Stage, ...]:
+        """Flatten enabled middlewares into (name, process, histogram) tuples"""
+        stages = []
+        for middleware in middlewares:
+            if not middleware.enabled:
+                continue
+            histogram = None
+            if self.config.enable_metrics:
+                histogram = self.stage_latency.setdefault(middleware.name, LatencyHistogram())
+            stages.append((middleware.name, middleware.process, histogram))
+            self.stage_rejections.setdefault(middleware.name, 0)
+        return tuple(stages)
+    
+    def _compile(self) -> None:
+        """(Re)compile all pipelines"""
+        self._connection_stages = self._compile_stages(self.connection_middlewares)
+        self._raw_frame_stages = self._compile_stages(
+            [middleware for middleware in self.frame_middlewares if not middleware.needs_data]
+        )
+        self._frame_stages = self._compile_stages(
+            [middleware for middleware in self.frame_middlewares if middleware.needs_data]
+        )
+        self._envelope_stages = self._compile_stages(self.envelope_middlewares)
+        self._frame_error_codes = {middleware.name: middleware.error_code for middleware in self.frame_middlewares}
+        
+        self.logger.info(
+            f"Compiled middleware pipeline: connection="
+            f"{[name for name, _, _ in self._connection_stages]}, "
+            f"frame={[name for name, _, _ in self._raw_frame_stages + self._frame_stages]}, "
+            f"envelope={[name for name, _, _ in self._envelope_stages]}"
+        )
+    
+    @staticmethod
+    async def _run_stages(stages: Tuple[Stage, ...], *args) -> Optional[str]:
+        """
+        Run compiled stages in order.
         
-        self.logger.info(f"Built middleware pipeline with {len(middlewares)} middlewares")
-        return middlewares[0] if middlewares else None
+        Returns:
+            Name of the stage that rejected, or None if all passed
+        """
+        for name, process, histogram in stages:
+            if histogram is None:
+                if not await process(*args):
+                    return name
+                continue
+            
+            started = time.perf_counter()
+            passed = await process(*args)
+            histogram.record(time.perf_counter() - started)
+            if not passed:
+                return name
+        return None
     
     async def process_connection(
         self, 
@@ -375,6 +640,7 @@ class WebSocketMiddleware:
             bool: True if connection should be accepted
         """
         start_time = time.time()
+        started = time.perf_counter()
         self.metrics['connections_processed'] += 1
         
         try:
@@ -424,21 +690,28 @@ class WebSocketMiddleware:
                     start_time=start_time
                 )
                 
-                # Process through middleware chain
-                if self.middleware_chain:
-                    result = await self.middleware_chain.handle(context)
-                else:
-                    result = True  # No middleware, accept by default
+                # Process through compiled connection stages
+                rejected_by = await self._run_stages(self._connection_stages, context)
+                
+                processing_time = time.perf_counter() - started
+                context.metadata['processing_time'] = processing_time
+                if self.config.enable_metrics:
+                    self.connection_latency.record(processing_time)
+                if processing_time > 1.0:
+                    self.logger.warning(
+                        f"Slow connection processing: {processing_time:.2f}s for {ip_address}"
+                    )
                 
                 # Update metrics
-                if result:
+                if rejected_by is None:
                     self.metrics['connections_accepted'] += 1
                     self.logger.info(f"Connection accepted from {ip_address}")
-                else:
-                    self.metrics['connections_rejected'] += 1
-                    self.logger.warning(f"Connection rejected from {ip_address}")
+                    return True
                 
-                return result
+                self.metrics['connections_rejected'] += 1
+                self.stage_rejections[rejected_by] += 1
+                self.logger.warning(f"Connection from {ip_address} rejected by {rejected_by} middleware")
+                return False
                 
         except Exception as e:
             self.metrics['processing_errors'] += 1
@@ -446,6 +719,61 @@ class WebSocketMiddleware:
             self.logger.error(f"Traceback: {traceback.format_exc()}")
             return False
     
+    async def screen_frame(
+        self,
+        websocket: ServerConnection,
+        raw_message: Union[str, bytes],
+        session_id: str,
+        user_id: str,
+        codec: EnvelopeCodec = DEFAULT_CODEC
+    ) -> Tuple[Optional[Dict[str, Any]], Optional[str]]:
+        """
+        Decode a raw frame and run the frame stages on it.
+        
+        Args:
+            websocket: WebSocket connection
+            raw_message: Frame as received
+            session_id: Session identifier
+            user_id: User identifier
+            codec: The connection's negotiated envelope codec
+            
+        Returns:
+            Tuple of (decoded envelope data, None) if accepted, or
+            (None, error code) if a stage rejected the frame
+            
+        Raises:
+            EnvelopeDecodeError: If the frame cannot be decoded to an envelope object
+        """
+        frame = FrameInfo(raw=raw_message)
+        context = EnvelopeContext(
+            websocket=websocket,
+            session_id=session_id,
+            user_id=user_id,
+            metadata={}
+        )
+        
+        rejected_by = await self._run_stages(self._raw_frame_stages, frame, context)
+        if rejected_by is None:
+            frame.data = codec.decode(raw_message)
+            rejected_by = await self._run_stages(self._frame_stages, frame, context)
+        
+        if rejected_by is not None:
+            self.metrics['frames_rejected'] += 1
+            self.stage_rejections[rejected_by] += 1
+            self.logger.debug(f"Frame from {user_id} rejected by {rejected_by} middleware")
+            return None, self._frame_error_codes.get(rejected_by, "frame_rejected")
+        
+        return frame.data, None
+    
+    def record_accepted(self, websocket: ServerConnection, message_id: str) -> None:
+        """Record an accepted envelope's id for the replay filter"""
+        if self.replay_filter.enabled:
+            self.replay_filter.record(websocket, message_id)
+    
+    def release_connection(self, websocket: ServerConnection) -> None:
+        """Drop per-connection frame state"""
+        self.replay_filter.forget(websocket)
+    
     async def parse_and_process_envelope(
         self, 
         websocket: ServerConnection, 
@@ -495,78 +823,94 @@ class WebSocketMiddleware:
     async def process_envelope(
         self, 
         websocket: ServerConnection, 
-        envelope: WebSocketEnvelope,
+        envelope: AnyEnvelope,
         session_id: str,
         user_id: str
-    ) -> Optional[WebSocketEnvelope]:
+    ) -> Optional[AnyEnvelope]:
         """
         Process incoming WebSocket envelope through middleware.
         
         Args:
             websocket: WebSocket connection
-            envelope: Parsed envelope with typed payload
+            envelope: Parsed envelope (validated, or lazy with only its header validated)
             session_id: Session identifier
             user_id: User identifier
             
         Returns:
-            Optional[WebSocketEnvelope]: Processed envelope or None if rejected
+            Optional envelope: The same envelope, or None if rejected
         """
+        started = time.perf_counter()
+        self.metrics['envelopes_processed'] += 1
+        
         try:
-            # Envelope-level middleware processing
+            context = EnvelopeContext(
+                websocket=websocket,
+                session_id=session_id,
+                user_id=user_id,
+                metadata={}
+            )
+            rejected_by = await self._run_stages(self._envelope_stages, envelope, context)
             
-            # Log envelope if enabled
-            if hasattr(self.config.logging, 'log_envelopes') and getattr(self.config.logging, 'log_envelopes', False):
-                self.logger.debug(
-                    f"Processing envelope type: {envelope.type} from {user_id}",
-                    extra={
-                        'envelope_id': envelope.id,
-                        'envelope_type': envelope.type,
-                        'payload_type': envelope.get_payload_type(),
-                        'session_id': session_id,
-                        'user_id': user_id,
-                        'correlation_id': envelope.correlation_id
-                    }
-                )
+            if self.config.enable_metrics:
+                self.envelope_latency.record(time.perf_counter() - started)
             
-            # Validate envelope structure
-            if not envelope.payload:
-                self.logger.warning(f"Empty payload in envelope {envelope.id}")
+            if rejected_by is not None:
+                self.metrics['envelopes_rejected'] += 1
+                self.stage_rejections[rejected_by] += 1
                 return None
             
-            # Check envelope version compatibility
-            if envelope.version not in ["1.0", "1.1", "2.0"]:
-                self.logger.warning(f"Unsupported protocol version: {envelope.version}")
-                return None
-            
-            # Additional envelope-specific middleware can be added here:
-            # - Content filtering
-            # - Message size limits
-            # - Rate limiting per envelope type
-            # - Payload validation
-            
             return envelope
             
         except Exception as e:
+            self.metrics['processing_errors'] += 1
             self.logger.error(f"Envelope processing error: {e}")
             self.logger.debug(f"Envelope processing traceback: {traceback.format_exc()}")
             return None
     
-    def add_middleware(self, middleware: BaseMiddleware, position: int = -1) -> None:
+    def add_middleware(self, middleware, position: int = -1) -> None:
         """
-        Add custom middleware to pipeline.
+        Add custom middleware to the pipeline and recompile it.
         
         Args:
-            middleware: Middleware instance to add
+            middleware: BaseMiddleware, BaseFrameMiddleware or BaseEnvelopeMiddleware instance
             position: Position in pipeline (-1 for end)
         """
-        # This is a simplified implementation
-        # In a full implementation, you'd rebuild the pipeline
+        if isinstance(middleware, BaseEnvelopeMiddleware):
+            middlewares = self.envelope_middlewares
+        elif isinstance(middleware, BaseFrameMiddleware):
+            middlewares = self.frame_middlewares
+        else:
+            middlewares = self.connection_middlewares
+        
+        if position < 0:
+            middlewares.append(middleware)
+        else:
+            middlewares.insert(position, middleware)
+        
+        self._compile()
         self.logger.info(f"Added middleware: {middleware.name}")
     
     @property
     def middleware_metrics(self) -> Dict[str, Any]:
-        """Get middleware performance metrics"""
-        return self.metrics.copy()
+        """Get middleware performance metrics, with latency per compiled stage"""
+        return {
+            **self.metrics,
+            'connection_latency': self.connection_latency.snapshot(),
+            'envelope_latency': self.envelope_latency.snapshot(),
+            'rejections': dict(self.stage_rejections),
+            'stages': {
+                'connection': {
+                    name: histogram.snapshot() for name, _, histogram in self._connection_stages if histogram
+                },
+                'frame': {
+                    name: histogram.snapshot()
+                    for name, _, histogram in self._raw_frame_stages + self._frame_stages if histogram
+                },
+                'envelope': {
+                    name: histogram.snapshot() for name, _, histogram in self._envelope_stages if histogram
+                }
+            }
+        }
 
 
 # Example usage and testing
@@ -0,0 +1,349 @@
+"""
+WebSocket Outbound Queues - Per-connection writer with backpressure
+
+Each registered connection gets a bounded queue drained by its own writer
+task. Handlers and broadcasts enqueue and return immediately, so a client
+that reads slowly only delays its own messages, and memory per connection
+is bounded by the queue size.
+
+Overflow policies (applied when the queue is full):
+- coalesce_status: replace a queued status event of the same kind, otherwise
+  fall back to drop_oldest_system
+- drop_oldest_system: evict the oldest queued system/status event, otherwise
+  fall back to disconnect
+- disconnect: close the connection with 1013 (Try Again Later)
+
+Batching (clients that advertised the "batch" capability): when the writer
+takes a batchable item (status/system by default) it keeps taking batchable
+items from the head of the queue, waiting up to max_delay for more, and
+writes them as one batch envelope once max_envelopes or max_bytes is reached
+or the delay runs out. Only consecutive items are batched, so send order is
+unchanged.
+
+Delivery latency (enqueue until the frame is written to the socket) is
+measured here, in the writer, into a histogram shared by all queues of a
+manager; fan-outs only hand payloads to the queues.
+"""
+
+import asyncio
+import time
+from collections import deque
+from dataclasses import dataclass
+from typing import Any, Deque, Dict, List, Optional, Tuple, Union
+
+try:
+    from src.logging_config import get_logger
+    from src.websocket.metrics import LatencyHistogram
+    from config.models import OutboundQueueConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from src.websocket.metrics import LatencyHistogram
+    from config.models import OutboundQueueConfig
+
+
+# Close code for clients that cannot keep up (RFC 6455 "Try Again Later")
+SLOW_CONSUMER_CLOSE_CODE = 1013
+
+# Message kinds, in increasing order of importance
+KIND_STATUS = "status"
+KIND_SYSTEM = "system"
+KIND_DATA = "data"
+
+# System events that only matter in their latest form
+STATUS_EVENT_NAMES = frozenset({"server_status", "heartbeat"})
+
+# Enqueue outcomes
+QUEUED = "queued"
+COALESCED = "coalesced"
+DROPPED = "dropped"
+DISCONNECTED = "disconnected"
+
+
+def classify_envelope(envelope) -> Tuple[str, Optional[str]]:
+    """
+    Classify an envelope for overflow handling.
+
+    Returns:
+        Tuple of (kind, coalesce_key). Only status events carry a key.
+    """
+    message_type = getattr(envelope.payload, "message_type", None)
+
+    if message_type == "health_check":
+        return KIND_STATUS, "health_check"
+
+    if message_type == "system_event":
+        event_name = getattr(envelope.payload, "event_name", "")
+        if event_name in STATUS_EVENT_NAMES:
+            return KIND_STATUS, event_name
+        return KIND_SYSTEM, None
+
+    return KIND_DATA, None
+
+
+def new_outbound_metrics() -> Dict[str, int]:
+    """Counters shared by all queues of a manager"""
+    return {
+        'enqueued': 0,
+        'sent': 0,
+        'frames_sent': 0,
+        'batches_sent': 0,
+        'batched': 0,
+        'coalesced': 0,
+        'dropped': 0,
+        'disconnected': 0,
+        'send_errors': 0
+    }
+
+
+@dataclass
+class OutboundItem:
+    """A serialized message waiting to be written"""
+    payload: Union[str, bytes]
+    kind: str = KIND_DATA
+    coalesce_key: Optional[str] = None
+    enqueued_at: float = 0.0  # perf_counter() when queued
+
+
+class OutboundQueue:
+    """
+    Bounded outbound queue plus writer task for one connection.
+
+    enqueue() never awaits, so it is safe to call from fan-outs and from
+    handlers while the writer is blocked on a slow socket.
+    """
+
+    def __init__(
+        self,
+        websocket,
+        config: Optional[OutboundQueueConfig] = None,
+        metrics: Optional[Dict[str, int]] = None,
+        name: str = "",
+        batch_codec=None,
+        latency: Optional[LatencyHistogram] = None
+    ):
+        self.websocket = websocket
+        self.config = config or OutboundQueueConfig()
+        self.metrics = metrics if metrics is not None else new_outbound_metrics()
+        # Enqueue-to-written latency; shared by the queues of a manager like metrics
+        self.latency = latency if latency is not None else LatencyHistogram()
+        self.name = name
+        self.logger = get_logger("OutboundQueue")
+
+        # Codec that builds batch frames; None unless the client opted in
+        batching = self.config.batching
+        self.batch_codec = batch_codec if batching.enabled else None
+        self._batch_kinds = frozenset(batching.kinds)
+
+        self._items: Deque[OutboundItem] = deque()
+        self._wakeup = asyncio.Event()
+        self._idle = asyncio.Event()
+        self._idle.set()
+        self._writer: Optional[asyncio.Task] = None
+        self._closed = False
+
+        self.max_depth_seen = 0
+
+    def start(self) -> None:
+        """Start the writer task"""
+        if self._writer is None:
+            self._writer = asyncio.create_task(self._write_loop())
+
+    @property
+    def depth(self) -> int:
+        """Number of messages waiting to be written"""
+        return len(self._items)
+
+    @property
+    def is_closed(self) -> bool:
+        return self._closed
+
+    def enqueue(self, payload: Union[str, bytes], kind: str = KIND_DATA, coalesce_key: Optional[str] = None) -> str:
+        """
+        Queue a serialized message for this connection.
+
+        Returns:
+            One of QUEUED, COALESCED, DROPPED or DISCONNECTED
+        """
+        if self._closed:
+            return DROPPED
+
+        if len(self._items) >= self.config.max_queue_size:
+            outcome = self._handle_overflow(payload, kind, coalesce_key)
+            if outcome != QUEUED:
+                return outcome
+
+        self._items.append(OutboundItem(payload, kind, coalesce_key, time.perf_counter()))
+        self.metrics['enqueued'] += 1
+        if len(self._items) > self.max_depth_seen:
+            self.max_depth_seen = len(self._items)
+
+        self._idle.clear()
+        self._wakeup.set()
+        return QUEUED
+
+    def _handle_overflow(self, payload: Union[str, bytes], kind: str, coalesce_key: Optional[str]) -> str:
+        """Apply the overflow policy; QUEUED means room was made for the new item"""
+        policy = self.config.overflow_policy
+
+        if policy == "coalesce_status" and coalesce_key is not None:
+            for item in self._items:
+                if item.coalesce_key == coalesce_key:
+                    item.payload = payload
+                    self.metrics['coalesced'] += 1
+                    return COALESCED
+
+        if policy in ("coalesce_status", "drop_oldest_system"):
+            for item in self._items:
+                if item.kind != KIND_DATA:
+                    self._items.remove(item)
+                    self.metrics['dropped'] += 1
+                    return QUEUED
+
+            # Nothing expendable is queued; shed the new item if it is expendable too
+            if kind != KIND_DATA:
+                self.metrics['dropped'] += 1
+                return DROPPED
+
+        self._disconnect()
+        return DISCONNECTED
+
+    def _disconnect(self) -> None:
+        """Close a connection that cannot keep up"""
+        if self._closed:
+            return
+
+        self._closed = True
+        self.metrics['disconnected'] += 1
+        self.metrics['dropped'] += len(self._items)
+        self._items.clear()
+        self._idle.set()
+        self._wakeup.set()
+
+        self.logger.warning(f"Outbound queue full for {self.name or 'connection'}, disconnecting slow consumer")
+        asyncio.create_task(self._close_websocket())
+
+    async def _close_websocket(self) -> None:
+        try:
+            await self.websocket.close(code=SLOW_CONSUMER_CLOSE_CODE, reason="Slow consumer")
+        except Exception:
+            pass  # Connection might already be closed
+
+    async def _write_loop(self) -> None:
+        """Drain the queue onto the socket, one message at a time"""
+        try:
+            while True:
+                while not self._items:
+                    self._idle.set()
+                    if self._closed:
+                        return
+                    self._wakeup.clear()
+                    await self._wakeup.wait()
+
+                item = self._items.popleft()
+                if self.batch_codec is not None and item.kind in self._batch_kinds:
+                    items = await self._collect_batch(item)
+                else:
+                    items = [item]
+
+                try:
+                    if len(items) == 1:
+                        await self.websocket.send(item.payload)
+                    else:
+                        await self.websocket.send(self.batch_codec.encode_batch([i.payload for i in items]))
+                        self.metrics['batches_sent'] += 1
+                        self.metrics['batched'] += len(items)
+                    self.metrics['sent'] += len(items)
+                    self.metrics['frames_sent'] += 1
+                    written = time.perf_counter()
+                    for sent in items:
+                        self.latency.record(written - sent.enqueued_at)
+                except asyncio.CancelledError:
+                    raise
+                except Exception as e:
+                    # The socket is gone; anything still queued is undeliverable
+                    self.metrics['send_errors'] += 1
+                    self.metrics['dropped'] += len(self._items)
+                    self._items.clear()
+                    self._closed = True
+                    self._idle.set()
+                    self.logger.debug(f"Outbound writer stopped for {self.name or 'connection'}: {e}")
+                    return
+        except asyncio.CancelledError:
+            pass
+
+    async def _collect_batch(self, first: OutboundItem) -> List[OutboundItem]:
+        """Take consecutive batchable items after first, until a size limit or max_delay"""
+        batching = self.config.batching
+        items = [first]
+        size = len(first.payload)
+
+        loop = asyncio.get_running_loop()
+        deadline = loop.time() + batching.max_delay
+
+        while len(items) < batching.max_envelopes and size < batching.max_bytes:
+            if not self._items:
+                remaining = deadline - loop.time()
+                if remaining <= 0 or self._closed:
+                    break
+                self._wakeup.clear()
+                try:
+                    await asyncio.wait_for(self._wakeup.wait(), timeout=remaining)
+                except asyncio.TimeoutError:
+                    break
+                continue
+
+            item = self._items[0]
+            if item.kind not in self._batch_kinds or size + len(item.payload) > batching.max_bytes:
+                break
+            items.append(self._items.popleft())
+            size += len(item.payload)
+
+        return items
+
+    async def flush(self, timeout: Optional[float] = None) -> bool:
+        """
+        Wait until everything queued so far has been written.
+
+        Returns:
+            True if the queue drained within the timeout
+        """
+        if self._writer is None:
+            return not self._items
+
+        timeout = self.config.drain_timeout if timeout is None else timeout
+        try:
+            await asyncio.wait_for(self._idle.wait(), timeout=timeout)
+            return True
+        except asyncio.TimeoutError:
+            return False
+
+    async def close(self, drain: bool = False) -> None:
+        """Stop the writer, optionally flushing queued messages first"""
+        if drain and not self._closed:
+            await self.flush()
+
+        self._closed = True
+        self._wakeup.set()
+
+        if self._writer is not None and not self._writer.done():
+            self._writer.cancel()
+            try:
+                await self._writer
+            except asyncio.CancelledError:
+                pass
+
+        self.metrics['dropped'] += len(self._items)
+        self._items.clear()
+
+    def get_stats(self) -> Dict[str, Any]:
+        """Get this queue's state"""
+        return {
+            'depth': self.depth,
+            'max_depth_seen': self.max_depth_seen,
+            'capacity': self.config.max_queue_size,
+            'batching': self.batch_codec is not None,
+            'closed': self._closed
+        }
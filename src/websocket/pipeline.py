@@ -0,0 +1,171 @@
+"""
+Message Pipeline - Per-connection concurrent message handling
+
+The connection reader used to process each message to completion (including
+the LLM call) before receiving the next one, so a ping sent during a long chat
+completion waited behind it. With a pipeline the reader only parses and
+dispatches:
+- Control events (ping, status, cancel) are answered inline on a fast path
+- Message types configured as "concurrent" run as their own task, keyed by
+  request id so they can be found and cancelled
+- Message types configured as "ordered" share one lane per connection and
+  run one at a time in arrival order
+- The number of outstanding messages per connection is bounded
+"""
+
+import asyncio
+from typing import Any, Awaitable, Callable, Dict, Optional
+
+try:
+    from src.logging_config import get_logger
+    from config.models import PipelineConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from config.models import PipelineConfig
+
+
+ORDERED = "ordered"
+CONCURRENT = "concurrent"
+
+# submit() outcomes
+ACCEPTED = "accepted"
+REJECTED_FULL = "full"
+REJECTED_DUPLICATE = "duplicate"
+REJECTED_CLOSED = "closed"
+
+Handler = Callable[[], Awaitable[None]]
+
+
+def new_pipeline_metrics() -> Dict[str, int]:
+    """Counters shared by all pipelines of a server"""
+    return {
+        'fast_path': 0,
+        'dispatched_ordered': 0,
+        'dispatched_concurrent': 0,
+        'rejected_full': 0,
+        'rejected_duplicate': 0,
+        'handler_errors': 0
+    }
+
+
+class MessagePipeline:
+    """
+    Dispatches one connection's messages without blocking its reader.
+
+    Handlers are zero-argument coroutine factories; they are expected to do
+    their own error reporting, anything that escapes is logged and counted.
+    """
+
+    def __init__(
+        self,
+        config: Optional[PipelineConfig] = None,
+        metrics: Optional[Dict[str, int]] = None,
+        name: str = ""
+    ):
+        self.config = config or PipelineConfig()
+        self.metrics = metrics if metrics is not None else new_pipeline_metrics()
+        self.name = name
+        self.logger = get_logger("MessagePipeline")
+
+        self._lane: "asyncio.Queue[Handler]" = asyncio.Queue()
+        self._lane_worker: Optional[asyncio.Task] = None
+        self._lane_pending = 0
+        self._tasks: Dict[str, asyncio.Task] = {}
+        self._closed = False
+
+    def ordering_for(self, message_type: str) -> str:
+        """Get the configured ordering for an envelope type"""
+        return self.config.ordering.get(message_type, self.config.default_ordering)
+
+    def is_fast_path(self, event_name: Optional[str]) -> bool:
+        """Check whether a system event is answered inline by the reader"""
+        return event_name in self.config.fast_path_events
+
+    @property
+    def outstanding(self) -> int:
+        """Messages queued or running on this connection"""
+        return self._lane_pending + len(self._tasks)
+
+    def submit(self, key: str, ordering: str, handler: Handler) -> str:
+        """
+        Schedule a message handler.
+
+        Args:
+            key: Request id; concurrent handlers with the same key are rejected
+            ordering: ORDERED or CONCURRENT
+            handler: Coroutine factory that processes the message
+
+        Returns:
+            One of ACCEPTED, REJECTED_FULL, REJECTED_DUPLICATE or REJECTED_CLOSED
+        """
+        if self._closed:
+            return REJECTED_CLOSED
+
+        if self.outstanding >= self.config.max_outstanding:
+            self.metrics['rejected_full'] += 1
+            return REJECTED_FULL
+
+        if ordering == CONCURRENT:
+            if key in self._tasks:
+                self.metrics['rejected_duplicate'] += 1
+                return REJECTED_DUPLICATE
+            task = asyncio.create_task(self._run(handler))
+            self._tasks[key] = task
+            task.add_done_callback(lambda _, key=key: self._tasks.pop(key, None))
+            self.metrics['dispatched_concurrent'] += 1
+            return ACCEPTED
+
+        if self._lane_worker is None:
+            self._lane_worker = asyncio.create_task(self._lane_loop())
+        self._lane_pending += 1
+        self._lane.put_nowait(handler)
+        self.metrics['dispatched_ordered'] += 1
+        return ACCEPTED
+
+    async def _run(self, handler: Handler) -> None:
+        try:
+            await handler()
+        except asyncio.CancelledError:
+            raise
+        except Exception as e:
+            self.metrics['handler_errors'] += 1
+            self.logger.error(f"Unhandled error in message handler for {self.name or 'connection'}: {e}")
+
+    async def _lane_loop(self) -> None:
+        """Run ordered handlers one at a time"""
+        try:
+            while True:
+                handler = await self._lane.get()
+                try:
+                    await self._run(handler)
+                finally:
+                    self._lane_pending -= 1
+        except asyncio.CancelledError:
+            pass
+
+    async def close(self) -> None:
+        """Cancel everything still queued or running"""
+        self._closed = True
+
+        tasks = list(self._tasks.values())
+        if self._lane_worker is not None:
+            tasks.append(self._lane_worker)
+
+        for task in tasks:
+            task.cancel()
+        if tasks:
+            await asyncio.gather(*tasks, return_exceptions=True)
+
+        self._tasks.clear()
+        self._lane_pending = 0
+
+    def get_stats(self) -> Dict[str, Any]:
+        """Get this pipeline's state"""
+        return {
+            'ordered_pending': self._lane_pending,
+            'concurrent_running': len(self._tasks),
+            'max_outstanding': self.config.max_outstanding
+        }
@@ -7,9 +7,13 @@ pattern as run_qa_agent.py with full feature support including reasoning, memory
 
 import sys
 import os
+import asyncio
+import threading
 import importlib.util
+import time
 import traceback
-from typing import Optional, Dict, Any, Union
+from contextlib import asynccontextmanager
+from typing import Optional, Dict, Any, Union, AsyncIterator
 from pathlib import Path
 
 # Configure logging for detailed debugging
@@ -17,6 +21,23 @@ import logging
 logging.basicConfig(level=logging.INFO)
 logger = logging.getLogger(__name__)
 
+# Agno stream events that carry incremental response text. Other events
+# (tool calls, run completed) either carry no text or repeat the full answer.
+STREAM_CONTENT_EVENTS = {None, "RunResponse", "RunResponseContent"}
+
+# Sentinel placed on the chunk queue when the producer thread finishes
+_STREAM_DONE = object()
+
+try:
+    from src.websocket.agent_executor import AgentExecutor, AgentSaturatedError
+    from src.websocket.agent_pool import SessionAgentPool
+    from src.websocket.response_cache import ResponseCache, cache_bypassed, fingerprint
+except ImportError:
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.websocket.agent_executor import AgentExecutor, AgentSaturatedError
+    from src.websocket.agent_pool import SessionAgentPool
+    from src.websocket.response_cache import ResponseCache, cache_bypassed, fingerprint
+
 
 class QAAgentAdapter:
     """
@@ -32,7 +53,15 @@ class QAAgentAdapter:
     - Full configuration validation and error handling
     """
     
-    def __init__(self, user_id: str = "websocket_user@qai.com", enable_reasoning: bool = True, enable_memory: bool = True):
+    def __init__(
+        self,
+        user_id: str = "websocket_user@qai.com",
+        enable_reasoning: bool = True,
+        enable_memory: bool = True,
+        execution_config: Optional[Any] = None,
+        pool_config: Optional[Any] = None,
+        cache_config: Optional[Any] = None
+    ):
         """
         Initialize the QA Agent using EXACTLY the same logic as run_qa_agent.py
         
@@ -40,11 +69,43 @@ class QAAgentAdapter:
             user_id: User context identifier for the agent
             enable_reasoning: Whether to enable reasoning capabilities  
             enable_memory: Whether to enable persistent memory
+            execution_config: AgentExecutionConfig for the blocking-call worker pool
+            pool_config: AgentPoolConfig for per-session agents
+            cache_config: ResponseCacheConfig for repeated questions
         """
         self.user_id = user_id
         self.enable_reasoning = enable_reasoning
         self.enable_memory = enable_memory
+        self.executor = AgentExecutor(execution_config)
+        self.pool_config = pool_config
+        self.response_cache = ResponseCache(cache_config)
         self.agent = None
+        
+        # Agno agents are not thread-safe: one run at a time on the default agent
+        self.agent_lock = asyncio.Lock()
+        
+        # Agent configuration part of every cache key: model id, instructions hash, tools hash
+        self.cache_fingerprint: Optional[tuple] = None
+        
+        # Answers depend only on the prompt when the agent keeps no history or user memories
+        self.stateless_agent = False
+        
+        # Output generated for runs that were cancelled before delivery
+        self.cancellation_metrics = {
+            'runs_cancelled': 0,
+            'discarded_output_chars': 0
+        }
+        
+        # Per-session agents are built from the default agent's arguments
+        self.agent_class = None
+        self.agent_template_args: Optional[Dict[str, Any]] = None
+        self.agent_pool: Optional[SessionAgentPool] = None
+        
+        # Provider routing/failover from ModelManager.create_router() (None: primary model only)
+        self.model_router = None
+        
+        # Prompt token budget applied to the default and per-session agents
+        self.context_manager = None
         self.config = None
         self.is_initialized = False
         self.initialization_error = None
@@ -101,6 +162,15 @@ class QAAgentAdapter:
             self.components['storage'] = storage
             logger.info("✅ Agent components created")
             
+            # Step 6b: Route agent calls across the primary and alternative providers
+            if hasattr(model_manager, 'create_router'):
+                self.model_router = model_manager.create_router()
+                if self.model_router is not None:
+                    routes = [route.name for route in self.model_router.routes]
+                    logger.info(f"🔀 Model routing across providers: {', '.join(routes)}")
+                    for provider, reason in model_manager.route_errors.items():
+                        logger.warning(f"⚠️ Alternative provider {provider} unavailable: {reason}")
+            
             # Step 7: Get all configuration sections
             interface_config, instructions, reasoning_config = self._get_configuration_sections(config)
             logger.info("✅ Configuration sections loaded")
@@ -123,6 +193,25 @@ class QAAgentAdapter:
             
             # Step 11: Create the agent
             self.agent = agno_agent(**agent_args)
+            
+            # Step 11b: Keep long sessions within the prompt token budget
+            self.context_manager = managers['ContextManager'](managers['load_context_budget_config'](config))
+            if self.context_manager.apply(self.agent):
+                logger.info(f"✂️ Context budget: {self.context_manager.config.max_prompt_tokens} prompt tokens")
+            elif self.context_manager.enabled:
+                logger.warning("⚠️ Context budget enabled but the agent has no message builder to hook; prompts are not trimmed")
+            
+            # Step 12: Keep the arguments as a warm template for per-session agents
+            self.agent_class = agno_agent
+            self.agent_template_args = agent_args
+            self.cache_fingerprint = self._agent_fingerprint(agent_args)
+            self.stateless_agent = self._is_stateless(agent_args)
+            if self.response_cache.enabled and not self.stateless_agent:
+                logger.warning("⚠️ Response cache not used: the agent keeps session history or user memories")
+            if self.pool_config is None or self.pool_config.enabled:
+                self.agent_pool = SessionAgentPool(self._create_session_agent, self.pool_config)
+                logger.info("✅ Session agent pool enabled")
+            
             self.is_initialized = True
             
             logger.info("🎉 QA Agent successfully initialized for WebSocket!")
@@ -245,7 +334,7 @@ class QAAgentAdapter:
             
             # Clear any existing manager modules from cache to avoid conflicts
             manager_modules = [
-                'model_manager', 'tools_manager', 'storage_manager',
+                'model_manager', 'tools_manager', 'storage_manager', 'context_manager',
                 'config.models', 'config'  # Clear config modules too
             ]
             for module_name in manager_modules:
@@ -257,6 +346,7 @@ class QAAgentAdapter:
             from model_manager import ModelManager
             from tools_manager import ToolsManager
             from storage_manager import StorageManager
+            from context_manager import ContextManager, load_context_budget_config
             
             logger.info("✅ All manager classes imported successfully")
             
@@ -266,7 +356,9 @@ class QAAgentAdapter:
             return {
                 'ModelManager': ModelManager,
                 'ToolsManager': ToolsManager,
-                'StorageManager': StorageManager
+                'StorageManager': StorageManager,
+                'ContextManager': ContextManager,
+                'load_context_budget_config': load_context_budget_config
             }
             
         except Exception as e:
@@ -413,6 +505,96 @@ class QAAgentAdapter:
         logger.info("✅ Agent ready for WebSocket integration")
         logger.info("=" * 60)
     
+    def _agent_fingerprint(self, agent_args: Dict[str, Any]) -> tuple:
+        """Model id, instructions hash and enabled-tools hash of the agent configuration"""
+        model = agent_args.get("model")
+        model_id = str(getattr(model, "id", None) or type(model).__name__)
+        if agent_args.get("reasoning_model") is not None:
+            model_id += f"+{getattr(agent_args['reasoning_model'], 'id', 'reasoning')}"
+        if agent_args.get("reasoning"):
+            model_id += "+reasoning"
+        
+        tool_names = sorted(
+            str(getattr(tool, "name", None) or getattr(tool, "__name__", None) or type(tool).__name__)
+            for tool in agent_args.get("tools") or []
+        )
+        return model_id, fingerprint(agent_args.get("instructions")), fingerprint(tool_names)
+    
+    @staticmethod
+    def _is_stateless(agent_args: Dict[str, Any]) -> bool:
+        """True when no session history or user memories go into the prompt"""
+        return not any(
+            agent_args.get(option)
+            for option in (
+                "add_history_to_messages", "read_chat_history",
+                "enable_user_memories", "enable_agentic_memory", "add_memory_references"
+            )
+        )
+    
+    def request_key(self, message: str, user_id: Optional[str], metadata: Optional[Dict[str, Any]]) -> Optional[str]:
+        """
+        Key shared by requests that get the same answer (response cache and
+        request coalescing); None if the message opts out or the agent is not ready.
+        """
+        if self.cache_fingerprint is None or cache_bypassed(metadata):
+            return None
+        return self.response_cache.make_key(message, *self.cache_fingerprint, user_id=user_id or self.user_id)
+    
+    def _cache_key(self, message: str, user_id: Optional[str], metadata: Optional[Dict[str, Any]]) -> Optional[str]:
+        """Cache key for a message, or None when it must not be cached"""
+        if not self.response_cache.enabled:
+            return None
+        if not self.stateless_agent:
+            # Answers depend on the session and the user, and a hit would not record the turn
+            return None
+        if cache_bypassed(metadata):
+            self.response_cache.record_bypass()
+            return None
+        return self.request_key(message, user_id, metadata)
+    
+    def _create_session_agent(self, user_id: str, session_id: str):
+        """
+        Build a session's agent from the template arguments.
+        
+        Model, tools and memory are the same objects as the default agent's,
+        so only the lightweight Agent wrapper is created per session.
+        """
+        agent_args = dict(self.agent_template_args)
+        agent_args["user_id"] = user_id
+        agent_args["session_id"] = session_id
+        agent = self.agent_class(**agent_args)
+        if self.context_manager is not None and not self.context_manager.apply(agent) and self.context_manager.enabled:
+            logger.warning(f"⚠️ Context budget not applied to the agent of session {session_id}")
+        return agent
+    
+    @asynccontextmanager
+    async def _lease_agent(self, user_id: Optional[str], session_id: Optional[str]):
+        """
+        Get the session's pooled agent, or the default agent without a session.
+        
+        Either way the agent is held exclusively until the lease ends.
+        """
+        if self.agent_pool is None or not session_id:
+            async with self.agent_lock:
+                yield self._prepare_run_lock(self.agent)
+            return
+        
+        async with self.agent_pool.lease(user_id or self.user_id, session_id) as agent:
+            yield self._prepare_run_lock(agent)
+    
+    @staticmethod
+    def _prepare_run_lock(agent):
+        """
+        Attach the thread-side run lock to an agent (on the event loop, before any run).
+        
+        A cancelled caller releases its lease while the worker thread is still
+        inside agent.run(); the run lock keeps the next run on that agent from
+        starting until the abandoned one has returned.
+        """
+        if getattr(agent, '_run_lock', None) is None:
+            agent._run_lock = threading.Lock()
+        return agent
+    
     async def chat(self, message: str) -> str:
         """
         Chat method required by QAAgentProtocol
@@ -432,8 +614,9 @@ class QAAgentAdapter:
         try:
             logger.info(f"💬 Processing chat message: {message[:100]}...")
             
-            # Use the agent's run method (same as chat_interface.py)
-            response = self.agent.run(message)
+            # Run the blocking agent call on the worker pool, holding the default agent
+            async with self._lease_agent(self.user_id, None) as agent:
+                response = await self.executor.run(self._routed(agent, agent.run), message, user_id=self.user_id)
             
             # Extract response content with detailed handling
             if hasattr(response, 'content') and response.content:
@@ -449,6 +632,9 @@ class QAAgentAdapter:
                 logger.warning(f"⚠️ Unexpected response format: {type(response)}")
                 return result
                 
+        except AgentSaturatedError:
+            # Surface saturation to the caller so it can send a typed error envelope
+            raise
         except Exception as e:
             error_msg = f"❌ Error processing chat message: {e}"
             logger.error(error_msg)
@@ -460,16 +646,22 @@ class QAAgentAdapter:
         message: str,
         session_id: Optional[str] = None,
         user_id: Optional[str] = None,
-        metadata: Optional[Dict[str, Any]] = None
+        metadata: Optional[Dict[str, Any]] = None,
+        cancel_event: Optional[threading.Event] = None
     ) -> str:
         """
         Process message with additional context - required by QAAgentProtocol
         
+        Repeated questions are answered from the response cache when the
+        agent configuration (model, instructions, tools) is unchanged.
+        
         Args:
             message: User message to process
             session_id: Session identifier
             user_id: User identifier (overrides adapter user_id if provided)
-            metadata: Additional message metadata
+            metadata: Additional message metadata ({"cache": false} skips the response cache)
+            cancel_event: Event that stops the run when set (or when the
+                awaiting task is cancelled)
             
         Returns:
             Agent response as string
@@ -480,6 +672,30 @@ class QAAgentAdapter:
                 error_msg += f": {self.initialization_error}"
             return error_msg
         
+        cache_key = self._cache_key(message, user_id, metadata)
+        if cache_key is not None:
+            cached = await self.response_cache.get(cache_key, message)
+            if cached is not None:
+                logger.info(f"⚡ Response served from cache: {len(cached)} characters")
+                return cached
+        
+        started = time.perf_counter()
+        result = await self._run_message(message, session_id, user_id, metadata, cancel_event)
+        
+        # Errors come back as text; only real answers are cached
+        if cache_key is not None and not self._is_error_response(result):
+            await self.response_cache.put(cache_key, message, result, time.perf_counter() - started)
+        return result
+    
+    async def _run_message(
+        self,
+        message: str,
+        session_id: Optional[str],
+        user_id: Optional[str],
+        metadata: Optional[Dict[str, Any]],
+        cancel_event: Optional[threading.Event]
+    ) -> str:
+        """Run the agent for one message (the uncached path of process_message)"""
         try:
             # Log context information
             context_info = []
@@ -493,8 +709,13 @@ class QAAgentAdapter:
             logger.info(f"🔄 Processing message with context: {', '.join(context_info)}")
             logger.info(f"💬 Message: {message[:100]}...")
             
-            # Use the agent's run method (same as chat_interface.py)
-            response = self.agent.run(message)
+            # Run the blocking agent call on the worker pool, on this session's agent
+            async with self._lease_agent(user_id, session_id) as agent:
+                if cancel_event is not None and self.executor.config.cancellable_runs:
+                    # Consume the model stream so cancelling stops generation
+                    # instead of leaving the thread to finish a full completion
+                    return await self._collect_stream(agent, message, session_id, user_id, cancel_event)
+                response = await self.executor.run(self._routed(agent, agent.run), message, user_id=user_id)
             
             # Extract response content with detailed handling
             if hasattr(response, 'content') and response.content:
@@ -510,12 +731,236 @@ class QAAgentAdapter:
                 logger.warning(f"⚠️ Unexpected response format: {type(response)}")
                 return result
                 
+        except AgentSaturatedError:
+            # Surface saturation to the caller so it can send a typed error envelope
+            raise
         except Exception as e:
             error_msg = f"❌ Error processing message: {e}"
             logger.error(error_msg)
             logger.error(f"📍 Error trace:\n{traceback.format_exc()}")
             return error_msg
     
+    @staticmethod
+    def _is_error_response(result: str) -> bool:
+        return result.startswith("❌") or result == "No response generated"
+    
+    async def stream_message(
+        self,
+        message: str,
+        session_id: Optional[str] = None,
+        user_id: Optional[str] = None,
+        metadata: Optional[Dict[str, Any]] = None,
+        cancel_event: Optional[threading.Event] = None
+    ) -> AsyncIterator[str]:
+        """
+        Stream the agent response as text deltas using Agno's run(stream=True)
+        
+        The Agno stream is consumed on a worker thread and bridged into the
+        event loop through a queue. Setting cancel_event (or closing this
+        generator) stops consuming the model stream, which closes the
+        provider connection and frees model capacity.
+        
+        Args:
+            message: User message to process
+            session_id: Session identifier
+            user_id: User identifier
+            metadata: Additional message metadata
+            cancel_event: Event that stops the stream when set
+            
+        Yields:
+            Response text deltas in order
+            
+        Raises:
+            AgentSaturatedError: If the worker pool rejects the call
+            RuntimeError: If the agent is not available or the stream fails
+        """
+        if not self.is_initialized or self.agent is None:
+            error_msg = "QA Agent not available"
+            if self.initialization_error:
+                error_msg += f": {self.initialization_error}"
+            raise RuntimeError(error_msg)
+        
+        cache_key = self._cache_key(message, user_id, metadata)
+        if cache_key is not None:
+            cached = await self.response_cache.get(cache_key, message)
+            if cached is not None:
+                logger.info(f"⚡ Streamed response served from cache: {len(cached)} characters")
+                yield cached
+                return
+        
+        started = time.perf_counter()
+        parts = []
+        completed = False
+        async with self._lease_agent(user_id, session_id) as agent:
+            stream = self._stream_agent(agent, message, session_id, user_id, cancel_event)
+            try:
+                async for delta in stream:
+                    parts.append(delta)
+                    yield delta
+                completed = cancel_event is None or not cancel_event.is_set()
+            finally:
+                await stream.aclose()
+        
+        if cache_key is not None and completed and parts:
+            await self.response_cache.put(cache_key, message, "".join(parts), time.perf_counter() - started)
+    
+    async def _collect_stream(
+        self,
+        agent,
+        message: str,
+        session_id: Optional[str],
+        user_id: Optional[str],
+        cancel_event: threading.Event
+    ) -> str:
+        """Run the agent over its stream and return the full response text"""
+        parts = []
+        stream = self._stream_agent(agent, message, session_id, user_id, cancel_event)
+        try:
+            async for delta in stream:
+                parts.append(delta)
+        except asyncio.CancelledError:
+            # Nobody will read the partial answer
+            self.cancellation_metrics['discarded_output_chars'] += sum(len(part) for part in parts)
+            raise
+        finally:
+            await stream.aclose()
+        
+        if cancel_event.is_set():
+            self.cancellation_metrics['discarded_output_chars'] += sum(len(part) for part in parts)
+            raise asyncio.CancelledError()
+        
+        result = "".join(parts) or "No response generated"
+        logger.info(f"✅ Message processed successfully: {len(result)} characters")
+        return result
+    
+    async def _stream_agent(
+        self,
+        agent,
+        message: str,
+        session_id: Optional[str],
+        user_id: Optional[str],
+        cancel_event: Optional[threading.Event]
+    ) -> AsyncIterator[str]:
+        """Bridge one agent's run(stream=True) into the event loop"""
+        loop = asyncio.get_running_loop()
+        queue: asyncio.Queue = asyncio.Queue()
+        
+        # Internal stop flag, so finishing normally never sets the caller's event
+        stop = threading.Event()
+        produced = [0]
+        consumed = [0]
+        
+        def should_stop() -> bool:
+            return stop.is_set() or (cancel_event is not None and cancel_event.is_set())
+        
+        def produce() -> None:
+            try:
+                # The whole stream, model switches included, runs under the agent's run lock
+                with agent._run_lock:
+                    for chunk in self._routed_stream(agent, message):
+                        if should_stop():
+                            # Closing the iterator closes the provider stream
+                            loop.call_soon_threadsafe(self._record_cancelled_run)
+                            break
+                        if getattr(chunk, 'event', None) not in STREAM_CONTENT_EVENTS:
+                            continue
+                        content = getattr(chunk, 'content', None)
+                        if isinstance(content, str) and content:
+                            produced[0] += len(content)
+                            loop.call_soon_threadsafe(queue.put_nowait, content)
+            except Exception as e:
+                loop.call_soon_threadsafe(queue.put_nowait, e)
+            finally:
+                loop.call_soon_threadsafe(queue.put_nowait, _STREAM_DONE)
+        
+        logger.info(f"🌊 Streaming message for session {session_id}: {message[:100]}...")
+        producer = asyncio.ensure_future(self.executor.run(produce, user_id=user_id))
+        
+        try:
+            while True:
+                # Fail fast if the executor rejected the call before it started
+                getter = asyncio.ensure_future(queue.get())
+                done, _ = await asyncio.wait({getter, producer}, return_when=asyncio.FIRST_COMPLETED)
+                if getter in done:
+                    item = getter.result()
+                else:
+                    if producer.exception() is not None:
+                        getter.cancel()
+                        producer.result()  # Re-raises AgentSaturatedError
+                    item = await getter
+                
+                if item is _STREAM_DONE:
+                    break
+                if isinstance(item, Exception):
+                    raise RuntimeError(f"Agent stream failed: {item}") from item
+                
+                # Coalesce deltas that arrived together into one chunk
+                parts = [item]
+                finished = False
+                while not queue.empty():
+                    extra = queue.get_nowait()
+                    if extra is _STREAM_DONE:
+                        finished = True
+                        break
+                    if isinstance(extra, Exception):
+                        raise RuntimeError(f"Agent stream failed: {extra}") from extra
+                    parts.append(extra)
+                
+                delta = "".join(parts)
+                consumed[0] += len(delta)
+                yield delta
+                
+                if finished:
+                    break
+        finally:
+            # Stop the producer thread if the consumer went away early
+            stop.set()
+            
+            def on_producer_done(task) -> None:
+                # Output the model produced that never reached the consumer
+                self.cancellation_metrics['discarded_output_chars'] += max(0, produced[0] - consumed[0])
+                if not task.cancelled():
+                    task.exception()
+            
+            producer.add_done_callback(on_producer_done)
+    
+    def _routed(self, agent, func):
+        """
+        Wrap a blocking agent call so it holds the agent's run lock and runs
+        on the router's best provider, retrying on the next provider when
+        the model call fails.
+        """
+        def call(*args, **kwargs):
+            with agent._run_lock:
+                if self.model_router is None:
+                    return func(*args, **kwargs)
+                
+                def on_model(model):
+                    self._use_model(agent, model)
+                    return func(*args, **kwargs)
+                return self.model_router.run(on_model)
+        return call
+    
+    def _routed_stream(self, agent, message: str):
+        """agent.run(stream=True) on the router's best provider (failover before the first chunk)"""
+        if self.model_router is None:
+            return agent.run(message, stream=True)
+        
+        def on_model(model):
+            self._use_model(agent, model)
+            return agent.run(message, stream=True)
+        return self.model_router.run_stream(on_model)
+    
+    @staticmethod
+    def _use_model(agent, model) -> None:
+        # Routes hold warm models, so switching is an attribute swap; callers
+        # hold agent._run_lock, so no other run sees the agent mid-switch
+        if agent.model is not model:
+            agent.model = model
+    
+    def _record_cancelled_run(self) -> None:
+        self.cancellation_metrics['runs_cancelled'] += 1
+    
     def get_status(self) -> Dict[str, Any]:
         """Get detailed status of the adapter"""
         return {
@@ -527,5 +972,25 @@ class QAAgentAdapter:
             "components": {
                 name: component is not None 
                 for name, component in self.components.items()
+            },
+            "execution": self.executor.stats,
+            "agent_pool": self.agent_pool.stats if self.agent_pool else None,
+            "response_cache": self.response_cache.stats,
+            "model_routing": self.model_router.stats if self.model_router else None,
+            "context": self.context_manager.stats if self.context_manager else None,
+            "cancellation": {
+                **self.cancellation_metrics,
+                # Rough output-token estimate (about 4 characters per token)
+                'discarded_output_tokens_estimate': self.cancellation_metrics['discarded_output_chars'] // 4
             }
         }
+    
+    async def shutdown(self) -> None:
+        """Release the agent worker pool, pooled session agents, the response cache store and model HTTP clients"""
+        if self.agent_pool is not None:
+            await self.agent_pool.close()
+        await self.response_cache.close()
+        self.executor.shutdown(wait=False)
+        model_manager = self.components.get('model_manager')
+        if model_manager is not None and hasattr(model_manager, 'close'):
+            model_manager.close()
@@ -0,0 +1,305 @@
+"""
+Rate Limiters - Pluggable per-key request limiting
+
+The original limiter kept a deque of timestamps per identifier, so memory and
+CPU grew with requests-per-window times identifiers and cleanup scanned every
+window. This module provides:
+- RateLimiter: the interface used by SecurityManager
+- GCRALimiter: Generic Cell Rate Algorithm, one float per key (the
+  theoretical arrival time), O(1) per check, state split into stripes that are
+  swept one at a time so cleanup never scans everything at once
+- SlidingWindowLimiter: the previous deque-based behaviour, kept for
+  comparison and for deployments that want exact windows
+- KeyedRateLimits: named limits for users, IPs and envelope types
+"""
+
+import time
+from abc import ABC, abstractmethod
+from collections import deque
+from typing import Any, Deque, Dict, Iterable, List, Optional, Set
+
+try:
+    from config.models import RateLimitConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from config.models import RateLimitConfig
+
+
+class RateLimiter(ABC):
+    """Per-key rate limiter"""
+
+    @abstractmethod
+    def allow(self, key: str, now: Optional[float] = None) -> bool:
+        """Record a request for key; False if it exceeds the limit"""
+
+    @abstractmethod
+    def sweep(self, now: Optional[float] = None) -> int:
+        """Release state for keys back at full capacity; returns how many were removed"""
+
+    @abstractmethod
+    def clear(self) -> None:
+        """Forget all keys"""
+
+    @property
+    @abstractmethod
+    def size(self) -> int:
+        """Number of keys currently tracked"""
+
+    def drain_changes(self) -> Dict[str, float]:
+        """Keys whose state changed since the last call (for sharing); empty if unsupported"""
+        return {}
+
+    def merge(self, entries: Dict[str, float]) -> None:
+        """Merge state produced elsewhere; ignored if unsupported"""
+
+    def requeue_changes(self, keys: Iterable[str]) -> None:
+        """Report keys as changed again after a failed share; ignored if unsupported"""
+
+
+class GCRALimiter(RateLimiter):
+    """
+    GCRA limiter: ``rate`` requests per ``period`` seconds with bursts of ``burst``.
+
+    Each key stores only its theoretical arrival time (TAT). A request is
+    allowed when TAT - burst * interval <= now, and then advances TAT by one
+    interval. A key whose TAT is in the past is at full capacity and can be
+    dropped without changing any decision.
+    """
+
+    def __init__(
+        self,
+        rate: int,
+        period: float = 60.0,
+        burst: int = 1,
+        stripes: int = 64,
+        track_changes: bool = False
+    ):
+        if rate <= 0 or period <= 0:
+            raise ValueError("Rate and period must be positive")
+
+        self.interval = period / rate
+        self.tolerance = self.interval * max(burst - 1, 0)
+
+        # Power of two so the stripe is a mask of the key hash
+        self.stripe_count = 1 << max(stripes - 1, 0).bit_length()
+        self._mask = self.stripe_count - 1
+        self._stripes: List[Dict[str, float]] = [{} for _ in range(self.stripe_count)]
+        self._next_sweep = 0
+
+        # Keys changed since the last drain_changes(), when state is shared
+        self._changed: Optional[Set[str]] = set() if track_changes else None
+
+    def allow(self, key: str, now: Optional[float] = None) -> bool:
+        now = time.monotonic() if now is None else now
+        stripe = self._stripes[hash(key) & self._mask]
+
+        tat = stripe.get(key, now)
+        if tat < now:
+            tat = now
+
+        if tat - self.tolerance > now:
+            return False
+
+        stripe[key] = tat + self.interval
+        if self._changed is not None:
+            self._changed.add(key)
+        return True
+
+    def sweep(self, now: Optional[float] = None, stripes: int = 1) -> int:
+        """Sweep the next ``stripes`` stripes (round robin)"""
+        now = time.monotonic() if now is None else now
+        removed = 0
+
+        for _ in range(min(stripes, self.stripe_count)):
+            stripe = self._stripes[self._next_sweep]
+            self._next_sweep = (self._next_sweep + 1) & self._mask
+
+            expired = [key for key, tat in stripe.items() if tat <= now]
+            for key in expired:
+                del stripe[key]
+            removed += len(expired)
+
+        return removed
+
+    def clear(self) -> None:
+        for stripe in self._stripes:
+            stripe.clear()
+        if self._changed is not None:
+            self._changed.clear()
+
+    def drain_changes(self) -> Dict[str, float]:
+        """Arrival times of keys allowed since the last call"""
+        if not self._changed:
+            return {}
+
+        changes = {}
+        for key in self._changed:
+            tat = self._stripes[hash(key) & self._mask].get(key)
+            if tat is not None:
+                changes[key] = tat
+        self._changed.clear()
+        return changes
+
+    def merge(self, entries: Dict[str, float]) -> None:
+        """Take the later arrival time per key (the more restrictive state)"""
+        for key, tat in entries.items():
+            stripe = self._stripes[hash(key) & self._mask]
+            if tat > stripe.get(key, 0.0):
+                stripe[key] = tat
+
+    def requeue_changes(self, keys: Iterable[str]) -> None:
+        """Keys drained for a share that failed; their current TAT goes out next time"""
+        if self._changed is not None:
+            self._changed.update(keys)
+
+    @property
+    def size(self) -> int:
+        return sum(len(stripe) for stripe in self._stripes)
+
+
+class SlidingWindowLimiter(RateLimiter):
+    """Exact sliding window of request timestamps per key"""
+
+    def __init__(self, rate: int, period: float = 60.0):
+        self.rate = rate
+        self.period = period
+        self._windows: Dict[str, Deque[float]] = {}
+
+    def allow(self, key: str, now: Optional[float] = None) -> bool:
+        now = time.monotonic() if now is None else now
+        window_start = now - self.period
+
+        requests = self._windows.get(key)
+        if requests is None:
+            requests = self._windows[key] = deque()
+
+        while requests and requests[0] < window_start:
+            requests.popleft()
+
+        if len(requests) >= self.rate:
+            return False
+
+        requests.append(now)
+        return True
+
+    def sweep(self, now: Optional[float] = None) -> int:
+        now = time.monotonic() if now is None else now
+        window_start = now - self.period
+
+        expired = []
+        for key, requests in self._windows.items():
+            while requests and requests[0] < window_start:
+                requests.popleft()
+            if not requests:
+                expired.append(key)
+
+        for key in expired:
+            del self._windows[key]
+        return len(expired)
+
+    def clear(self) -> None:
+        self._windows.clear()
+
+    @property
+    def size(self) -> int:
+        return len(self._windows)
+
+
+def create_limiter(
+    config: RateLimitConfig,
+    rate: Optional[int] = None,
+    burst: Optional[int] = None,
+    track_changes: bool = False
+) -> RateLimiter:
+    """Build the configured limiter implementation for one limit"""
+    rate = rate or config.max_requests_per_minute
+
+    if config.algorithm == "sliding_window":
+        return SlidingWindowLimiter(rate, period=config.window_size)
+
+    return GCRALimiter(
+        rate,
+        period=config.window_size,
+        burst=burst or min(config.burst_limit, rate),
+        stripes=config.stripes,
+        track_changes=track_changes
+    )
+
+
+class KeyedRateLimits:
+    """
+    The set of named limits applied to a connection.
+
+    Scopes:
+        "user":           requests per user
+        "ip":             requests (connection attempts) per IP address
+        "type:<type>":    envelopes of one type per user, from message_type_limits
+    """
+
+    def __init__(self, config: RateLimitConfig, track_changes: bool = False):
+        self.config = config
+        self.limiters: Dict[str, RateLimiter] = {
+            "user": create_limiter(config, track_changes=track_changes),
+            "ip": create_limiter(config, rate=config.ip_requests_per_minute, track_changes=track_changes)
+        }
+        for message_type, rate in config.message_type_limits.items():
+            self.limiters[f"type:{message_type}"] = create_limiter(config, rate=rate, track_changes=track_changes)
+
+        self.hits: Dict[str, int] = {scope: 0 for scope in self.limiters}
+
+    def allow(self, scope: str, identifier: str, now: Optional[float] = None) -> bool:
+        """Check one identifier against a scope; unknown scopes are unlimited"""
+        limiter = self.limiters.get(scope)
+        if limiter is None:
+            return True
+
+        if limiter.allow(identifier, now):
+            return True
+
+        self.hits[scope] += 1
+        return False
+
+    def sweep(self, now: Optional[float] = None) -> int:
+        """Incrementally release idle keys in every scope"""
+        return sum(limiter.sweep(now) for limiter in self.limiters.values())
+
+    def clear(self) -> None:
+        for limiter in self.limiters.values():
+            limiter.clear()
+
+    def drain_changes(self) -> Dict[str, Dict[str, float]]:
+        """Changed state per scope since the last call"""
+        changes = {}
+        for scope, limiter in self.limiters.items():
+            scope_changes = limiter.drain_changes()
+            if scope_changes:
+                changes[scope] = scope_changes
+        return changes
+
+    def requeue_changes(self, changes: Dict[str, Dict[str, float]]) -> None:
+        """Put drained changes back so the next drain_changes() returns them again"""
+        for scope, entries in changes.items():
+            limiter = self.limiters.get(scope)
+            if limiter is not None:
+                limiter.requeue_changes(entries)
+
+    def merge(self, updates: Dict[str, Dict[str, float]]) -> None:
+        """Merge state per scope; scopes not configured here are ignored"""
+        for scope, entries in updates.items():
+            limiter = self.limiters.get(scope)
+            if limiter is not None:
+                limiter.merge(entries)
+
+    @property
+    def size(self) -> int:
+        return sum(limiter.size for limiter in self.limiters.values())
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Tracked keys and rejections per scope"""
+        return {
+            scope: {'keys': limiter.size, 'rejected': self.hits[scope]}
+            for scope, limiter in self.limiters.items()
+        }
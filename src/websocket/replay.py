@@ -0,0 +1,221 @@
+"""
+Session Replay - Bounded per-session buffers for resuming after a reconnect
+
+When a socket drops, responses produced while the client is away used to be
+lost, so the client resent its message and the agent ran again. With replay:
+- Every data envelope sent to a session (agent responses, stream events,
+  errors) is kept in a per-session ring buffer bounded by count and bytes
+- A disconnected session stays resumable for a TTL; its in-flight requests
+  keep running and their output is buffered
+- A client reconnecting with its session_id and the id of the last envelope
+  it saw gets everything after that id replayed, in order
+
+Only sessions of clients that opted in (the "resume" handshake capability)
+are tracked; the server cancels the requests of any other session when its
+connection drops.
+
+Status and system events are not buffered; they are superseded by the next
+one anyway. Payloads are stored as JSON text and re-encoded with the
+resuming connection's codec.
+"""
+
+import time
+from collections import OrderedDict, deque
+from dataclasses import dataclass, field
+from typing import Any, Deque, Dict, List, Optional, Tuple
+
+try:
+    from config.models import ReplayConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from config.models import ReplayConfig
+
+
+@dataclass
+class SessionBuffer:
+    """Ring buffer of one session's recent envelopes"""
+    user_id: str
+    entries: Deque[Tuple[str, str]] = field(default_factory=deque)  # (envelope id, JSON payload)
+    size: int = 0
+    evicted: int = 0
+    detached_at: Optional[float] = None
+
+
+@dataclass
+class ResumeResult:
+    """Outcome of a resume attempt"""
+    resumed: bool
+    payloads: List[str] = field(default_factory=list)
+    complete: bool = True
+    reason: Optional[str] = None
+
+
+class SessionReplayStore:
+    """
+    Replay buffers for all sessions of one server process.
+
+    At most max_sessions are tracked. Making room only drops detached
+    sessions, the longest detached first; a connected session is never
+    dropped, so when every tracked session is connected new sessions are
+    refused instead.
+    """
+
+    def __init__(self, config: Optional[ReplayConfig] = None):
+        self.config = config or ReplayConfig()
+        self._sessions: "OrderedDict[str, SessionBuffer]" = OrderedDict()
+        self._detached: "OrderedDict[str, None]" = OrderedDict()  # Detached sessions, oldest first
+
+        self.metrics = {
+            'recorded': 0,
+            'evicted': 0,
+            'resumed': 0,
+            'resume_failed': 0,
+            'replayed': 0,
+            'expired_sessions': 0,
+            'evicted_sessions': 0,
+            'refused_sessions': 0
+        }
+
+    def attach(self, session_id: str, user_id: str) -> bool:
+        """
+        Start buffering for a session (reattach if it already exists).
+
+        Returns:
+            False if the store is full of connected sessions and the session
+            is not tracked
+        """
+        buffer = self._sessions.get(session_id)
+        if buffer is not None:
+            self._mark_attached(session_id, buffer)
+            return True
+
+        if len(self._sessions) >= self.config.max_sessions:
+            if not self._detached:
+                self.metrics['refused_sessions'] += 1
+                return False
+            evicted, _ = self._detached.popitem(last=False)
+            del self._sessions[evicted]
+            self.metrics['evicted_sessions'] += 1
+
+        self._sessions[session_id] = SessionBuffer(user_id)
+        return True
+
+    def _mark_attached(self, session_id: str, buffer: SessionBuffer) -> None:
+        buffer.detached_at = None
+        self._detached.pop(session_id, None)
+        self._sessions.move_to_end(session_id)
+
+    def record(self, session_id: str, envelope_id: str, payload: str) -> bool:
+        """Buffer an envelope sent to a session; False if the session is not tracked"""
+        buffer = self._sessions.get(session_id)
+        if buffer is None:
+            return False
+
+        buffer.entries.append((envelope_id, payload))
+        buffer.size += len(payload)
+        self.metrics['recorded'] += 1
+
+        while buffer.entries and (
+            len(buffer.entries) > self.config.max_envelopes or buffer.size > self.config.max_bytes
+        ):
+            _, dropped = buffer.entries.popleft()
+            buffer.size -= len(dropped)
+            buffer.evicted += 1
+            self.metrics['evicted'] += 1
+
+        return True
+
+    def is_tracked(self, session_id: str) -> bool:
+        return session_id in self._sessions
+
+    def detach(self, session_id: str, now: Optional[float] = None) -> bool:
+        """Mark a session disconnected; it stays resumable for the TTL"""
+        buffer = self._sessions.get(session_id)
+        if buffer is None:
+            return False
+        buffer.detached_at = time.monotonic() if now is None else now
+        self._detached[session_id] = None
+        self._detached.move_to_end(session_id)
+        return True
+
+    def resume(
+        self,
+        session_id: str,
+        user_id: str,
+        last_seen_id: Optional[str],
+        now: Optional[float] = None
+    ) -> ResumeResult:
+        """
+        Reattach a session and collect the envelopes the client missed.
+
+        Args:
+            session_id: Session the client is resuming
+            user_id: Authenticated user; must own the session
+            last_seen_id: Id of the last envelope the client received (None: replay everything buffered)
+
+        Returns:
+            ResumeResult; complete is False when envelopes after last_seen_id
+            may have been evicted before the client came back
+        """
+        now = time.monotonic() if now is None else now
+        buffer = self._sessions.get(session_id)
+
+        if buffer is None:
+            return self._failed("unknown_session")
+        if buffer.user_id != user_id:
+            return self._failed("session_owner_mismatch")
+        if buffer.detached_at is not None and now - buffer.detached_at > self.config.ttl:
+            self.forget(session_id)
+            self.metrics['expired_sessions'] += 1
+            return self._failed("session_expired")
+
+        entries = list(buffer.entries)
+        complete = buffer.evicted == 0
+        if last_seen_id is not None:
+            ids = [envelope_id for envelope_id, _ in entries]
+            if last_seen_id in ids:
+                entries = entries[ids.index(last_seen_id) + 1:]
+                complete = True
+            else:
+                # The last envelope the client saw is gone (or never existed)
+                complete = False
+
+        self._mark_attached(session_id, buffer)
+
+        payloads = [payload for _, payload in entries]
+        self.metrics['resumed'] += 1
+        self.metrics['replayed'] += len(payloads)
+        return ResumeResult(True, payloads, complete)
+
+    def _failed(self, reason: str) -> ResumeResult:
+        self.metrics['resume_failed'] += 1
+        return ResumeResult(False, complete=False, reason=reason)
+
+    def forget(self, session_id: str) -> None:
+        self._sessions.pop(session_id, None)
+        self._detached.pop(session_id, None)
+
+    def sweep(self, now: Optional[float] = None) -> List[str]:
+        """Drop sessions detached for longer than the TTL; returns their ids"""
+        now = time.monotonic() if now is None else now
+        expired = []
+        for session_id in self._detached:
+            if now - self._sessions[session_id].detached_at <= self.config.ttl:
+                break  # Detached in order, so the rest are younger
+            expired.append(session_id)
+        for session_id in expired:
+            self.forget(session_id)
+        self.metrics['expired_sessions'] += len(expired)
+        return expired
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Buffer sizes and counters"""
+        return {
+            **self.metrics,
+            'sessions': len(self._sessions),
+            'detached_sessions': len(self._detached),
+            'buffered_bytes': sum(buffer.size for buffer in self._sessions.values())
+        }
@@ -0,0 +1,309 @@
+"""
+Response Cache - Reuse agent answers for repeated questions
+
+Many users ask the same QA questions ("what is p95", "how to structure a
+Gatling ramp"), and each one used to cost a full agent run. This cache sits
+in front of QAAgentAdapter.process_message:
+- Keys combine the prompt with the model id, a hash of the agent
+  instructions and a hash of the enabled tools, so changing any of them
+  never serves an answer produced by a different agent configuration
+- Prompts are normalized (case, whitespace, trailing punctuation) so trivial
+  variations share an entry; hits are counted as exact or normalized
+- An in-memory LRU tier bounded by entry count with a TTL, backed by an
+  optional SQLite tier so entries survive restarts
+- Messages opt out with metadata {"cache": false}
+
+The cache is off by default. Answers of an agent that adds session history
+or user memories to the prompt depend on who asks and what came before, so
+QAAgentAdapter only consults the cache for stateless agents.
+
+Saved latency is the model latency recorded when the entry was stored,
+added up on every hit.
+"""
+
+import asyncio
+import hashlib
+import json
+import os
+import re
+import sqlite3
+import threading
+import time
+from collections import OrderedDict
+from dataclasses import dataclass
+from typing import Any, Dict, Optional
+
+try:
+    from config.models import ResponseCacheConfig
+except ImportError:
+    import sys
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from config.models import ResponseCacheConfig
+
+_SCHEMA = """
+CREATE TABLE IF NOT EXISTS response_cache (
+    key TEXT PRIMARY KEY,
+    prompt TEXT NOT NULL,
+    response TEXT NOT NULL,
+    latency REAL NOT NULL,
+    created_at REAL NOT NULL,
+    expires_at REAL NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_response_cache_expires ON response_cache (expires_at);
+CREATE INDEX IF NOT EXISTS idx_response_cache_created ON response_cache (created_at);
+"""
+
+_WHITESPACE = re.compile(r"\s+")
+_TRAILING_PUNCTUATION = re.compile(r"[\s?!.¿¡]+$")
+_LEADING_PUNCTUATION = re.compile(r"^[\s¿¡]+")
+
+
+def normalize_prompt(prompt: str) -> str:
+    """Casefold, collapse whitespace and drop surrounding question punctuation"""
+    text = _WHITESPACE.sub(" ", prompt.casefold()).strip()
+    text = _LEADING_PUNCTUATION.sub("", text)
+    return _TRAILING_PUNCTUATION.sub("", text)
+
+
+def fingerprint(value: Any) -> str:
+    """Short stable hash of instructions, tool lists and similar configuration"""
+    if not isinstance(value, str):
+        value = json.dumps(value, sort_keys=True, default=str)
+    return hashlib.sha256(value.encode("utf-8")).hexdigest()[:16]
+
+
+def cache_bypassed(metadata: Optional[Dict[str, Any]]) -> bool:
+    """True when the message asks not to be served from (or stored in) the cache"""
+    if not metadata:
+        return False
+    return metadata.get("cache") is False or bool(metadata.get("no_cache"))
+
+
+@dataclass
+class CachedResponse:
+    """One cached answer"""
+    prompt: str
+    response: str
+    latency: float
+    expires_at: float
+
+
+class ResponseCacheStore:
+    """
+    SQLite (WAL) tier of the response cache.
+
+    All methods are blocking; ResponseCache runs them with asyncio.to_thread.
+    Timestamps are wall-clock so entries expire correctly across restarts.
+    """
+
+    def __init__(self, path: str, max_entries: int):
+        self.path = path
+        self.max_entries = max_entries
+        self._conn: Optional[sqlite3.Connection] = None
+        self._lock = threading.Lock()
+
+    def open(self) -> None:
+        directory = os.path.dirname(self.path)
+        if directory:
+            os.makedirs(directory, exist_ok=True)
+
+        conn = sqlite3.connect(self.path, timeout=5.0, isolation_level=None, check_same_thread=False)
+        conn.execute("PRAGMA journal_mode=WAL")
+        conn.execute("PRAGMA synchronous=NORMAL")
+        conn.executescript(_SCHEMA)
+        self._conn = conn
+
+    def close(self) -> None:
+        with self._lock:
+            if self._conn is not None:
+                self._conn.close()
+                self._conn = None
+
+    @property
+    def is_open(self) -> bool:
+        return self._conn is not None
+
+    def get(self, key: str) -> Optional[CachedResponse]:
+        with self._lock:
+            if self._conn is None:
+                return None
+            row = self._conn.execute(
+                "SELECT prompt, response, latency, expires_at FROM response_cache WHERE key = ? AND expires_at > ?",
+                (key, time.time())
+            ).fetchone()
+        if row is None:
+            return None
+        return CachedResponse(*row)
+
+    def put(self, key: str, entry: CachedResponse) -> None:
+        with self._lock:
+            if self._conn is None:
+                return
+            now = time.time()
+            conn = self._conn
+            conn.execute("BEGIN IMMEDIATE")
+            try:
+                conn.execute(
+                    "INSERT OR REPLACE INTO response_cache (key, prompt, response, latency, created_at, expires_at) "
+                    "VALUES (?, ?, ?, ?, ?, ?)",
+                    (key, entry.prompt, entry.response, entry.latency, now, entry.expires_at)
+                )
+                conn.execute("DELETE FROM response_cache WHERE expires_at <= ?", (now,))
+                # Keep the newest max_entries rows
+                conn.execute(
+                    "DELETE FROM response_cache WHERE key IN ("
+                    "SELECT key FROM response_cache ORDER BY created_at DESC LIMIT -1 OFFSET ?)",
+                    (self.max_entries,)
+                )
+                conn.execute("COMMIT")
+            except Exception:
+                conn.execute("ROLLBACK")
+                raise
+
+    def clear(self) -> None:
+        with self._lock:
+            if self._conn is not None:
+                self._conn.execute("DELETE FROM response_cache")
+
+
+class ResponseCache:
+    """
+    Two-tier cache of agent responses.
+
+    The memory tier is an LRU keyed by cache key; entries are stored under the
+    normalized prompt (or the raw prompt when normalization is off) and keep
+    the original prompt, so a hit can be reported as exact or normalized.
+    """
+
+    def __init__(self, config: Optional[ResponseCacheConfig] = None):
+        self.config = config or ResponseCacheConfig()
+        self._entries: "OrderedDict[str, CachedResponse]" = OrderedDict()
+        self.store = (
+            ResponseCacheStore(self.config.path, self.config.max_persistent_entries)
+            if self.config.enabled and self.config.persistent else None
+        )
+        self._store_lock = asyncio.Lock()
+
+        self.metrics = {
+            'hits': 0,
+            'exact_hits': 0,
+            'normalized_hits': 0,
+            'persistent_hits': 0,
+            'misses': 0,
+            'bypassed': 0,
+            'stores': 0,
+            'evictions': 0,
+            'expired': 0,
+            'saved_latency_seconds': 0.0,
+            'store_errors': 0
+        }
+
+    @property
+    def enabled(self) -> bool:
+        return self.config.enabled
+
+    def make_key(
+        self,
+        prompt: str,
+        model_id: str,
+        instructions_hash: str,
+        tools_hash: str,
+        user_id: Optional[str] = None
+    ) -> str:
+        """Cache key of a prompt under one agent configuration"""
+        text = normalize_prompt(prompt) if self.config.normalize else prompt
+        parts = [model_id, instructions_hash, tools_hash, text]
+        if self.config.per_user:
+            parts.insert(0, user_id or "")
+        return hashlib.sha256("\x1f".join(parts).encode("utf-8")).hexdigest()
+
+    async def get(self, key: str, prompt: str) -> Optional[str]:
+        """Cached response for key, or None (a miss)"""
+        entry = self._entries.get(key)
+        now = time.time()
+
+        if entry is not None and entry.expires_at <= now:
+            del self._entries[key]
+            self.metrics['expired'] += 1
+            entry = None
+
+        if entry is not None:
+            self._entries.move_to_end(key)
+        elif await self._ensure_store():
+            try:
+                entry = await asyncio.to_thread(self.store.get, key)
+            except Exception:
+                self.metrics['store_errors'] += 1
+                entry = None
+            if entry is not None:
+                self.metrics['persistent_hits'] += 1
+                self._remember(key, entry)
+
+        if entry is None:
+            self.metrics['misses'] += 1
+            return None
+
+        self.metrics['hits'] += 1
+        self.metrics['exact_hits' if entry.prompt == prompt else 'normalized_hits'] += 1
+        self.metrics['saved_latency_seconds'] += entry.latency
+        return entry.response
+
+    async def put(self, key: str, prompt: str, response: str, latency: float) -> None:
+        """Store a response produced in ``latency`` seconds"""
+        entry = CachedResponse(prompt, response, latency, time.time() + self.config.ttl)
+        self._remember(key, entry)
+        self.metrics['stores'] += 1
+
+        if await self._ensure_store():
+            try:
+                await asyncio.to_thread(self.store.put, key, entry)
+            except Exception:
+                self.metrics['store_errors'] += 1
+
+    def record_bypass(self) -> None:
+        self.metrics['bypassed'] += 1
+
+    def _remember(self, key: str, entry: CachedResponse) -> None:
+        self._entries[key] = entry
+        self._entries.move_to_end(key)
+        while len(self._entries) > self.config.max_entries:
+            self._entries.popitem(last=False)
+            self.metrics['evictions'] += 1
+
+    async def _ensure_store(self) -> bool:
+        """Open the SQLite tier on first use; False if it is disabled or unavailable"""
+        if self.store is None:
+            return False
+        if self.store.is_open:
+            return True
+
+        async with self._store_lock:
+            if self.store is not None and not self.store.is_open:
+                try:
+                    await asyncio.to_thread(self.store.open)
+                except Exception:
+                    # Keep caching in memory only
+                    self.metrics['store_errors'] += 1
+                    self.store = None
+        return self.store is not None
+
+    async def clear(self) -> None:
+        self._entries.clear()
+        if await self._ensure_store():
+            await asyncio.to_thread(self.store.clear)
+
+    async def close(self) -> None:
+        if self.store is not None and self.store.is_open:
+            await asyncio.to_thread(self.store.close)
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Counters, hit ratio and saved model latency"""
+        lookups = self.metrics['hits'] + self.metrics['misses']
+        return {
+            **self.metrics,
+            'enabled': self.config.enabled,
+            'entries': len(self._entries),
+            'persistent': self.store is not None,
+            'hit_ratio': self.metrics['hits'] / lookups if lookups else 0.0
+        }
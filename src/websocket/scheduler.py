@@ -0,0 +1,291 @@
+"""
+Chat Scheduler - Admission control and weighted fair queuing for chat requests
+
+Sits between WebSocketServer._handle_chat_message and the agent:
+- Global in-flight limit so a burst cannot exhaust model quota
+- Per-user in-flight and queued limits so a few users cannot starve the rest
+- Weighted fair queuing across users, weighted by role (UserRole values from
+  the JWT "role" claim), so admins and analysts get a larger share under load
+- Requests whose client disconnected or whose deadline passed are dropped
+  before they reach the model
+- Queue wait and service (model) time are measured separately
+
+Fairness uses virtual finish tags: each request gets
+    finish = max(virtual_time, user's last finish) + 1 / weight
+and the queued request with the smallest tag whose user is under its
+in-flight limit is dispatched next.
+"""
+
+import asyncio
+import time
+from collections import deque
+from contextlib import asynccontextmanager
+from typing import Any, AsyncIterator, Callable, Deque, Dict, Optional
+
+try:
+    from src.logging_config import get_logger
+    from src.websocket.agent_executor import AgentSaturatedError
+    from src.websocket.metrics import LatencyHistogram
+    from config.models import SchedulerConfig
+except ImportError:
+    import sys
+    import os
+    sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
+    from src.logging_config import get_logger
+    from src.websocket.agent_executor import AgentSaturatedError
+    from src.websocket.metrics import LatencyHistogram
+    from config.models import SchedulerConfig
+
+
+class SchedulerRejectedError(AgentSaturatedError):
+    """
+    Raised when a chat request is not admitted.
+
+    Reasons: "queue_full", "user_limit", "deadline" or "client_gone".
+    """
+    pass
+
+
+class _Ticket:
+    """A queued chat request"""
+
+    __slots__ = ("user_id", "role", "finish_tag", "enqueued_at", "deadline", "is_alive", "future")
+
+    def __init__(
+        self,
+        user_id: str,
+        role: str,
+        finish_tag: float,
+        deadline: float,
+        is_alive: Optional[Callable[[], bool]],
+        future: asyncio.Future
+    ):
+        self.user_id = user_id
+        self.role = role
+        self.finish_tag = finish_tag
+        self.enqueued_at = time.perf_counter()
+        self.deadline = deadline
+        self.is_alive = is_alive
+        self.future = future
+
+
+class ChatScheduler:
+    """
+    Admission controller for chat requests.
+
+    Usage:
+        async with scheduler.admit(user_id, role, is_alive=lambda: ws.open):
+            response = await manager.process_chat_message(...)
+    """
+
+    def __init__(self, config: Optional[SchedulerConfig] = None):
+        self.config = config or SchedulerConfig()
+        self.logger = get_logger("ChatScheduler")
+
+        self._queues: Dict[str, Deque[_Ticket]] = {}
+        self._queued = 0
+        self._in_flight = 0
+        self._user_in_flight: Dict[str, int] = {}
+        self._last_finish: Dict[str, float] = {}
+        self._virtual_time = 0.0
+
+        self.queue_wait = LatencyHistogram()
+        self.service_time = LatencyHistogram()
+        self.role_queue_wait: Dict[str, LatencyHistogram] = {}
+        self.metrics = {
+            'admitted': 0,
+            'completed': 0,
+            'rejected_queue_full': 0,
+            'rejected_user_limit': 0,
+            'dropped_deadline': 0,
+            'dropped_client_gone': 0
+        }
+
+    def weight_for(self, role: Optional[str]) -> float:
+        """Get the fair-share weight for a role"""
+        role = (role or self.config.default_role).lower()
+        return self.config.role_weights.get(role, self.config.role_weights.get(self.config.default_role, 1.0))
+
+    @asynccontextmanager
+    async def admit(
+        self,
+        user_id: str,
+        role: Optional[str] = None,
+        is_alive: Optional[Callable[[], bool]] = None
+    ) -> AsyncIterator[None]:
+        """
+        Wait for a slot, run the body, then release the slot.
+
+        Raises:
+            SchedulerRejectedError: If the request is rejected or dropped
+        """
+        if not self.config.enabled:
+            yield
+            return
+
+        role = (role or self.config.default_role).lower()
+        waited = await self._acquire(user_id, role, is_alive)
+
+        self.queue_wait.record(waited)
+        self.role_queue_wait.setdefault(role, LatencyHistogram()).record(waited)
+
+        started = time.perf_counter()
+        try:
+            yield
+        finally:
+            self.service_time.record(time.perf_counter() - started)
+            self._release(user_id)
+
+    async def _acquire(self, user_id: str, role: str, is_alive: Optional[Callable[[], bool]]) -> float:
+        """Queue a ticket and wait until it is dispatched; returns the queue wait"""
+        queue = self._queues.get(user_id)
+        queued_for_user = len(queue) if queue else 0
+
+        if queued_for_user >= self.config.max_queued_per_user:
+            self.metrics['rejected_user_limit'] += 1
+            raise SchedulerRejectedError(
+                f"Too many pending requests for user {user_id}",
+                reason="user_limit",
+                user_id=user_id
+            )
+
+        if self._queued >= self.config.max_queue_depth:
+            self.metrics['rejected_queue_full'] += 1
+            raise SchedulerRejectedError(
+                "Server is busy, please retry shortly",
+                reason="queue_full",
+                user_id=user_id
+            )
+
+        start_tag = max(self._virtual_time, self._last_finish.get(user_id, 0.0))
+        finish_tag = start_tag + 1.0 / self.weight_for(role)
+        self._last_finish[user_id] = finish_tag
+
+        ticket = _Ticket(
+            user_id=user_id,
+            role=role,
+            finish_tag=finish_tag,
+            deadline=time.perf_counter() + self.config.queue_timeout,
+            is_alive=is_alive,
+            future=asyncio.get_running_loop().create_future()
+        )
+        self._queues.setdefault(user_id, deque()).append(ticket)
+        self._queued += 1
+        self._dispatch()
+
+        try:
+            await asyncio.wait_for(asyncio.shield(ticket.future), timeout=self.config.queue_timeout)
+        except asyncio.TimeoutError:
+            if self._withdraw(ticket):
+                self.metrics['dropped_deadline'] += 1
+                raise SchedulerRejectedError(
+                    "Request waited too long in the queue",
+                    reason="deadline",
+                    user_id=user_id
+                )
+        except asyncio.CancelledError:
+            if not self._withdraw(ticket) and ticket.future.done() and not ticket.future.exception():
+                # Dispatched just as we were cancelled; give the slot back
+                self._release(user_id)
+            raise
+
+        # Raises if the dispatcher dropped the ticket
+        ticket.future.result()
+        return time.perf_counter() - ticket.enqueued_at
+
+    def _withdraw(self, ticket: _Ticket) -> bool:
+        """Remove a still-queued ticket; False if it was already dispatched or dropped"""
+        queue = self._queues.get(ticket.user_id)
+        if not queue or ticket not in queue:
+            return False
+        queue.remove(ticket)
+        self._queued -= 1
+        if not queue:
+            del self._queues[ticket.user_id]
+        if not ticket.future.done():
+            ticket.future.cancel()
+        return True
+
+    def _dispatch(self) -> None:
+        """Grant free slots to the eligible tickets with the smallest finish tags"""
+        while self._in_flight < self.config.max_in_flight and self._queued:
+            best: Optional[_Ticket] = None
+            for user_id, queue in self._queues.items():
+                if self._user_in_flight.get(user_id, 0) >= self.config.max_per_user:
+                    continue
+                head = queue[0]
+                if best is None or head.finish_tag < best.finish_tag:
+                    best = head
+
+            if best is None:
+                return  # Everyone with queued work is at their per-user limit
+
+            queue = self._queues[best.user_id]
+            queue.popleft()
+            self._queued -= 1
+            if not queue:
+                del self._queues[best.user_id]
+
+            if best.future.done():
+                continue  # Caller already gave up
+
+            if best.is_alive is not None and not self._safe_alive(best):
+                self.metrics['dropped_client_gone'] += 1
+                best.future.set_exception(SchedulerRejectedError(
+                    "Client disconnected before the request was scheduled",
+                    reason="client_gone",
+                    user_id=best.user_id
+                ))
+                continue
+
+            if time.perf_counter() > best.deadline:
+                self.metrics['dropped_deadline'] += 1
+                best.future.set_exception(SchedulerRejectedError(
+                    "Request waited too long in the queue",
+                    reason="deadline",
+                    user_id=best.user_id
+                ))
+                continue
+
+            self._virtual_time = max(self._virtual_time, best.finish_tag)
+            self._in_flight += 1
+            self._user_in_flight[best.user_id] = self._user_in_flight.get(best.user_id, 0) + 1
+            self.metrics['admitted'] += 1
+            best.future.set_result(None)
+
+    @staticmethod
+    def _safe_alive(ticket: _Ticket) -> bool:
+        try:
+            return bool(ticket.is_alive())
+        except Exception:
+            return False
+
+    def _release(self, user_id: str) -> None:
+        """Free a slot and dispatch the next ticket"""
+        self._in_flight -= 1
+        remaining = self._user_in_flight.get(user_id, 0) - 1
+        if remaining > 0:
+            self._user_in_flight[user_id] = remaining
+        else:
+            self._user_in_flight.pop(user_id, None)
+            if user_id not in self._queues:
+                # Idle users do not keep an old finish tag around
+                self._last_finish.pop(user_id, None)
+        self.metrics['completed'] += 1
+        self._dispatch()
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Get scheduler statistics"""
+        return {
+            **self.metrics,
+            'in_flight': self._in_flight,
+            'queued': self._queued,
+            'active_users': len(self._user_in_flight),
+            'max_in_flight': self.config.max_in_flight,
+            'queue_wait': self.queue_wait.snapshot(),
+            'service_time': self.service_time.snapshot(),
+            'queue_wait_by_role': {
+                role: histogram.snapshot() for role, histogram in self.role_queue_wait.items()
+            }
+        }
@@ -3,7 +3,7 @@ Security Manager for WebSocket connections
 
 Implements comprehensive security measures following QA Intelligence patterns:
 - JWT-based authentication with configurable algorithms
-- Rate limiting with sliding window implementation  
+- Rate limiting per user, IP and envelope type (GCRA or sliding window)
 - IP-based access control and blocking
 - Security event logging with Loguru integration
 - Pydantic v2 configuration validation
@@ -15,13 +15,11 @@ Architecture:
 """
 
 import asyncio
-import time
 import hashlib
 import secrets
 import os
 from datetime import datetime, timedelta
-from typing import Dict, Optional, Set, Any, List
-from collections import defaultdict, deque
+from typing import Dict, Optional, Set, Any, List, Tuple
 
 import jwt
 from pydantic import ValidationError
@@ -29,12 +27,24 @@ from pydantic import ValidationError
 try:
     from src.logging_config import get_logger, LogExecutionTime, LogStep
     from config.models import SecurityConfig
+    from src.websocket.rate_limiter import KeyedRateLimits
+    from src.websocket.auth_cache import TokenCache
+    from src.websocket.security_state import (
+        SecurityStateStore, BLOCK, UNBLOCK, KIND_USER, KIND_IP,
+        apply_block_ops, monotonic_to_wall, wall_to_monotonic
+    )
 except ImportError:
     import sys
     import os
     sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
     from src.logging_config import get_logger, LogExecutionTime, LogStep
     from config.models import SecurityConfig
+    from src.websocket.rate_limiter import KeyedRateLimits
+    from src.websocket.auth_cache import TokenCache
+    from src.websocket.security_state import (
+        SecurityStateStore, BLOCK, UNBLOCK, KIND_USER, KIND_IP,
+        apply_block_ops, monotonic_to_wall, wall_to_monotonic
+    )
 
 
 class SecurityError(Exception):
@@ -63,7 +73,7 @@ class SecurityManager:
     
     Features:
     - JWT token validation with configurable algorithms
-    - Sliding window rate limiting per user/IP
+    - Keyed rate limiting per user, IP and envelope type
     - IP blocking and access control
     - Security audit logging
     - Performance optimized with async operations
@@ -83,16 +93,30 @@ class SecurityManager:
         self.jwt_algorithm = config.authentication.algorithm
         
         # Rate limiting state
-        self.rate_limit_windows: Dict[str, deque] = defaultdict(deque)
-        self.rate_limit_cleanup_last = time.time()
+        share_rate_limits = config.state.enabled and config.state.share_rate_limits
+        self.rate_limits = KeyedRateLimits(config.rate_limiting, track_changes=share_rate_limits)
         
         # Blocked IPs and users
         self.blocked_ips: Set[str] = set()
         self.blocked_users: Set[str] = set()
         
-        # Authentication cache
-        self.auth_cache: Dict[str, Dict[str, Any]] = {}
-        self.cache_expiry: Dict[str, float] = {}
+        # Shared/persistent state; checks only read the in-memory copies above
+        self.state_store = SecurityStateStore(config.state.path) if config.state.enabled else None
+        self._pending_block_ops: List[Tuple[str, str, str, str]] = []
+        self._last_state_sync = 0.0
+        self._state_sync_task: Optional[asyncio.Task] = None
+        
+        # Authentication cache (keyed by token hash, bounded, with negative entries)
+        self.auth_cache = TokenCache(
+            max_entries=config.authentication.cache_size,
+            ttl=config.authentication.cache_ttl,
+            negative_ttl=config.authentication.negative_cache_ttl,
+            max_negative_entries=config.authentication.cache_size
+        )
+        
+        # Role claim of authenticated users (used for scheduling priority)
+        self.user_roles: Dict[str, str] = {}
+        self.role_claim = "role"
         
         # Security metrics
         self.metrics = {
@@ -100,7 +124,9 @@ class SecurityManager:
             'auth_successes': 0,
             'auth_failures': 0,
             'rate_limit_hits': 0,
-            'blocked_attempts': 0
+            'blocked_attempts': 0,
+            'state_syncs': 0,
+            'state_sync_errors': 0
         }
         
         self.logger.info("Security manager initialized")
@@ -131,8 +157,7 @@ class SecurityManager:
             
             # Clear caches
             self.auth_cache.clear()
-            self.cache_expiry.clear()
-            self.rate_limit_windows.clear()
+            self.rate_limits.clear()
             
             self.logger.info("Security manager cleaned up")
             
@@ -164,10 +189,23 @@ class SecurityManager:
             with LogStep("JWT token validation", "SecurityManager"):
                 
                 # Check cache first
-                if token in self.auth_cache and self.cache_expiry.get(token, 0) > time.time():
+                cached = self.auth_cache.get(token)
+                if cached is not None:
+                    # Blocks can arrive (locally or from the shared store) after caching
+                    if cached.user_id in self.blocked_users:
+                        self.metrics['blocked_attempts'] += 1
+                        self.auth_cache.remove_user(cached.user_id)
+                        raise AuthenticationError(f"User {cached.user_id} is blocked")
+                    
                     self.logger.debug("Using cached authentication")
                     self.metrics['auth_successes'] += 1
-                    return self.auth_cache[token]['user_id']
+                    self._remember_role(cached.user_id, cached.payload)
+                    return cached.user_id
+                
+                # Replayed invalid tokens are rejected without decoding again
+                rejected = self.auth_cache.get_rejection(token)
+                if rejected is not None:
+                    raise AuthenticationError(rejected.reason)
                 
                 # Decode and validate JWT
                 payload = jwt.decode(
@@ -187,24 +225,32 @@ class SecurityManager:
                     self.metrics['blocked_attempts'] += 1
                     raise AuthenticationError(f"User {user_id} is blocked")
                 
-                # Cache the result
-                self.auth_cache[token] = {
-                    'user_id': user_id,
-                    'payload': payload
-                }
-                self.cache_expiry[token] = time.time() + 300  # 5 minute cache
+                # Cache the result (never past the token's own exp)
+                self.auth_cache.put(token, user_id, payload)
+                self._remember_role(user_id, payload)
                 
                 self.metrics['auth_successes'] += 1
                 self.logger.info(f"User {user_id} authenticated successfully")
                 
                 return user_id
                 
+        except AuthenticationError:
+            self.metrics['auth_failures'] += 1
+            raise
+            
         except jwt.ExpiredSignatureError:
             self.metrics['auth_failures'] += 1
+            self.auth_cache.put_rejection(token, "Token has expired")
             raise AuthenticationError("Token has expired")
             
+        except jwt.ImmatureSignatureError as e:
+            # Becomes valid later, so it is not negatively cached
+            self.metrics['auth_failures'] += 1
+            raise AuthenticationError(f"Invalid token: {e}")
+            
         except jwt.InvalidTokenError as e:
             self.metrics['auth_failures'] += 1
+            self.auth_cache.put_rejection(token, f"Invalid token: {e}")
             raise AuthenticationError(f"Invalid token: {e}")
             
         except Exception as e:
@@ -212,12 +258,29 @@ class SecurityManager:
             self.logger.error(f"Authentication error: {e}")
             raise AuthenticationError(f"Authentication failed: {e}")
     
-    async def check_rate_limit(self, identifier: str) -> bool:
+    def _remember_role(self, user_id: str, payload: Dict[str, Any]) -> None:
+        """Record the role claim of the user's latest token (no claim: default role)"""
+        role = payload.get(self.role_claim)
+        if isinstance(role, str) and role:
+            self.user_roles[user_id] = role.lower()
+        else:
+            self.user_roles.pop(user_id, None)
+    
+    def get_user_role(self, user_id: str) -> Optional[str]:
+        """Get the role claim from the user's last authenticated token"""
+        return self.user_roles.get(user_id)
+    
+    def forget_user_role(self, user_id: str) -> None:
+        """Drop a user's role once they have no connections left"""
+        self.user_roles.pop(user_id, None)
+    
+    async def check_rate_limit(self, identifier: str, scope: str = "user") -> bool:
         """
         Check if identifier (user_id or IP) is within rate limits.
         
         Args:
             identifier: User ID or IP address to check
+            scope: Limit to apply ("user", "ip" or "type:<envelope type>")
             
         Returns:
             bool: True if within limits, False if exceeded
@@ -225,32 +288,17 @@ class SecurityManager:
         if not self.config.rate_limiting.enabled:
             return True
         
-        current_time = time.time()
-        window_start = current_time - self.config.rate_limiting.window_size
-        
-        # Get or create request window for this identifier
-        requests = self.rate_limit_windows[identifier]
-        
-        # Remove old requests outside the window
-        while requests and requests[0] < window_start:
-            requests.popleft()
-        
-        # Check if within limits
-        if len(requests) >= self.config.rate_limiting.max_requests_per_minute:
+        if not self.rate_limits.allow(scope, identifier):
             self.metrics['rate_limit_hits'] += 1
-            self.logger.warning(f"Rate limit exceeded for {identifier}")
+            self.logger.warning(f"Rate limit exceeded for {identifier} ({scope})")
             return False
         
-        # Add current request
-        requests.append(current_time)
-        
-        # Cleanup old windows periodically
-        if current_time - self.rate_limit_cleanup_last > self.config.rate_limiting.cleanup_interval:
-            await self._cleanup_old_rate_limit_windows()
-            self.rate_limit_cleanup_last = current_time
-        
         return True
     
+    async def check_message_rate_limit(self, user_id: str, message_type: str) -> bool:
+        """Check a user's per-envelope-type limit (unlimited unless configured)"""
+        return await self.check_rate_limit(user_id, scope=f"type:{message_type}")
+    
     async def check_ip_access(self, ip_address: str) -> bool:
         """
         Check if IP address is allowed to connect.
@@ -277,6 +325,7 @@ class SecurityManager:
             reason: Reason for blocking
         """
         self.blocked_users.add(user_id)
+        self._pending_block_ops.append((BLOCK, KIND_USER, user_id, reason))
         self.logger.warning(f"User {user_id} blocked: {reason}")
         
         # Remove from auth cache
@@ -291,16 +340,19 @@ class SecurityManager:
             reason: Reason for blocking
         """
         self.blocked_ips.add(ip_address)
+        self._pending_block_ops.append((BLOCK, KIND_IP, ip_address, reason))
         self.logger.warning(f"IP {ip_address} blocked: {reason}")
     
     def unblock_user(self, user_id: str) -> None:
         """Unblock a user"""
         self.blocked_users.discard(user_id)
+        self._pending_block_ops.append((UNBLOCK, KIND_USER, user_id, ""))
         self.logger.info(f"User {user_id} unblocked")
     
     def unblock_ip(self, ip_address: str) -> None:
         """Unblock an IP address"""
         self.blocked_ips.discard(ip_address)
+        self._pending_block_ops.append((UNBLOCK, KIND_IP, ip_address, ""))
         self.logger.info(f"IP {ip_address} unblocked")
     
     def generate_token(self, user_id: str, additional_claims: Optional[Dict[str, Any]] = None) -> str:
@@ -352,70 +404,126 @@ class SecurityManager:
     
     def _clear_user_from_cache(self, user_id: str) -> None:
         """Remove user's tokens from authentication cache"""
-        tokens_to_remove = []
-        
-        for token, data in self.auth_cache.items():
-            if data.get('user_id') == user_id:
-                tokens_to_remove.append(token)
-        
-        for token in tokens_to_remove:
-            del self.auth_cache[token]
-            self.cache_expiry.pop(token, None)
+        self.auth_cache.remove_user(user_id)
     
     async def _cleanup_rate_limits(self) -> None:
-        """Background task to clean up old rate limit windows"""
+        """
+        Background task releasing idle rate limit state.
+        
+        One stripe is swept per tick so every stripe is visited once per
+        cleanup_interval without ever scanning all keys at once.
+        """
+        tick = self.config.rate_limiting.cleanup_interval / self.config.rate_limiting.stripes
+        elapsed = 0.0
         while True:
             try:
-                await asyncio.sleep(self.config.rate_limiting.cleanup_interval)
-                await self._cleanup_old_rate_limit_windows()
+                await asyncio.sleep(tick)
+                self.rate_limits.sweep()
+                
+                elapsed += tick
+                if elapsed >= self.config.rate_limiting.cleanup_interval:
+                    elapsed = 0.0
+                    await self._cleanup_expired_auth_cache()
                 
+            except asyncio.CancelledError:
+                break
             except Exception as e:
                 self.logger.error(f"Error in rate limit cleanup: {e}")
     
-    async def _cleanup_old_rate_limit_windows(self) -> None:
-        """Clean up old rate limit windows to prevent memory leaks"""
-        current_time = time.time()
-        window_start = current_time - self.config.rate_limiting.window_size
+    async def _cleanup_expired_auth_cache(self) -> None:
+        """Clean up expired auth cache entries (the cache is bounded; this only frees memory early)"""
+        removed = self.auth_cache.sweep()
         
-        # Clean up empty or old windows
-        identifiers_to_remove = []
-        
-        for identifier, requests in self.rate_limit_windows.items():
-            # Remove old requests
-            while requests and requests[0] < window_start:
-                requests.popleft()
-            
-            # Mark empty windows for removal
-            if not requests:
-                identifiers_to_remove.append(identifier)
-        
-        # Remove empty windows
-        for identifier in identifiers_to_remove:
-            del self.rate_limit_windows[identifier]
+        if removed:
+            self.logger.debug(f"Cleaned up {removed} auth cache entries")
+    
+    async def _load_security_state(self) -> None:
+        """Load persistent security state (blocked IPs/users, rate limits) and start syncing"""
+        if self.state_store is None:
+            return
         
-        # Clean up expired auth cache entries
-        expired_tokens = [
-            token for token, expiry in self.cache_expiry.items()
-            if expiry < current_time
-        ]
+        try:
+            await asyncio.to_thread(self.state_store.open)
+        except Exception as e:
+            # Keep serving with in-memory state only
+            self.logger.warning(f"Security state store unavailable ({self.config.state.path}): {e}")
+            self.state_store = None
+            return
+        
+        await self._sync_security_state()
+        self._state_sync_task = asyncio.create_task(self._state_sync_loop())
+        self.logger.info(
+            f"Loaded security state: {len(self.blocked_users)} blocked users, {len(self.blocked_ips)} blocked IPs"
+        )
+    
+    async def _save_security_state(self) -> None:
+        """Push pending security state and close the store"""
+        if self._state_sync_task is not None:
+            self._state_sync_task.cancel()
+            try:
+                await self._state_sync_task
+            except asyncio.CancelledError:
+                pass
+            self._state_sync_task = None
         
-        for token in expired_tokens:
-            self.auth_cache.pop(token, None)
-            self.cache_expiry.pop(token, None)
+        if self.state_store is None or not self.state_store.is_open:
+            return
         
-        if identifiers_to_remove or expired_tokens:
-            self.logger.debug(f"Cleaned up {len(identifiers_to_remove)} rate limit windows and {len(expired_tokens)} auth cache entries")
+        await self._sync_security_state()
+        await asyncio.to_thread(self.state_store.close)
     
-    async def _load_security_state(self) -> None:
-        """Load persistent security state (blocked IPs/users, etc.)"""
-        # TODO: Implement persistent storage if needed
-        # For now, we start with empty state each time
-        pass
+    async def _state_sync_loop(self) -> None:
+        """Background task syncing with the shared store"""
+        while True:
+            try:
+                await asyncio.sleep(self.config.state.sync_interval)
+                await self._sync_security_state()
+            except asyncio.CancelledError:
+                break
+            except Exception as e:
+                self.logger.error(f"Error in security state sync: {e}")
     
-    async def _save_security_state(self) -> None:
-        """Save security state for persistence"""
-        # TODO: Implement persistent storage if needed
-        pass
+    async def _sync_security_state(self) -> None:
+        """
+        Push local changes to the store and pull everyone else's.
+        
+        The store is only touched from a worker thread; the blocklist sets are
+        swapped in one step afterwards so checks never see partial state.
+        """
+        ops, self._pending_block_ops = self._pending_block_ops, []
+        drained = self.rate_limits.drain_changes()
+        rate_changes = {
+            scope: {key: monotonic_to_wall(tat) for key, tat in entries.items()}
+            for scope, entries in drained.items()
+        }
+        
+        try:
+            result = await asyncio.to_thread(self.state_store.sync, ops, rate_changes, self._last_state_sync)
+        except Exception as e:
+            # Retry these operations and rate changes on the next sync
+            self._pending_block_ops[:0] = ops
+            self.rate_limits.requeue_changes(drained)
+            self.metrics['state_sync_errors'] += 1
+            self.logger.error(f"Security state sync failed: {e}")
+            return
+        
+        # Operations made while the sync ran are not in the store yet
+        apply_block_ops(result.blocked, self._pending_block_ops)
+        blocked_users = result.blocked.get(KIND_USER, set())
+        
+        # Users blocked by another process may still have cached tokens here
+        for user_id in blocked_users - self.blocked_users:
+            self._clear_user_from_cache(user_id)
+        self.blocked_users = blocked_users
+        self.blocked_ips = result.blocked.get(KIND_IP, set())
+        
+        self.rate_limits.merge({
+            scope: {key: wall_to_monotonic(tat) for key, tat in entries.items()}
+            for scope, entries in result.rate_updates.items()
+        })
+        
+        self._last_state_sync = result.synced_at
+        self.metrics['state_syncs'] += 1
     
     @property
     def security_metrics(self) -> Dict[str, Any]:
@@ -424,8 +532,10 @@ class SecurityManager:
             **self.metrics,
             'blocked_ips': len(self.blocked_ips),
             'blocked_users': len(self.blocked_users),
-            'active_rate_limit_windows': len(self.rate_limit_windows),
-            'auth_cache_size': len(self.auth_cache)
+            'active_rate_limit_keys': self.rate_limits.size,
+            'rate_limits': self.rate_limits.stats,
+            'auth_cache_size': len(self.auth_cache),
+            'auth_cache': self.auth_cache.stats
         }
 
 
@@ -0,0 +1,189 @@
+"""
+Security State Store - Shared, persistent blocklist and rate-limit state
+
+SecurityManager keeps blocks and rate-limit state in memory so every check
+is a dict or set lookup. This store shares that state between worker
+processes on one host and keeps it across restarts:
+- A local SQLite database in WAL mode (concurrent readers, one writer, no
+  server to run)
+- Only a background task touches it; check_rate_limit and check_ip_access
+  never do I/O
+- Each sync pushes local changes (block/unblock operations and GCRA arrival
+  times changed since the last sync) and pulls the blocklist plus arrival
+  times other workers changed
+- Arrival times are merged with max(), so the most restrictive view wins;
+  between syncs each worker enforces limits on its own
+
+Arrival times are stored as wall-clock timestamps so they survive restarts;
+the in-process limiters use a monotonic clock.
+"""
+
+import os
+import sqlite3
+import time
+from typing import Dict, Iterable, Optional, Set, Tuple
+
+# Block operations queued for the next sync: (op, kind, value, reason)
+BlockOp = Tuple[str, str, str, str]
+
+BLOCK = "block"
+UNBLOCK = "unblock"
+KIND_USER = "user"
+KIND_IP = "ip"
+
+_SCHEMA = """
+CREATE TABLE IF NOT EXISTS security_blocks (
+    kind TEXT NOT NULL,
+    value TEXT NOT NULL,
+    reason TEXT,
+    created_at REAL NOT NULL,
+    PRIMARY KEY (kind, value)
+);
+CREATE TABLE IF NOT EXISTS rate_limit_state (
+    scope TEXT NOT NULL,
+    key TEXT NOT NULL,
+    tat REAL NOT NULL,
+    updated_at REAL NOT NULL,
+    updated_by INTEGER NOT NULL,
+    PRIMARY KEY (scope, key)
+);
+CREATE INDEX IF NOT EXISTS idx_rate_limit_state_updated ON rate_limit_state (updated_at);
+CREATE INDEX IF NOT EXISTS idx_rate_limit_state_tat ON rate_limit_state (tat);
+"""
+
+
+def apply_block_ops(blocked: Dict[str, Set[str]], ops: Iterable[BlockOp]) -> None:
+    """Apply block/unblock operations to a blocklist in place"""
+    for op, kind, value, _ in ops:
+        target = blocked.setdefault(kind, set())
+        if op == BLOCK:
+            target.add(value)
+        else:
+            target.discard(value)
+
+
+def monotonic_to_wall(value: float) -> float:
+    return value + (time.time() - time.monotonic())
+
+
+def wall_to_monotonic(value: float) -> float:
+    return value - (time.time() - time.monotonic())
+
+
+class SyncResult:
+    """State pulled from the store by one sync"""
+
+    def __init__(self, blocked: Dict[str, Set[str]], rate_updates: Dict[str, Dict[str, float]], synced_at: float):
+        self.blocked = blocked
+        self.rate_updates = rate_updates
+        self.synced_at = synced_at
+
+
+class SecurityStateStore:
+    """
+    SQLite (WAL) backed security state.
+
+    All methods are blocking; SecurityManager runs them with asyncio.to_thread.
+    """
+
+    def __init__(self, path: str, worker_id: Optional[int] = None):
+        self.path = path
+        self.worker_id = worker_id if worker_id is not None else os.getpid()
+        self._conn: Optional[sqlite3.Connection] = None
+
+    def open(self) -> None:
+        """Open the database and create the schema"""
+        directory = os.path.dirname(self.path)
+        if directory:
+            os.makedirs(directory, exist_ok=True)
+
+        conn = sqlite3.connect(self.path, timeout=5.0, isolation_level=None, check_same_thread=False)
+        conn.execute("PRAGMA journal_mode=WAL")
+        conn.execute("PRAGMA synchronous=NORMAL")
+        conn.executescript(_SCHEMA)
+        self._conn = conn
+
+    def close(self) -> None:
+        if self._conn is not None:
+            self._conn.close()
+            self._conn = None
+
+    @property
+    def is_open(self) -> bool:
+        return self._conn is not None
+
+    def sync(
+        self,
+        block_ops: Iterable[BlockOp],
+        rate_changes: Dict[str, Dict[str, float]],
+        since: float
+    ) -> SyncResult:
+        """
+        Push local changes and pull shared state in one transaction.
+
+        Args:
+            block_ops: Block/unblock operations made locally since the last sync
+            rate_changes: scope -> key -> wall-clock arrival time changed locally
+            since: Wall-clock time of the previous sync (0 to pull everything)
+
+        Returns:
+            SyncResult with the full blocklist and arrival times changed by
+            other workers since ``since``
+        """
+        if self._conn is None:
+            raise RuntimeError("Security state store is not open")
+
+        conn = self._conn
+        conn.execute("BEGIN IMMEDIATE")
+        try:
+            # Taken under the write lock so updated_at follows commit order
+            now = time.time()
+
+            for op, kind, value, reason in block_ops:
+                if op == BLOCK:
+                    conn.execute(
+                        "INSERT OR REPLACE INTO security_blocks (kind, value, reason, created_at) VALUES (?, ?, ?, ?)",
+                        (kind, value, reason, now)
+                    )
+                else:
+                    conn.execute("DELETE FROM security_blocks WHERE kind = ? AND value = ?", (kind, value))
+
+            rows = [
+                (scope, key, tat, now, self.worker_id)
+                for scope, entries in rate_changes.items()
+                for key, tat in entries.items()
+            ]
+            if rows:
+                conn.executemany(
+                    "INSERT INTO rate_limit_state (scope, key, tat, updated_at, updated_by) VALUES (?, ?, ?, ?, ?) "
+                    "ON CONFLICT (scope, key) DO UPDATE SET "
+                    "tat = MAX(tat, excluded.tat), updated_at = excluded.updated_at, updated_by = excluded.updated_by",
+                    rows
+                )
+
+            # Keys back at full capacity carry no information
+            conn.execute("DELETE FROM rate_limit_state WHERE tat <= ?", (now,))
+
+            blocked: Dict[str, Set[str]] = {KIND_USER: set(), KIND_IP: set()}
+            for kind, value in conn.execute("SELECT kind, value FROM security_blocks"):
+                blocked.setdefault(kind, set()).add(value)
+
+            # The first sync loads everything, including state saved before a restart
+            if since > 0:
+                cursor = conn.execute(
+                    "SELECT scope, key, tat FROM rate_limit_state WHERE updated_at > ? AND updated_by != ?",
+                    (since, self.worker_id)
+                )
+            else:
+                cursor = conn.execute("SELECT scope, key, tat FROM rate_limit_state")
+
+            rate_updates: Dict[str, Dict[str, float]] = {}
+            for scope, key, tat in cursor:
+                rate_updates.setdefault(scope, {})[key] = tat
+
+            conn.execute("COMMIT")
+        except Exception:
+            conn.execute("ROLLBACK")
+            raise
+
+        return SyncResult(blocked, rate_updates, now)
@@ -17,10 +17,12 @@ Architecture:
 """
 
 import asyncio
-import json
+from urllib.parse import parse_qs, urlsplit
+import threading
+import time
 import traceback
 from datetime import datetime
-from typing import Dict, Set, Optional, Any, AsyncGenerator
+from typing import Dict, List, Set, Optional, Any, AsyncGenerator, Union
 from contextlib import asynccontextmanager
 
 import websockets
@@ -34,21 +36,51 @@ from pydantic import ValidationError
 
 try:
     from src.logging_config import get_logger, LogExecutionTime, LogStep
-    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, parse_websocket_envelope
+    from src.websocket.events import (
+        WebSocketEnvelope, WebSocketEnvelopeFactory, EnvelopeCodec, EnvelopeDecodeError, CodecRegistry,
+        LazyEnvelope, parse_envelope_header
+    )
     from config.models import WebSocketConfig, ServerConfig, SecurityConfig, AuthenticationConfig, CorsConfig  # Use unified config
     from src.websocket.manager import WebSocketManager, QAAgentProtocol
     from src.websocket.security import SecurityManager
     from src.websocket.middleware import WebSocketMiddleware
+    from src.websocket.agent_executor import AgentSaturatedError
+    from src.websocket.scheduler import ChatScheduler, SchedulerRejectedError
+    from src.websocket.pipeline import MessagePipeline, new_pipeline_metrics, ACCEPTED, REJECTED_CLOSED, REJECTED_DUPLICATE
+    from src.websocket.compression import (
+        build_compression_extensions, connection_compression, new_compression_stats,
+        merge_compression_stats, summarize_compression
+    )
+    from src.websocket.replay import SessionReplayStore
+    from src.websocket.outbound import classify_envelope, KIND_DATA
 except ImportError:
     import sys
     import os
     sys.path.append(os.path.join(os.path.dirname(__file__), "..", ".."))
     from src.logging_config import get_logger, LogExecutionTime, LogStep
-    from src.websocket.events import WebSocketEnvelope, WebSocketEnvelopeFactory, parse_websocket_envelope
+    from src.websocket.events import (
+        WebSocketEnvelope, WebSocketEnvelopeFactory, EnvelopeCodec, EnvelopeDecodeError, CodecRegistry,
+        LazyEnvelope, parse_envelope_header
+    )
     from config.models import WebSocketConfig, ServerConfig, SecurityConfig, AuthenticationConfig, CorsConfig  # Use unified config
     from src.websocket.manager import WebSocketManager, QAAgentProtocol
     from src.websocket.security import SecurityManager
     from src.websocket.middleware import WebSocketMiddleware
+    from src.websocket.agent_executor import AgentSaturatedError
+    from src.websocket.scheduler import ChatScheduler, SchedulerRejectedError
+    from src.websocket.pipeline import MessagePipeline, new_pipeline_metrics, ACCEPTED, REJECTED_CLOSED, REJECTED_DUPLICATE
+    from src.websocket.compression import (
+        build_compression_extensions, connection_compression, new_compression_stats,
+        merge_compression_stats, summarize_compression
+    )
+    from src.websocket.replay import SessionReplayStore
+    from src.websocket.outbound import classify_envelope, KIND_DATA
+
+
+# Handshake capability: the client accepts batch envelopes
+CAPABILITY_BATCH = "batch"
+# Handshake capability: the client resumes dropped sessions, so their requests outlive the socket
+CAPABILITY_RESUME = "resume"
 
 
 class WebSocketServerError(Exception):
@@ -71,6 +103,20 @@ class RateLimitError(WebSocketServerError):
     pass
 
 
+class InFlightRequest:
+    """A chat request being processed for a connection"""
+    
+    def __init__(self, request_id: str, session_id: str, websocket: Optional[ServerConnection] = None):
+        self.request_id = request_id
+        self.session_id = session_id
+        self.websocket = websocket  # Connection the request currently belongs to
+        self.task: Optional[asyncio.Task] = None
+        self.cancel_event = threading.Event()
+        self.started_at = time.perf_counter()
+        self.streaming = False
+        self.detached = False  # Connection lost; kept running for a session resume
+
+
 class WebSocketServer:
     """
     Main WebSocket server implementing QA Intelligence real-time communication.
@@ -96,9 +142,18 @@ class WebSocketServer:
     ):
         self.config = config
         self.qa_agent = qa_agent
-        self.manager = WebSocketManager(qa_agent)
+        self.manager = WebSocketManager(
+            qa_agent,
+            fanout_config=config.fanout,
+            outbound_config=config.outbound,
+            coalesce_requests=config.enable_request_coalescing
+        )
         self.security_manager = security_manager or SecurityManager(config.security)
-        self.middleware = middleware or WebSocketMiddleware(config)
+        self.middleware = middleware or WebSocketMiddleware(config, self.security_manager)
+        
+        # Admission control and role-weighted fair queuing for chat requests
+        self.scheduler = ChatScheduler(config.scheduler)
+        self.security_manager.role_claim = config.scheduler.role_claim
         
         # Server state
         # WebSocket server instance from websockets.serve()
@@ -106,6 +161,24 @@ class WebSocketServer:
         self.is_running = False
         self.connections: Set[ServerConnection] = set()
         self.user_sessions: Dict[str, Dict[str, Any]] = {}
+        # In-flight chat requests per connection, keyed by request (envelope) id
+        self.inflight_requests: Dict[ServerConnection, Dict[str, InFlightRequest]] = {}
+        self.stream_tasks: Dict[ServerConnection, Set[asyncio.Task]] = {}  # Streamed requests running per connection
+        
+        # Per-connection message pipelines (reader keeps draining while handlers run)
+        self.pipelines: Dict[ServerConnection, MessagePipeline] = {}
+        self.pipeline_metrics = new_pipeline_metrics()
+        
+        # Envelope codecs; each connection uses the one its subprotocol selects
+        self.codecs = CodecRegistry(config.codec.json_library, config.codec.enable_msgpack)
+        self.connection_codecs: Dict[ServerConnection, EnvelopeCodec] = {}
+        
+        # permessage-deflate counters of connections that have closed
+        self.compression_totals = new_compression_stats()
+        
+        # Replay buffers for resumable sessions, and requests whose connection dropped
+        self.replay: Optional[SessionReplayStore] = SessionReplayStore(config.replay) if config.replay.enabled else None
+        self.detached_requests: Dict[str, Dict[str, InFlightRequest]] = {}
         
         # Performance tracking
         self.metrics = {
@@ -113,6 +186,13 @@ class WebSocketServer:
             'messages_sent': 0,
             'messages_received': 0,
             'errors_total': 0,
+            'requests_cancelled_disconnect': 0,
+            'requests_cancelled_client': 0,
+            'requests_detached': 0,
+            'sessions_resumed': 0,
+            'cancelled_request_seconds': 0.0,
+            'payloads_validated': 0,
+            'payloads_skipped': 0,
             'start_time': None
         }
         
@@ -144,7 +224,14 @@ class WebSocketServer:
                     ping_interval=self.config.server.ping_interval,
                     ping_timeout=self.config.server.ping_timeout,
                     close_timeout=self.config.server.close_timeout,
-                    compression=None if not self.config.enable_compression else "deflate"
+                    # Compression is negotiated through our metered extension factory
+                    compression=None,
+                    extensions=build_compression_extensions(self.config.server) if self.compression_enabled else None,
+                    subprotocols=self.codecs.subprotocols,
+                    # Plain JSON clients offer no subprotocol and must still connect
+                    select_subprotocol=self.codecs.select_subprotocol,
+                    # Lets cluster workers share the port; the kernel spreads connections
+                    **({'reuse_port': True} if self.config.server.reuse_port else {})
                 )
                 
                 self.is_running = True
@@ -158,6 +245,10 @@ class WebSocketServer:
                 if self.config.enable_metrics:
                     asyncio.create_task(self._metrics_collector())
                 
+                # Expire sessions that were not resumed in time
+                if self.replay is not None:
+                    asyncio.create_task(self._replay_sweeper())
+                
         except Exception as e:
             self.logger.error(f"Failed to start WebSocket server: {e}")
             self.logger.error(f"Traceback: {traceback.format_exc()}")
@@ -191,6 +282,16 @@ class WebSocketServer:
                     await self.server.wait_closed()
                     self.server = None
                 
+                # Nobody can resume these sessions any more
+                for requests in self.detached_requests.values():
+                    for request in list(requests.values()):
+                        self._cancel_request(request, reason="disconnect")
+                self.detached_requests.clear()
+                
+                # Release agent worker pool if the agent owns one
+                if hasattr(self.qa_agent, 'shutdown'):
+                    await self.qa_agent.shutdown()
+                
                 # Clean up resources
                 await self.security_manager.cleanup()
                 self.connections.clear()
@@ -215,6 +316,10 @@ class WebSocketServer:
         connection_id = f"{websocket.remote_address[0]}:{websocket.remote_address[1]}"
         self.logger.info(f"New connection attempt from {connection_id}")
         
+        # Clients without a subprotocol get JSON text frames
+        codec = self.codecs.for_subprotocol(websocket.subprotocol)
+        self.connection_codecs[websocket] = codec
+        
         try:
             # Check connection limits
             if len(self.connections) >= self.config.server.max_connections:
@@ -233,7 +338,16 @@ class WebSocketServer:
             
             # Register with manager
             user_id = await self._authenticate_connection(websocket)
-            session_id = await self.manager.add_connection(websocket, user_id)
+            capabilities = self._client_capabilities(websocket, path)
+            batching = CAPABILITY_BATCH in capabilities and self.config.outbound.batching.enabled
+            
+            # Resume a dropped session if the client asked for one
+            resume = self._resume_session(websocket, path, user_id)
+            session_id = await self.manager.add_connection(
+                websocket, user_id,
+                session_id=resume['session_id'] if resume and resume['resumed'] else None,
+                codec=codec, batching=batching
+            )
             
             # Store session info
             self.user_sessions[session_id] = {
@@ -242,18 +356,40 @@ class WebSocketServer:
                 'connected_at': datetime.now(),
                 'last_activity': datetime.now()
             }
+            # Only clients that resume get a replay buffer; everyone else's requests are cancelled on disconnect
+            resumable = self._track_session(session_id, user_id, CAPABILITY_RESUME in capabilities or resume is not None)
+            
+            accepted = [CAPABILITY_BATCH] if batching else []
+            if resumable:
+                accepted.append(CAPABILITY_RESUME)
+            welcome_data: Dict[str, Any] = {'capabilities': accepted}
+            if resume is not None:
+                welcome_data['resume'] = {key: value for key, value in resume.items() if key != 'payloads'}
             
             # Send welcome message
             welcome_event = WebSocketEnvelopeFactory.create_system_event(
                 event_name="connection_established",
                 description="Connected to QA Intelligence WebSocket",
                 session_id=session_id,
-                user_id=user_id
+                user_id=user_id,
+                # Capabilities the server accepted from the handshake, and the resume outcome
+                data=welcome_data
             )
             await self._send_event(websocket, welcome_event)
             
+            if resume is not None and resume['resumed']:
+                # Missed envelopes first, then requests that kept running while the client was away
+                self.manager.replay_to_connection(websocket, resume['payloads'])
+                self._reattach_requests(websocket, session_id)
+                self.metrics['sessions_resumed'] += 1
+            
             self.logger.info(f"Connection established for user {user_id}, session {session_id}")
             
+            if self.config.pipeline.enabled:
+                self.pipelines[websocket] = MessagePipeline(
+                    self.config.pipeline, self.pipeline_metrics, name=session_id
+                )
+            
             # Message processing loop
             await self._message_loop(websocket, session_id, user_id)
             
@@ -299,7 +435,7 @@ class WebSocketServer:
         # Wait for authentication message
         try:
             auth_message = await asyncio.wait_for(websocket.recv(), timeout=10.0)
-            auth_data = json.loads(auth_message)
+            auth_data = self._codec_for(websocket).decode(auth_message)
             
             # Validate authentication token
             user_id = await self.security_manager.authenticate_token(auth_data.get('token'))
@@ -311,7 +447,7 @@ class WebSocketServer:
             
         except asyncio.TimeoutError:
             raise AuthenticationError("Authentication timeout")
-        except json.JSONDecodeError:
+        except EnvelopeDecodeError:
             raise AuthenticationError("Invalid authentication message format")
         except Exception as e:
             raise AuthenticationError(f"Authentication error: {e}")
@@ -332,11 +468,11 @@ class WebSocketServer:
                     timeout=self.config.server.ping_timeout
                 )
                 
-                # Convert bytes-like data to string if necessary
-                if isinstance(raw_message, (bytes, bytearray, memoryview)):
-                    message_data = bytes(raw_message).decode('utf-8')
+                # Text frames arrive as str, binary frames as bytes; the codec decodes both
+                if isinstance(raw_message, (bytearray, memoryview)):
+                    message_data = bytes(raw_message)
                 else:
-                    message_data = str(raw_message)
+                    message_data = raw_message
                 
                 self.metrics['messages_received'] += 1
                 self.user_sessions[session_id]['last_activity'] = datetime.now()
@@ -367,55 +503,312 @@ class WebSocketServer:
     async def _process_message(
         self, 
         websocket: ServerConnection, 
-        message_data: str, 
+        message_data: Union[str, bytes], 
         session_id: str, 
         user_id: str
     ) -> None:
         """
         Process incoming WebSocket message.
         
-        Parses the message, validates it, and routes it to the appropriate handler.
+        Screens the raw frame, validates the envelope header, and routes it to
+        the appropriate handler; the payload is validated only by handlers
+        that read it. With pipelining enabled the handler is scheduled on the connection's
+        pipeline instead of awaited, so the reader can take the next message.
         """
         try:
-            # Parse message as WebSocket envelope
-            envelope = parse_websocket_envelope(message_data)
+            # Cheap frame checks (size, per-type rate, replays) before validation
+            data, error_code = await self.middleware.screen_frame(
+                websocket, message_data, session_id, user_id, codec=self._codec_for(websocket)
+            )
+            if data is None:
+                await self._send_error(websocket, error_code, "Message rejected")
+                return
+            
+            # Header only; rejected and routed-only envelopes never build the payload model
+            envelope = parse_envelope_header(data)
+            
+            # Envelope middleware (validation, logging)
+            if await self.middleware.process_envelope(websocket, envelope, session_id, user_id) is None:
+                await self._send_error(websocket, "envelope_rejected", "Envelope rejected")
+                return
+            self.middleware.record_accepted(websocket, envelope.id)
+            
+            pipeline = self.pipelines.get(websocket)
+            if pipeline is None:
+                if envelope.get_payload_type() == "chat_message" and self._wants_stream(envelope.validate()):
+                    # Streams run in the background so the reader can take a cancel for them
+                    self._start_stream_task(websocket, self._route_envelope(websocket, envelope, session_id, user_id))
+                else:
+                    await self._route_envelope(websocket, envelope, session_id, user_id)
+                return
             
+            if pipeline.is_fast_path(envelope.event_name):
+                # Control events never wait behind agent work
+                self.pipeline_metrics['fast_path'] += 1
+                await self._route_envelope(websocket, envelope, session_id, user_id)
+                return
+            
+            outcome = pipeline.submit(
+                envelope.id,
+                pipeline.ordering_for(envelope.type),
+                lambda: self._route_envelope(websocket, envelope, session_id, user_id)
+            )
+            if outcome == REJECTED_DUPLICATE:
+                await self._send_error(websocket, "duplicate_request", f"Request {envelope.id} is already in progress")
+            elif outcome != ACCEPTED and outcome != REJECTED_CLOSED:
+                await self._send_error(websocket, "too_many_requests", "Too many outstanding messages on this connection")
+                    
+        except ValidationError as e:
+            self.logger.error(f"Message validation error: {e}")
+            await self._send_error(websocket, "validation_error", "Invalid message format")
+            
+        except EnvelopeDecodeError as e:
+            self.logger.error(f"Envelope decode error: {e}")
+            if e.codec == "json":
+                await self._send_error(websocket, "json_error", "Invalid JSON format")
+            else:
+                await self._send_error(websocket, "decode_error", f"Invalid {e.codec} frame")
+            
+        except Exception as e:
+            self.logger.error(f"Error processing message: {e}")
+            await self._send_error(websocket, "processing_error", "Message processing failed")
+    
+    async def _route_envelope(
+        self,
+        websocket: ServerConnection,
+        envelope: LazyEnvelope,
+        session_id: str,
+        user_id: str
+    ) -> None:
+        """
+        Route an envelope to its handler.
+        
+        Routing uses the header and the raw payload discriminator; handlers
+        that read the payload call envelope.validate().
+        """
+        try:
             with LogStep(f"Processing {envelope.type} envelope", "WebSocketServer"):
                 
-                if envelope.is_chat_message():
-                    await self._handle_chat_message(websocket, envelope, session_id, user_id)
+                if envelope.get_payload_type() == "chat_message":
+                    await self._run_chat_request(websocket, envelope.validate(), session_id, user_id)
                     
                 elif envelope.type == "system_event":
                     await self._handle_system_event(websocket, envelope, session_id, user_id)
+                
+                elif envelope.type == "health_check":
+                    await self._handle_health_check(websocket, envelope, session_id, user_id)
                     
                 else:
                     self.logger.warning(f"Unknown envelope type: {envelope.type}")
                     await self._send_error(websocket, "unknown_event", f"Unknown envelope type: {envelope.type}")
-                    
+        
         except ValidationError as e:
-            self.logger.error(f"Message validation error: {e}")
+            self.logger.error(f"Payload validation error: {e}")
             await self._send_error(websocket, "validation_error", "Invalid message format")
-            
-        except json.JSONDecodeError as e:
-            self.logger.error(f"JSON decode error: {e}")
-            await self._send_error(websocket, "json_error", "Invalid JSON format")
-            
+                    
         except Exception as e:
-            self.logger.error(f"Error processing message: {e}")
+            self.logger.error(f"Error processing {envelope.type} envelope: {e}")
             await self._send_error(websocket, "processing_error", "Message processing failed")
+        
+        finally:
+            self.metrics['payloads_validated' if envelope.is_validated else 'payloads_skipped'] += 1
+    
+    async def _run_chat_request(
+        self,
+        websocket: ServerConnection,
+        chat_envelope: WebSocketEnvelope,
+        session_id: str,
+        user_id: str
+    ) -> None:
+        """
+        Run a chat request as a tracked task raced against the connection closing.
+        
+        If the client disconnects first the request is cancelled, which stops
+        the agent run (or skips it if it has not started) instead of spending
+        model tokens on a response nobody will read. Only when the client
+        opted into resuming (the "resume" capability) and its session is
+        tracked does the request keep running instead, with its output
+        buffered for replay.
+        """
+        request = InFlightRequest(chat_envelope.id, session_id, websocket)
+        requests = self.inflight_requests.setdefault(websocket, {})
+        requests[request.request_id] = request
+        
+        request.task = asyncio.create_task(
+            self._handle_chat_message(websocket, chat_envelope, session_id, user_id, request)
+        )
+        request.task.add_done_callback(lambda _: self._forget_request(request))
+        closed = asyncio.ensure_future(websocket.wait_closed())
+        
+        try:
+            await asyncio.wait({request.task, closed}, return_when=asyncio.FIRST_COMPLETED)
+            
+            if not request.task.done() and not self._release_request(websocket, request):
+                await asyncio.gather(request.task, return_exceptions=True)
+        finally:
+            closed.cancel()
+            requests.pop(request.request_id, None)
+            if not requests and self.inflight_requests.get(websocket) is requests:
+                del self.inflight_requests[websocket]
+    
+    def _release_request(self, websocket: ServerConnection, request: InFlightRequest) -> bool:
+        """
+        Handle a request whose connection closed.
+        
+        Returns:
+            True if the request keeps running (detached for a resume, or moved
+            to a newer connection of its session); False if it was cancelled
+        """
+        if request.detached or request.websocket is not websocket:
+            return True
+        
+        # Clients that did not opt into resume (or found the replay store full) never come back for it
+        if self.replay is None or not self.replay.is_tracked(request.session_id):
+            self._cancel_request(request, reason="disconnect")
+            return False
+        
+        self.inflight_requests.get(websocket, {}).pop(request.request_id, None)
+        
+        session = self.user_sessions.get(request.session_id)
+        if session is not None and session['websocket'] is not websocket:
+            # The client already reconnected on another socket
+            request.websocket = session['websocket']
+            self.inflight_requests.setdefault(request.websocket, {})[request.request_id] = request
+            return True
+        
+        request.detached = True
+        request.websocket = None
+        self.detached_requests.setdefault(request.session_id, {})[request.request_id] = request
+        self.metrics['requests_detached'] += 1
+        return True
+    
+    def _track_session(self, session_id: str, user_id: str, requested: bool) -> bool:
+        """Give an opted-in session a replay buffer; False if it is not resumable"""
+        if self.replay is None or not requested:
+            return False
+        if self.replay.attach(session_id, user_id):
+            return True
+        self.logger.warning(
+            f"Replay store full of connected sessions ({self.config.replay.max_sessions}); "
+            f"session {session_id} is not resumable"
+        )
+        return False
+    
+    def _reattach_requests(self, websocket: ServerConnection, session_id: str) -> None:
+        """Hand a resumed session's detached requests to its new connection"""
+        requests = self.detached_requests.pop(session_id, {})
+        for request in requests.values():
+            request.detached = False
+            request.websocket = websocket
+            self.inflight_requests.setdefault(websocket, {})[request.request_id] = request
+    
+    def _forget_request(self, request: InFlightRequest) -> None:
+        """Drop a finished request from the detached and per-connection tables"""
+        detached = self.detached_requests.get(request.session_id)
+        if detached is not None:
+            detached.pop(request.request_id, None)
+            if not detached:
+                del self.detached_requests[request.session_id]
+        
+        if request.websocket is not None:
+            requests = self.inflight_requests.get(request.websocket)
+            if requests is not None and requests.get(request.request_id) is request:
+                del requests[request.request_id]
+                if not requests:
+                    del self.inflight_requests[request.websocket]
+    
+    def _resume_session(self, websocket: ServerConnection, path: str, user_id: str) -> Optional[Dict[str, Any]]:
+        """
+        Try to resume the session named in the handshake.
+        
+        Clients send resume_session (and optionally last_seen, the id of the
+        last envelope they received) as query parameters or as
+        X-QAI-Resume-Session / X-QAI-Last-Seen headers.
+        
+        Returns:
+            None if no resume was requested, otherwise the outcome including
+            the JSON payloads to replay
+        """
+        if self.replay is None:
+            return None
+        
+        session_id = next(iter(self._handshake_values(websocket, path, "resume_session")), None)
+        if not session_id:
+            return None
+        last_seen = next(iter(self._handshake_values(websocket, path, "last_seen")), None)
+        
+        result = self.replay.resume(session_id, user_id, last_seen)
+        
+        if result.reason == "session_expired":
+            for request in self.detached_requests.pop(session_id, {}).values():
+                self._cancel_request(request, reason="disconnect")
+        
+        if result.resumed:
+            self.logger.info(f"Session {session_id} resumed by {user_id}, replaying {len(result.payloads)} envelopes")
+        else:
+            self.logger.info(f"Session {session_id} not resumed for {user_id}: {result.reason}")
+        
+        return {
+            'session_id': session_id,
+            'resumed': result.resumed,
+            'replayed': len(result.payloads),
+            'complete': result.complete,
+            'reason': result.reason,
+            'payloads': result.payloads
+        }
+    
+    async def _replay_sweeper(self) -> None:
+        """Drop expired session buffers and cancel the requests nobody came back for"""
+        while self.is_running:
+            try:
+                await asyncio.sleep(self.config.replay.sweep_interval)
+                
+                for session_id in self.replay.sweep():
+                    for request in self.detached_requests.pop(session_id, {}).values():
+                        self._cancel_request(request, reason="disconnect")
+                    self.logger.debug(f"Session {session_id} expired without resume")
+                
+                # Detached sessions evicted to make room for new ones can no longer be resumed either
+                for session_id in [s for s in self.detached_requests if not self.replay.is_tracked(s)]:
+                    for request in self.detached_requests.pop(session_id).values():
+                        self._cancel_request(request, reason="disconnect")
+                
+            except Exception as e:
+                self.logger.error(f"Error sweeping replay buffers: {e}")
+    
+    def _cancel_request(self, request: InFlightRequest, reason: str) -> None:
+        """
+        Cancel an in-flight chat request.
+        
+        Streams cancelled by the client stop gracefully (stream_end with
+        finish_reason "cancelled"); everything else cancels the task.
+        """
+        if request.cancel_event.is_set():
+            return
+        
+        request.cancel_event.set()
+        self.metrics['cancelled_request_seconds'] += time.perf_counter() - request.started_at
+        self.metrics[f'requests_cancelled_{reason}'] += 1
+        
+        if request.task is not None and (reason == "disconnect" or not request.streaming):
+            request.task.cancel()
+        
+        self.logger.info(f"Chat request {request.request_id} cancelled ({reason}) for session {request.session_id}")
     
     async def _handle_chat_message(
         self, 
         websocket: ServerConnection, 
         chat_envelope: WebSocketEnvelope, 
         session_id: str, 
-        user_id: str
+        user_id: str,
+        request: Optional[InFlightRequest] = None
     ) -> None:
         """
         Handle chat message from client.
         
         Processes the message through QAAgent and sends response back.
         """
+        cancel_event = request.cancel_event if request else None
         try:
             with LogExecutionTime(f"Chat message processing", "WebSocketServer"):
                 
@@ -429,13 +822,34 @@ class WebSocketServer:
                 if not isinstance(chat_payload, ChatMessagePayload):
                     raise ValueError("Expected ChatMessagePayload")
                 
-                # Process message through QA Agent
-                response = await self.manager.process_chat_message(
-                    message=chat_payload.content,
-                    session_id=session_id,
-                    user_id=user_id,
-                    metadata=chat_payload.metadata
-                )
+                # Wait for a slot; requests of disconnected clients are dropped here
+                from websockets import State
+                async with self.scheduler.admit(
+                    user_id,
+                    role=self.security_manager.get_user_role(user_id),
+                    is_alive=lambda: (
+                        websocket.state == State.OPEN if request is None
+                        else request.detached or (request.websocket is not None and request.websocket.state == State.OPEN)
+                    )
+                ):
+                    # Stream the response when requested and supported
+                    metadata = chat_payload.metadata or {}
+                    if metadata.get("stream", self.config.enable_streaming) and self.manager.supports_streaming:
+                        if request is not None:
+                            request.streaming = True
+                        await self._stream_chat_response(
+                            websocket, chat_envelope, chat_payload, session_id, user_id, cancel_event
+                        )
+                        return
+                    
+                    # Process message through QA Agent
+                    response = await self.manager.process_chat_message(
+                        message=chat_payload.content,
+                        session_id=session_id,
+                        user_id=user_id,
+                        metadata=chat_payload.metadata,
+                        cancel_event=cancel_event
+                    )
                 
                 # Create and send response envelope
                 response_envelope = WebSocketEnvelopeFactory.create_agent_response(
@@ -449,6 +863,36 @@ class WebSocketServer:
                 
                 self.logger.info(f"Processed chat message for session {session_id}")
                 
+        except SchedulerRejectedError as e:
+            if e.reason == "client_gone":
+                self.logger.info(f"Dropped queued chat message for disconnected session {session_id}")
+                return
+            
+            self.logger.warning(f"Chat request not admitted for session {session_id}: {e.reason}")
+            busy_envelope = WebSocketEnvelopeFactory.create_error_event(
+                error_code="server_busy",
+                error_message=str(e),
+                session_id=session_id,
+                user_id=user_id,
+                correlation_id=chat_envelope.id,
+                details=f"reason: {e.reason}"
+            )
+            await self._send_event(websocket, busy_envelope)
+            
+        except AgentSaturatedError as e:
+            self.logger.warning(f"Agent saturated for session {session_id}: {e.reason}")
+            
+            # Typed rejection so clients can back off and retry
+            saturated_envelope = WebSocketEnvelopeFactory.create_error_event(
+                error_code="agent_saturated",
+                error_message=str(e),
+                session_id=session_id,
+                user_id=user_id,
+                correlation_id=chat_envelope.id,
+                details=f"reason: {e.reason}"
+            )
+            await self._send_event(websocket, saturated_envelope)
+            
         except Exception as e:
             self.logger.error(f"Error handling chat message: {e}")
             
@@ -463,50 +907,218 @@ class WebSocketServer:
             )
             await self._send_event(websocket, error_envelope)
     
+    def _wants_stream(self, chat_envelope: WebSocketEnvelope) -> bool:
+        """True if the chat message asks for a streamed response and the agent can stream"""
+        metadata = getattr(chat_envelope.payload, "metadata", None) or {}
+        return bool(metadata.get("stream", self.config.enable_streaming)) and self.manager.supports_streaming
+    
+    def _start_stream_task(self, websocket: ServerConnection, handler: Any) -> None:
+        """Run a streamed response as a task owned by the connection"""
+        task = asyncio.create_task(handler)
+        tasks = self.stream_tasks.setdefault(websocket, set())
+        tasks.add(task)
+        task.add_done_callback(tasks.discard)
+    
+    async def _stream_chat_response(
+        self,
+        websocket: ServerConnection,
+        chat_envelope: WebSocketEnvelope,
+        chat_payload: Any,
+        session_id: str,
+        user_id: str,
+        cancel_event: Optional[threading.Event] = None
+    ) -> None:
+        """
+        Stream agent response as stream_start / stream_chunk / stream_end envelopes.
+        
+        The chat envelope id is used as stream_id and correlation_id, and
+        chunks carry consecutive sequence numbers so clients can reassemble
+        and detect gaps. A client can stop the stream with a "cancel_stream"
+        (or "cancel") system event.
+        
+        Raises:
+            AgentSaturatedError: If the agent pool rejected the request
+        """
+        stream_id = chat_envelope.id
+        cancel_event = cancel_event or threading.Event()
+        
+        started_at = time.perf_counter()
+        sequence = 0
+        finish_reason = "completed"
+        error_message = None
+        
+        await self._send_event(websocket, WebSocketEnvelopeFactory.create_stream_start(
+            stream_id=stream_id,
+            session_id=session_id,
+            user_id=user_id,
+            correlation_id=stream_id
+        ))
+        
+        stream = self.manager.stream_chat_message(
+            message=chat_payload.content,
+            session_id=session_id,
+            user_id=user_id,
+            metadata=chat_payload.metadata,
+            cancel_event=cancel_event
+        )
+        
+        try:
+            async for delta in stream:
+                if cancel_event.is_set():
+                    break
+                await self._send_event(websocket, WebSocketEnvelopeFactory.create_stream_chunk(
+                    stream_id=stream_id,
+                    sequence=sequence,
+                    delta=delta,
+                    session_id=session_id,
+                    user_id=user_id,
+                    correlation_id=stream_id
+                ))
+                sequence += 1
+            
+            if cancel_event.is_set():
+                finish_reason = "cancelled"
+                
+        except AgentSaturatedError as e:
+            finish_reason = "error"
+            error_message = str(e)
+            raise
+            
+        except Exception as e:
+            self.logger.error(f"Error streaming chat response for session {session_id}: {e}")
+            finish_reason = "error"
+            error_message = "Failed to process chat message"
+            
+        finally:
+            await stream.aclose()
+            
+            await self._send_event(websocket, WebSocketEnvelopeFactory.create_stream_end(
+                stream_id=stream_id,
+                total_chunks=sequence,
+                finish_reason=finish_reason,
+                execution_time=time.perf_counter() - started_at,
+                error_message=error_message,
+                session_id=session_id,
+                user_id=user_id,
+                correlation_id=stream_id
+            ))
+            
+            self.logger.info(f"Stream {stream_id} {finish_reason} after {sequence} chunks for session {session_id}")
+    
     async def _handle_system_event(
         self, 
         websocket: ServerConnection, 
-        envelope: WebSocketEnvelope, 
+        envelope: LazyEnvelope, 
         session_id: str, 
         user_id: str
     ) -> None:
-        """Handle system events (ping, status, etc.)"""
+        """
+        Handle system events (ping, status, etc.)
+        
+        ping and status only need the event name, so they are answered
+        without validating the payload; cancel validates it to read data.
+        """
+        event_name = envelope.event_name
+        
+        if event_name == "ping":
+            # Respond with pong
+            pong_envelope = WebSocketEnvelopeFactory.create_health_check(
+                status="pong",
+                session_id=session_id,
+                user_id=user_id,
+                correlation_id=envelope.id
+            )
+            await self._send_event(websocket, pong_envelope)
+        
+        elif event_name == "status":
+            # Send server status
+            status_envelope = WebSocketEnvelopeFactory.create_system_event(
+                event_name="server_status",
+                description="Current server status",
+                session_id=session_id,
+                user_id=user_id,
+                correlation_id=envelope.id,
+                data={
+                    'connections': len(self.connections) if hasattr(self, 'connections') else 0,
+                    'uptime': 0,  # Simplified for now
+                    'messages_processed': self.metrics['messages_received']
+                }
+            )
+            await self._send_event(websocket, status_envelope)
         
-        if envelope.is_system_event():
+        elif event_name in ("cancel", "cancel_stream"):
+            # Stop an in-flight request (or stream) started on this connection
             from src.websocket.events import SystemEventPayload
             system_payload = envelope.payload
-            if isinstance(system_payload, SystemEventPayload):
-                
-                if system_payload.event_name == "ping":
-                    # Respond with pong
-                    pong_envelope = WebSocketEnvelopeFactory.create_health_check(
-                        status="pong",
-                        session_id=session_id,
-                        user_id=user_id,
-                        correlation_id=envelope.id
-                    )
-                    await self._send_event(websocket, pong_envelope)
-                
-                elif system_payload.event_name == "status":
-                    # Send server status
-                    status_envelope = WebSocketEnvelopeFactory.create_system_event(
-                        event_name="server_status",
-                        description="Current server status",
+            if not isinstance(system_payload, SystemEventPayload):
+                return
+            
+            data = system_payload.data or {}
+            request_id = data.get("request_id") or data.get("stream_id") or envelope.correlation_id
+            request = self.inflight_requests.get(websocket, {}).get(request_id) if request_id else None
+            
+            if request is None:
+                error_code = "stream_not_found" if event_name == "cancel_stream" else "request_not_found"
+                await self._send_error(websocket, error_code, f"No in-flight request: {request_id}")
+            else:
+                self._cancel_request(request, reason="client")
+                if not request.streaming:
+                    # Streams acknowledge with stream_end; plain requests get an explicit ack
+                    await self._send_event(websocket, WebSocketEnvelopeFactory.create_system_event(
+                        event_name="request_cancelled",
+                        description="Request cancelled by client",
                         session_id=session_id,
                         user_id=user_id,
-                        correlation_id=envelope.id,
-                        data={
-                            'connections': len(self.connections) if hasattr(self, 'connections') else 0,
-                            'uptime': 0,  # Simplified for now
-                            'messages_processed': self.metrics['messages_received']
-                        }
-                    )
-                    await self._send_event(websocket, status_envelope)
+                        correlation_id=request_id
+                    ))
+    
+    async def _handle_health_check(
+        self,
+        websocket: ServerConnection,
+        envelope: LazyEnvelope,
+        session_id: str,
+        user_id: str
+    ) -> None:
+        """Answer client health check pings; the payload is never validated"""
+        if envelope.raw_payload.get("status", "ping") != "ping":
+            return
+        
+        await self._send_event(websocket, WebSocketEnvelopeFactory.create_health_check(
+            status="pong",
+            session_id=session_id,
+            user_id=user_id,
+            correlation_id=envelope.id
+        ))
     
     async def _send_event(self, websocket: ServerConnection, event: WebSocketEnvelope) -> None:
-        """Send WebSocket envelope to client"""
+        """
+        Send WebSocket envelope to client.
+        
+        Data envelopes of resumable sessions are buffered for replay. Events of
+        a session whose connection has closed go to the session's current
+        connection, or only to the buffer while the client is away.
+        """
         try:
-            message = event.model_dump_json()
+            serialized = None
+            if self.replay is not None and event.session_id and self.replay.is_tracked(event.session_id):
+                if classify_envelope(event)[0] == KIND_DATA:
+                    serialized = event.to_json()
+                    self.replay.record(event.session_id, event.id, serialized)
+                
+                if websocket not in self.connections:
+                    session = self.user_sessions.get(event.session_id)
+                    if session is None:
+                        return  # Replayed if the client resumes
+                    websocket = session['websocket']
+            
+            # Registered connections are written by their own outbound writer
+            accepted = self.manager.enqueue_event(websocket, event, serialized)
+            if accepted is not None:
+                if accepted:
+                    self.metrics['messages_sent'] += 1
+                return
+            
+            message = self._codec_for(websocket).encode(event)
             await websocket.send(message)
             self.metrics['messages_sent'] += 1
             
@@ -515,6 +1127,64 @@ class WebSocketServer:
         except Exception as e:
             self.logger.error(f"Error sending event: {e}")
     
+    @staticmethod
+    def _handshake_values(websocket: ServerConnection, path: str, name: str) -> List[str]:
+        """
+        Values a client sent for a handshake parameter.
+        
+        Read from the ``name`` query parameter (browsers cannot set headers on
+        a WebSocket) and from the matching X-QAI-* header, e.g. last_seen and
+        X-QAI-Last-Seen.
+        """
+        request = getattr(websocket, "request", None)
+        headers = getattr(request, "headers", None)
+        request_path = getattr(request, "path", None) or path or "/"
+        
+        values = parse_qs(urlsplit(request_path).query).get(name, [])
+        if headers is not None and hasattr(headers, "get_all"):
+            values.extend(headers.get_all("X-QAI-" + name.replace("_", "-")))
+        return [value.strip() for value in values if value.strip()]
+    
+    @classmethod
+    def _client_capabilities(cls, websocket: ServerConnection, path: str = "/") -> Set[str]:
+        """Optional features a client advertised in the handshake (comma-separated capabilities)"""
+        return {
+            capability.strip().lower()
+            for value in cls._handshake_values(websocket, path, "capabilities")
+            for capability in value.split(",")
+            if capability.strip()
+        }
+    
+    @property
+    def compression_enabled(self) -> bool:
+        """permessage-deflate is on (server.compression_enabled or the legacy enable_compression)"""
+        return self.config.server.compression_enabled or self.config.enable_compression
+    
+    def get_compression_stats(self) -> Dict[str, Any]:
+        """Compression totals for the server plus ratio and CPU time per open connection"""
+        connections = {}
+        for session_id, session in self.user_sessions.items():
+            compression = connection_compression(session['websocket'])
+            if compression is not None:
+                connections[session_id] = summarize_compression(compression.stats)
+        
+        open_stats = [
+            compression.stats for compression in map(connection_compression, self.connections)
+            if compression is not None
+        ]
+        return {
+            'enabled': self.compression_enabled,
+            'min_size': self.config.server.compression_min_size,
+            'window_bits': self.config.server.compression_window_bits,
+            'memory_level': self.config.server.compression_memory_level,
+            **summarize_compression(merge_compression_stats(self.compression_totals, open_stats)),
+            'connections': connections
+        }
+    
+    def _codec_for(self, websocket: ServerConnection) -> EnvelopeCodec:
+        """Codec negotiated for a connection (JSON if unknown)"""
+        return self.connection_codecs.get(websocket, self.codecs.default)
+    
     async def _send_error(self, websocket: ServerConnection, error_type: str, message: str) -> None:
         """Send error event to client"""
         error_envelope = WebSocketEnvelopeFactory.create_error_event(
@@ -538,23 +1208,61 @@ class WebSocketServer:
             # Remove from active connections
             self.connections.discard(websocket)
             
+            # Nobody is left to read these responses, unless the session is resumed
+            for request in list(self.inflight_requests.get(websocket, {}).values()):
+                self._release_request(websocket, request)
+            # Stream tasks end on their own once their requests are cancelled or detached above
+            self.stream_tasks.pop(websocket, None)
+            
+            pipeline = self.pipelines.pop(websocket, None)
+            if pipeline is not None:
+                await pipeline.close()
+            self.connection_codecs.pop(websocket, None)
+            self.middleware.release_connection(websocket)
+            
+            compression = connection_compression(websocket)
+            if compression is not None:
+                self.compression_totals = merge_compression_stats(self.compression_totals, [compression.stats])
+                summary = summarize_compression(compression.stats)
+                self.logger.debug(
+                    f"Connection compression: ratio {summary['ratio']:.2f}, "
+                    f"{summary['bytes_in']} -> {summary['bytes_out']} bytes, cpu {summary['cpu_ms']:.1f} ms"
+                )
+            
+            # Resolve the session before the manager forgets the connection
+            connection_info = self.manager.get_connection_by_websocket(websocket)
+            
             # Remove from manager
             await self.manager.remove_connection(websocket)
             
-            # Clean up session data
-            session_to_remove = None
-            for session_id, session_data in self.user_sessions.items():
-                if session_data['websocket'] == websocket:
-                    session_to_remove = session_id
-                    break
+            # The role is re-read from the token on the next authentication
+            if connection_info is not None and connection_info.user_id not in self.manager.user_connections:
+                self.security_manager.forget_user_role(connection_info.user_id)
             
-            if session_to_remove:
-                del self.user_sessions[session_to_remove]
-                self.logger.debug(f"Cleaned up session {session_to_remove}")
+            # Clean up session data
+            if connection_info is not None:
+                session_data = self.user_sessions.get(connection_info.session_id)
+                if session_data is not None and session_data['websocket'] is websocket:
+                    del self.user_sessions[connection_info.session_id]
+                    self.logger.debug(f"Cleaned up session {connection_info.session_id}")
+                    
+                    # Keep the replay buffer until the resume TTL runs out
+                    if self.replay is not None:
+                        self.replay.detach(connection_info.session_id)
                 
         except Exception as e:
             self.logger.error(f"Error during connection cleanup: {e}")
     
+    def get_response_cache_stats(self) -> Optional[Dict[str, Any]]:
+        """Response cache stats of the agent, if it has a cache"""
+        cache = getattr(self.qa_agent, 'response_cache', None)
+        return cache.stats if cache is not None else None
+    
+    def get_context_stats(self) -> Optional[Dict[str, Any]]:
+        """Prompt token budget stats of the agent (per-request prompt tokens), if it has one"""
+        context_manager = getattr(self.qa_agent, 'context_manager', None)
+        return context_manager.stats if context_manager is not None else None
+    
     async def _metrics_collector(self) -> None:
         """Collect and log performance metrics periodically"""
         while self.is_running:
@@ -572,6 +1280,39 @@ class WebSocketServer:
                     'uptime_seconds': uptime
                 }
                 
+                scheduler = self.scheduler.stats
+                metrics_data['chat_in_flight'] = scheduler['in_flight']
+                metrics_data['chat_queued'] = scheduler['queued']
+                metrics_data['chat_queue_wait_p95_ms'] = scheduler['queue_wait']['p95_ms']
+                metrics_data['chat_service_time_p95_ms'] = scheduler['service_time']['p95_ms']
+                
+                outbound = self.manager.get_outbound_stats()
+                metrics_data['outbound_queue_depth'] = outbound['queue_depth_total']
+                metrics_data['outbound_queue_depth_max'] = outbound['queue_depth_max']
+                metrics_data['outbound_dropped'] = outbound['dropped']
+                metrics_data['outbound_delivery_p95_ms'] = outbound['delivery_latency']['p95_ms']
+                
+                metrics_data['requests_in_flight'] = sum(len(r) for r in self.inflight_requests.values())
+                metrics_data['requests_cancelled_disconnect'] = self.metrics['requests_cancelled_disconnect']
+                metrics_data['requests_cancelled_client'] = self.metrics['requests_cancelled_client']
+                metrics_data['requests_coalesced'] = self.manager.singleflight.metrics['coalesced']
+                
+                if self.compression_enabled:
+                    compression = self.get_compression_stats()
+                    metrics_data['compression_ratio'] = round(compression['ratio'], 2)
+                    metrics_data['compression_cpu_ms'] = round(compression['cpu_ms'], 1)
+                
+                cache = self.get_response_cache_stats()
+                if cache is not None and cache['enabled']:
+                    metrics_data['response_cache_hit_ratio'] = round(cache['hit_ratio'], 3)
+                    metrics_data['response_cache_saved_seconds'] = round(cache['saved_latency_seconds'], 1)
+                
+                context = self.get_context_stats()
+                if context is not None and context['requests']:
+                    metrics_data['prompt_tokens_avg'] = context['prompt_tokens_avg']
+                    metrics_data['prompt_tokens_p95'] = context['prompt_tokens_p95']
+                    metrics_data['prompt_tokens_saved'] = context['tokens_saved']
+                
                 self.logger.info(f"WebSocket metrics: {metrics_data}")
                 
             except Exception as e:
@@ -585,7 +1326,30 @@ class WebSocketServer:
             'host': self.config.server.host,
             'port': self.config.server.port,
             'active_connections': len(self.connections),
-            'metrics': self.metrics.copy()
+            'metrics': self.metrics.copy(),
+            'scheduler': self.scheduler.stats,
+            'middleware': self.middleware.middleware_metrics,
+            'compression': self.get_compression_stats(),
+            'response_cache': self.get_response_cache_stats(),
+            'context': self.get_context_stats(),
+            'coalescing': self.manager.singleflight.stats,
+            'replay': {
+                **(self.replay.stats if self.replay is not None else {}),
+                'enabled': self.replay is not None,
+                'detached_requests': sum(len(requests) for requests in self.detached_requests.values())
+            },
+            'codecs': {
+                'json_library': self.codecs.default.library,
+                'subprotocols': self.codecs.subprotocols,
+                'connections': {
+                    name: sum(1 for codec in self.connection_codecs.values() if codec.name == name)
+                    for name in {codec.name for codec in self.codecs.codecs.values()}
+                }
+            },
+            'pipeline': {
+                **self.pipeline_metrics,
+                'outstanding': sum(pipeline.outstanding for pipeline in self.pipelines.values())
+            }
         }
 
 
@@ -662,7 +1426,10 @@ if __name__ == "__main__":
             qa_agent = QAAgentAdapter(
                 user_id="websocket_qa_agent@qai.com",
                 enable_reasoning=True,  # Enable reasoning capabilities
-                enable_memory=True      # Enable persistent memory
+                enable_memory=True,     # Enable persistent memory
+                execution_config=ws_config.agent_execution,
+                pool_config=ws_config.agent_pool,
+                cache_config=ws_config.response_cache
             )
             
             # Validate initialization
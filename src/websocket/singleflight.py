@@ -0,0 +1,155 @@
+"""
+Single Flight - Coalesce identical concurrent agent requests
+
+When a broadcast announces a failed test run, many users ask nearly the
+same question at once and each one used to become its own model call. With
+single flight, concurrent requests with the same key share one in-flight
+call and all of them receive its result (or its exception).
+
+Cancellation:
+- A waiter that is cancelled (client cancel or disconnect) only stops
+  waiting; the shared call keeps running for the others
+- A waiter can pass its own cancel event; the shared call is asked to stop
+  once every remaining waiter has set its event
+- When the last waiter leaves, the shared call is cancelled and its cancel
+  event is set so the agent stops generating
+- A finished or abandoned flight is forgotten, so a later request with the
+  same key starts a new call
+"""
+
+import asyncio
+import threading
+from typing import Any, Awaitable, Callable, Dict, Optional, Tuple
+
+
+class FlightCancelEvent:
+    """
+    Cancel signal handed to a shared call (read like a threading.Event).
+
+    Set when the flight is abandoned, or once every waiter's own cancel
+    event is set; a waiter without an event never asks the call to stop.
+    Waiters are updated on the event loop and read from worker threads, so
+    the tuple is replaced rather than mutated.
+    """
+
+    def __init__(self):
+        self._abandoned = threading.Event()
+        self._waiter_events: Tuple[Optional[threading.Event], ...] = ()
+
+    def set(self) -> None:
+        self._abandoned.set()
+
+    def is_set(self) -> bool:
+        if self._abandoned.is_set():
+            return True
+        events = self._waiter_events
+        return bool(events) and all(event is not None and event.is_set() for event in events)
+
+    def add_waiter(self, event: Optional[threading.Event]) -> None:
+        self._waiter_events = self._waiter_events + (event,)
+
+    def remove_waiter(self, event: Optional[threading.Event]) -> None:
+        events = list(self._waiter_events)
+        for index, waiter_event in enumerate(events):
+            if waiter_event is event:
+                del events[index]
+                break
+        self._waiter_events = tuple(events)
+
+
+class _Flight:
+    """One shared in-flight call"""
+
+    def __init__(self, task: asyncio.Future, cancel_event: FlightCancelEvent):
+        self.task = task
+        self.cancel_event = cancel_event
+        self.waiters = 0
+
+
+class SingleFlight:
+    """
+    Coalesces concurrent calls by key.
+
+    Usage:
+        response = await flights.do(key, lambda cancel_event: agent_call(cancel_event))
+    """
+
+    def __init__(self):
+        self._flights: Dict[str, _Flight] = {}
+        self.metrics = {
+            'calls': 0,
+            'coalesced': 0,
+            'waiters_cancelled': 0,
+            'flights_abandoned': 0
+        }
+
+    async def do(
+        self,
+        key: str,
+        call: Callable[[FlightCancelEvent], Awaitable[Any]],
+        cancel_event: Optional[threading.Event] = None
+    ) -> Any:
+        """
+        Await the result of call for key, sharing it with concurrent callers.
+
+        Args:
+            key: Requests with equal keys share one call
+            call: Starts the call; receives the shared cancel event
+            cancel_event: This caller's request to stop (the call stops when
+                every waiter has asked)
+
+        Returns:
+            The shared call's result (its exception is raised to every waiter)
+        """
+        flight = self._flights.get(key)
+        if flight is None:
+            shared_cancel = FlightCancelEvent()
+            flight = _Flight(asyncio.ensure_future(call(shared_cancel)), shared_cancel)
+            self._flights[key] = flight
+            flight.task.add_done_callback(lambda _, key=key, flight=flight: self._forget(key, flight))
+            self.metrics['calls'] += 1
+        else:
+            self.metrics['coalesced'] += 1
+
+        flight.waiters += 1
+        flight.cancel_event.add_waiter(cancel_event)
+        try:
+            # Shielded so one waiter's cancellation does not cancel the call
+            return await asyncio.shield(flight.task)
+        except asyncio.CancelledError:
+            if not flight.task.done():
+                self.metrics['waiters_cancelled'] += 1
+            raise
+        finally:
+            flight.waiters -= 1
+            flight.cancel_event.remove_waiter(cancel_event)
+            if flight.waiters == 0 and not flight.task.done():
+                self._abandon(key, flight)
+
+    def _abandon(self, key: str, flight: _Flight) -> None:
+        """Nobody is waiting any more: stop the shared call"""
+        flight.cancel_event.set()
+        flight.task.cancel()
+        self._forget(key, flight)
+        self.metrics['flights_abandoned'] += 1
+
+    def _forget(self, key: str, flight: _Flight) -> None:
+        if self._flights.get(key) is flight:
+            del self._flights[key]
+        # Retrieve the exception so an abandoned or unawaited call never logs "never retrieved"
+        if flight.task.done() and not flight.task.cancelled():
+            flight.task.exception()
+
+    def waiters(self, key: str) -> int:
+        flight = self._flights.get(key)
+        return flight.waiters if flight is not None else 0
+
+    @property
+    def stats(self) -> Dict[str, Any]:
+        """Shared calls, coalesced requests and cancellations"""
+        total = self.metrics['calls'] + self.metrics['coalesced']
+        return {
+            **self.metrics,
+            'in_flight': len(self._flights),
+            'coalesced_ratio': self.metrics['coalesced'] / total if total else 0.0
+        }
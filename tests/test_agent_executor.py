@@ -0,0 +1,157 @@
+# Tests for the bounded agent worker pool (AgentExecutor)
+
+import asyncio
+import threading
+
+import pytest
+
+from config.models import AgentExecutionConfig
+from src.websocket.agent_executor import AgentExecutor, AgentSaturatedError
+
+
+def make_executor(**overrides) -> AgentExecutor:
+    settings = {"max_workers": 1, "max_queue_depth": 1, "max_per_user": 2}
+    settings.update(overrides)
+    return AgentExecutor(AgentExecutionConfig(**settings))
+
+
+async def wait_until(predicate, timeout: float = 2.0) -> None:
+    """Poll the event loop until predicate() holds"""
+    deadline = asyncio.get_running_loop().time() + timeout
+    while not predicate():
+        if asyncio.get_running_loop().time() > deadline:
+            raise AssertionError("condition not reached")
+        await asyncio.sleep(0.005)
+
+
+class TestAgentExecutorRun:
+    """Calls run on worker threads and return their results"""
+
+    @pytest.mark.asyncio
+    async def test_runs_off_the_event_loop_thread(self):
+        executor = make_executor()
+        loop_thread = threading.get_ident()
+
+        result = await executor.run(lambda x: (x * 2, threading.get_ident()), 21, user_id="alice")
+
+        assert result[0] == 42
+        assert result[1] != loop_thread
+        assert executor.stats["calls_completed"] == 1
+        assert executor.stats["running"] == 0
+        executor.shutdown()
+
+    @pytest.mark.asyncio
+    async def test_inline_mode_runs_on_the_loop_thread(self):
+        executor = make_executor(mode="inline")
+
+        assert await executor.run(threading.get_ident) == threading.get_ident()
+
+    @pytest.mark.asyncio
+    async def test_exceptions_reach_the_caller(self):
+        executor = make_executor()
+
+        def fail():
+            raise ValueError("boom")
+
+        with pytest.raises(ValueError):
+            await executor.run(fail, user_id="alice")
+
+        assert executor.stats["calls_failed"] == 1
+        assert executor.stats["active_users"] == 0
+        executor.shutdown()
+
+
+class TestAgentExecutorCaps:
+    """Per-user and queue-depth admission limits"""
+
+    @pytest.mark.asyncio
+    async def test_per_user_cap_rejects_extra_calls(self):
+        executor = make_executor(max_workers=2, max_per_user=1)
+        release = threading.Event()
+
+        first = asyncio.ensure_future(executor.run(release.wait, user_id="alice"))
+        await wait_until(lambda: executor.stats["running"] == 1)
+
+        with pytest.raises(AgentSaturatedError) as error:
+            await executor.run(lambda: None, user_id="alice")
+        assert error.value.reason == "user_limit"
+
+        # Other users are not affected
+        assert await executor.run(lambda: "ok", user_id="bob") == "ok"
+
+        release.set()
+        await first
+        assert executor.stats["calls_rejected"] == 1
+        executor.shutdown()
+
+    @pytest.mark.asyncio
+    async def test_queue_full_rejects_when_workers_are_busy(self):
+        executor = make_executor(max_workers=1, max_queue_depth=1)
+        release = threading.Event()
+
+        running = asyncio.ensure_future(executor.run(release.wait, user_id="alice"))
+        await wait_until(lambda: executor.stats["running"] == 1)
+        queued = asyncio.ensure_future(executor.run(lambda: "queued", user_id="bob"))
+        await wait_until(lambda: executor.stats["waiting"] == 1)
+
+        with pytest.raises(AgentSaturatedError) as error:
+            await executor.run(lambda: None, user_id="carol")
+        assert error.value.reason == "queue_full"
+
+        release.set()
+        await running
+        assert await queued == "queued"
+        executor.shutdown()
+
+
+class TestAgentExecutorCancellation:
+    """Cancelled callers never let more calls run than there are workers"""
+
+    @pytest.mark.asyncio
+    async def test_cancelled_running_call_keeps_its_slot_until_the_thread_ends(self):
+        executor = make_executor(max_workers=1, max_queue_depth=1)
+        release = threading.Event()
+
+        running = asyncio.ensure_future(executor.run(release.wait, user_id="alice"))
+        await wait_until(lambda: executor.stats["running"] == 1)
+
+        running.cancel()
+        with pytest.raises(asyncio.CancelledError):
+            await running
+
+        # The thread is still busy, so the worker slot is still taken
+        assert executor.stats["calls_cancelled_running"] == 1
+        assert executor.stats["running"] == 1
+
+        follower = asyncio.ensure_future(executor.run(lambda: "next", user_id="bob"))
+        await asyncio.sleep(0.05)
+        assert not follower.done()
+
+        release.set()
+        assert await follower == "next"
+        assert executor.stats["running"] == 0
+        assert executor.stats["wasted_run_time"] > 0
+        executor.shutdown()
+
+    @pytest.mark.asyncio
+    async def test_cancelled_queued_call_never_runs(self):
+        executor = make_executor(max_workers=1, max_queue_depth=1)
+        release = threading.Event()
+        ran = threading.Event()
+
+        running = asyncio.ensure_future(executor.run(release.wait, user_id="alice"))
+        await wait_until(lambda: executor.stats["running"] == 1)
+        queued = asyncio.ensure_future(executor.run(ran.set, user_id="bob"))
+        await wait_until(lambda: executor.stats["waiting"] == 1)
+
+        queued.cancel()
+        with pytest.raises(asyncio.CancelledError):
+            await queued
+
+        release.set()
+        await running
+        assert not ran.is_set()
+        assert executor.stats["calls_cancelled_queued"] == 1
+        assert executor.stats["waiting"] == 0
+        assert executor.stats["active_users"] == 0
+        executor.shutdown()
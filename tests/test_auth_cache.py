@@ -0,0 +1,129 @@
+# Tests for the bounded JWT verification cache (TokenCache)
+
+from src.websocket.auth_cache import TokenCache, token_key
+
+
+class TestTokenCacheExpiry:
+    """Verified tokens live no longer than the TTL or their own exp"""
+
+    def test_hit_within_ttl(self):
+        cache = TokenCache(ttl=60.0)
+        cache.put("token-a", "alice", {"role": "admin"}, now=1000.0)
+
+        entry = cache.get("token-a", now=1059.0)
+
+        assert entry is not None
+        assert entry.user_id == "alice"
+        assert entry.payload == {"role": "admin"}
+        assert cache.stats["hits"] == 1
+
+    def test_expires_after_ttl(self):
+        cache = TokenCache(ttl=60.0)
+        cache.put("token-a", "alice", {}, now=1000.0)
+
+        assert cache.get("token-a", now=1060.0) is None
+        assert len(cache) == 0
+        assert cache.stats["expirations"] == 1
+
+    def test_token_exp_caps_the_ttl(self):
+        cache = TokenCache(ttl=300.0)
+        cache.put("token-a", "alice", {"exp": 1010}, now=1000.0)
+
+        assert cache.get("token-a", now=1009.0) is not None
+        assert cache.get("token-a", now=1010.0) is None
+
+    def test_already_expired_token_is_not_cached(self):
+        cache = TokenCache(ttl=300.0)
+        cache.put("token-a", "alice", {"exp": 999}, now=1000.0)
+
+        assert len(cache) == 0
+
+    def test_sweep_removes_expired_entries(self):
+        cache = TokenCache(ttl=60.0, negative_ttl=10.0)
+        cache.put("old", "alice", {}, now=1000.0)
+        cache.put("new", "bob", {}, now=1050.0)
+        cache.put_rejection("garbage", "Invalid token", now=1000.0)
+
+        assert cache.sweep(now=1065.0) == 2
+        assert cache.get("new", now=1065.0) is not None
+
+
+class TestTokenCacheBounds:
+    """Least recently used tokens are evicted first"""
+
+    def test_lru_eviction(self):
+        cache = TokenCache(max_entries=2, ttl=60.0)
+        cache.put("token-a", "alice", {}, now=1000.0)
+        cache.put("token-b", "bob", {}, now=1000.0)
+        cache.get("token-a", now=1001.0)
+
+        cache.put("token-c", "carol", {}, now=1002.0)
+
+        assert cache.get("token-b", now=1003.0) is None
+        assert cache.get("token-a", now=1003.0) is not None
+        assert cache.stats["evictions"] == 1
+
+    def test_zero_size_disables_caching(self):
+        cache = TokenCache(max_entries=0)
+        cache.put("token-a", "alice", {})
+
+        assert cache.get("token-a") is None
+
+    def test_remove_user_drops_all_their_tokens(self):
+        cache = TokenCache(ttl=60.0)
+        cache.put("token-a", "alice", {}, now=1000.0)
+        cache.put("token-a2", "alice", {}, now=1000.0)
+        cache.put("token-b", "bob", {}, now=1000.0)
+
+        assert cache.remove_user("alice") == 2
+        assert cache.get("token-a", now=1001.0) is None
+        assert cache.get("token-b", now=1001.0) is not None
+
+    def test_keys_are_token_digests(self):
+        cache = TokenCache()
+        cache.put("secret-token", "alice", {})
+
+        assert "secret-token" not in cache._valid
+        assert token_key("secret-token") in cache._valid
+
+
+class TestTokenCacheNegative:
+    """Invalid tokens are remembered for the negative TTL"""
+
+    def test_rejection_is_replayed(self):
+        cache = TokenCache(negative_ttl=30.0)
+        cache.put_rejection("garbage", "Invalid token: bad signature", now=1000.0)
+
+        rejection = cache.get_rejection("garbage", now=1029.0)
+
+        assert rejection is not None
+        assert rejection.reason == "Invalid token: bad signature"
+        assert cache.stats["negative_hits"] == 1
+
+    def test_rejection_expires(self):
+        cache = TokenCache(negative_ttl=30.0)
+        cache.put_rejection("garbage", "Invalid token", now=1000.0)
+
+        assert cache.get_rejection("garbage", now=1030.0) is None
+        assert cache.stats["negative_size"] == 0
+
+    def test_negative_caching_can_be_disabled(self):
+        cache = TokenCache(negative_ttl=0)
+        cache.put_rejection("garbage", "Invalid token", now=1000.0)
+
+        assert cache.get_rejection("garbage", now=1000.0) is None
+
+    def test_negative_entries_are_bounded(self):
+        cache = TokenCache(negative_ttl=30.0, max_negative_entries=2)
+        for index in range(3):
+            cache.put_rejection(f"garbage-{index}", "Invalid token", now=1000.0)
+
+        assert cache.get_rejection("garbage-0", now=1001.0) is None
+        assert cache.get_rejection("garbage-2", now=1001.0) is not None
+
+    def test_rejections_do_not_count_as_valid_entries(self):
+        cache = TokenCache()
+        cache.put_rejection("garbage", "Invalid token")
+
+        assert cache.get("garbage") is None
+        assert len(cache) == 0
@@ -0,0 +1,75 @@
+# Tests for envelope codec negotiation in the WebSocket handshake (CodecRegistry)
+
+import json
+
+import pytest
+
+from src.websocket.events import CodecRegistry, WebSocketEnvelopeFactory
+
+
+class TestSubprotocolSelection:
+    """Clients pick a codec through Sec-WebSocket-Protocol; JSON is the fallback"""
+
+    def test_no_subprotocol_selects_json(self):
+        registry = CodecRegistry()
+
+        assert registry.select_subprotocol(None, []) is None
+        assert registry.for_subprotocol(None) is registry.default
+
+    def test_unknown_subprotocols_fall_back_to_json(self):
+        registry = CodecRegistry()
+
+        assert registry.select_subprotocol(None, ["chat.v2", "graphql-ws"]) is None
+
+    def test_first_supported_subprotocol_in_server_order(self):
+        registry = CodecRegistry(enable_msgpack=False)
+
+        assert registry.select_subprotocol(None, ["chat.v2", "qai.json.v1"]) == "qai.json.v1"
+        assert registry.select_subprotocol(None, ["qai.msgpack.v1"]) is None
+
+
+class TestHandshake:
+    """Real handshakes through websockets.serve with the server's negotiation"""
+
+    @pytest.mark.asyncio
+    async def test_client_without_subprotocol_connects_and_gets_json(self):
+        server_module = pytest.importorskip("websockets.asyncio.server")
+        client_module = pytest.importorskip("websockets.asyncio.client")
+        registry = CodecRegistry()
+
+        async def handler(websocket):
+            codec = registry.for_subprotocol(websocket.subprotocol)
+            event = WebSocketEnvelopeFactory.create_system_event(event_name="connection_established")
+            await websocket.send(codec.encode(event))
+
+        async with server_module.serve(
+            handler, "127.0.0.1", 0,
+            subprotocols=registry.subprotocols,
+            select_subprotocol=registry.select_subprotocol
+        ) as server:
+            port = server.sockets[0].getsockname()[1]
+            async with client_module.connect(f"ws://127.0.0.1:{port}") as client:
+                frame = await client.recv()
+                subprotocol = client.subprotocol
+
+        assert subprotocol is None
+        assert isinstance(frame, str)
+        assert json.loads(frame)["type"] == "system_event"
+
+    @pytest.mark.asyncio
+    async def test_client_offering_json_subprotocol_gets_it(self):
+        server_module = pytest.importorskip("websockets.asyncio.server")
+        client_module = pytest.importorskip("websockets.asyncio.client")
+        registry = CodecRegistry()
+
+        async def handler(websocket):
+            await websocket.send(websocket.subprotocol or "")
+
+        async with server_module.serve(
+            handler, "127.0.0.1", 0,
+            subprotocols=registry.subprotocols,
+            select_subprotocol=registry.select_subprotocol
+        ) as server:
+            port = server.sockets[0].getsockname()[1]
+            async with client_module.connect(f"ws://127.0.0.1:{port}", subprotocols=["qai.json.v1"]) as client:
+                assert await client.recv() == "qai.json.v1"
@@ -0,0 +1,216 @@
+# Tests for prompt token budgeting of long sessions (ContextManager)
+
+from config.models import ContextBudgetConfig
+from src.agent.context_manager import SUMMARY_OPEN, ContextManager, split_turns
+
+
+class Message:
+    """Minimal stand-in for agno's Message"""
+
+    def __init__(self, role, content, from_history=False, tool_calls=None):
+        self.role = role
+        self.content = content
+        self.from_history = from_history
+        self.tool_calls = tool_calls
+
+    def model_copy(self, update):
+        copy = Message(self.role, self.content, self.from_history, self.tool_calls)
+        copy.__dict__.update(update)
+        return copy
+
+
+class RunMessages:
+    """Minimal stand-in for agno's RunMessages"""
+
+    def __init__(self, messages, system_message=None, user_message=None):
+        self.messages = messages
+        self.system_message = system_message
+        self.user_message = user_message
+
+
+MEMORIES = (
+    "<memories_from_previous_interactions>\n"
+    "- Prefers pytest fixtures over setUp methods\n"
+    "- Works on the flaky login test suite\n"
+    "- Writes reports in Spanish\n"
+    "- Runs Selenium Grid in Docker\n"
+    "</memories_from_previous_interactions>"
+)
+
+
+def history_turn(index: int, padding: int = 25):
+    """One past turn: question, tool call, tool result and answer"""
+    filler = " ".join(f"detail{index}x{word}" for word in range(padding))
+    return [
+        Message("user", f"Question {index} about the checkout load test {filler}", True),
+        Message("assistant", None, True, tool_calls=[{"id": f"call-{index}", "function": {"name": "web_search"}}]),
+        Message("tool", f"Search result {index} {filler}", True),
+        Message("assistant", f"Answer {index}: raise the ramp-up period. {filler}", True),
+    ]
+
+
+def build_run(turns: int, system_content: str = "You are a QA assistant.", question: str = "Why is the login test flaky?"):
+    system_message = Message("system", system_content) if system_content is not None else None
+    user_message = Message("user", question)
+    history = [message for index in range(turns) for message in history_turn(index)]
+    messages = ([system_message] if system_message else []) + history + [user_message]
+    return RunMessages(messages, system_message, user_message)
+
+
+def make_manager(**overrides) -> ContextManager:
+    settings = {"max_prompt_tokens": 1000, "keep_recent_turns": 2, "summary_max_tokens": 200, "max_memories": 0}
+    settings.update(overrides)
+    return ContextManager(ContextBudgetConfig(**settings))
+
+
+def history_questions(run):
+    return [m.content.split(" about")[0] for m in run.messages if m.from_history and m.role == "user"]
+
+
+class TestContextManagerFit:
+    """History is trimmed by whole turns to the token budget"""
+
+    def test_short_prompt_is_untouched(self):
+        manager = make_manager(max_prompt_tokens=100000)
+        run = build_run(turns=3)
+        before = list(run.messages)
+
+        manager.fit(run)
+
+        assert run.messages == before
+        assert manager.stats["trimmed_requests"] == 0
+
+    def test_long_history_fits_the_budget(self):
+        manager = make_manager()
+        run = build_run(turns=12)
+
+        tokens = manager.fit(run)
+
+        assert tokens <= manager.config.max_prompt_tokens
+        assert manager.stats["turns_dropped"] > 0
+        assert manager.stats["last_request"]["prompt_tokens_before_trim"] > tokens
+
+    def test_oldest_turns_go_first_and_recent_turns_stay(self):
+        manager = make_manager()
+        run = build_run(turns=12)
+
+        manager.fit(run)
+
+        questions = history_questions(run)
+        assert questions[-2:] == ["Question 10", "Question 11"]
+        assert "Question 0" not in questions
+        assert run.messages[-1] is run.user_message
+
+    def test_recent_turns_are_kept_even_over_budget(self):
+        manager = make_manager(keep_recent_turns=12)
+        run = build_run(turns=12)
+
+        manager.fit(run)
+
+        assert len(history_questions(run)) == 12
+
+    def test_tool_results_never_lose_their_tool_call(self):
+        manager = make_manager()
+        run = build_run(turns=12)
+
+        manager.fit(run)
+
+        history = [m for m in run.messages if m.from_history]
+        for turn in split_turns(history):
+            assert [m.role for m in turn] == ["user", "assistant", "tool", "assistant"]
+
+    def test_dropped_turns_are_summarized_in_the_system_message(self):
+        manager = make_manager()
+        run = build_run(turns=12)
+
+        manager.fit(run)
+
+        assert SUMMARY_OPEN in run.system_message.content
+        assert "Question 0" in run.system_message.content or "earlier turns omitted" in run.system_message.content
+
+    def test_summary_without_a_system_message_becomes_a_history_message(self):
+        manager = make_manager()
+        run = build_run(turns=12, system_content=None)
+
+        manager.fit(run)
+
+        assert run.messages[0].content.startswith(SUMMARY_OPEN)
+        assert run.messages[0].tool_calls is None
+
+    def test_no_summary_when_disabled(self):
+        manager = make_manager(summarize=False)
+        run = build_run(turns=12)
+
+        manager.fit(run)
+
+        assert SUMMARY_OPEN not in run.system_message.content
+
+    def test_summaries_are_cached_across_requests(self):
+        manager = make_manager()
+
+        manager.fit(build_run(turns=12))
+        misses = manager.stats["summary_misses"]
+        manager.fit(build_run(turns=12))
+
+        assert manager.stats["summary_misses"] == misses
+        assert manager.stats["summary_hits"] >= misses
+
+
+class TestContextManagerMemories:
+    """Only the memories most relevant to the question are kept"""
+
+    def test_relevant_memories_are_kept(self):
+        manager = make_manager(max_memories=2, max_prompt_tokens=100000)
+        run = build_run(turns=0, system_content=f"You are a QA assistant.\n{MEMORIES}",
+                        question="How do I fix the flaky login test with pytest fixtures?")
+
+        manager.fit(run)
+
+        content = run.system_message.content
+        assert "flaky login test" in content
+        assert "pytest fixtures" in content
+        assert "Spanish" not in content
+        assert manager.stats["memories_dropped"] == 2
+
+    def test_all_memories_kept_when_unlimited(self):
+        manager = make_manager(max_memories=0, max_prompt_tokens=100000)
+        run = build_run(turns=0, system_content=f"You are a QA assistant.\n{MEMORIES}")
+
+        manager.fit(run)
+
+        assert "Spanish" in run.system_message.content
+
+
+class TestContextManagerApply:
+    """Hooking agno's message builder"""
+
+    def test_hooks_get_run_messages(self):
+        manager = make_manager()
+
+        class Agent:
+            model = None
+
+            def get_run_messages(self, **kwargs):
+                return build_run(turns=12)
+
+        agent = Agent()
+        assert manager.apply(agent)
+        assert manager.apply(agent)  # Hooking twice is a no-op
+
+        agent.get_run_messages(message="hi")
+
+        assert manager.stats["requests"] == 1
+        assert manager.stats["turns_dropped"] > 0
+
+    def test_falls_back_to_the_legacy_builder(self):
+        manager = make_manager()
+
+        class LegacyAgent:
+            def get_messages_for_run(self, **kwargs):
+                return build_run(turns=1)
+
+        assert manager.apply(LegacyAgent())
+
+    def test_reports_agents_it_cannot_hook(self):
+        assert not make_manager().apply(object())
+        assert not make_manager(enabled=False).apply(object())
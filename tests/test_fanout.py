@@ -0,0 +1,85 @@
+# Tests for broadcast fan-out reporting (FanoutEngine, OutboundQueue)
+
+import asyncio
+
+import pytest
+
+from config.models import FanoutConfig
+from src.websocket.fanout import FanoutEngine
+from src.websocket.metrics import LatencyHistogram
+from src.websocket.outbound import OutboundQueue
+
+
+class MockWebSocket:
+    """Websocket stub recording what was written"""
+
+    def __init__(self, delay: float = 0.0):
+        self.delay = delay
+        self.sent = []
+
+    async def send(self, payload):
+        await asyncio.sleep(self.delay)
+        self.sent.append(payload)
+
+    async def close(self, code: int = 1000, reason: str = ""):
+        return None
+
+
+class Recipient:
+    """Connection info stand-in, with or without an outbound queue"""
+
+    def __init__(self, websocket, outbound=None):
+        self.websocket = websocket
+        self.outbound = outbound
+
+
+class TestFanoutQueuedRecipients:
+    """Registered connections are queued, not reported as delivered"""
+
+    @pytest.mark.asyncio
+    async def test_queued_recipients_are_not_counted_as_delivered(self):
+        latency = LatencyHistogram()
+        queues = [OutboundQueue(MockWebSocket(), latency=latency) for _ in range(3)]
+        for queue in queues:
+            queue.start()
+
+        result = await FanoutEngine().deliver([Recipient(q.websocket, q) for q in queues], '{"type":"system_event"}')
+
+        assert (result.queued, result.delivered, result.accepted) == (3, 0, 3)
+        summary = result.to_dict()
+        assert "p95_ms" not in summary and "timed_out" not in summary
+
+        for queue in queues:
+            assert await queue.flush(timeout=1.0)
+            await queue.close()
+        assert all(queue.websocket.sent == ['{"type":"system_event"}'] for queue in queues)
+
+    @pytest.mark.asyncio
+    async def test_writer_measures_delivery_latency(self):
+        latency = LatencyHistogram()
+        queue = OutboundQueue(MockWebSocket(delay=0.02), latency=latency)
+        queue.start()
+
+        queue.enqueue("first")
+        queue.enqueue("second")
+        assert await queue.flush(timeout=1.0)
+        await queue.close()
+
+        assert latency.count == 2
+        assert latency.max >= 0.04  # The second frame waited for the first write
+
+
+class TestFanoutDirectRecipients:
+    """Connections without a queue are written to under the send timeout"""
+
+    @pytest.mark.asyncio
+    async def test_direct_sends_report_latency_and_timeouts(self):
+        engine = FanoutEngine(FanoutConfig(send_timeout=0.05))
+        fast, slow = MockWebSocket(), MockWebSocket(delay=0.5)
+
+        result = await engine.deliver([Recipient(fast), Recipient(slow)], "payload")
+
+        assert (result.delivered, result.timed_out, result.queued) == (1, 1, 0)
+        summary = result.to_dict()
+        assert summary["timed_out"] == 1
+        assert "p95_ms" in summary
@@ -0,0 +1,156 @@
+# Tests for hedged model requests (HedgingTransport)
+
+import threading
+import time
+
+import httpx
+import pytest
+
+from config.models import HedgingConfig
+from src.agent.hedging import HedgeBudget, HedgingTransport, LatencyTracker
+
+CHAT_URL = "https://api.example.com/v1/chat/completions"
+
+
+class ScriptedTransport(httpx.BaseTransport):
+    """Inner transport whose n-th request waits ``delay`` and then returns or raises"""
+
+    def __init__(self, script):
+        self.script = list(script)
+        self.responses = []
+        self.calls = 0
+        self._lock = threading.Lock()
+
+    def handle_request(self, request):
+        with self._lock:
+            delay, outcome = self.script[min(self.calls, len(self.script) - 1)]
+            self.calls += 1
+        time.sleep(delay)
+        if isinstance(outcome, Exception):
+            raise outcome
+        response = httpx.Response(outcome, content=b"{}")
+        with self._lock:
+            self.responses.append(response)
+        return response
+
+
+def make_transport(script, **overrides):
+    """Transport that hedges after 20 ms, with a budget that always allows it"""
+    settings = {"min_samples": 1, "min_delay": 0.02, "percentile": 50, "budget_percent": 100.0}
+    settings.update(overrides)
+    inner = ScriptedTransport(script)
+    transport = HedgingTransport(inner, HedgingConfig(**settings), max_workers=4)
+    transport.latency.record(0.01)
+    return inner, transport
+
+
+def wait_for(predicate, timeout: float = 2.0) -> None:
+    deadline = time.monotonic() + timeout
+    while not predicate():
+        if time.monotonic() > deadline:
+            raise AssertionError("condition not reached")
+        time.sleep(0.01)
+
+
+class TestHedgingTransportWinner:
+    """The first successful response wins; the other one is closed"""
+
+    def test_fast_hedge_wins_and_slow_primary_is_closed(self):
+        inner, transport = make_transport([(0.3, 200), (0.0, 201)])
+
+        response = transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert response.status_code == 201
+        assert transport.metrics["hedged"] == 1
+        assert transport.metrics["hedge_wins"] == 1
+
+        wait_for(lambda: transport.metrics["losers_closed"] == 1)
+        primary = next(r for r in inner.responses if r.status_code == 200)
+        assert primary.is_closed
+        assert not response.is_closed
+        assert transport.metrics["latency_saved_seconds"] > 0
+        transport.close()
+
+    def test_failed_hedge_does_not_beat_a_successful_primary(self):
+        inner, transport = make_transport([(0.1, 200), (0.0, ConnectionError("reset"))])
+
+        response = transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert response.status_code == 200
+        assert transport.metrics["hedge_wins"] == 0
+        transport.close()
+
+    def test_primary_error_is_raised_when_both_attempts_fail(self):
+        inner, transport = make_transport([
+            (0.1, ConnectionError("primary down")),
+            (0.0, ConnectionError("hedge down"))
+        ])
+
+        with pytest.raises(ConnectionError) as error:
+            transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert "primary" in str(error.value)
+        transport.close()
+
+
+class TestHedgingTransportEligibility:
+    """Only slow model requests within the budget are hedged"""
+
+    def test_fast_response_is_not_hedged(self):
+        inner, transport = make_transport([(0.0, 200)], min_delay=0.5)
+
+        transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert inner.calls == 1
+        assert transport.metrics["hedged"] == 0
+        transport.close()
+
+    def test_non_model_requests_pass_through(self):
+        inner, transport = make_transport([(0.05, 200)])
+
+        transport.handle_request(httpx.Request("GET", "https://api.example.com/v1/models"))
+
+        assert inner.calls == 1
+        assert transport.metrics["requests"] == 0
+        transport.close()
+
+    def test_no_hedging_until_enough_samples(self):
+        inner, transport = make_transport([(0.1, 200)], min_samples=5)
+
+        transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert inner.calls == 1
+        assert transport.hedge_delay() is None
+        transport.close()
+
+    def test_budget_denies_hedges(self):
+        inner, transport = make_transport([(0.1, 200)], budget_percent=1.0, window=100)
+
+        transport.handle_request(httpx.Request("POST", CHAT_URL, content=b"{}"))
+
+        assert inner.calls == 1
+        assert transport.metrics["budget_denied"] == 1
+        transport.close()
+
+
+class TestHedgeBudgetAndLatency:
+    """Token-bucket budget and latency percentiles"""
+
+    def test_budget_caps_hedges_at_the_percentage(self):
+        budget = HedgeBudget(percent=5.0, window=1000)
+        hedges = 0
+        for _ in range(200):
+            budget.record_request()
+            hedges += budget.try_hedge()
+
+        assert hedges == 10
+
+    def test_percentile(self):
+        tracker = LatencyTracker(size=100)
+        assert tracker.percentile(95) is None
+
+        for value in range(1, 101):
+            tracker.record(value / 100)
+
+        assert tracker.percentile(50) == pytest.approx(0.51)
+        assert tracker.percentile(99) == pytest.approx(1.0)
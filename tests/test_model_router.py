@@ -0,0 +1,83 @@
+# Tests for health-scored provider routing and failover (ModelRouter)
+
+import pytest
+
+from config.models import ModelRoutingConfig
+from src.agent.model_router import OPEN, ModelRoute, ModelRouter
+
+
+class HTTPError(Exception):
+    """Provider error carrying an HTTP status, like the openai SDK errors"""
+
+    def __init__(self, status_code: int):
+        super().__init__(f"HTTP {status_code}")
+        self.status_code = status_code
+
+
+def make_router(**overrides) -> ModelRouter:
+    settings = {"strategy": "latency", "failure_threshold": 3}
+    settings.update(overrides)
+    routes = [ModelRoute("openai", "primary"), ModelRoute("azure", "azure"), ModelRoute("deepseek", "deepseek")]
+    return ModelRouter(routes, ModelRoutingConfig(**settings))
+
+
+class TestModelRouterOrdering:
+    """Measured providers by latency, unmeasured ones in priority order after them"""
+
+    def test_unmeasured_alternatives_do_not_jump_ahead_of_the_primary(self):
+        router = make_router()
+        router.record_success(router.primary, 2.0)
+
+        assert [route.name for route in router.candidates()] == ["openai", "azure", "deepseek"]
+
+    def test_faster_measured_alternative_goes_first(self):
+        router = make_router()
+        router.record_success(router.primary, 2.0)
+        router.record_success(router.routes[2], 0.5)
+
+        assert [route.name for route in router.candidates()] == ["deepseek", "openai", "azure"]
+
+    def test_priority_strategy_keeps_configured_order(self):
+        router = make_router(strategy="priority")
+        router.record_success(router.routes[2], 0.1)
+
+        assert [route.name for route in router.candidates()] == ["openai", "azure", "deepseek"]
+
+
+class TestModelRouterFailover:
+    """Provider errors fail over; request errors reach the caller"""
+
+    def test_rejected_alternative_credentials_open_its_circuit(self):
+        router = make_router()
+        router.record_success(router.routes[1], 0.1)
+
+        def call(model):
+            if model == "azure":
+                raise HTTPError(401)
+            return f"answer from {model}"
+
+        assert router.run(call) == "answer from primary"
+        assert router.routes[1].health.state == OPEN
+        assert router.metrics["auth_failures"] == 1
+        assert router.run(call) == "answer from primary"
+
+    def test_rejected_primary_credentials_reach_the_caller(self):
+        router = make_router()
+
+        def call(model):
+            raise HTTPError(401)
+
+        with pytest.raises(HTTPError):
+            router.run(call)
+        assert router.primary.health.state != OPEN
+
+    def test_server_errors_fail_over(self):
+        router = make_router()
+
+        def call(model):
+            if model == "primary":
+                raise HTTPError(503)
+            return f"answer from {model}"
+
+        assert router.run(call) == "answer from azure"
+        assert router.metrics["failovers"] == 1
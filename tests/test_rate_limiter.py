@@ -0,0 +1,114 @@
+# Tests for the GCRA rate limiter and keyed rate limits
+
+import pytest
+
+from config.models import RateLimitConfig
+from src.websocket.rate_limiter import GCRALimiter, KeyedRateLimits, SlidingWindowLimiter, create_limiter
+
+
+class TestGCRALimiter:
+    """Generic Cell Rate Algorithm: one arrival time per key"""
+
+    def test_allows_burst_then_rejects(self):
+        limiter = GCRALimiter(rate=60, period=60.0, burst=3)
+
+        assert [limiter.allow("alice", now=100.0) for _ in range(4)] == [True, True, True, False]
+
+    def test_capacity_returns_at_the_configured_rate(self):
+        limiter = GCRALimiter(rate=60, period=60.0, burst=1)
+
+        assert limiter.allow("alice", now=100.0)
+        assert not limiter.allow("alice", now=100.5)
+        assert limiter.allow("alice", now=101.0)
+
+    def test_keys_are_limited_independently(self):
+        limiter = GCRALimiter(rate=1, period=60.0, burst=1)
+
+        assert limiter.allow("alice", now=0.0)
+        assert not limiter.allow("alice", now=1.0)
+        assert limiter.allow("bob", now=1.0)
+
+    def test_sweep_releases_keys_back_at_full_capacity(self):
+        limiter = GCRALimiter(rate=60, period=60.0, burst=1, stripes=1)
+        limiter.allow("alice", now=0.0)
+        limiter.allow("bob", now=10.0)
+
+        assert limiter.sweep(now=5.0) == 1
+        assert limiter.size == 1
+
+        # A swept key behaves exactly like a new one
+        assert limiter.allow("alice", now=5.0)
+
+    def test_sweep_visits_stripes_round_robin(self):
+        limiter = GCRALimiter(rate=60, period=60.0, burst=1, stripes=4)
+        for index in range(32):
+            limiter.allow(f"user-{index}", now=0.0)
+
+        removed = [limiter.sweep(now=10.0) for _ in range(limiter.stripe_count)]
+
+        assert sum(removed) == 32
+        assert limiter.size == 0
+
+    def test_invalid_rate(self):
+        with pytest.raises(ValueError):
+            GCRALimiter(rate=0)
+
+    def test_drain_changes_only_when_tracking(self):
+        untracked = GCRALimiter(rate=60)
+        untracked.allow("alice", now=0.0)
+        assert untracked.drain_changes() == {}
+
+        tracked = GCRALimiter(rate=60, period=60.0, track_changes=True)
+        tracked.allow("alice", now=0.0)
+        assert tracked.drain_changes() == {"alice": 1.0}
+        assert tracked.drain_changes() == {}
+
+    def test_requeued_changes_are_drained_again(self):
+        limiter = GCRALimiter(rate=60, period=60.0, track_changes=True)
+        limiter.allow("alice", now=0.0)
+        drained = limiter.drain_changes()
+
+        limiter.requeue_changes(drained)
+
+        assert limiter.drain_changes() == drained
+
+    def test_merge_keeps_the_more_restrictive_state(self):
+        limiter = GCRALimiter(rate=60, period=60.0, burst=1)
+        limiter.allow("alice", now=0.0)
+
+        limiter.merge({"alice": 30.0, "bob": 0.5})
+        limiter.merge({"alice": 10.0})
+
+        assert not limiter.allow("alice", now=20.0)
+        assert limiter.allow("alice", now=30.0)
+        assert limiter.allow("bob", now=0.5)
+
+
+class TestKeyedRateLimits:
+    """Named limits per user, IP and envelope type"""
+
+    def test_scopes_and_rejection_counts(self):
+        config = RateLimitConfig(
+            max_requests_per_minute=60,
+            burst_limit=1,
+            ip_requests_per_minute=60,
+            message_type_limits={"chat_message": 1}
+        )
+        limits = KeyedRateLimits(config)
+
+        assert limits.allow("type:chat_message", "alice", now=0.0)
+        assert not limits.allow("type:chat_message", "alice", now=1.0)
+        assert limits.allow("user", "alice", now=1.0)
+        assert limits.allow("unknown", "alice", now=1.0)
+
+        assert limits.stats["type:chat_message"]["rejected"] == 1
+        assert limits.stats["user"]["rejected"] == 0
+
+    def test_sliding_window_algorithm(self):
+        config = RateLimitConfig(algorithm="sliding_window", max_requests_per_minute=2, window_size=60)
+
+        limiter = create_limiter(config)
+
+        assert isinstance(limiter, SlidingWindowLimiter)
+        assert [limiter.allow("alice", now=t) for t in (0.0, 1.0, 2.0)] == [True, True, False]
+        assert limiter.allow("alice", now=61.0)
@@ -0,0 +1,109 @@
+# Tests for resumable sessions (SessionReplayStore and disconnect handling)
+
+from config.models import ReplayConfig, WebSocketConfig
+from src.logging_config import get_logger
+from src.websocket.replay import SessionReplayStore
+from src.websocket.server import InFlightRequest, WebSocketServer
+
+
+def make_store(**overrides) -> SessionReplayStore:
+    settings = {"ttl": 60, "max_sessions": 2}
+    settings.update(overrides)
+    return SessionReplayStore(ReplayConfig(**settings))
+
+
+def make_server(**replay) -> WebSocketServer:
+    """Server with only the state disconnect handling needs"""
+    server = WebSocketServer.__new__(WebSocketServer)
+    server.config = WebSocketConfig()
+    server.replay = make_store(**replay)
+    server.inflight_requests = {}
+    server.detached_requests = {}
+    server.user_sessions = {}
+    server.metrics = {
+        'requests_cancelled_disconnect': 0,
+        'requests_detached': 0,
+        'cancelled_request_seconds': 0.0
+    }
+    server.logger = get_logger("WebSocketServer")
+    return server
+
+
+class TestReplayStoreCapacity:
+    """Only detached sessions make room; connected ones are never dropped"""
+
+    def test_live_sessions_are_never_evicted(self):
+        store = make_store()
+        assert store.attach("s1", "alice")
+        assert store.attach("s2", "bob")
+
+        assert not store.attach("s3", "carol")
+        assert store.is_tracked("s1") and store.is_tracked("s2")
+        assert not store.is_tracked("s3")
+        assert store.stats["refused_sessions"] == 1
+
+    def test_longest_detached_session_is_evicted_first(self):
+        store = make_store(max_sessions=3)
+        for session_id in ("s1", "s2", "s3"):
+            store.attach(session_id, "alice")
+        store.detach("s2", now=100.0)
+        store.detach("s1", now=110.0)
+
+        assert store.attach("s4", "alice")
+
+        assert not store.is_tracked("s2")
+        assert store.is_tracked("s1") and store.is_tracked("s3")
+        assert store.stats["evicted_sessions"] == 1
+
+    def test_resumed_session_is_live_again(self):
+        store = make_store()
+        store.attach("s1", "alice")
+        store.attach("s2", "bob")
+        store.detach("s1", now=100.0)
+
+        assert store.resume("s1", "alice", None, now=110.0).resumed
+        assert not store.attach("s3", "carol")
+        assert store.stats["detached_sessions"] == 0
+
+    def test_sweep_drops_expired_detached_sessions(self):
+        store = make_store()
+        store.attach("s1", "alice")
+        store.attach("s2", "bob")
+        store.detach("s1", now=100.0)
+
+        assert store.sweep(now=161.0) == ["s1"]
+        assert store.is_tracked("s2")
+
+
+class TestDisconnectHandling:
+    """Requests outlive the socket only for clients that opted into resume"""
+
+    def test_request_is_cancelled_without_the_resume_capability(self):
+        server = make_server()
+        websocket = object()
+        assert not server._track_session("s1", "alice", requested=False)
+        request = InFlightRequest("r1", "s1", websocket)
+
+        assert not server._release_request(websocket, request)
+        assert request.cancel_event.is_set()
+        assert server.metrics["requests_cancelled_disconnect"] == 1
+
+    def test_request_is_detached_for_resuming_clients(self):
+        server = make_server()
+        websocket = object()
+        assert server._track_session("s1", "alice", requested=True)
+        request = InFlightRequest("r1", "s1", websocket)
+
+        assert server._release_request(websocket, request)
+        assert not request.cancel_event.is_set()
+        assert server.detached_requests["s1"]["r1"] is request
+
+    def test_request_is_cancelled_when_the_store_had_no_room(self):
+        server = make_server(max_sessions=1)
+        server._track_session("s1", "alice", requested=True)
+        assert not server._track_session("s2", "bob", requested=True)
+        websocket = object()
+        request = InFlightRequest("r1", "s2", websocket)
+
+        assert not server._release_request(websocket, request)
+        assert request.cancel_event.is_set()
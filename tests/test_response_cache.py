@@ -0,0 +1,144 @@
+# Tests for the response cache keying and tiers (ResponseCache)
+
+import os
+import tempfile
+
+import pytest
+
+from config.models import ResponseCacheConfig
+from src.websocket.qa_agent_adapter import QAAgentAdapter
+from src.websocket.response_cache import ResponseCache, cache_bypassed, fingerprint, normalize_prompt
+
+AGENT = ("gpt-4o-mini", fingerprint("Eres un asistente de QA"), fingerprint(["calculator", "web_search"]))
+
+
+def make_cache(**overrides) -> ResponseCache:
+    settings = {"enabled": True, "persistent": False}
+    settings.update(overrides)
+    return ResponseCache(ResponseCacheConfig(**settings))
+
+
+def make_adapter(cache: ResponseCache, stateless: bool) -> QAAgentAdapter:
+    """Adapter with an agent fingerprint but without building a real agent"""
+    adapter = QAAgentAdapter.__new__(QAAgentAdapter)
+    adapter.user_id = "websocket_user@qai.com"
+    adapter.response_cache = cache
+    adapter.cache_fingerprint = AGENT
+    adapter.stateless_agent = stateless
+    return adapter
+
+
+class TestResponseCacheKeys:
+    """Keys combine the prompt with the agent configuration"""
+
+    def test_normalized_prompts_share_a_key(self):
+        cache = make_cache()
+
+        assert cache.make_key("What is p95?", *AGENT) == cache.make_key("  what IS   p95 ", *AGENT)
+        assert normalize_prompt("¿Qué es p95?") == "qué es p95"
+
+    def test_raw_prompts_when_normalization_is_off(self):
+        cache = make_cache(normalize=False)
+
+        assert cache.make_key("What is p95?", *AGENT) != cache.make_key("what is p95", *AGENT)
+
+    def test_agent_configuration_changes_the_key(self):
+        cache = make_cache()
+        model_id, instructions_hash, tools_hash = AGENT
+        base = cache.make_key("What is p95?", *AGENT)
+
+        assert cache.make_key("What is p95?", "gpt-4o", instructions_hash, tools_hash) != base
+        assert cache.make_key("What is p95?", model_id, fingerprint("other"), tools_hash) != base
+        assert cache.make_key("What is p95?", model_id, instructions_hash, fingerprint([])) != base
+
+    def test_user_only_in_the_key_when_per_user(self):
+        shared = make_cache()
+        per_user = make_cache(per_user=True)
+
+        assert shared.make_key("q", *AGENT, user_id="alice") == shared.make_key("q", *AGENT, user_id="bob")
+        assert per_user.make_key("q", *AGENT, user_id="alice") != per_user.make_key("q", *AGENT, user_id="bob")
+
+    def test_bypass_metadata(self):
+        assert cache_bypassed({"cache": False})
+        assert cache_bypassed({"no_cache": True})
+        assert not cache_bypassed({"cache": True})
+        assert not cache_bypassed(None)
+
+
+class TestAdapterCacheKeys:
+    """The adapter only caches answers of stateless agents"""
+
+    def test_disabled_by_default(self):
+        assert ResponseCacheConfig().enabled is False
+
+    def test_stateless_agent_is_cached(self):
+        adapter = make_adapter(make_cache(), stateless=True)
+
+        assert adapter._cache_key("What is p95?", "alice", None) is not None
+
+    def test_stateful_agent_is_never_cached(self):
+        adapter = make_adapter(make_cache(), stateless=False)
+
+        assert adapter._cache_key("What is p95?", "alice", None) is None
+
+    def test_message_opt_out(self):
+        cache = make_cache()
+        adapter = make_adapter(cache, stateless=True)
+
+        assert adapter._cache_key("What is p95?", "alice", {"cache": False}) is None
+        assert cache.stats["bypassed"] == 1
+
+    def test_history_and_memories_make_an_agent_stateful(self):
+        assert QAAgentAdapter._is_stateless({"add_history_to_messages": False})
+        assert not QAAgentAdapter._is_stateless({"add_history_to_messages": True})
+        assert not QAAgentAdapter._is_stateless({"enable_user_memories": True})
+
+
+class TestResponseCacheTiers:
+    """Memory LRU with TTL, optionally backed by SQLite"""
+
+    @pytest.mark.asyncio
+    async def test_hit_counts_exact_and_normalized(self):
+        cache = make_cache()
+        key = cache.make_key("What is p95?", *AGENT)
+        await cache.put(key, "What is p95?", "The 95th percentile", latency=2.0)
+
+        assert await cache.get(key, "What is p95?") == "The 95th percentile"
+        assert await cache.get(key, "what is p95") == "The 95th percentile"
+
+        stats = cache.stats
+        assert (stats["exact_hits"], stats["normalized_hits"]) == (1, 1)
+        assert stats["saved_latency_seconds"] == 4.0
+
+    @pytest.mark.asyncio
+    async def test_expired_entry_is_a_miss(self):
+        cache = make_cache()
+        key = cache.make_key("q", *AGENT)
+        await cache.put(key, "q", "answer", latency=1.0)
+        cache._entries[key].expires_at = 0.0
+
+        assert await cache.get(key, "q") is None
+        assert cache.stats["expired"] == 1
+
+    @pytest.mark.asyncio
+    async def test_lru_bound(self):
+        cache = make_cache(max_entries=1)
+        await cache.put("first", "q1", "a1", latency=1.0)
+        await cache.put("second", "q2", "a2", latency=1.0)
+
+        assert await cache.get("first", "q1") is None
+        assert cache.stats["evictions"] == 1
+
+    @pytest.mark.asyncio
+    async def test_sqlite_tier_survives_a_restart(self):
+        with tempfile.TemporaryDirectory() as directory:
+            path = os.path.join(directory, "response_cache.db")
+            cache = make_cache(persistent=True, path=path)
+            key = cache.make_key("q", *AGENT)
+            await cache.put(key, "q", "answer", latency=1.0)
+            await cache.close()
+
+            restarted = make_cache(persistent=True, path=path)
+            assert await restarted.get(key, "q") == "answer"
+            assert restarted.stats["persistent_hits"] == 1
+            await restarted.close()
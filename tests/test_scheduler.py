@@ -0,0 +1,167 @@
+# Tests for chat admission control and weighted fair queuing (ChatScheduler)
+
+import asyncio
+
+import pytest
+
+from config.models import SchedulerConfig
+from src.websocket.scheduler import ChatScheduler, SchedulerRejectedError
+
+
+def make_scheduler(**overrides) -> ChatScheduler:
+    settings = {"max_in_flight": 1, "max_per_user": 1, "max_queued_per_user": 8, "max_queue_depth": 16}
+    settings.update(overrides)
+    return ChatScheduler(SchedulerConfig(**settings))
+
+
+async def hold_slot(scheduler: ChatScheduler, release: asyncio.Event, user_id: str = "holder") -> None:
+    async with scheduler.admit(user_id, role="viewer"):
+        await release.wait()
+
+
+async def record_admission(scheduler: ChatScheduler, order: list, name: str, user_id: str, role: str) -> None:
+    async with scheduler.admit(user_id, role=role):
+        order.append(name)
+        await asyncio.sleep(0)
+
+
+class TestChatSchedulerOrdering:
+    """Queued requests are dispatched by weighted virtual finish tag"""
+
+    @pytest.mark.asyncio
+    async def test_higher_weight_role_is_served_first(self):
+        scheduler = make_scheduler()
+        release = asyncio.Event()
+        order = []
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release))
+        await asyncio.sleep(0)
+
+        tasks = [
+            asyncio.ensure_future(record_admission(scheduler, order, "viewer-1", "vera", "viewer")),
+            asyncio.ensure_future(record_admission(scheduler, order, "viewer-2", "vera", "viewer")),
+            asyncio.ensure_future(record_admission(scheduler, order, "admin-1", "ada", "admin")),
+        ]
+        await asyncio.sleep(0)
+        assert scheduler.stats["queued"] == 3
+
+        release.set()
+        await asyncio.gather(holder, *tasks)
+
+        assert order == ["admin-1", "viewer-1", "viewer-2"]
+        assert scheduler.stats["in_flight"] == 0
+        assert scheduler.stats["completed"] == 4
+
+    @pytest.mark.asyncio
+    async def test_equal_roles_alternate_between_users(self):
+        scheduler = make_scheduler()
+        release = asyncio.Event()
+        order = []
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release))
+        await asyncio.sleep(0)
+
+        tasks = [
+            asyncio.ensure_future(record_admission(scheduler, order, f"busy-{i}", "busy", "viewer"))
+            for i in range(3)
+        ]
+        tasks.append(asyncio.ensure_future(record_admission(scheduler, order, "quiet-0", "quiet", "viewer")))
+        await asyncio.sleep(0)
+
+        release.set()
+        await asyncio.gather(holder, *tasks)
+
+        # The late user is not stuck behind the busy user's whole backlog
+        assert order == ["busy-0", "quiet-0", "busy-1", "busy-2"]
+
+
+class TestChatSchedulerAdmission:
+    """Queue limits and requests dropped before dispatch"""
+
+    @pytest.mark.asyncio
+    async def test_per_user_queue_limit(self):
+        scheduler = make_scheduler(max_queued_per_user=1)
+        release = asyncio.Event()
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release, user_id="alice"))
+        await asyncio.sleep(0)
+        queued = asyncio.ensure_future(record_admission(scheduler, [], "queued", "alice", "viewer"))
+        await asyncio.sleep(0)
+
+        with pytest.raises(SchedulerRejectedError) as error:
+            async with scheduler.admit("alice"):
+                pass
+        assert error.value.reason == "user_limit"
+
+        release.set()
+        await asyncio.gather(holder, queued)
+
+    @pytest.mark.asyncio
+    async def test_global_queue_limit(self):
+        scheduler = make_scheduler(max_queue_depth=1)
+        release = asyncio.Event()
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release))
+        await asyncio.sleep(0)
+        queued = asyncio.ensure_future(record_admission(scheduler, [], "queued", "bob", "viewer"))
+        await asyncio.sleep(0)
+
+        with pytest.raises(SchedulerRejectedError) as error:
+            async with scheduler.admit("carol"):
+                pass
+        assert error.value.reason == "queue_full"
+        assert scheduler.stats["rejected_queue_full"] == 1
+
+        release.set()
+        await asyncio.gather(holder, queued)
+
+    @pytest.mark.asyncio
+    async def test_disconnected_client_is_dropped_before_dispatch(self):
+        scheduler = make_scheduler()
+        release = asyncio.Event()
+        connected = [True]
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release))
+        await asyncio.sleep(0)
+
+        async def queued_request():
+            async with scheduler.admit("dave", is_alive=lambda: connected[0]):
+                raise AssertionError("dropped request reached the agent")
+
+        queued = asyncio.ensure_future(queued_request())
+        await asyncio.sleep(0)
+        connected[0] = False
+        release.set()
+
+        with pytest.raises(SchedulerRejectedError) as error:
+            await queued
+        assert error.value.reason == "client_gone"
+        await holder
+        assert scheduler.stats["dropped_client_gone"] == 1
+
+    @pytest.mark.asyncio
+    async def test_request_waiting_past_the_deadline_is_dropped(self):
+        scheduler = make_scheduler(queue_timeout=0.05)
+        release = asyncio.Event()
+
+        holder = asyncio.ensure_future(hold_slot(scheduler, release))
+        await asyncio.sleep(0)
+
+        with pytest.raises(SchedulerRejectedError) as error:
+            async with scheduler.admit("erin"):
+                pass
+        assert error.value.reason == "deadline"
+        assert scheduler.stats["queued"] == 0
+
+        release.set()
+        await holder
+
+    @pytest.mark.asyncio
+    async def test_disabled_scheduler_admits_everything(self):
+        scheduler = make_scheduler(enabled=False)
+
+        async with scheduler.admit("frank"):
+            async with scheduler.admit("frank"):
+                pass
+
+        assert scheduler.stats["admitted"] == 0
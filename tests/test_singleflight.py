@@ -0,0 +1,228 @@
+# Tests for coalescing identical concurrent requests (SingleFlight)
+
+import asyncio
+import threading
+
+import pytest
+
+from src.websocket.manager import WebSocketManager
+from src.websocket.singleflight import FlightCancelEvent, SingleFlight
+
+
+class TestSingleFlightSharing:
+    """Concurrent callers with one key share one call"""
+
+    @pytest.mark.asyncio
+    async def test_concurrent_callers_share_one_call(self):
+        flights = SingleFlight()
+        release = asyncio.Event()
+        calls = []
+
+        async def call(cancel_event):
+            calls.append(cancel_event)
+            await release.wait()
+            return "answer"
+
+        waiters = [asyncio.ensure_future(flights.do("key", call)) for _ in range(3)]
+        await asyncio.sleep(0)
+        assert flights.waiters("key") == 3
+
+        release.set()
+        assert await asyncio.gather(*waiters) == ["answer"] * 3
+        assert len(calls) == 1
+        assert flights.stats["coalesced"] == 2
+        assert flights.stats["in_flight"] == 0
+
+    @pytest.mark.asyncio
+    async def test_exception_reaches_every_waiter(self):
+        flights = SingleFlight()
+
+        async def call(cancel_event):
+            await asyncio.sleep(0)
+            raise RuntimeError("model failed")
+
+        results = await asyncio.gather(
+            flights.do("key", call), flights.do("key", call), return_exceptions=True
+        )
+
+        assert all(isinstance(result, RuntimeError) for result in results)
+
+    @pytest.mark.asyncio
+    async def test_finished_flight_is_forgotten(self):
+        flights = SingleFlight()
+        calls = [0]
+
+        async def call(cancel_event):
+            calls[0] += 1
+            return calls[0]
+
+        assert await flights.do("key", call) == 1
+        assert await flights.do("key", call) == 2
+
+
+class TestSingleFlightAbandonment:
+    """The shared call stops only when nobody wants its result"""
+
+    @pytest.mark.asyncio
+    async def test_one_cancelled_waiter_does_not_stop_the_call(self):
+        flights = SingleFlight()
+        release = asyncio.Event()
+
+        async def call(cancel_event):
+            await release.wait()
+            return "answer"
+
+        leaving = asyncio.ensure_future(flights.do("key", call))
+        staying = asyncio.ensure_future(flights.do("key", call))
+        await asyncio.sleep(0)
+
+        leaving.cancel()
+        await asyncio.sleep(0)
+        release.set()
+
+        assert await staying == "answer"
+        assert leaving.cancelled()
+        assert flights.stats["waiters_cancelled"] == 1
+        assert flights.stats["flights_abandoned"] == 0
+
+    @pytest.mark.asyncio
+    async def test_last_waiter_leaving_abandons_the_call(self):
+        flights = SingleFlight()
+        shared = []
+        call_cancelled = asyncio.Event()
+
+        async def call(cancel_event):
+            shared.append(cancel_event)
+            try:
+                await asyncio.Event().wait()
+            except asyncio.CancelledError:
+                call_cancelled.set()
+                raise
+
+        waiters = [asyncio.ensure_future(flights.do("key", call)) for _ in range(2)]
+        await asyncio.sleep(0)
+
+        for waiter in waiters:
+            waiter.cancel()
+        await asyncio.wait_for(call_cancelled.wait(), timeout=1.0)
+
+        assert shared[0].is_set()
+        assert flights.stats["flights_abandoned"] == 1
+        assert flights.stats["in_flight"] == 0
+
+    @pytest.mark.asyncio
+    async def test_call_stops_once_every_waiter_set_its_cancel_event(self):
+        flights = SingleFlight()
+        shared = []
+        release = asyncio.Event()
+
+        async def call(cancel_event):
+            shared.append(cancel_event)
+            await release.wait()
+            return "answer"
+
+        first_cancel, second_cancel = threading.Event(), threading.Event()
+        first = asyncio.ensure_future(flights.do("key", call, cancel_event=first_cancel))
+        second = asyncio.ensure_future(flights.do("key", call, cancel_event=second_cancel))
+        await asyncio.sleep(0.01)  # Let the shared call start
+
+        first_cancel.set()
+        assert not shared[0].is_set()
+
+        second_cancel.set()
+        assert shared[0].is_set()
+
+        release.set()
+        await asyncio.gather(first, second)
+
+    @pytest.mark.asyncio
+    async def test_waiter_without_cancel_event_keeps_the_call_going(self):
+        flights = SingleFlight()
+        shared = []
+        release = asyncio.Event()
+
+        async def call(cancel_event):
+            shared.append(cancel_event)
+            await release.wait()
+            return "answer"
+
+        cancel_event = threading.Event()
+        first = asyncio.ensure_future(flights.do("key", call, cancel_event=cancel_event))
+        second = asyncio.ensure_future(flights.do("key", call))
+        await asyncio.sleep(0.01)  # Let the shared call start
+
+        cancel_event.set()
+        assert not shared[0].is_set()
+
+        release.set()
+        await asyncio.gather(first, second)
+
+
+class TestFlightCancelEvent:
+    """Cancel signal combining abandonment and the waiters' own events"""
+
+    def test_removed_waiter_no_longer_counts(self):
+        signal = FlightCancelEvent()
+        stopped, running = threading.Event(), threading.Event()
+        stopped.set()
+        signal.add_waiter(stopped)
+        signal.add_waiter(running)
+        assert not signal.is_set()
+
+        signal.remove_waiter(running)
+        assert signal.is_set()
+
+    def test_no_waiters_is_not_a_stop_request(self):
+        signal = FlightCancelEvent()
+        assert not signal.is_set()
+
+        signal.set()
+        assert signal.is_set()
+
+
+class CountingAgent:
+    """Agent whose answers only depend on the prompt; counts the real calls"""
+
+    def __init__(self, stateless: bool):
+        self.stateless_agent = stateless
+        self.calls = []
+        self.release = asyncio.Event()
+
+    def request_key(self, message, user_id, metadata):
+        return message.lower()
+
+    async def process_message(self, message, session_id=None, user_id=None, metadata=None):
+        self.calls.append((user_id, session_id))
+        await self.release.wait()
+        return f"answer to {message}"
+
+
+class TestManagerCoalescing:
+    """Who may share an agent call depends on whether the agent keeps state"""
+
+    async def _ask_concurrently(self, agent, requests):
+        manager = WebSocketManager(agent)
+        tasks = [
+            asyncio.ensure_future(manager.process_chat_message("Is checkout down?", session_id, user_id))
+            for user_id, session_id in requests
+        ]
+        await asyncio.sleep(0.01)  # Let the shared calls start
+        agent.release.set()
+        return await asyncio.gather(*tasks)
+
+    @pytest.mark.asyncio
+    async def test_different_users_share_a_stateless_call(self):
+        agent = CountingAgent(stateless=True)
+
+        answers = await self._ask_concurrently(agent, [("alice", "s1"), ("bob", "s2")])
+
+        assert answers == ["answer to Is checkout down?"] * 2
+        assert len(agent.calls) == 1
+
+    @pytest.mark.asyncio
+    async def test_stateful_calls_are_shared_only_within_a_session(self):
+        agent = CountingAgent(stateless=False)
+
+        await self._ask_concurrently(agent, [("alice", "s1"), ("alice", "s1"), ("bob", "s2")])
+
+        assert sorted(agent.calls) == [("alice", "s1"), ("bob", "s2")]